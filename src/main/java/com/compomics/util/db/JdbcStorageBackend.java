@@ -0,0 +1,421 @@
+package com.compomics.util.db;
+
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Storage of the objects in a relational database accessed via JDBC: Derby by
+ * default, or SQLite. Every table contains a key column and a blob column. The
+ * statements are prepared once per table and reused. The connection is not
+ * shared between threads, the calls are therefore synchronized.
+ *
+ * @author Marc Vaudel
+ */
+public class JdbcStorageBackend implements StorageBackend {
+
+    /**
+     * The path to the database.
+     */
+    private final String path;
+    /**
+     * The connection.
+     */
+    private Connection dbConnection;
+    /**
+     * If true, SQLite is used as the database, if false Derby is used.
+     */
+    private boolean useSQLite;
+    /**
+     * The insertion statements indexed by table name.
+     */
+    private final HashMap<String, PreparedStatement> insertStatements = new HashMap<String, PreparedStatement>();
+    /**
+     * The update statements indexed by table name.
+     */
+    private final HashMap<String, PreparedStatement> updateStatements = new HashMap<String, PreparedStatement>();
+    /**
+     * The selection statements indexed by table name.
+     */
+    private final HashMap<String, PreparedStatement> selectStatements = new HashMap<String, PreparedStatement>();
+    /**
+     * The statements checking the presence of a key indexed by table name.
+     */
+    private final HashMap<String, PreparedStatement> containsStatements = new HashMap<String, PreparedStatement>();
+    /**
+     * The deletion statements indexed by table name.
+     */
+    private final HashMap<String, PreparedStatement> deleteStatements = new HashMap<String, PreparedStatement>();
+
+    /**
+     * Constructor. Establishes the connection to the database, if SQLite
+     * cannot be used, Derby is used instead.
+     *
+     * @param path the path to the database
+     * @param useSQLite if true, SQLite is used as the database, if false Derby
+     * is used
+     *
+     * @throws SQLException exception thrown whenever a problem occurred when
+     * establishing the connection to the database
+     */
+    public JdbcStorageBackend(String path, boolean useSQLite) throws SQLException {
+
+        this.path = path;
+        this.useSQLite = useSQLite;
+
+        if (useSQLite) {
+            try {
+                Class.forName("org.sqlite.JDBC");
+                dbConnection = DriverManager.getConnection("jdbc:sqlite:" + path); // @TODO: another instance of SQLite may have already booted the database. We need to check this first?
+            } catch (SQLException e) {
+                // try using Derby instead
+                this.useSQLite = false;
+            } catch (ClassNotFoundException ex) {
+                ex.printStackTrace();
+            }
+        }
+        if (!this.useSQLite) {
+            if (DerbyUtil.isActiveConnection(ObjectsDB.derbyConnectionID, path)) {
+                throw new IllegalArgumentException("Impossible to establish a Derby connection in " + path + ", connection to the folder already active.");
+            }
+            String url = "jdbc:derby:" + path + ";create=true";
+            dbConnection = DriverManager.getConnection(url);
+            DerbyUtil.addActiveConnection(ObjectsDB.derbyConnectionID, path);
+        }
+
+        // special fix for if derby breaks down and restarts in read only mode
+        if (dbConnection != null) {
+            dbConnection.setReadOnly(false);
+        }
+    }
+
+    /**
+     * Indicates whether SQLite is used.
+     *
+     * @return a boolean indicating whether SQLite is used
+     */
+    public boolean isSQLite() {
+        return useSQLite;
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        if (dbConnection == null) {
+            return false;
+        }
+        if (useSQLite) {
+            return true;
+        }
+        return DerbyUtil.isActiveConnection(ObjectsDB.derbyConnectionID, path);
+    }
+
+    @Override
+    public boolean supportsConcurrentReads() {
+        return false;
+    }
+
+    /**
+     * Returns the statement for the given table from the given map, prepares
+     * it if needed.
+     *
+     * @param statements the map of statements
+     * @param tableName the name of the table
+     * @param sql the SQL of the statement
+     *
+     * @return the prepared statement
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * preparing the statement
+     */
+    private PreparedStatement getStatement(HashMap<String, PreparedStatement> statements, String tableName, String sql) throws SQLException {
+        PreparedStatement statement = statements.get(tableName);
+        if (statement == null) {
+            statement = dbConnection.prepareStatement(sql);
+            statements.put(tableName, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Returns the bytes of the blob in the given column of the current row.
+     *
+     * @param results the results of a query
+     * @param column the index of the column
+     *
+     * @return the bytes of the blob
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading the results
+     */
+    private byte[] getBytes(ResultSet results, int column) throws SQLException {
+        if (useSQLite) {
+            return results.getBytes(column);
+        }
+        Blob blob = results.getBlob(column);
+        if (blob == null) {
+            return null;
+        }
+        return blob.getBytes(1, (int) blob.length());
+    }
+
+    @Override
+    public synchronized void createTable(String tableName) throws SQLException {
+        Statement stmt = dbConnection.createStatement();
+        try {
+            stmt.execute("CREATE table " + tableName + " ("
+                    + "NAME VARCHAR(" + ObjectsDB.VARCHAR_MAX_LENGTH + ") PRIMARY KEY,"
+                    + "MATCH_BLOB blob"
+                    + ")");
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @Override
+    public synchronized ArrayList<String> getTables() throws SQLException {
+
+        DatabaseMetaData dmd = dbConnection.getMetaData();
+        ArrayList<String> result = new ArrayList<String>();
+        ResultSet rs = dmd.getTables(null, null, null, null); //@TODO: not sure to which extend this is Derby dependent...
+
+        try {
+            while (rs.next()) {
+                String tempDbName = (String) rs.getObject("TABLE_NAME");
+                result.add(tempDbName);
+            }
+        } finally {
+            rs.close();
+        }
+
+        return result;
+    }
+
+    @Override
+    public synchronized void insert(String tableName, String key, byte[] value) throws SQLException {
+        PreparedStatement ps = getStatement(insertStatements, tableName, "INSERT INTO " + tableName + " VALUES (?, ?)");
+        ps.setString(1, key);
+        ps.setBytes(2, value);
+        ps.executeUpdate();
+        ps.clearParameters();
+    }
+
+    @Override
+    public synchronized void insert(String tableName, ArrayList<String> keys, ArrayList<byte[]> values) throws SQLException {
+        PreparedStatement ps = getStatement(insertStatements, tableName, "INSERT INTO " + tableName + " VALUES (?, ?)");
+        dbConnection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < keys.size(); i++) {
+                ps.setString(1, keys.get(i));
+                ps.setBytes(2, values.get(i));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            ps.clearParameters();
+            dbConnection.commit();
+        } finally {
+            dbConnection.setAutoCommit(true);
+        }
+    }
+
+    @Override
+    public synchronized void update(String tableName, String key, byte[] value) throws SQLException {
+        PreparedStatement ps = getStatement(updateStatements, tableName, "UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
+        ps.setBytes(1, value);
+        ps.setString(2, key);
+        ps.executeUpdate();
+        ps.clearParameters();
+    }
+
+    @Override
+    public synchronized void update(String tableName, ArrayList<String> keys, ArrayList<byte[]> values) throws SQLException {
+        PreparedStatement ps = getStatement(updateStatements, tableName, "UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
+        dbConnection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < keys.size(); i++) {
+                ps.setBytes(1, values.get(i));
+                ps.setString(2, keys.get(i));
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            ps.clearParameters();
+            dbConnection.commit();
+        } finally {
+            dbConnection.setAutoCommit(true);
+        }
+    }
+
+    @Override
+    public synchronized byte[] get(String tableName, String key) throws SQLException {
+        PreparedStatement ps = getStatement(selectStatements, tableName, "SELECT MATCH_BLOB FROM " + tableName + " WHERE NAME=?");
+        ps.setString(1, key);
+        ResultSet results = ps.executeQuery();
+        try {
+            if (results.next()) {
+                return getBytes(results, 1);
+            }
+            return null;
+        } finally {
+            results.close();
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(String tableName, String key) throws SQLException {
+        PreparedStatement ps = getStatement(containsStatements, tableName, "SELECT NAME FROM " + tableName + " WHERE NAME=?");
+        ps.setString(1, key);
+        ResultSet results = ps.executeQuery();
+        try {
+            return results.next();
+        } finally {
+            results.close();
+        }
+    }
+
+    @Override
+    public synchronized HashSet<String> getKeys(String tableName) throws SQLException {
+        HashSet<String> keys = new HashSet<String>();
+        Statement stmt = dbConnection.createStatement();
+        try {
+            ResultSet results = stmt.executeQuery("select NAME from " + tableName);
+            try {
+                while (results.next()) {
+                    keys.add(results.getString(1));
+                }
+            } finally {
+                results.close();
+            }
+        } finally {
+            stmt.close();
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized int count(String tableName) throws SQLException {
+        Statement stmt = dbConnection.createStatement();
+        try {
+            ResultSet results = stmt.executeQuery("select count(*) from " + tableName);
+            try {
+                results.next();
+                return results.getInt(1);
+            } finally {
+                results.close();
+            }
+        } finally {
+            stmt.close();
+        }
+    }
+
+    @Override
+    public synchronized Cursor getCursor(String tableName, final HashSet<String> keys) throws SQLException {
+
+        final Statement stmt = dbConnection.createStatement();
+        final ResultSet results;
+        try {
+            results = stmt.executeQuery("select * from " + tableName);
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+
+        return new Cursor() {
+
+            /**
+             * The number of requested keys found.
+             */
+            private int found = 0;
+
+            @Override
+            public boolean next() throws SQLException {
+                synchronized (JdbcStorageBackend.this) {
+                    if (keys == null) {
+                        return results.next();
+                    }
+                    while (found < keys.size() && results.next()) {
+                        if (keys.contains(results.getString(1))) {
+                            found++;
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            }
+
+            @Override
+            public String getKey() throws SQLException {
+                synchronized (JdbcStorageBackend.this) {
+                    return results.getString(1);
+                }
+            }
+
+            @Override
+            public byte[] getValue() throws SQLException {
+                synchronized (JdbcStorageBackend.this) {
+                    return getBytes(results, 2);
+                }
+            }
+
+            @Override
+            public void close() throws SQLException {
+                synchronized (JdbcStorageBackend.this) {
+                    try {
+                        results.close();
+                    } finally {
+                        stmt.close();
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public synchronized void delete(String tableName, String key) throws SQLException {
+        PreparedStatement ps = getStatement(deleteStatements, tableName, "DELETE FROM " + tableName + " WHERE NAME=?");
+        ps.setString(1, key);
+        ps.executeUpdate();
+        ps.clearParameters();
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+
+        if (dbConnection == null) {
+            return;
+        }
+
+        ArrayList<HashMap<String, PreparedStatement>> statementsMaps = new ArrayList<HashMap<String, PreparedStatement>>(5);
+        statementsMaps.add(insertStatements);
+        statementsMaps.add(updateStatements);
+        statementsMaps.add(selectStatements);
+        statementsMaps.add(containsStatements);
+        statementsMaps.add(deleteStatements);
+
+        try {
+            // if Derby was shut down, the connection is already closed
+            if (isActive()) {
+                for (HashMap<String, PreparedStatement> statements : statementsMaps) {
+                    for (PreparedStatement statement : statements.values()) {
+                        statement.close();
+                    }
+                }
+                dbConnection.close();
+                if (!useSQLite) {
+                    DerbyUtil.removeActiveConnection(ObjectsDB.derbyConnectionID, path);
+                }
+            }
+        } finally {
+            for (HashMap<String, PreparedStatement> statements : statementsMaps) {
+                statements.clear();
+            }
+            dbConnection = null;
+        }
+    }
+}
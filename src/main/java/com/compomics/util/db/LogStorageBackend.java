@@ -0,0 +1,742 @@
+package com.compomics.util.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Embedded log-structured storage of the objects, without JDBC. Every table
+ * is an append-only file of records: the key length and the value length as
+ * integers, followed by the key in UTF-8 and the value. A value length of -1
+ * marks a deleted key. The position of the latest value of every key is kept
+ * in memory and rebuilt from the file when opening the storage. Values are
+ * read using positional reads on read-only channels pooled per table so that
+ * any number of threads can read while another thread writes, and so that a
+ * thread interrupted while reading only closes its own channel. The writes of
+ * a table are synchronized, and a table with more obsolete than live data is
+ * compacted when the storage is closed. The written data are flushed to the disk when
+ * closing the storage.
+ *
+ * @author Marc Vaudel
+ */
+public class LogStorageBackend implements StorageBackend {
+
+    /**
+     * The name of the file listing the tables.
+     */
+    public static final String TABLES_FILE = "tables";
+    /**
+     * The name of the file locked while the storage is open.
+     */
+    public static final String LOCK_FILE = "lock";
+    /**
+     * The extension of the table files.
+     */
+    public static final String TABLE_EXTENSION = ".log";
+    /**
+     * The size of a record header in bytes.
+     */
+    private static final int HEADER_SIZE = 8;
+    /**
+     * The minimal size of a table file in bytes before considering a
+     * compaction.
+     */
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+    /**
+     * The folder of the storage.
+     */
+    private final File folder;
+    /**
+     * The tables indexed by normalized name.
+     */
+    private final ConcurrentHashMap<String, Table> tables = new ConcurrentHashMap<String, Table>();
+    /**
+     * The names of the tables in order of creation.
+     */
+    private final ArrayList<String> tableNames = new ArrayList<String>();
+    /**
+     * The file locked while the storage is open.
+     */
+    private RandomAccessFile lockFile;
+    /**
+     * The lock on the folder.
+     */
+    private FileLock folderLock;
+    /**
+     * Indicates whether the storage is open.
+     */
+    private volatile boolean active = false;
+
+    /**
+     * Constructor. Opens the storage in the given folder, creates it if
+     * needed.
+     *
+     * @param path the path to the folder of the storage
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * opening the storage
+     */
+    public LogStorageBackend(String path) throws SQLException {
+
+        folder = new File(path);
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new SQLException("Impossible to create the database folder " + path + ".");
+        }
+
+        try {
+            lockFile = new RandomAccessFile(new File(folder, LOCK_FILE), "rw");
+            try {
+                folderLock = lockFile.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                folderLock = null;
+            }
+            if (folderLock == null) {
+                closeFiles();
+                throw new SQLException("Impossible to open the database in " + path + ", the folder is already in use.");
+            }
+
+            File tablesFile = new File(folder, TABLES_FILE);
+            if (tablesFile.exists()) {
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(tablesFile)));
+                try {
+                    while (true) {
+                        String tableName;
+                        try {
+                            tableName = dis.readUTF();
+                        } catch (EOFException e) {
+                            break;
+                        }
+                        tables.put(tableName, new Table(getTableFile(tableNames.size())));
+                        tableNames.add(tableName);
+                    }
+                } finally {
+                    dis.close();
+                }
+            }
+        } catch (IOException e) {
+            for (Table table : tables.values()) {
+                try {
+                    table.close();
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                }
+            }
+            closeFiles();
+            throw new SQLException("An error occurred while opening the database in " + path + ".", e);
+        }
+
+        active = true;
+    }
+
+    /**
+     * Returns the file of the table of the given index.
+     *
+     * @param index the index of the table
+     *
+     * @return the file of the table
+     */
+    private File getTableFile(int index) {
+        return new File(folder, index + TABLE_EXTENSION);
+    }
+
+    /**
+     * Returns the name used to index a table. Like in SQL, quoted names are
+     * case sensitive and other names are upper cased.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the normalized name of the table
+     */
+    private static String normalizeTableName(String tableName) {
+        if (tableName.length() > 1 && tableName.startsWith("\"") && tableName.endsWith("\"")) {
+            return tableName.substring(1, tableName.length() - 1);
+        }
+        return tableName.toUpperCase();
+    }
+
+    /**
+     * Returns the table of the given name.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the table
+     *
+     * @throws SQLException exception thrown whenever the table is not found
+     */
+    private Table getTable(String tableName) throws SQLException {
+        Table table = tables.get(normalizeTableName(tableName));
+        if (table == null) {
+            throw new SQLException("Table " + tableName + " not found.");
+        }
+        return table;
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public boolean supportsConcurrentReads() {
+        return true;
+    }
+
+    @Override
+    public synchronized void createTable(String tableName) throws SQLException {
+        String name = normalizeTableName(tableName);
+        if (tables.containsKey(name)) {
+            throw new SQLException("Table " + tableName + " already exists.");
+        }
+        try {
+            Table table = new Table(getTableFile(tableNames.size()));
+            DataOutputStream dos = new DataOutputStream(new FileOutputStream(new File(folder, TABLES_FILE), true));
+            try {
+                dos.writeUTF(name);
+            } finally {
+                dos.close();
+            }
+            tables.put(name, table);
+            tableNames.add(name);
+        } catch (IOException e) {
+            throw new SQLException("An error occurred while creating table " + tableName + ".", e);
+        }
+    }
+
+    @Override
+    public synchronized ArrayList<String> getTables() throws SQLException {
+        return new ArrayList<String>(tableNames);
+    }
+
+    @Override
+    public void insert(String tableName, String key, byte[] value) throws SQLException {
+        update(tableName, key, value);
+    }
+
+    @Override
+    public void insert(String tableName, ArrayList<String> keys, ArrayList<byte[]> values) throws SQLException {
+        update(tableName, keys, values);
+    }
+
+    @Override
+    public void update(String tableName, String key, byte[] value) throws SQLException {
+        ArrayList<String> keys = new ArrayList<String>(1);
+        keys.add(key);
+        ArrayList<byte[]> values = new ArrayList<byte[]>(1);
+        values.add(value);
+        update(tableName, keys, values);
+    }
+
+    @Override
+    public void update(String tableName, ArrayList<String> keys, ArrayList<byte[]> values) throws SQLException {
+        try {
+            getTable(tableName).write(keys, values);
+        } catch (IOException e) {
+            throw new SQLException("An error occurred while writing in table " + tableName + ".", e);
+        }
+    }
+
+    @Override
+    public byte[] get(String tableName, String key) throws SQLException {
+        Table table = getTable(tableName);
+        Location location = table.index.get(key);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return table.read(location);
+        } catch (IOException e) {
+            throw new SQLException("An error occurred while reading table " + tableName + ".", e);
+        }
+    }
+
+    @Override
+    public boolean contains(String tableName, String key) throws SQLException {
+        return getTable(tableName).index.containsKey(key);
+    }
+
+    @Override
+    public HashSet<String> getKeys(String tableName) throws SQLException {
+        return new HashSet<String>(getTable(tableName).index.keySet());
+    }
+
+    @Override
+    public int count(String tableName) throws SQLException {
+        return getTable(tableName).index.size();
+    }
+
+    @Override
+    public Cursor getCursor(final String tableName, HashSet<String> keys) throws SQLException {
+
+        final Table table = getTable(tableName);
+        final Iterator<String> keysIterator = keys == null ? table.index.keySet().iterator() : keys.iterator();
+
+        return new Cursor() {
+
+            /**
+             * The current key.
+             */
+            private String key;
+            /**
+             * The location of the current value.
+             */
+            private Location location;
+
+            @Override
+            public boolean next() throws SQLException {
+                while (keysIterator.hasNext()) {
+                    key = keysIterator.next();
+                    location = table.index.get(key);
+                    if (location != null) {
+                        return true;
+                    }
+                }
+                key = null;
+                location = null;
+                return false;
+            }
+
+            @Override
+            public String getKey() throws SQLException {
+                return key;
+            }
+
+            @Override
+            public byte[] getValue() throws SQLException {
+                try {
+                    return table.read(location);
+                } catch (IOException e) {
+                    throw new SQLException("An error occurred while reading table " + tableName + ".", e);
+                }
+            }
+
+            @Override
+            public void close() throws SQLException {
+                key = null;
+                location = null;
+            }
+        };
+    }
+
+    @Override
+    public void delete(String tableName, String key) throws SQLException {
+        try {
+            getTable(tableName).delete(key);
+        } catch (IOException e) {
+            throw new SQLException("An error occurred while writing in table " + tableName + ".", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+
+        if (!active) {
+            return;
+        }
+        active = false;
+
+        IOException exception = null;
+        for (Table table : tables.values()) {
+            try {
+                table.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        tables.clear();
+        tableNames.clear();
+        closeFiles();
+
+        if (exception != null) {
+            throw new SQLException("An error occurred while closing the database in " + folder.getAbsolutePath() + ".", exception);
+        }
+    }
+
+    /**
+     * Releases the lock on the folder.
+     */
+    private void closeFiles() {
+        try {
+            if (folderLock != null) {
+                folderLock.release();
+                folderLock = null;
+            }
+            if (lockFile != null) {
+                lockFile.close();
+                lockFile = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The location of a value in a table file.
+     */
+    private static class Location {
+
+        /**
+         * The position of the value in the file.
+         */
+        final long position;
+        /**
+         * The length of the value in bytes.
+         */
+        final int length;
+
+        /**
+         * Constructor.
+         *
+         * @param position the position of the value in the file
+         * @param length the length of the value in bytes
+         */
+        Location(long position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A table: an append-only file and the location of the values of its
+     * keys.
+     */
+    private static class Table {
+
+        /**
+         * The file of the table.
+         */
+        private final File file;
+        /**
+         * The random access file used to write.
+         */
+        private RandomAccessFile randomAccessFile;
+        /**
+         * The channel used to write.
+         */
+        private FileChannel channel;
+        /**
+         * The read-only channels not in use.
+         */
+        private final ConcurrentLinkedQueue<FileChannel> readChannels = new ConcurrentLinkedQueue<FileChannel>();
+        /**
+         * Indicates whether the table was closed.
+         */
+        private volatile boolean closed = false;
+        /**
+         * The location of the current value of every key.
+         */
+        final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+        /**
+         * The size of the records in the file.
+         */
+        private long end = 0;
+        /**
+         * The size of the obsolete records in the file.
+         */
+        private long obsolete = 0;
+
+        /**
+         * Constructor. Opens the file of the table and indexes its records. A
+         * truncated record at the end of the file, left by an interrupted
+         * write, is removed.
+         *
+         * @param file the file of the table
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        Table(File file) throws IOException {
+
+            this.file = file;
+
+            // recover from an interruption of the compaction
+            File tempFile = getTempFile(file);
+            if (tempFile.exists()) {
+                if (file.exists()) {
+                    tempFile.delete();
+                } else if (!tempFile.renameTo(file)) {
+                    throw new IOException("Impossible to rename " + tempFile.getAbsolutePath() + " to " + file.getAbsolutePath() + ".");
+                }
+            }
+
+            if (file.exists()) {
+                long fileLength = file.length();
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+                try {
+                    while (end + HEADER_SIZE <= fileLength) {
+                        int keyLength = dis.readInt();
+                        int valueLength = dis.readInt();
+                        long recordLength = HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+                        if (keyLength < 0 || valueLength < -1 || end + recordLength > fileLength) {
+                            break;
+                        }
+                        byte[] keyBytes = new byte[keyLength];
+                        dis.readFully(keyBytes);
+                        String key = new String(keyBytes, "UTF-8");
+                        long toSkip = Math.max(valueLength, 0);
+                        while (toSkip > 0) {
+                            long skipped = dis.skip(toSkip);
+                            if (skipped <= 0) {
+                                throw new EOFException();
+                            }
+                            toSkip -= skipped;
+                        }
+                        Location previous;
+                        if (valueLength >= 0) {
+                            previous = index.put(key, new Location(end + HEADER_SIZE + keyLength, valueLength));
+                        } else {
+                            previous = index.remove(key);
+                            obsolete += recordLength;
+                        }
+                        if (previous != null) {
+                            obsolete += HEADER_SIZE + keyLength + previous.length;
+                        }
+                        end += recordLength;
+                    }
+                } finally {
+                    dis.close();
+                }
+                if (end < fileLength) {
+                    System.err.println("Removing " + (fileLength - end) + " bytes of incomplete data at the end of " + file.getAbsolutePath() + ".");
+                }
+            }
+
+            openWriteChannel();
+        }
+
+        /**
+         * Opens the channel used to write and removes the data written after
+         * the last complete record.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while opening the file
+         */
+        private void openWriteChannel() throws IOException {
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            channel = randomAccessFile.getChannel();
+            if (channel.size() > end) {
+                channel.truncate(end);
+            }
+        }
+
+        /**
+         * Closes the read-only channels not in use.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while closing the file
+         */
+        private void closeReadChannels() throws IOException {
+            FileChannel readChannel;
+            while ((readChannel = readChannels.poll()) != null) {
+                readChannel.close();
+            }
+        }
+
+        /**
+         * Reads a value.
+         *
+         * @param location the location of the value
+         *
+         * @return the value
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while reading the file
+         */
+        byte[] read(Location location) throws IOException {
+            if (closed) {
+                throw new IOException("The table " + file.getAbsolutePath() + " is closed.");
+            }
+            FileChannel readChannel = readChannels.poll();
+            if (readChannel == null) {
+                readChannel = new RandomAccessFile(file, "r").getChannel();
+            }
+            try {
+                byte[] value = new byte[location.length];
+                ByteBuffer buffer = ByteBuffer.wrap(value);
+                long position = location.position;
+                while (buffer.hasRemaining()) {
+                    int read = readChannel.read(buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("Unexpected end of file in " + file.getAbsolutePath() + ".");
+                    }
+                    position += read;
+                }
+                return value;
+            } finally {
+                if (readChannel.isOpen()) {
+                    readChannels.offer(readChannel);
+                    if (closed && readChannels.remove(readChannel)) {
+                        readChannel.close();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Appends records to the file and updates the index.
+         *
+         * @param keys the keys
+         * @param values the values, null for deleted keys
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        synchronized void write(ArrayList<String> keys, ArrayList<byte[]> values) throws IOException {
+
+            ArrayList<byte[]> keysBytes = new ArrayList<byte[]>(keys.size());
+            long size = 0;
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] keyBytes = keys.get(i).getBytes("UTF-8");
+                keysBytes.add(keyBytes);
+                byte[] value = values.get(i);
+                size += HEADER_SIZE + keyBytes.length + (value == null ? 0 : value.length);
+            }
+            if (size > Integer.MAX_VALUE) {
+                int half = keys.size() / 2;
+                write(new ArrayList<String>(keys.subList(0, half)), new ArrayList<byte[]>(values.subList(0, half)));
+                write(new ArrayList<String>(keys.subList(half, keys.size())), new ArrayList<byte[]>(values.subList(half, keys.size())));
+                return;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            Location[] locations = new Location[keys.size()];
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] keyBytes = keysBytes.get(i);
+                byte[] value = values.get(i);
+                buffer.putInt(keyBytes.length);
+                buffer.putInt(value == null ? -1 : value.length);
+                buffer.put(keyBytes);
+                if (value != null) {
+                    locations[i] = new Location(end + buffer.position(), value.length);
+                    buffer.put(value);
+                }
+            }
+            buffer.flip();
+
+            // a thread interrupted while writing closes the channel, reopen it and discard the partial record
+            if (!channel.isOpen()) {
+                randomAccessFile.close();
+                openWriteChannel();
+            }
+
+            long position = end;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+
+            // the index is updated once the data are written so that readers only see complete values
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                Location previous;
+                if (locations[i] != null) {
+                    previous = index.put(key, locations[i]);
+                } else {
+                    previous = index.remove(key);
+                    obsolete += HEADER_SIZE + keysBytes.get(i).length;
+                }
+                if (previous != null) {
+                    obsolete += HEADER_SIZE + keysBytes.get(i).length + previous.length;
+                }
+            }
+            end += size;
+        }
+
+        /**
+         * Deletes a key.
+         *
+         * @param key the key
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        synchronized void delete(String key) throws IOException {
+            if (index.containsKey(key)) {
+                ArrayList<String> keys = new ArrayList<String>(1);
+                keys.add(key);
+                ArrayList<byte[]> values = new ArrayList<byte[]>(1);
+                values.add(null);
+                write(keys, values);
+            }
+        }
+
+        /**
+         * Returns the temporary file used to compact the given table file.
+         *
+         * @param file the table file
+         *
+         * @return the temporary file
+         */
+        private static File getTempFile(File file) {
+            return new File(file.getParentFile(), file.getName() + ".tmp");
+        }
+
+        /**
+         * Closes the table, compacts the file beforehand if most of the
+         * records are obsolete.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        synchronized void close() throws IOException {
+
+            if (!channel.isOpen()) {
+                randomAccessFile.close();
+                openWriteChannel();
+            }
+
+            if (end >= MIN_COMPACTION_SIZE && obsolete > end / 2) {
+
+                File tempFile = getTempFile(file);
+                FileOutputStream fos = new FileOutputStream(tempFile);
+                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+                try {
+                    for (String key : index.keySet()) {
+                        byte[] keyBytes = key.getBytes("UTF-8");
+                        byte[] value = read(index.get(key));
+                        dos.writeInt(keyBytes.length);
+                        dos.writeInt(value.length);
+                        dos.write(keyBytes);
+                        dos.write(value);
+                    }
+                    dos.flush();
+                    fos.getFD().sync();
+                } finally {
+                    dos.close();
+                }
+
+                closed = true;
+                closeReadChannels();
+                channel.close();
+                randomAccessFile.close();
+                if (!file.delete() || !tempFile.renameTo(file)) {
+                    throw new IOException("Impossible to replace " + file.getAbsolutePath() + " by its compacted version " + tempFile.getAbsolutePath() + ".");
+                }
+
+            } else {
+                closed = true;
+                closeReadChannels();
+                channel.force(false);
+                channel.close();
+                randomAccessFile.close();
+            }
+
+            index.clear();
+        }
+    }
+}
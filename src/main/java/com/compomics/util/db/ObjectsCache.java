@@ -1,14 +1,17 @@
 package com.compomics.util.db;
 
-import com.compomics.util.maps.MapMutex;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An object cache can be combined to an ObjectDB to improve its performance. A
@@ -16,6 +19,15 @@ import java.util.concurrent.Semaphore;
  * serialized. The length of lists/maps in the cache shall stay independent from
  * the number of objects in cache.
  *
+ * The objects are stored in concurrent maps and can be read without locking.
+ * Every entry has an estimated weight, the serialized size of the object when
+ * known, the average size of the objects of the table otherwise. Objects are
+ * removed from the cache in the order they were added. Modified objects
+ * removed from the cache are written to the database in batches by a
+ * background thread, they remain available in the cache until written. When
+ * the background thread falls behind, the threads updating the cache write the
+ * objects themselves.
+ *
  * @author Marc Vaudel
  */
 public class ObjectsCache {
@@ -23,11 +35,17 @@ public class ObjectsCache {
     /**
      * Map of the databases for which this cache should be used.
      */
-    private HashMap<String, ObjectsDB> databases = new HashMap<String, ObjectsDB>();
+    private ConcurrentHashMap<String, ObjectsDB> databases = new ConcurrentHashMap<String, ObjectsDB>();
     /**
      * The cache size in number of matches.
      */
     private int cacheSize = 0;
+    /**
+     * The maximal weight of the cache, i.e. the estimated serialized size of
+     * the objects in bytes. If strictly positive and the memory management is
+     * not automated, it is used instead of the cache size.
+     */
+    private long maxWeight = 0;
     /**
      * Boolean indicating whether the memory management should be done
      * automatically. If true, the cache size will be extended to reach 99% of
@@ -41,19 +59,70 @@ public class ObjectsCache {
     /**
      * Map of the loaded matches. db &gt; table &gt; object key &gt; object.
      */
-    private HashMap<String, HashMap<String, HashMap<String, CacheEntry>>> loadedObjectsMap = new HashMap<String, HashMap<String, HashMap<String, CacheEntry>>>(1);
+    private ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>>> loadedObjectsMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>>>(1);
+    /**
+     * The entries in the order they were added to the cache. Entries removed
+     * from the cache are skipped when found in the queue.
+     */
+    private ConcurrentLinkedQueue<CacheEntry> loadedEntries = new ConcurrentLinkedQueue<CacheEntry>();
+    /**
+     * The number of entries in the cache.
+     */
+    private AtomicInteger nEntries = new AtomicInteger();
+    /**
+     * The estimated weight of the entries in the cache.
+     */
+    private AtomicLong weight = new AtomicLong();
+    /**
+     * The average weight of the objects of every table. db &gt; table &gt;
+     * average weight.
+     */
+    private ConcurrentHashMap<String, ConcurrentHashMap<String, Long>> averageWeights = new ConcurrentHashMap<String, ConcurrentHashMap<String, Long>>(1);
+    /**
+     * The weight used for the objects of tables of unknown average weight.
+     */
+    public static final long DEFAULT_WEIGHT = 1024;
+    /**
+     * The modified entries removed from the cache waiting to be written to the
+     * database.
+     */
+    private LinkedBlockingQueue<CacheEntry> pendingEntries = new LinkedBlockingQueue<CacheEntry>();
+    /**
+     * The number of entries waiting to be written to the database.
+     */
+    private AtomicInteger nPending = new AtomicInteger();
+    /**
+     * The estimated weight of the entries waiting to be written to the
+     * database.
+     */
+    private AtomicLong pendingWeight = new AtomicLong();
+    /**
+     * The maximal number of batches waiting to be written to the database
+     * before the threads updating the cache write the entries themselves.
+     */
+    public static final int MAX_PENDING_BATCHES = 4;
+    /**
+     * Time in seconds after which the idle write-behind thread stops.
+     */
+    private static final long WRITE_BEHIND_IDLE_TIME = 10;
+    /**
+     * The thread writing the entries removed from the cache, null if not
+     * running.
+     */
+    private Thread writeBehindThread = null;
     /**
-     * Mutex for the database maps.
+     * Mutex for the start and stop of the write-behind thread.
      */
-    private HashMap<String, MapMutex<String>> dbCacheMutexMap = new HashMap<String, MapMutex<String>>(1);
+    private final Object writeBehindMutex = new Object();
     /**
-     * List of the loaded objects with the most used matches in the end.
+     * The exception thrown while writing entries in the background, null if
+     * none.
      */
-    private LinkedBlockingDeque<String> loadedObjectsKeys = new LinkedBlockingDeque<String>();
+    private volatile Exception writeBehindException = null;
     /**
-     * Mutex for the edition of the object keys list.
+     * Mutex for the writing of entries to the database.
      */
-    private Semaphore loadedObjectKeysMutex = new Semaphore(1);
+    private Semaphore writingMutex = new Semaphore(1);
     /**
      * Separator used to concatenate strings.
      */
@@ -65,16 +134,11 @@ public class ObjectsCache {
     /**
      * Indicates whether the cache is read only.
      */
-    private boolean readOnly = false;
+    private volatile boolean readOnly = false;
     /**
      * Indicates whether the cache is being updated.
      */
-    private boolean updating = false;
-    /**
-     * Boolean indicating whether the cache is being saved to reduce the memory
-     * consumption.
-     */
-    private boolean reducingMemoryConsumption = false;
+    private volatile boolean updating = false;
 
     /**
      * Constructor.
@@ -120,6 +184,37 @@ public class ObjectsCache {
         this.cacheSize = cacheSize;
     }
 
+    /**
+     * Returns the maximal weight of the cache in bytes of serialized objects.
+     * Zero or less if the cache size in number of objects is used.
+     *
+     * @return the maximal weight of the cache
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Sets the maximal weight of the cache in bytes of serialized objects. If
+     * strictly positive and the memory management is not automated, the
+     * weight is used instead of the cache size in number of objects.
+     *
+     * @param maxWeight the maximal weight of the cache
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the estimated weight of the cache in bytes of serialized
+     * objects.
+     *
+     * @return the estimated weight of the cache
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
     /**
      * Returns the batch size in number of objects.
      *
@@ -176,7 +271,47 @@ public class ObjectsCache {
             throw new IllegalArgumentException("Database name (" + dbName + ") should not contain " + cacheSeparator);
         }
         databases.put(dbName, objectsDB);
-        loadedObjectsMap.put(dbName, new HashMap<String, HashMap<String, CacheEntry>>());
+        loadedObjectsMap.putIfAbsent(dbName, new ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>>());
+    }
+
+    /**
+     * Returns the map of the entries of the given table, null if not found.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     *
+     * @return the map of the entries of the given table
+     */
+    private ConcurrentHashMap<String, CacheEntry> getTableMap(String dbName, String tableName) {
+        ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
+        if (dbObjects != null) {
+            return dbObjects.get(tableName);
+        }
+        return null;
+    }
+
+    /**
+     * Marks an entry as removed from the cache and removes it from the map of
+     * its table.
+     *
+     * @param entry the entry
+     *
+     * @return a boolean indicating whether the entry was in the cache
+     */
+    private boolean removeEntry(CacheEntry entry) {
+        synchronized (entry) {
+            if (entry.removed) {
+                return false;
+            }
+            entry.removed = true;
+        }
+        ConcurrentHashMap<String, CacheEntry> tableObjects = getTableMap(entry.dbName, entry.tableName);
+        if (tableObjects != null) {
+            tableObjects.remove(entry.objectKey, entry);
+        }
+        nEntries.decrementAndGet();
+        weight.addAndGet(-entry.weight);
+        return true;
     }
 
     /**
@@ -190,19 +325,9 @@ public class ObjectsCache {
      */
     public void removeObject(String dbName, String tableName, String objectKey) throws InterruptedException {
         if (!readOnly) {
-            String cacheKey = getCacheKey(dbName, tableName, objectKey);
-            loadedObjectKeysMutex.acquire();
-            loadedObjectsKeys.remove(cacheKey);
-            loadedObjectKeysMutex.release();
-            HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
-            if (dbObjects != null) {
-                MapMutex<String> dbMutexMap = getMapMutex(dbName);
-                dbMutexMap.acquire(tableName);
-                HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
-                if (tableObjects != null) {
-                    tableObjects.remove(objectKey);
-                }
-                dbMutexMap.release(tableName);
+            CacheEntry entry = getEntry(dbName, tableName, objectKey);
+            if (entry != null) {
+                removeEntry(entry);
             }
         }
     }
@@ -219,12 +344,9 @@ public class ObjectsCache {
      * @return the entry of interest, null if not present in the cache
      */
     private CacheEntry getEntry(String dbName, String tableName, String objectKey) {
-        HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
-        if (dbObjects != null) {
-            HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
-            if (tableObjects != null) {
-                return tableObjects.get(objectKey);
-            }
+        ConcurrentHashMap<String, CacheEntry> tableObjects = getTableMap(dbName, tableName);
+        if (tableObjects != null) {
+            return tableObjects.get(objectKey);
         }
         return null;
     }
@@ -266,19 +388,8 @@ public class ObjectsCache {
         if (!readOnly) {
             CacheEntry entry = getEntry(dbName, tableName, objectKey);
             if (entry != null) {
-                MapMutex<String> dbMutexMap = getMapMutex(dbName);
-                dbMutexMap.acquire(tableName);
-                entry = getEntry(dbName, tableName, objectKey);
-                boolean result = false;
-                if (entry != null && !readOnly) {
-                    entry.setModified(true);
-                    entry.setObject(object);
-                    result = true;
-                }
-                dbMutexMap.release(tableName);
-                return result;
+                return entry.update(object);
             }
-            return false;
         }
         return false;
     }
@@ -303,38 +414,98 @@ public class ObjectsCache {
      * writing to the database
      */
     public void addObject(String dbName, String tableName, String objectKey, Object object, boolean modifiedOrNew, boolean updateCache) throws IOException, SQLException, InterruptedException {
+        addObject(dbName, tableName, objectKey, object, modifiedOrNew, updateCache, -1);
+    }
+
+    /**
+     * Adds an object to the cache. The object must not necessarily be in the
+     * database. If an object is already present with the same identifiers, it
+     * will be silently overwritten.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param objectKey the key of the object
+     * @param object the object to store in the cache
+     * @param modifiedOrNew true if the object is modified or new
+     * @param updateCache boolean indicating whether the cache should be updated
+     * @param serializedSize the size of the serialized object in bytes,
+     * negative if not known
+     *
+     * @throws IOException if an IOException occurs while writing to the
+     * database
+     * @throws SQLException if an SQLException occurs while writing to the
+     * database
+     * @throws java.lang.InterruptedException if a threading error occurs
+     * writing to the database
+     */
+    public void addObject(String dbName, String tableName, String objectKey, Object object, boolean modifiedOrNew, boolean updateCache, long serializedSize) throws IOException, SQLException, InterruptedException {
         if (!readOnly) {
             if (objectKey.contains(cacheSeparator)) {
                 throw new IllegalArgumentException("Object key (" + objectKey + ") should not contain " + cacheSeparator + ".");
             }
-            HashMap<String, HashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
-            MapMutex<String> dbMutexMap = getMapMutex(dbName);
-            dbMutexMap.acquire(tableName);
-            HashMap<String, CacheEntry> tableCache = dbCache.get(tableName);
+            ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
+            if (dbCache == null) {
+                throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+            }
+            ConcurrentHashMap<String, CacheEntry> tableCache = dbCache.get(tableName);
             if (tableCache == null) {
-                tableCache = dbCache.get(tableName);
-                if (tableCache == null) {
-                    if (tableName.contains(cacheSeparator)) {
-                        throw new IllegalArgumentException("Table name (" + tableName + ") should not contain " + cacheSeparator + ".");
-                    }
-                    tableCache = new HashMap<String, CacheEntry>(512);
-                    dbCache.put(tableName, tableCache);
+                if (tableName.contains(cacheSeparator)) {
+                    throw new IllegalArgumentException("Table name (" + tableName + ") should not contain " + cacheSeparator + ".");
+                }
+                tableCache = new ConcurrentHashMap<String, CacheEntry>(512);
+                ConcurrentHashMap<String, CacheEntry> previousTableCache = dbCache.putIfAbsent(tableName, tableCache);
+                if (previousTableCache != null) {
+                    tableCache = previousTableCache;
                 }
             }
-            if (!tableCache.containsKey(objectKey)) {
-                String key = getCacheKey(dbName, tableName, objectKey);
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.add(key);
-                loadedObjectKeysMutex.release();
+            long entryWeight = getWeight(dbName, tableName, serializedSize);
+            CacheEntry entry = new CacheEntry(dbName, tableName, objectKey, object, modifiedOrNew, entryWeight);
+            nEntries.incrementAndGet();
+            weight.addAndGet(entryWeight);
+            CacheEntry previousEntry = tableCache.put(objectKey, entry);
+            if (previousEntry != null) {
+                if (previousEntry.isModified()) {
+                    entry.setModified(true);
+                }
+                removeEntry(previousEntry);
             }
-            tableCache.put(objectKey, new CacheEntry(object, modifiedOrNew));
-            dbMutexMap.release(tableName);
+            loadedEntries.add(entry);
             if (updateCache) {
                 updateCache();
             }
         }
     }
 
+    /**
+     * Returns the weight to use for an object and updates the average weight
+     * of the table if the serialized size is known.
+     *
+     * @param dbName the name of the database
+     * @param tableName the name of the table
+     * @param serializedSize the size of the serialized object in bytes,
+     * negative if not known
+     *
+     * @return the weight to use for the object
+     */
+    private long getWeight(String dbName, String tableName, long serializedSize) {
+        ConcurrentHashMap<String, Long> dbWeights = averageWeights.get(dbName);
+        if (dbWeights == null) {
+            dbWeights = new ConcurrentHashMap<String, Long>();
+            ConcurrentHashMap<String, Long> previousWeights = averageWeights.putIfAbsent(dbName, dbWeights);
+            if (previousWeights != null) {
+                dbWeights = previousWeights;
+            }
+        }
+        Long average = dbWeights.get(tableName);
+        if (serializedSize < 0) {
+            return average == null ? DEFAULT_WEIGHT : average;
+        }
+        // exponential moving average, concurrent updates may be lost
+        long newAverage = average == null ? serializedSize : (15 * average + serializedSize) / 16;
+        dbWeights.put(tableName, newAverage);
+        return serializedSize;
+    }
+
     /**
      * Indicates whether the memory used by the application is lower than 99% of
      * the heap size.
@@ -393,52 +564,20 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void saveObjects(ArrayList<String> entryKeys, WaitingHandler waitingHandler, boolean clearEntries) throws IOException, SQLException, InterruptedException {
+    public void saveObjects(ArrayList<String> entryKeys, WaitingHandler waitingHandler, boolean clearEntries) throws IOException, SQLException, InterruptedException {
         if (!readOnly) {
             if (waitingHandler != null) {
                 waitingHandler.resetSecondaryProgressCounter();
-                if (clearEntries) {
-                    waitingHandler.setMaxSecondaryProgressCounter(3 * entryKeys.size());
-                } else {
-                    waitingHandler.setMaxSecondaryProgressCounter(2 * entryKeys.size());
-                }
+                waitingHandler.setMaxSecondaryProgressCounter(2 * entryKeys.size());
             }
-            // temporary map for batch saving
-            HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
-            HashMap<String, HashSet<String>> blockedTablesMap = new HashMap<String, HashSet<String>>(1);
+            ArrayList<CacheEntry> entries = new ArrayList<CacheEntry>(entryKeys.size());
             for (String entryKey : entryKeys) {
                 String[] splittedKey = getKeyComponents(entryKey);
-                String dbName = splittedKey[0];
-                String tableName = splittedKey[1];
-                String objectKey = splittedKey[2];
-                HashSet<String> blockedTables = blockedTablesMap.get(dbName);
-                if (blockedTables == null) {
-                    blockedTables = new HashSet<String>();
-                    blockedTablesMap.put(dbName, blockedTables);
-                }
-                if (!blockedTables.contains(tableName)) {
-                    MapMutex<String> mapMutex = getMapMutex(dbName);
-                    mapMutex.acquire(tableName);
-                    blockedTables.add(tableName);
-                }
-                CacheEntry entry = getEntry(dbName, tableName, objectKey);
-
+                CacheEntry entry = getEntry(splittedKey[0], splittedKey[1], splittedKey[2]);
                 if (entry == null) {
-                    throw new IllegalArgumentException("Object " + objectKey + " corresponding to entry " + entryKey + " not found in cache when saving.");
-                } else if (entry.isModified()) {
-                    HashMap<String, HashMap<String, Object>> dbMap = toSave.get(dbName);
-                    if (dbMap == null) {
-                        dbMap = new HashMap<String, HashMap<String, Object>>();
-                        toSave.put(dbName, dbMap);
-                    }
-                    HashMap<String, Object> tableMap = dbMap.get(tableName);
-                    if (tableMap == null) {
-                        tableMap = new HashMap<String, Object>();
-                        dbMap.put(tableName, tableMap);
-                    }
-                    tableMap.put(objectKey, entry.getObject());
+                    throw new IllegalArgumentException("Object " + splittedKey[2] + " corresponding to entry " + entryKey + " not found in cache when saving.");
                 }
-
+                entries.add(entry);
                 if (waitingHandler != null) {
                     waitingHandler.increaseSecondaryProgressCounter();
                     if (waitingHandler.isRunCanceled()) {
@@ -446,49 +585,7 @@ public class ObjectsCache {
                     }
                 }
             }
-            for (String dbName : toSave.keySet()) {
-                ObjectsDB objectsDB = databases.get(dbName);
-                for (String tableName : toSave.get(dbName).keySet()) {
-                    objectsDB.insertObjects(tableName, toSave.get(dbName).get(tableName), waitingHandler);
-                }
-            }
-            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
-                if (clearEntries) {
-                    for (String entryKey : entryKeys) {
-                        String[] splittedKey = getKeyComponents(entryKey);
-                        String dbName = splittedKey[0];
-                        String tableName = splittedKey[1];
-                        String objectKey = splittedKey[2];
-                        HashMap<String, HashMap<String, CacheEntry>> dbMap = loadedObjectsMap.get(dbName);
-                        if (dbMap != null) {
-                            HashMap<String, CacheEntry> tableMap = dbMap.get(tableName);
-                            if (tableMap != null) {
-                                tableMap.remove(objectKey);
-                                if (tableMap.isEmpty()) {
-                                    dbMap.remove(tableName);
-                                }
-                            }
-                            if (dbMap.isEmpty()) {
-                                loadedObjectsMap.remove(dbName);
-                            }
-                        }
-
-                        if (waitingHandler != null) {
-                            waitingHandler.increaseSecondaryProgressCounter();
-                            if (waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
-                    }
-                }
-            }
-            for (String dbName : blockedTablesMap.keySet()) {
-                HashSet<String> blockedTables = blockedTablesMap.get(dbName);
-                MapMutex<String> mapMutex = getMapMutex(dbName);
-                for (String blockedTable : blockedTables) {
-                    mapMutex.release(blockedTable);
-                }
-            }
+            writeEntries(entries, clearEntries, waitingHandler);
         }
     }
 
@@ -505,7 +602,7 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void saveObject(String entryKey) throws IOException, SQLException, InterruptedException {
+    public void saveObject(String entryKey) throws IOException, SQLException, InterruptedException {
         saveObject(entryKey, true);
     }
 
@@ -524,51 +621,185 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void saveObject(String entryKey, boolean clearEntry) throws IOException, SQLException, InterruptedException {
-        if (!readOnly) {
-            String[] splittedKey = getKeyComponents(entryKey);
-            String dbName = splittedKey[0];
-            String tableName = splittedKey[1];
-            String objectKey = splittedKey[2];
-            MapMutex<String> mapMutex = getMapMutex(dbName);
-            mapMutex.acquire(tableName);
-            CacheEntry entry = loadedObjectsMap.get(dbName).get(tableName).get(objectKey);
-            if (entry.isModified()) {
-                try {
-                    ObjectsDB objectsDB = databases.get(dbName);
-                    if (objectsDB == null) {
-                        throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+    public void saveObject(String entryKey, boolean clearEntry) throws IOException, SQLException, InterruptedException {
+        ArrayList<String> entryKeys = new ArrayList<String>(1);
+        entryKeys.add(entryKey);
+        saveObjects(entryKeys, null, clearEntry);
+    }
+
+    /**
+     * Writes the modified entries to the database. The entries removed from
+     * the cache or modified again while writing stay in the cache,
+     * respectively are queued for writing again.
+     *
+     * @param entries the entries to write
+     * @param clearEntries a boolean indicating whether the entries shall be
+     * cleared from the cache
+     * @param waitingHandler a waiting handler displaying progress to the user.
+     * Can be null. Progress will be displayed as secondary.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void writeEntries(ArrayList<CacheEntry> entries, boolean clearEntries, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
+
+        writingMutex.acquire();
+
+        try {
+            // temporary map for batch saving
+            HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
+            HashMap<CacheEntry, Integer> savedVersions = new HashMap<CacheEntry, Integer>(entries.size());
+
+            for (CacheEntry entry : entries) {
+                synchronized (entry) {
+                    if (entry.removed || !entry.modified) {
+                        continue;
+                    }
+                    HashMap<String, HashMap<String, Object>> dbMap = toSave.get(entry.dbName);
+                    if (dbMap == null) {
+                        dbMap = new HashMap<String, HashMap<String, Object>>();
+                        toSave.put(entry.dbName, dbMap);
+                    }
+                    HashMap<String, Object> tableMap = dbMap.get(entry.tableName);
+                    if (tableMap == null) {
+                        tableMap = new HashMap<String, Object>();
+                        dbMap.put(entry.tableName, tableMap);
                     }
-                    if (objectsDB.inDB(tableName, objectKey, false)) {
-                        objectsDB.updateObject(tableName, objectKey, entry.getObject(), false);
+                    tableMap.put(entry.objectKey, entry.object);
+                    savedVersions.put(entry, entry.version);
+                }
+            }
+
+            for (String dbName : toSave.keySet()) {
+                ObjectsDB objectsDB = databases.get(dbName);
+                if (objectsDB == null) {
+                    throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+                }
+                HashMap<String, HashMap<String, Object>> dbMap = toSave.get(dbName);
+                for (String tableName : dbMap.keySet()) {
+                    objectsDB.insertObjects(tableName, dbMap.get(tableName), waitingHandler);
+                }
+            }
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            for (CacheEntry entry : entries) {
+                boolean remove = false;
+                boolean requeue = false;
+                synchronized (entry) {
+                    if (entry.removed) {
+                        continue;
+                    }
+                    Integer savedVersion = savedVersions.get(entry);
+                    if (savedVersion == null || savedVersion == entry.version) {
+                        entry.modified = false;
+                        remove = clearEntries || entry.evicted;
                     } else {
-                        objectsDB.insertObject(tableName, objectKey, entry.getObject(), false);
+                        requeue = entry.evicted;
                     }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    throw new IOException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                    throw new SQLException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
                 }
+                if (remove) {
+                    removeEntry(entry);
+                } else if (requeue) {
+                    queueForWriting(entry);
+                }
+            }
+        } finally {
+            writingMutex.release();
+        }
+    }
+
+    /**
+     * Queues an entry for writing by the write-behind thread and starts the
+     * thread if needed.
+     *
+     * @param entry the entry to write
+     */
+    private void queueForWriting(CacheEntry entry) {
+        nPending.incrementAndGet();
+        pendingWeight.addAndGet(entry.weight);
+        pendingEntries.add(entry);
+        synchronized (writeBehindMutex) {
+            if (writeBehindThread == null) {
+                writeBehindThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeBehind();
+                    }
+                }, "ObjectsCache write-behind");
+                writeBehindThread.setDaemon(true);
+                writeBehindThread.start();
             }
-            if (clearEntry) {
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.remove(entryKey);
-                loadedObjectKeysMutex.release();
-                HashMap<String, HashMap<String, ObjectsCache.CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
-                HashMap<String, ObjectsCache.CacheEntry> tableCache = dbCache.get(tableName);
-                tableCache.remove(objectKey);
-                if (tableCache.isEmpty()) {
-                    dbCache.remove(tableName);
+        }
+    }
+
+    /**
+     * Takes a batch of entries queued for writing.
+     *
+     * @param first the first entry of the batch, can be null
+     *
+     * @return the batch of entries
+     */
+    private ArrayList<CacheEntry> takePendingBatch(CacheEntry first) {
+        ArrayList<CacheEntry> batch = new ArrayList<CacheEntry>(batchSize);
+        if (first != null) {
+            batch.add(first);
+        }
+        pendingEntries.drainTo(batch, batchSize - batch.size());
+        for (CacheEntry entry : batch) {
+            nPending.decrementAndGet();
+            pendingWeight.addAndGet(-entry.weight);
+        }
+        return batch;
+    }
+
+    /**
+     * Writes the entries queued for writing until the queue remains empty for
+     * the idle time.
+     */
+    private void writeBehind() {
+        while (true) {
+            try {
+                CacheEntry first = pendingEntries.poll(WRITE_BEHIND_IDLE_TIME, TimeUnit.SECONDS);
+                if (first == null) {
+                    synchronized (writeBehindMutex) {
+                        if (pendingEntries.isEmpty()) {
+                            writeBehindThread = null;
+                            return;
+                        }
+                    }
+                    continue;
+                }
+                ArrayList<CacheEntry> batch = takePendingBatch(first);
+                try {
+                    writeEntries(batch, false, null);
+                } catch (Exception e) {
+                    // keep the entries in the cache and report the error to the next caller
+                    for (CacheEntry entry : batch) {
+                        synchronized (entry) {
+                            entry.evicted = false;
+                        }
+                        loadedEntries.add(entry);
+                    }
+                    writeBehindException = e;
+                }
+            } catch (InterruptedException e) {
+                synchronized (writeBehindMutex) {
+                    writeBehindThread = null;
                 }
+                return;
             }
-            mapMutex.release(tableName);
         }
     }
 
     /**
-     * Updates the cache according to the memory settings.
+     * Writes all the entries queued for writing in the current thread and
+     * waits for the write-behind thread to finish writing its batch.
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
@@ -576,53 +807,106 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public void updateCache() throws IOException, SQLException, InterruptedException {
-        if (!readOnly && !updating) {
-            updateCacheSynchronized();
+    public void flushWriteBehind() throws IOException, SQLException, InterruptedException {
+        while (!pendingEntries.isEmpty()) {
+            writeEntries(takePendingBatch(null), false, null);
         }
+        writingMutex.acquire();
+        writingMutex.release();
+        checkWriteBehindException();
     }
 
     /**
-     * Updates the cache according to the memory settings.
+     * Throws the exception encountered while writing entries in the
+     * background, if any.
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
      * @throws IOException exception thrown whenever an error occurred while
      * writing the object
-     * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public synchronized void updateCacheSynchronized() throws IOException, SQLException, InterruptedException {
-        updating = true;
-        while ((!automatedMemoryManagement && loadedObjectsKeys.size() > cacheSize)
-                || (automatedMemoryManagement && !memoryCheck())) {
-            int toRemove = (int) (((double) loadedObjectsKeys.size()) * 0.25); // remove 25% of the objects from the cache
-            if (toRemove <= 1) {
-                loadedObjectKeysMutex.acquire();
-                String objectKey = loadedObjectsKeys.take();
-                loadedObjectKeysMutex.release();
-                saveObject(objectKey);
-            } else {
-                ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-                loadedObjectKeysMutex.release();
-                saveObjects(keysToRemove);
+    private void checkWriteBehindException() throws IOException, SQLException {
+        Exception e = writeBehindException;
+        if (e != null) {
+            writeBehindException = null;
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e instanceof SQLException) {
+                throw (SQLException) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
             }
-            if (loadedObjectsKeys.isEmpty()) {
+            throw new IOException("Error while writing the cache content to the database.", e);
+        }
+    }
+
+    /**
+     * Removes entries from the cache in the order they were added, until the
+     * given weight or number of entries was removed. The modified entries are
+     * queued for writing. If too many entries are queued, the entries are
+     * written by the calling thread.
+     *
+     * @param weightToRemove the weight to remove
+     * @param entriesToRemove the number of entries to remove
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void evict(long weightToRemove, int entriesToRemove) throws IOException, SQLException, InterruptedException {
+        long removedWeight = 0;
+        int removedEntries = 0;
+        while (removedWeight < weightToRemove || removedEntries < entriesToRemove) {
+            CacheEntry entry = loadedEntries.poll();
+            if (entry == null) {
                 break;
             }
+            boolean remove = false;
+            synchronized (entry) {
+                if (entry.removed || entry.evicted) {
+                    continue;
+                }
+                if (entry.modified) {
+                    entry.evicted = true;
+                } else {
+                    remove = true;
+                }
+            }
+            if (remove) {
+                removeEntry(entry);
+            } else {
+                queueForWriting(entry);
+            }
+            removedWeight += entry.weight;
+            removedEntries++;
+        }
+        while (nPending.get() > MAX_PENDING_BATCHES * batchSize) {
+            writeEntries(takePendingBatch(null), false, null);
         }
-        updating = false;
     }
 
     /**
-     * Reduces the memory consumption by saving the given share of cache
-     * content.
+     * Updates the cache according to the memory settings.
      *
-     * @param share the share to be saved, 0.25 means that 25% of the hits will
-     * be saved
-     * @param waitingHandler a waiting handler on which the progress will be
-     * displayed as secondary progress. can be null
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    public void updateCache() throws IOException, SQLException, InterruptedException {
+        if (!readOnly && !updating) {
+            updateCacheSynchronized();
+        }
+    }
+
+    /**
+     * Updates the cache according to the memory settings. In automated memory
+     * management mode, a quarter of the weight of the cache is removed when
+     * the memory is low. Otherwise entries are removed until the cache is
+     * within the maximal weight, or cache size if no weight is set.
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
@@ -630,15 +914,33 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    public void reduceMemoryConsumption(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
-        if (!reducingMemoryConsumption) {
-            reduceMemoryConsumptionSynchronized(share, waitingHandler);
+    public synchronized void updateCacheSynchronized() throws IOException, SQLException, InterruptedException {
+        updating = true;
+        try {
+            checkWriteBehindException();
+            if (automatedMemoryManagement) {
+                if (!memoryCheck()) {
+                    evict((weight.get() - pendingWeight.get()) / 4, 1);
+                }
+            } else if (maxWeight > 0) {
+                long excess = weight.get() - pendingWeight.get() - maxWeight;
+                if (excess > 0) {
+                    evict(excess, 1);
+                }
+            } else {
+                int excess = nEntries.get() - nPending.get() - cacheSize;
+                if (excess > 0) {
+                    evict(0, excess);
+                }
+            }
+        } finally {
+            updating = false;
         }
     }
 
     /**
      * Reduces the memory consumption by saving the given share of cache
-     * content.
+     * content. The modified objects are written in the background.
      *
      * @param share the share to be saved, 0.25 means that 25% of the hits will
      * be saved
@@ -651,15 +953,11 @@ public class ObjectsCache {
      * writing the object
      * @throws java.lang.InterruptedException if the thread is interrupted
      */
-    private synchronized void reduceMemoryConsumptionSynchronized(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
-        reducingMemoryConsumption = true;
-        int toRemove = (int) (share * loadedObjectsKeys.size());
-        ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-        loadedObjectKeysMutex.acquire();
-        loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-        loadedObjectKeysMutex.release();
-        saveObjects(keysToRemove, waitingHandler);
-        reducingMemoryConsumption = false;
+    public void reduceMemoryConsumption(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
+        if (!readOnly) {
+            checkWriteBehindException();
+            evict((long) (share * (weight.get() - pendingWeight.get())), 1);
+        }
     }
 
     /**
@@ -689,69 +987,22 @@ public class ObjectsCache {
      */
     public synchronized void saveCache(WaitingHandler waitingHandler, boolean emptyCache) throws IOException, SQLException, InterruptedException {
 
-        if (waitingHandler != null) {
-            waitingHandler.setMaxSecondaryProgressCounter((loadedObjectsKeys.size() * 2) + 1);
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setSecondaryProgressCounter(0);
-        }
-
-        // add the objects to the database
-        for (String dbName : loadedObjectsMap.keySet()) {
-
-            ObjectsDB objectsDB = databases.get(dbName);
-
-            if (objectsDB == null) {
-                throw new IllegalStateException("Database " + dbName + " not loaded in cache");
-            }
-            for (String tableName : loadedObjectsMap.get(dbName).keySet()) {
-                MapMutex<String> mapMutex = getMapMutex(dbName);
-                mapMutex.acquire(tableName);
-
-                HashMap<String, CacheEntry> data = loadedObjectsMap.get(dbName).get(tableName);
-                HashMap<String, Object> objectsToStore = new HashMap<String, Object>(data.size());
+        flushWriteBehind();
 
-                for (String objectKey : data.keySet()) {
-                    CacheEntry entry = data.get(objectKey);
-                    if (entry.isModified()) {
-                        objectsToStore.put(objectKey, entry.getObject());
-                    }
-
-                    if (waitingHandler != null) {
-                        waitingHandler.increaseSecondaryProgressCounter();
-                        if (waitingHandler.isRunCanceled()) {
-                            return;
-                        }
-                    }
-                }
-
-                objectsDB.insertObjects(tableName, objectsToStore, waitingHandler);
-
-                mapMutex.release(tableName);
+        ArrayList<CacheEntry> entries = new ArrayList<CacheEntry>(nEntries.get());
+        for (ConcurrentHashMap<String, ConcurrentHashMap<String, CacheEntry>> dbMap : loadedObjectsMap.values()) {
+            for (ConcurrentHashMap<String, CacheEntry> tableMap : dbMap.values()) {
+                entries.addAll(tableMap.values());
             }
         }
 
-        if (emptyCache && !readOnly) {
-            loadedObjectsMap.clear();
-            loadedObjectKeysMutex.acquire();
-            loadedObjectsKeys.clear();
-            loadedObjectKeysMutex.release();
+        if (waitingHandler != null) {
+            waitingHandler.setMaxSecondaryProgressCounter(entries.size() + 1);
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setSecondaryProgressCounter(0);
         }
-    }
 
-    /**
-     * Returns the cache key which will index an object based on its db name,
-     * table name and object key.
-     *
-     * @param dbName the DB name
-     * @param tableName the table name
-     * @param objectKey the object key
-     * @return the cache key which will index an object based on its db name,
-     * table name and object key
-     */
-    private String getCacheKey(String dbName, String tableName, String objectKey) {
-        StringBuilder stringBuilder = new StringBuilder(2 * cacheSeparator.length() + dbName.length() + tableName.length() + objectKey.length());
-        stringBuilder.append(dbName).append(cacheSeparator).append(tableName).append(cacheSeparator).append(objectKey);
-        return stringBuilder.toString();
+        writeEntries(entries, emptyCache && !readOnly, waitingHandler);
     }
 
     /**
@@ -771,7 +1022,7 @@ public class ObjectsCache {
      * @return a boolean indicating whether the cache is empty
      */
     public boolean isEmpty() {
-        return loadedObjectsKeys.isEmpty();
+        return nEntries.get() == 0;
     }
 
     /**
@@ -784,62 +1035,68 @@ public class ObjectsCache {
         this.readOnly = readOnly;
     }
 
-    /**
-     * Adds a map mutex to the dbCacheMutexMap.
-     *
-     * @param dbName the name of the database
-     *
-     * @return the map mutex corresponding to the database
-     */
-    private synchronized MapMutex<String> addMapMutex(String dbName) {
-        MapMutex<String> mapMutex = dbCacheMutexMap.get(dbName);
-        if (mapMutex == null) {
-            mapMutex = new MapMutex<String>();
-            dbCacheMutexMap.put(dbName, mapMutex);
-        }
-        return mapMutex;
-    }
-
-    /**
-     * Returns the map mutex for the given database.
-     *
-     * @param dbName the name of the database
-     *
-     * @return the map mutex
-     */
-    private MapMutex<String> getMapMutex(String dbName) {
-        MapMutex<String> dbMutexMap = dbCacheMutexMap.get(dbName);
-        if (dbMutexMap == null) {
-            dbMutexMap = addMapMutex(dbName);
-        }
-        return dbMutexMap;
-    }
-
     /**
      * Class representing a cache entry.
      */
-    private class CacheEntry {
+    private static class CacheEntry {
 
+        /**
+         * The name of the database of the object.
+         */
+        final String dbName;
+        /**
+         * The name of the table of the object.
+         */
+        final String tableName;
+        /**
+         * The key of the object.
+         */
+        final String objectKey;
+        /**
+         * The estimated weight of the object.
+         */
+        final long weight;
         /**
          * The object of this entry.
          */
-        private Object object;
+        private volatile Object object;
         /**
          * A boolean indicating whether this entry is modified when compared to
          * the version of the database. Only modified entries will be saved when
          * the cache is emptied.
          */
         private boolean modified;
+        /**
+         * The version of the object, incremented at every update.
+         */
+        private int version = 0;
+        /**
+         * A boolean indicating whether the entry was selected for removal and
+         * is waiting to be written to the database.
+         */
+        private boolean evicted = false;
+        /**
+         * A boolean indicating whether the entry was removed from the cache.
+         */
+        private boolean removed = false;
 
         /**
          * Constructor.
          *
+         * @param dbName the name of the database of the object
+         * @param tableName the name of the table of the object
+         * @param objectKey the key of the object
          * @param object the object of the entry
          * @param modified boolean indicating whether the entry is modified
+         * @param weight the estimated weight of the object
          */
-        public CacheEntry(Object object, boolean modified) {
+        public CacheEntry(String dbName, String tableName, String objectKey, Object object, boolean modified, long weight) {
+            this.dbName = dbName;
+            this.tableName = tableName;
+            this.objectKey = objectKey;
             this.object = object;
             this.modified = modified;
+            this.weight = weight;
         }
 
         /**
@@ -849,7 +1106,7 @@ public class ObjectsCache {
          * @return a boolean indicating whether the object is modified when
          * compared to the version in the database
          */
-        public boolean isModified() {
+        public synchronized boolean isModified() {
             return modified;
         }
 
@@ -860,7 +1117,7 @@ public class ObjectsCache {
          * @param modified a boolean indicating whether the object is modified
          * when compared to the version in the database
          */
-        public void setModified(boolean modified) {
+        public synchronized void setModified(boolean modified) {
             this.modified = modified;
         }
 
@@ -874,12 +1131,21 @@ public class ObjectsCache {
         }
 
         /**
-         * Sets the object of this cache entry.
+         * Sets the object of this entry and marks it as modified. Returns
+         * false if the entry was removed from the cache.
          *
          * @param object the object for this entry
+         *
+         * @return a boolean indicating whether the entry was updated
          */
-        public void setObject(Object object) {
+        public synchronized boolean update(Object object) {
+            if (removed) {
+                return false;
+            }
             this.object = object;
+            modified = true;
+            version++;
+            return true;
         }
     }
 }
@@ -0,0 +1,52 @@
+package com.compomics.util.db;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Binary encoding of objects used by an ObjectsDB in place of Java
+ * serialization for the classes it supports. The encoded objects must be
+ * distinguishable from Java serialized objects, i.e. not start with the Java
+ * serialization magic number 0xACED.
+ *
+ * @author Marc Vaudel
+ */
+public interface ObjectsCodec extends Serializable {
+
+    /**
+     * Encodes an object. Returns null if the object is not supported, in
+     * which case it is Java serialized.
+     *
+     * @param object the object to encode
+     *
+     * @return the encoded object, null if not supported
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * encoding the object
+     */
+    public byte[] encode(Object object) throws IOException;
+
+    /**
+     * Indicates whether the given bytes were encoded by this codec.
+     *
+     * @param bytes the bytes read from the database
+     *
+     * @return a boolean indicating whether the given bytes were encoded by
+     * this codec
+     */
+    public boolean canDecode(byte[] bytes);
+
+    /**
+     * Decodes an object.
+     *
+     * @param bytes the encoded object
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding the object
+     * @throws ClassNotFoundException exception thrown whenever the class of an
+     * object embedded using Java serialization was not found
+     */
+    public Object decode(byte[] bytes) throws IOException, ClassNotFoundException;
+}
@@ -3,15 +3,16 @@ package com.compomics.util.db;
 import com.compomics.util.Util;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.*;
-import java.sql.*;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.concurrent.Semaphore;
-import javax.sql.rowset.serial.SerialBlob;
 
 /**
- * A database which can easily be used to store objects.
+ * A database which can easily be used to store objects. The objects are
+ * serialized and saved using a storage backend: a Derby database by default,
+ * or an embedded log-structured key-value store supporting concurrent reads.
  *
  * @author Marc Vaudel
  */
@@ -30,9 +31,23 @@ public class ObjectsDB implements Serializable {
      */
     private String path;
     /**
-     * The connection, shall not be accessed outside this class.
+     * The storage backend, shall not be accessed outside this class.
      */
-    private Connection dbConnection;
+    private transient StorageBackend storageBackend;
+    /**
+     * The type of storage used by this database. Will be null for projects
+     * using Derby made with older versions.
+     */
+    private StorageType storageType;
+    /**
+     * The type of storage used by default for new databases.
+     */
+    private static StorageType defaultStorageType = StorageType.DERBY;
+    /**
+     * The codec used to encode the supported objects instead of Java
+     * serialization, null if not set.
+     */
+    private ObjectsCodec objectsCodec = null;
     /**
      * The maximal length of a table name.
      */
@@ -156,7 +171,22 @@ public class ObjectsDB implements Serializable {
     public static final String derbyConnectionID = "objectsDB";
 
     /**
-     * Constructor.
+     * The types of storage backend available.
+     */
+    public enum StorageType {
+
+        /**
+         * Derby database accessed via JDBC.
+         */
+        DERBY,
+        /**
+         * Embedded log-structured key-value store, see LogStorageBackend.
+         */
+        LOG
+    }
+
+    /**
+     * Constructor using the default storage type.
      *
      * @param folder absolute path of the folder where to establish the database
      * @param dbName name of the database
@@ -174,11 +204,196 @@ public class ObjectsDB implements Serializable {
      * threading error occurred while establishing the connection
      */
     public ObjectsDB(String folder, String dbName, boolean deleteOldDatabase, ObjectsCache objectsCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        this(folder, dbName, deleteOldDatabase, objectsCache, defaultStorageType);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param folder absolute path of the folder where to establish the database
+     * @param dbName name of the database
+     * @param deleteOldDatabase if true, tries to delete the old database
+     * @param objectsCache a cache to store objects without interacting with the
+     * database
+     * @param storageType the type of storage to use
+     *
+     * @throws SQLException exception thrown whenever a problem occurred when
+     * establishing the connection to the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while establishing the connection
+     */
+    public ObjectsDB(String folder, String dbName, boolean deleteOldDatabase, ObjectsCache objectsCache, StorageType storageType) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         this.dbName = dbName;
+        this.storageType = storageType;
         objectsCache.addDb(this);
         establishConnection(folder, deleteOldDatabase, objectsCache);
     }
 
+    /**
+     * Returns the type of storage used by this database.
+     *
+     * @return the type of storage used by this database
+     */
+    public StorageType getStorageType() {
+        if (storageType == null) { // Backward compatibility for projects made before the storage types were introduced
+            return StorageType.DERBY;
+        }
+        return storageType;
+    }
+
+    /**
+     * Returns the type of storage used by default for new databases.
+     *
+     * @return the type of storage used by default for new databases
+     */
+    public static StorageType getDefaultStorageType() {
+        return defaultStorageType;
+    }
+
+    /**
+     * Sets the type of storage used by default for new databases.
+     *
+     * @param storageType the type of storage used by default for new databases
+     */
+    public static void setDefaultStorageType(StorageType storageType) {
+        defaultStorageType = storageType;
+    }
+
+    /**
+     * Acquires the database mutex before reading if the storage backend does
+     * not support concurrent reads.
+     *
+     * @return a boolean indicating whether the mutex was acquired and must be
+     * released
+     *
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred while acquiring the mutex
+     */
+    private boolean acquireReadMutex() throws InterruptedException {
+        if (storageBackend.supportsConcurrentReads()) {
+            return false;
+        }
+        dbMutex.acquire();
+        return true;
+    }
+
+    /**
+     * Releases the database mutex if acquired by acquireReadMutex.
+     *
+     * @param acquired a boolean indicating whether the mutex was acquired
+     */
+    private void releaseReadMutex(boolean acquired) {
+        if (acquired) {
+            dbMutex.release();
+        }
+    }
+
+    /**
+     * Returns the codec used to encode the supported objects instead of Java
+     * serialization, null if not set.
+     *
+     * @return the codec used to encode the objects
+     */
+    public ObjectsCodec getObjectsCodec() {
+        return objectsCodec;
+    }
+
+    /**
+     * Sets the codec used to encode the supported objects instead of Java
+     * serialization. Objects already stored remain readable.
+     *
+     * @param objectsCodec the codec used to encode the objects
+     */
+    public void setObjectsCodec(ObjectsCodec objectsCodec) {
+        this.objectsCodec = objectsCodec;
+    }
+
+    /**
+     * Serializes an object using the codec if it supports the object, Java
+     * serialization otherwise.
+     *
+     * @param object the object
+     *
+     * @return the serialized object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * serializing the object
+     */
+    private byte[] serialize(Object object) throws IOException {
+        if (objectsCodec != null) {
+            byte[] bytes = objectsCodec.encode(object);
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            try {
+                oos.writeObject(object);
+            } finally {
+                oos.close();
+            }
+        } finally {
+            bos.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Deserializes an object using the codec if it was encoded by it, Java
+     * deserialization otherwise.
+     *
+     * @param bytes the serialized object
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * deserializing the object
+     * @throws ClassNotFoundException exception thrown whenever the class of
+     * the object is not found
+     */
+    private Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (objectsCodec != null && objectsCodec.canDecode(bytes)) {
+            return objectsCodec.decode(bytes);
+        }
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the size of an object in the debug content file.
+     *
+     * @param tableName the name of the table
+     * @param objectKey the key of the object
+     * @param object the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void writeDebugContent(String tableName, String objectKey, Object object) throws IOException {
+        File debugObjectFile = new File(debugFolder, "debugMatch");
+        FileOutputStream fos = new FileOutputStream(debugObjectFile);
+        BufferedOutputStream debugBos = new BufferedOutputStream(fos);
+        ObjectOutputStream debugOos = new ObjectOutputStream(debugBos);
+        debugOos.writeObject(object);
+        debugOos.close();
+        debugBos.close();
+        fos.close();
+        long size = debugObjectFile.length();
+
+        debugContentWriter.write(tableName + "\t" + objectKey + "\t" + size + "\n");
+        debugContentWriter.flush();
+    }
+
     /**
      * Returns the database name.
      *
@@ -221,20 +436,15 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println(System.currentTimeMillis() + " Inserting table, table: " + tableName);
         }
-        Statement stmt = dbConnection.createStatement();
         dbMutex.acquire();
         try {
-            stmt.execute("CREATE table " + tableName + " ("
-                    + "NAME VARCHAR(" + VARCHAR_MAX_LENGTH + ") PRIMARY KEY,"
-                    + "MATCH_BLOB blob"
-                    + ")");
+            storageBackend.createTable(tableName);
         } catch (SQLException e) {
             System.out.println("An error occurred while creating table " + tableName);
             throw (e);
         } finally {
-            stmt.close();
+            dbMutex.release();
         }
-        dbMutex.release();
     }
 
     /**
@@ -279,22 +489,12 @@ public class ObjectsDB implements Serializable {
      */
     public ArrayList<String> getTables() throws SQLException, InterruptedException {
 
-        dbMutex.acquire();
-        DatabaseMetaData dmd = dbConnection.getMetaData();
-        ArrayList<String> result = new ArrayList<String>();
-        ResultSet rs = dmd.getTables(null, null, null, null); //@TODO: not sure to which extend this is Derby dependent...
-
+        boolean mutexAcquired = acquireReadMutex();
         try {
-            while (rs.next()) {
-                String tempDbName = (String) rs.getObject("TABLE_NAME");
-                result.add(tempDbName);
-            }
+            return storageBackend.getTables();
         } finally {
-            rs.close();
+            releaseReadMutex(mutexAcquired);
         }
-        dbMutex.release();
-
-        return result;
     }
 
     /**
@@ -351,30 +551,14 @@ public class ObjectsDB implements Serializable {
         if (usedTables != null) {
             usedTables.add(tableName);
         }
+        byte[] bytes = serialize(object);
         dbMutex.acquire();
-        PreparedStatement ps = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
         try {
-            ps.setString(1, correctedKey);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            try {
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                try {
-                    oos.writeObject(object);
-                } finally {
-                    oos.close();
-                }
-            } finally {
-                bos.close();
-            }
-            ps.setBytes(2, bos.toByteArray());
-            ps.executeUpdate();
+            storageBackend.insert(tableName, correctedKey, bytes);
+            tablesContentCache.remove(tableName);
         } finally {
-            ps.close();
+            dbMutex.release();
         }
-
-        tablesContentCache.remove(tableName);
-
-        dbMutex.release();
     }
 
     /**
@@ -401,17 +585,16 @@ public class ObjectsDB implements Serializable {
         }
 
         dbMutex.acquire();
+        try {
 
-        dbConnection.setAutoCommit(false);
-
-        HashSet<String> tableContent = getTableContentFromDBNoMutex(tableName);
+            HashSet<String> tableContent = getTableContentFromDBNoMutex(tableName);
 
-        HashSet<String> addedKeys = new HashSet<String>(objects.size());
-        HashMap<String, String> updateKeys = new HashMap<String, String>(objects.size());
+            HashSet<String> addedKeys = new HashSet<String>(objects.size());
+            HashMap<String, String> updateKeys = new HashMap<String, String>(objects.size());
 
-        PreparedStatement insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
-        try {
-            int rowCounter = 0;
+            int batchSize = objectsCache.getBatchSize();
+            ArrayList<String> batchKeys = new ArrayList<String>(Math.min(batchSize, objects.size()));
+            ArrayList<byte[]> batchValues = new ArrayList<byte[]>(Math.min(batchSize, objects.size()));
 
             for (String objectKey : objects.keySet()) {
 
@@ -421,46 +604,20 @@ public class ObjectsDB implements Serializable {
                     if (debugInteractions) {
                         System.out.println(System.currentTimeMillis() + " Inserting batch of objects, table: " + tableName + ", key: " + objectKey);
                     }
-                    File debugObjectFile = new File(debugFolder, "debugMatch");
-                    FileOutputStream fos = new FileOutputStream(debugObjectFile);
-                    BufferedOutputStream debugBos = new BufferedOutputStream(fos);
-                    ObjectOutputStream debugOos = new ObjectOutputStream(debugBos);
-                    debugOos.writeObject(objects.get(objectKey));
-                    debugOos.close();
-                    debugBos.close();
-                    fos.close();
-                    long size = debugObjectFile.length();
-
-                    debugContentWriter.write(tableName + "\t" + objectKey + "\t" + size + "\n");
-                    debugContentWriter.flush();
+                    writeDebugContent(tableName, objectKey, objects.get(objectKey));
                 }
 
                 if (tableContent.contains(correctedKey)) {
                     updateKeys.put(objectKey, correctedKey);
                 } else {
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    try {
-                        ObjectOutputStream oos = new ObjectOutputStream(bos);
-                        try {
 
-                            oos.writeObject(objects.get(objectKey));
-                            insertStatement.setString(1, correctedKey);
-                            insertStatement.setBytes(2, bos.toByteArray());
-                            insertStatement.addBatch();
-
-                            if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                                insertStatement.executeBatch();
-                                insertStatement.clearParameters();
-                                dbConnection.commit();
-                                insertStatement.close();
-                                insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
-                                rowCounter = 0;
-                            }
-                        } finally {
-                            oos.close();
-                        }
-                    } finally {
-                        bos.close();
+                    batchKeys.add(correctedKey);
+                    batchValues.add(serialize(objects.get(objectKey)));
+
+                    if (batchKeys.size() == batchSize) {
+                        storageBackend.insert(tableName, batchKeys, batchValues);
+                        batchKeys.clear();
+                        batchValues.clear();
                     }
 
                     addedKeys.add(correctedKey);
@@ -474,22 +631,14 @@ public class ObjectsDB implements Serializable {
                 }
             }
 
-            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
-                insertStatement.executeBatch();
-                insertStatement.clearParameters();
-                dbConnection.commit();
+            if ((waitingHandler == null || !waitingHandler.isRunCanceled()) && !batchKeys.isEmpty()) {
+                storageBackend.insert(tableName, batchKeys, batchValues);
             }
 
             tableContent.addAll(addedKeys);
 
-            // close the statement
-        } finally {
-            insertStatement.close();
-        }
-
-        PreparedStatement updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
-        try {
-            int rowCounter = 0;
+            batchKeys.clear();
+            batchValues.clear();
 
             for (String objectKey : updateKeys.keySet()) {
 
@@ -499,43 +648,16 @@ public class ObjectsDB implements Serializable {
                     if (debugInteractions) {
                         System.out.println(System.currentTimeMillis() + " Updating batch of objects, table: " + tableName + ", key: " + objectKey);
                     }
-                    File debugObjectFile = new File(debugFolder, "debugMatch");
-                    FileOutputStream fos = new FileOutputStream(debugObjectFile);
-                    BufferedOutputStream debugBos = new BufferedOutputStream(fos);
-                    ObjectOutputStream debugOos = new ObjectOutputStream(debugBos);
-                    debugOos.writeObject(objects.get(objectKey));
-                    debugOos.close();
-                    debugBos.close();
-                    fos.close();
-                    long size = debugObjectFile.length();
-
-                    debugContentWriter.write(tableName + "\t" + objectKey + "\t" + size + "\n");
-                    debugContentWriter.flush();
+                    writeDebugContent(tableName, objectKey, objects.get(objectKey));
                 }
 
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    try {
-                        oos.writeObject(objects.get(objectKey));
-
-                        updateStatement.setString(2, correctedKey);
-                        updateStatement.setBytes(1, bos.toByteArray());
-                        updateStatement.addBatch();
-
-                        if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                            updateStatement.executeBatch();
-                            updateStatement.clearParameters();
-                            dbConnection.commit();
-                            updateStatement.close();
-                            updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
-                            rowCounter = 0;
-                        }
-                    } finally {
-                        oos.close();
-                    }
-                } finally {
-                    bos.close();
+                batchKeys.add(correctedKey);
+                batchValues.add(serialize(objects.get(objectKey)));
+
+                if (batchKeys.size() == batchSize) {
+                    storageBackend.update(tableName, batchKeys, batchValues);
+                    batchKeys.clear();
+                    batchValues.clear();
                 }
 
                 if (waitingHandler != null) {
@@ -546,19 +668,13 @@ public class ObjectsDB implements Serializable {
                 }
             }
 
-            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
-                updateStatement.executeBatch();
-                updateStatement.clearParameters();
-                dbConnection.commit();
+            if ((waitingHandler == null || !waitingHandler.isRunCanceled()) && !batchKeys.isEmpty()) {
+                storageBackend.update(tableName, batchKeys, batchValues);
             }
 
-            // close the statement
         } finally {
-            updateStatement.close();
+            dbMutex.release();
         }
-        dbConnection.setAutoCommit(true);
-
-        dbMutex.release();
     }
 
     /**
@@ -587,22 +703,17 @@ public class ObjectsDB implements Serializable {
                 if (debugInteractions) {
                     System.out.println(System.currentTimeMillis() + " getting table objects, table: " + tableName);
                 }
-                ResultSet results;
                 if (waitingHandler != null && displayProgress) {
                     waitingHandler.setSecondaryProgressCounterIndeterminate(true);
 
-                    // note that using the count statement might take a couple of seconds for a big table, but still better than an indeterminate progressbar.
-                    dbMutex.acquire();
-                    Statement rowCountStatement = dbConnection.createStatement();
-                    Integer numberOfRows = null;
+                    // note that counting the rows might take a couple of seconds for a big table, but still better than an indeterminate progressbar.
+                    Integer numberOfRows;
+                    boolean mutexAcquired = acquireReadMutex();
                     try {
-                        results = rowCountStatement.executeQuery("select count(*) from " + tableName);
-                        results.next();
-                        numberOfRows = results.getInt(1);
+                        numberOfRows = storageBackend.count(tableName);
                     } finally {
-                        rowCountStatement.close();
+                        releaseReadMutex(mutexAcquired);
                     }
-                    dbMutex.release();
 
                     if (numberOfRows != null) {
                         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
@@ -612,73 +723,49 @@ public class ObjectsDB implements Serializable {
                 }
 
                 HashMap<String, Object> objectsFromDb = new HashMap<String, Object>();
+                HashMap<String, Integer> objectsSizes = new HashMap<String, Integer>();
 
-                dbMutex.acquire();
+                boolean mutexAcquired = acquireReadMutex();
                 loading = true;
 
                 try {
-                    Statement stmt = dbConnection.createStatement();
+                    StorageBackend.Cursor cursor = storageBackend.getCursor(tableName, null);
                     try {
-                        results = stmt.executeQuery("select * from " + tableName);
+                        while (cursor.next()) {
 
-                        try {
-                            while (results.next()) {
-
-                                if (waitingHandler != null) {
-                                    if (waitingHandler.isRunCanceled()) {
-                                        break;
-                                    }
-                                    if (displayProgress) {
-                                        waitingHandler.increaseSecondaryProgressCounter();
-                                    }
+                            if (waitingHandler != null) {
+                                if (waitingHandler.isRunCanceled()) {
+                                    break;
                                 }
-
-                                String key = results.getString(1);
-
-                                if (!objectsCache.inCache(dbName, tableName, key)) {
-
-                                    Blob tempBlob;
-
-                                    if (useSQLite) {
-                                        byte[] bytes = results.getBytes(2);
-                                        tempBlob = new SerialBlob(bytes);
-                                    } else {
-                                        tempBlob = results.getBlob(2);
-                                    }
-
-                                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                    try {
-                                        ObjectInputStream in = new ObjectInputStream(bis);
-                                        try {
-                                            Object object = in.readObject();
-                                            objectsFromDb.put(key, object);
-                                        } finally {
-                                            in.close();
-                                        }
-                                    } finally {
-                                        bis.close();
-                                    }
+                                if (displayProgress) {
+                                    waitingHandler.increaseSecondaryProgressCounter();
                                 }
                             }
 
-                            tableQueue.remove(tableName);
+                            String key = cursor.getKey();
 
-                        } finally {
-                            results.close();
+                            if (!objectsCache.inCache(dbName, tableName, key)) {
+                                byte[] bytes = cursor.getValue();
+                                objectsFromDb.put(key, deserialize(bytes));
+                                objectsSizes.put(key, bytes.length);
+                            }
                         }
+
+                        tableQueue.remove(tableName);
+
                     } finally {
-                        stmt.close();
+                        cursor.close();
                     }
 
                 } finally {
                     loading = false;
+                    releaseReadMutex(mutexAcquired);
                 }
-                dbMutex.release();
 
                 for (String key : objectsFromDb.keySet()) {
                     if (!objectsCache.inCache(dbName, tableName, key)) {
                         Object object = objectsFromDb.get(key);
-                        objectsCache.addObject(dbName, tableName, key, object, false, false);
+                        objectsCache.addObject(dbName, tableName, key, object, false, false, objectsSizes.get(key));
                     }
                 }
                 objectsCache.updateCache();
@@ -765,7 +852,7 @@ public class ObjectsDB implements Serializable {
                     System.out.println(System.currentTimeMillis() + " getting " + keys.size() + " objects, table: " + tableName);
                 }
 
-                ArrayList<String> toLoad = new ArrayList<String>(keys.size());
+                HashSet<String> toLoad = new HashSet<String>(keys.size());
 
                 for (String key : keys) {
                     String correctedKey = correctKey(tableName, key);
@@ -777,70 +864,39 @@ public class ObjectsDB implements Serializable {
                 if (!toLoad.isEmpty()) {
 
                     HashMap<String, Object> objectsFromDb = new HashMap<String, Object>(toLoad.size());
+                    HashMap<String, Integer> objectsSizes = new HashMap<String, Integer>(toLoad.size());
 
-                    dbMutex.acquire();
+                    boolean mutexAcquired = acquireReadMutex();
                     loading = true;
 
                     try {
-                        Statement stmt = dbConnection.createStatement();
-                        //Statement stmt = dbConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY); // @TODO: test if this is faster
-                        //stmt.setFetchSize(toLoad.size()); // @TODO: test if this is faster
-
+                        StorageBackend.Cursor cursor = storageBackend.getCursor(tableName, toLoad);
                         try {
-                            ResultSet results = stmt.executeQuery("select * from " + tableName);
-
-                            try {
-                                int found = 0;
-
-                                while (results.next() && found < toLoad.size()) {
-                                    String key = results.getString(1);
-                                    if (toLoad.contains(key)) {
-                                        found++;
-                                        Blob tempBlob;
-
-                                        if (useSQLite) {
-                                            byte[] bytes = results.getBytes(2);
-                                            tempBlob = new SerialBlob(bytes);
-                                        } else {
-                                            tempBlob = results.getBlob(2);
-                                        }
-
-                                        BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                        try {
-                                            ObjectInputStream in = new ObjectInputStream(bis);
-                                            try {
-                                                Object object = in.readObject();
-                                                objectsFromDb.put(key, object);
-                                            } finally {
-                                                in.close();
-                                            }
-                                        } finally {
-                                            bis.close();
-                                        }
-                                        if (waitingHandler != null && displayProgress) {
-                                            waitingHandler.increaseSecondaryProgressCounter();
-                                        }
-                                    }
-                                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                        break;
-                                    }
+                            while (cursor.next()) {
+                                String key = cursor.getKey();
+                                byte[] bytes = cursor.getValue();
+                                objectsFromDb.put(key, deserialize(bytes));
+                                objectsSizes.put(key, bytes.length);
+                                if (waitingHandler != null && displayProgress) {
+                                    waitingHandler.increaseSecondaryProgressCounter();
+                                }
+                                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                    break;
                                 }
-                            } finally {
-                                results.close();
                             }
                         } finally {
-                            stmt.close();
+                            cursor.close();
                         }
 
                     } finally {
                         loading = false;
+                        releaseReadMutex(mutexAcquired);
                     }
-                    dbMutex.release();
 
                     for (String key : objectsFromDb.keySet()) {
                         if (!objectsCache.inCache(dbName, tableName, key)) {
                             Object object = objectsFromDb.get(key);
-                            objectsCache.addObject(dbName, tableName, key, object, false, false);
+                            objectsCache.addObject(dbName, tableName, key, object, false, false, objectsSizes.get(key));
                         }
                     }
                     objectsCache.updateCache();
@@ -965,88 +1021,60 @@ public class ObjectsDB implements Serializable {
             System.out.println(System.currentTimeMillis() + " Retrieving object, table: " + tableName + ", key: " + objectKey);
         }
 
-        if (dbConnection == null || usedTables != null && !usedTables.contains(tableName)) {
+        if (storageBackend == null || usedTables != null && !usedTables.contains(tableName)) {
             return object;
         }
 
-        dbMutex.acquire();
-
         long start = System.currentTimeMillis();
 
-        Statement stmt = dbConnection.createStatement();
-
+        byte[] bytes;
+        boolean mutexAcquired = acquireReadMutex();
         try {
-            ResultSet results = stmt.executeQuery("select MATCH_BLOB from " + tableName + " where NAME='" + correctedKey + "'");
-            try {
+            bytes = storageBackend.get(tableName, correctedKey);
+        } finally {
+            releaseReadMutex(mutexAcquired);
+        }
 
-                if (results.next()) {
+        if (bytes != null) {
 
-                    Blob tempBlob;
+            object = deserialize(bytes);
 
-                    if (useSQLite) {
-                        byte[] bytes = results.getBytes(1);
-                        tempBlob = new SerialBlob(bytes);
-                    } else {
-                        tempBlob = results.getBlob(1);
-                    }
+            if (debugSpeed) {
+                long loaded = System.currentTimeMillis();
 
-                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                    try {
-                        ObjectInputStream in = new ObjectInputStream(bis);
-                        try {
-                            object = in.readObject();
-                        } finally {
-                            in.close();
-                        }
-                    } finally {
-                        bis.close();
-                    }
-
-                    if (debugSpeed) {
-                        long loaded = System.currentTimeMillis();
-
-                        File debugObjectFile = new File(debugFolder, "debugMatch");
-                        FileOutputStream fos = new FileOutputStream(debugObjectFile);
-                        BufferedOutputStream bos = new BufferedOutputStream(fos);
-                        ObjectOutputStream oos = new ObjectOutputStream(bos);
-                        oos.writeObject(object);
-                        oos.close();
-                        bos.close();
-                        fos.close();
-
-                        long written = System.currentTimeMillis();
+                File debugObjectFile = new File(debugFolder, "debugMatch");
+                FileOutputStream fos = new FileOutputStream(debugObjectFile);
+                BufferedOutputStream bos = new BufferedOutputStream(fos);
+                ObjectOutputStream oos = new ObjectOutputStream(bos);
+                oos.writeObject(object);
+                oos.close();
+                bos.close();
+                fos.close();
 
-                        FileInputStream fis = new FileInputStream(debugObjectFile);
-                        bis = new BufferedInputStream(fis);
-                        ObjectInputStream in = new ObjectInputStream(bis);
-                        Object match = in.readObject();
-                        fis.close();
-                        bis.close();
-                        in.close();
-                        long read = System.currentTimeMillis();
+                long written = System.currentTimeMillis();
 
-                        long size = debugObjectFile.length();
+                FileInputStream fis = new FileInputStream(debugObjectFile);
+                BufferedInputStream bis = new BufferedInputStream(fis);
+                ObjectInputStream in = new ObjectInputStream(bis);
+                Object match = in.readObject();
+                fis.close();
+                bis.close();
+                in.close();
+                long read = System.currentTimeMillis();
 
-                        long queryTime = loaded - start;
-                        long serializationTime = written - loaded;
-                        long deserializationTime = read - written;
+                long size = debugObjectFile.length();
 
-                        debugSpeedWriter.write(tableName + "\t" + objectKey + "\t" + queryTime + "\t" + serializationTime + "\t" + deserializationTime + "\t" + size + "\n");
-                    }
-                }
+                long queryTime = loaded - start;
+                long serializationTime = written - loaded;
+                long deserializationTime = read - written;
 
-            } finally {
-                results.close();
+                debugSpeedWriter.write(tableName + "\t" + objectKey + "\t" + queryTime + "\t" + serializationTime + "\t" + deserializationTime + "\t" + size + "\n");
             }
-        } finally {
-            stmt.close();
         }
 
-        dbMutex.release();
-
         if (useCache) {
             if (!objectsCache.inCache(dbName, tableName, objectKey)) {
-                objectsCache.addObject(dbName, tableName, objectKey, object, false, true);
+                objectsCache.addObject(dbName, tableName, objectKey, object, false, true, bytes == null ? -1 : bytes.length);
             }
         }
 
@@ -1103,22 +1131,12 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println(System.currentTimeMillis() + " Checking db content, table: " + tableName + ", key: " + objectKey);
         }
-        dbMutex.acquire();
-        Statement stmt = dbConnection.createStatement();
-        boolean result = false;
+        boolean mutexAcquired = acquireReadMutex();
         try {
-            ResultSet results = stmt.executeQuery("select * from " + tableName + " where NAME='" + correctedKey + "'");
-            try {
-                result = results.next();
-            } finally {
-                results.close();
-            }
+            return storageBackend.contains(tableName, correctedKey);
         } finally {
-            stmt.close();
+            releaseReadMutex(mutexAcquired);
         }
-        dbMutex.release();
-
-        return result;
     }
 
     /**
@@ -1191,24 +1209,13 @@ public class ObjectsDB implements Serializable {
             System.out.println(System.currentTimeMillis() + " Checking db content, table: " + tableName);
         }
 
-        tableContent = new HashSet<String>();
-        Statement stmt = dbConnection.createStatement();
-
-        try {
-            ResultSet results = stmt.executeQuery("select * from " + tableName);
-            try {
-                while (results.next()) {
-                    String key = results.getString(1);
-                    if (key.startsWith(LONG_KEY_PREFIX)) {
-                        key = getOriginalKey(tableName, key);
-                    }
-                    tableContent.add(key);
-                }
-            } finally {
-                results.close();
+        HashSet<String> keys = storageBackend.getKeys(tableName);
+        tableContent = new HashSet<String>(keys.size());
+        for (String key : keys) {
+            if (key.startsWith(LONG_KEY_PREFIX)) {
+                key = getOriginalKey(tableName, key);
             }
-        } finally {
-            stmt.close();
+            tableContent.add(key);
         }
 
         if (tablesContentCache != null) {
@@ -1251,21 +1258,19 @@ public class ObjectsDB implements Serializable {
 
         // delete from database
         dbMutex.acquire();
-        if (debugInteractions) {
-            System.out.println(System.currentTimeMillis() + " Removing object, table: " + tableName + ", key: " + objectKey);
-        }
-        if (usedTables == null || usedTables.contains(tableName)) {
-            Statement stmt = dbConnection.createStatement();
-            try {
-                stmt.executeUpdate("delete from " + tableName + " where NAME='" + correctedKey + "'"); // @TODO: what if the accession contains (') ..? - a single quotation mark is the escape character for a single quotation mark
-            } catch (SQLSyntaxErrorException e) {
-                System.out.println("SQL Exception. SQL call: " + "delete from " + tableName + " where NAME='" + correctedKey + "'");
-                throw e;
-            } finally {
-                stmt.close();
+        try {
+            if (debugInteractions) {
+                System.out.println(System.currentTimeMillis() + " Removing object, table: " + tableName + ", key: " + objectKey);
             }
+            if (usedTables == null || usedTables.contains(tableName)) {
+                storageBackend.delete(tableName, correctedKey);
+                if (tablesContentCache != null) {
+                    tablesContentCache.remove(tableName);
+                }
+            }
+        } finally {
+            dbMutex.release();
         }
-        dbMutex.release();
     }
 
     /**
@@ -1342,31 +1347,17 @@ public class ObjectsDB implements Serializable {
 
         if (!cacheUpdated && (usedTables == null || usedTables.contains(tableName))) {
 
-            dbMutex.acquire();
-
             if (debugInteractions) {
                 System.out.println(System.currentTimeMillis() + " Updating object, table: " + tableName + ", key: " + objectKey);
             }
-            PreparedStatement ps = dbConnection.prepareStatement("update " + tableName + " set MATCH_BLOB=? where NAME='" + objectKey + "'");
+
+            byte[] bytes = serialize(object);
+            dbMutex.acquire();
             try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    try {
-                        oos.writeObject(object);
-                    } finally {
-                        oos.close();
-                    }
-                } finally {
-                    bos.close();
-                }
-                ps.setBytes(1, bos.toByteArray());
-                ps.executeUpdate();
+                storageBackend.update(tableName, correctedKey, bytes);
             } finally {
-                ps.close();
+                dbMutex.release();
             }
-
-            dbMutex.release();
         }
     }
 
@@ -1456,7 +1447,10 @@ public class ObjectsDB implements Serializable {
      * @return true if the connection to the DB is active
      */
     public boolean isConnectionActive() {
-        return path != null && DerbyUtil.isActiveConnection(derbyConnectionID, path);
+        if (getStorageType() == StorageType.DERBY) {
+            return path != null && DerbyUtil.isActiveConnection(derbyConnectionID, path);
+        }
+        return storageBackend != null && storageBackend.isActive();
     }
 
     /**
@@ -1468,6 +1462,15 @@ public class ObjectsDB implements Serializable {
      */
     public void close() throws SQLException, InterruptedException {
 
+        // Make sure that the objects removed from the cache are written
+        if (objectsCache != null) {
+            try {
+                objectsCache.flushWriteBehind();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
         // Make sure that previous queries are done
         dbMutex.acquire();
         while (dbMutex.getQueueLength() > 0) {
@@ -1477,12 +1480,12 @@ public class ObjectsDB implements Serializable {
         }
         dbMutex.release();
 
-        if (dbConnection != null) {
+        if (storageBackend != null) {
             // try to save the long key indexes
             try {
                 saveAttributes();
             } catch (Exception e) {
-                if (dbConnection != null) {
+                if (storageBackend != null) {
                     e.printStackTrace();
                 }
             }
@@ -1492,9 +1495,8 @@ public class ObjectsDB implements Serializable {
         objectsCache = null;
 
         try {
-            if (dbConnection != null && isConnectionActive()) {
-                dbConnection.close();
-                DerbyUtil.removeActiveConnection(derbyConnectionID, path);
+            if (storageBackend != null) {
+                storageBackend.close();
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -1518,7 +1520,7 @@ public class ObjectsDB implements Serializable {
             }
         }
 
-        dbConnection = null;
+        storageBackend = null;
 
         dbMutex.release();
     }
@@ -1553,7 +1555,9 @@ public class ObjectsDB implements Serializable {
 
             close();
 
-            DerbyUtil.closeConnection();
+            if (getStorageType() == StorageType.DERBY) {
+                DerbyUtil.closeConnection();
+            }
             boolean deleted = Util.deleteDir(dbFolder);
             //TODO: Restore connections?
 
@@ -1570,29 +1574,12 @@ public class ObjectsDB implements Serializable {
         }
         dbMutex.acquire();
 
-        if (useSQLite) {
-            try {
-                Class.forName("org.sqlite.JDBC");
-                dbConnection = DriverManager.getConnection("jdbc:sqlite:" + path); // @TODO: another instance of SQLite may have already booted the database. We need to check this first?
-            } catch (SQLException e) {
-                // try using Derby instead
-                useSQLite = false;
-            } catch (ClassNotFoundException ex) {
-                ex.printStackTrace();
-            }
-        }
-        if (!useSQLite) {
-            if (isConnectionActive()) {
-                throw new IllegalArgumentException("Impossible to establish a Derby connection in " + path + ", connection to the folder already active.");
-            }
-            String url = "jdbc:derby:" + path + ";create=true";
-            dbConnection = DriverManager.getConnection(url);
-            DerbyUtil.addActiveConnection(derbyConnectionID, path);
-        }
-
-        // special fix for if derby breaks down and restarts in read only mode
-        if (dbConnection != null) {
-            dbConnection.setReadOnly(false);
+        if (getStorageType() == StorageType.LOG) {
+            storageBackend = new LogStorageBackend(path);
+        } else {
+            JdbcStorageBackend jdbcStorageBackend = new JdbcStorageBackend(path, useSQLite);
+            useSQLite = jdbcStorageBackend.isSQLite();
+            storageBackend = jdbcStorageBackend;
         }
 
         this.objectsCache = objectsCache;
@@ -0,0 +1,227 @@
+package com.compomics.util.db;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Storage used by an ObjectsDB to save the serialized objects. The objects are
+ * stored as byte arrays in tables, indexed by key.
+ *
+ * @author Marc Vaudel
+ */
+public interface StorageBackend {
+
+    /**
+     * Indicates whether the storage is open.
+     *
+     * @return a boolean indicating whether the storage is open
+     */
+    public boolean isActive();
+
+    /**
+     * Indicates whether the reading methods can be called by several threads
+     * simultaneously, and while writing. If false, the calls must be
+     * synchronized by the caller.
+     *
+     * @return a boolean indicating whether the storage supports concurrent
+     * reads
+     */
+    public boolean supportsConcurrentReads();
+
+    /**
+     * Creates a table.
+     *
+     * @param tableName the name of the table
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * creating the table
+     */
+    public void createTable(String tableName) throws SQLException;
+
+    /**
+     * Returns the names of the tables in the storage. Depending on the
+     * storage, system tables can be included.
+     *
+     * @return the names of the tables in the storage
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading the storage
+     */
+    public ArrayList<String> getTables() throws SQLException;
+
+    /**
+     * Inserts an object in a table.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the object
+     * @param value the serialized object
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public void insert(String tableName, String key, byte[] value) throws SQLException;
+
+    /**
+     * Inserts objects in a table. The keys must not be in the table.
+     *
+     * @param tableName the name of the table
+     * @param keys the keys of the objects
+     * @param values the serialized objects, in the same order as the keys
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing the objects
+     */
+    public void insert(String tableName, ArrayList<String> keys, ArrayList<byte[]> values) throws SQLException;
+
+    /**
+     * Replaces an object in a table.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the object
+     * @param value the serialized object
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public void update(String tableName, String key, byte[] value) throws SQLException;
+
+    /**
+     * Replaces objects in a table.
+     *
+     * @param tableName the name of the table
+     * @param keys the keys of the objects
+     * @param values the serialized objects, in the same order as the keys
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing the objects
+     */
+    public void update(String tableName, ArrayList<String> keys, ArrayList<byte[]> values) throws SQLException;
+
+    /**
+     * Returns a serialized object, null if not found.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the object
+     *
+     * @return the serialized object
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading the object
+     */
+    public byte[] get(String tableName, String key) throws SQLException;
+
+    /**
+     * Indicates whether a table contains the given key.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the object
+     *
+     * @return a boolean indicating whether the table contains the given key
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading the table
+     */
+    public boolean contains(String tableName, String key) throws SQLException;
+
+    /**
+     * Returns the keys of a table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the keys of the table
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading the table
+     */
+    public HashSet<String> getKeys(String tableName) throws SQLException;
+
+    /**
+     * Returns the number of objects in a table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the number of objects in the table
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading the table
+     */
+    public int count(String tableName) throws SQLException;
+
+    /**
+     * Returns a cursor over the objects of a table. The cursor must be closed
+     * after use.
+     *
+     * @param tableName the name of the table
+     * @param keys the keys of the objects to iterate, null for all objects
+     *
+     * @return a cursor over the objects of the table
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * reading the table
+     */
+    public Cursor getCursor(String tableName, HashSet<String> keys) throws SQLException;
+
+    /**
+     * Deletes an object from a table.
+     *
+     * @param tableName the name of the table
+     * @param key the key of the object
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * deleting the object
+     */
+    public void delete(String tableName, String key) throws SQLException;
+
+    /**
+     * Closes the storage.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * closing the storage
+     */
+    public void close() throws SQLException;
+
+    /**
+     * Cursor over the objects of a table.
+     */
+    public interface Cursor {
+
+        /**
+         * Moves to the next object.
+         *
+         * @return a boolean indicating whether an object was found
+         *
+         * @throws SQLException exception thrown whenever an error occurred
+         * while reading the table
+         */
+        public boolean next() throws SQLException;
+
+        /**
+         * Returns the key of the current object.
+         *
+         * @return the key of the current object
+         *
+         * @throws SQLException exception thrown whenever an error occurred
+         * while reading the table
+         */
+        public String getKey() throws SQLException;
+
+        /**
+         * Returns the current serialized object.
+         *
+         * @return the current serialized object
+         *
+         * @throws SQLException exception thrown whenever an error occurred
+         * while reading the table
+         */
+        public byte[] getValue() throws SQLException;
+
+        /**
+         * Closes the cursor.
+         *
+         * @throws SQLException exception thrown whenever an error occurred
+         * while closing the cursor
+         */
+        public void close() throws SQLException;
+    }
+}
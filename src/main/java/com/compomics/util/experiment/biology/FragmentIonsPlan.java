@@ -0,0 +1,197 @@
+package com.compomics.util.experiment.biology;
+
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.ions.TagFragmentIon;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The theoretic fragment ions of a peptide stored in flat arrays. Plans are
+ * cached by the IonFactory and shared between threads: they must not be
+ * modified, neither the arrays nor the ions.
+ *
+ * @author Marc Vaudel
+ */
+public class FragmentIonsPlan {
+
+    /**
+     * The fragment ions as returned by the IonFactory: ion type index, ion
+     * subtype, ions.
+     */
+    private final HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons;
+    /**
+     * The ions.
+     */
+    private final Ion[] ions;
+    /**
+     * The index of the type of every ion.
+     */
+    private final int[] types;
+    /**
+     * The subtype of every ion.
+     */
+    private final int[] subTypes;
+    /**
+     * The number of every ion, 0 for ions which are not numbered.
+     */
+    private final int[] numbers;
+    /**
+     * The mass of the neutral losses of every ion.
+     */
+    private final double[] neutralLossesMasses;
+    /**
+     * The m/z of every ion at charge 1.
+     */
+    private final double[] mzs;
+
+    /**
+     * Constructor.
+     *
+     * @param fragmentIons the fragment ions as returned by the IonFactory
+     */
+    public FragmentIonsPlan(HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> fragmentIons) {
+
+        this.fragmentIons = fragmentIons;
+
+        int size = 0;
+        for (HashMap<Integer, ArrayList<Ion>> ionsMap : fragmentIons.values()) {
+            for (ArrayList<Ion> subTypeIons : ionsMap.values()) {
+                size += subTypeIons.size();
+            }
+        }
+
+        ions = new Ion[size];
+        types = new int[size];
+        subTypes = new int[size];
+        numbers = new int[size];
+        neutralLossesMasses = new double[size];
+        mzs = new double[size];
+
+        double protonMass = ElementaryIon.proton.getTheoreticMass();
+        int i = 0;
+        for (HashMap<Integer, ArrayList<Ion>> ionsMap : fragmentIons.values()) {
+            for (ArrayList<Ion> subTypeIons : ionsMap.values()) {
+                for (Ion ion : subTypeIons) {
+                    ions[i] = ion;
+                    types[i] = ion.getType().index;
+                    subTypes[i] = ion.getSubType();
+                    if (ion instanceof PeptideFragmentIon) {
+                        numbers[i] = ((PeptideFragmentIon) ion).getNumber();
+                    } else if (ion instanceof TagFragmentIon) {
+                        numbers[i] = ((TagFragmentIon) ion).getNumber();
+                    }
+                    if (ion.hasNeutralLosses()) {
+                        for (NeutralLoss neutralLoss : ion.getNeutralLosses()) {
+                            neutralLossesMasses[i] += neutralLoss.getMass();
+                        }
+                    }
+                    mzs[i] = ion.getTheoreticMass() + protonMass;
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the fragment ions as returned by the IonFactory: ion type index,
+     * ion subtype, ions. The map must not be modified.
+     *
+     * @return the fragment ions
+     */
+    public HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> getFragmentIons() {
+        return fragmentIons;
+    }
+
+    /**
+     * Returns the number of ions in the plan.
+     *
+     * @return the number of ions in the plan
+     */
+    public int size() {
+        return ions.length;
+    }
+
+    /**
+     * Returns the ion at the given index.
+     *
+     * @param index the index
+     *
+     * @return the ion at the given index
+     */
+    public Ion getIon(int index) {
+        return ions[index];
+    }
+
+    /**
+     * Returns the index of the type of the ion at the given index.
+     *
+     * @param index the index
+     *
+     * @return the index of the type of the ion
+     */
+    public int getType(int index) {
+        return types[index];
+    }
+
+    /**
+     * Returns the subtype of the ion at the given index.
+     *
+     * @param index the index
+     *
+     * @return the subtype of the ion
+     */
+    public int getSubType(int index) {
+        return subTypes[index];
+    }
+
+    /**
+     * Returns the number of the ion at the given index, 0 for ions which are
+     * not numbered.
+     *
+     * @param index the index
+     *
+     * @return the number of the ion
+     */
+    public int getNumber(int index) {
+        return numbers[index];
+    }
+
+    /**
+     * Returns the mass of the neutral losses of the ion at the given index.
+     *
+     * @param index the index
+     *
+     * @return the mass of the neutral losses of the ion
+     */
+    public double getNeutralLossesMass(int index) {
+        return neutralLossesMasses[index];
+    }
+
+    /**
+     * Returns the m/z of the ion at the given index at charge 1.
+     *
+     * @param index the index
+     *
+     * @return the m/z of the ion at charge 1
+     */
+    public double getMz(int index) {
+        return mzs[index];
+    }
+
+    /**
+     * Returns the m/z of the ion at the given index at the given charge.
+     *
+     * @param index the index
+     * @param charge the charge
+     *
+     * @return the m/z of the ion at the given charge
+     */
+    public double getMz(int index, int charge) {
+        double mz = mzs[index];
+        if (charge > 1) {
+            mz = (mz + (charge - 1) * ElementaryIon.proton.getTheoreticMass()) / charge;
+        }
+        return mz;
+    }
+}
@@ -11,10 +11,13 @@ import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.maps.StripedLruCache;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This factory generates the expected ions from a peptide.
@@ -36,7 +39,17 @@ public class IonFactory {
     /**
      * Cache for the possible combinations of neutral losses.
      */
-    private HashMap<String, NeutralLossCombination[]> neutralLossesCombinationsCache = new HashMap<String, NeutralLossCombination[]>();
+    private ConcurrentHashMap<String, NeutralLossCombination[]> neutralLossesCombinationsCache = new ConcurrentHashMap<String, NeutralLossCombination[]>();
+    /**
+     * The default number of fragment ions plans to keep in cache.
+     */
+    public static final int DEFAULT_PLANS_CACHE_SIZE = 10000;
+    /**
+     * Cache for the fragment ions plans indexed by fragmentation key, striped
+     * so that annotating threads do not wait on each other. The least
+     * recently used plans of a segment are removed when the segment is full.
+     */
+    private final StripedLruCache<FragmentationKey, FragmentIonsPlan> plansCache = new StripedLruCache<FragmentationKey, FragmentIonsPlan>(DEFAULT_PLANS_CACHE_SIZE);
     /**
      * Cache for the mass of NH3.
      */
@@ -498,6 +511,108 @@ public class IonFactory {
         return result;
     }
 
+    /**
+     * Returns the plan of the theoretic ions expected from a peptide. Plans
+     * are cached and shared: neither the plan nor its ions can be modified.
+     * /!\ this method will work only if the PMTs found in the peptide are in
+     * the PTMFactory.
+     *
+     * @param peptide the considered peptide
+     * @param specificAnnotationSettings if provided, only the ions detectable
+     * using these settings will be selected
+     *
+     * @return the plan of the expected fragment ions
+     */
+    public FragmentIonsPlan getFragmentIonsPlan(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings) {
+        FragmentationKey key = getFragmentationKey(peptide, specificAnnotationSettings);
+        FragmentIonsPlan fragmentIonsPlan = plansCache.get(key);
+        if (fragmentIonsPlan == null) {
+            fragmentIonsPlan = new FragmentIonsPlan(getFragmentIons(peptide, specificAnnotationSettings));
+            FragmentIonsPlan cachedPlan = plansCache.putIfAbsent(key, fragmentIonsPlan);
+            if (cachedPlan != null) {
+                fragmentIonsPlan = cachedPlan;
+            }
+        }
+        return fragmentIonsPlan;
+    }
+
+    /**
+     * Returns a key for the fragment ions of the given peptide with the given
+     * settings: peptides and settings with equal keys have the same fragment
+     * ions.
+     *
+     * @param peptide the considered peptide
+     * @param specificAnnotationSettings the specific annotation settings, can
+     * be null
+     *
+     * @return a key for the fragment ions
+     */
+    private FragmentationKey getFragmentationKey(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings) {
+        String[] modifications = null;
+        int[] modificationSites = null;
+        if (peptide.isModified()) {
+            ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+            modifications = new String[modificationMatches.size()];
+            modificationSites = new int[modificationMatches.size()];
+            for (int i = 0; i < modifications.length; i++) {
+                ModificationMatch modificationMatch = modificationMatches.get(i);
+                modifications[i] = modificationMatch.getTheoreticPtm();
+                modificationSites[i] = modificationMatch.getModificationSite();
+            }
+        }
+        int[] ionTypes = null;
+        boolean neutralLosses = false;
+        if (specificAnnotationSettings != null) {
+            HashMap<Ion.IonType, HashSet<Integer>> selectedIonTypes = specificAnnotationSettings.getIonTypes();
+            int length = 0;
+            for (HashSet<Integer> subTypes : selectedIonTypes.values()) {
+                length += 2 + subTypes.size();
+            }
+            ionTypes = new int[length];
+            int index = 0;
+            for (Ion.IonType ionType : Ion.IonType.values()) {
+                HashSet<Integer> subTypes = selectedIonTypes.get(ionType);
+                if (subTypes != null) {
+                    ionTypes[index++] = ionType.index;
+                    ionTypes[index++] = subTypes.size();
+                    int start = index;
+                    for (Integer subType : subTypes) {
+                        ionTypes[index++] = subType;
+                    }
+                    Arrays.sort(ionTypes, start, index);
+                }
+            }
+            neutralLosses = !specificAnnotationSettings.getNeutralLossesMap().isEmpty();
+        }
+        return new FragmentationKey(peptide.getSequence(), modifications, modificationSites, ionTypes, neutralLosses);
+    }
+
+    /**
+     * Sets the number of fragment ions plans to keep in cache.
+     *
+     * @param plansCacheSize the number of fragment ions plans to keep in cache
+     */
+    public void setPlansCacheSize(int plansCacheSize) {
+        plansCache.setMaxSize(plansCacheSize);
+    }
+
+    /**
+     * Returns the number of fragment ions plans to keep in cache.
+     *
+     * @return the number of fragment ions plans to keep in cache
+     */
+    public int getPlansCacheSize() {
+        return plansCache.getMaxSize();
+    }
+
+    /**
+     * Clears the cache of fragment ions plans. Needs to be called when the
+     * PTMs of the PTMFactory are changed.
+     */
+    public void clearPlansCache() {
+        plansCache.clear();
+    }
+
     /**
      * This method returns the theoretic ions expected from a tag.
      *
@@ -1470,4 +1585,76 @@ public class IonFactory {
         }
         return result;
     }
+
+    /**
+     * Key of the fragment ions of a peptide with given annotation settings,
+     * made of the sequence, the modifications and the selected ion types.
+     */
+    private static class FragmentationKey {
+
+        /**
+         * The amino acid sequence.
+         */
+        private final String sequence;
+        /**
+         * The names of the modifications, null if none.
+         */
+        private final String[] modifications;
+        /**
+         * The sites of the modifications, null if none.
+         */
+        private final int[] modificationSites;
+        /**
+         * The selected ion types: for every ion type its index, its number of
+         * sub types and the sorted sub types. Null if all ions are selected.
+         */
+        private final int[] ionTypes;
+        /**
+         * Indicates whether neutral losses are selected.
+         */
+        private final boolean neutralLosses;
+        /**
+         * The hash code of the key.
+         */
+        private final int hash;
+
+        /**
+         * Constructor.
+         *
+         * @param sequence the amino acid sequence
+         * @param modifications the names of the modifications, null if none
+         * @param modificationSites the sites of the modifications, null if
+         * none
+         * @param ionTypes the selected ion types, null if all
+         * @param neutralLosses indicates whether neutral losses are selected
+         */
+        FragmentationKey(String sequence, String[] modifications, int[] modificationSites, int[] ionTypes, boolean neutralLosses) {
+            this.sequence = sequence;
+            this.modifications = modifications;
+            this.modificationSites = modificationSites;
+            this.ionTypes = ionTypes;
+            this.neutralLosses = neutralLosses;
+            int hashCode = sequence.hashCode();
+            hashCode = 31 * hashCode + Arrays.hashCode(modifications);
+            hashCode = 31 * hashCode + Arrays.hashCode(modificationSites);
+            hashCode = 31 * hashCode + Arrays.hashCode(ionTypes);
+            hash = 31 * hashCode + (neutralLosses ? 1 : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof FragmentationKey)) {
+                return false;
+            }
+            FragmentationKey other = (FragmentationKey) object;
+            return hash == other.hash && neutralLosses == other.neutralLosses && sequence.equals(other.sequence)
+                    && Arrays.equals(modificationSites, other.modificationSites) && Arrays.equals(ionTypes, other.ionTypes)
+                    && Arrays.equals(modifications, other.modifications);
+        }
+    }
 }
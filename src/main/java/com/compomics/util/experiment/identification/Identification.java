@@ -22,6 +22,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class contains identification results.
@@ -1495,6 +1501,204 @@ public abstract class Identification extends ExperimentObject {
         }
     }
 
+    /**
+     * Creates the peptides and protein instances based on the spectrum matches
+     * using multiple threads. The spectrum matches are split in as many parts
+     * as threads, the peptides of every part are mapped to the proteins in
+     * parallel, every distinct sequence being mapped only once. The peptide
+     * and protein matches are then aggregated in memory following the order
+     * of the spectrum matches, and saved in the database in batches. The
+     * matches obtained are the same as the ones of the single threaded
+     * method. Note that the attribute bestAssumption should be set for every
+     * spectrum match at this point.
+     *
+     * @param waitingHandler the waiting handler displaying the progress. Can be
+     * null. The progress will be displayed as secondary.
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads to use
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * loading the object from the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object in the database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while casting the database input in the desired match class
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the database
+     */
+    public void buildPeptidesAndProteins(final WaitingHandler waitingHandler, final SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        if (nThreads <= 1) {
+            buildPeptidesAndProteins(waitingHandler, sequenceMatchingPreferences);
+            return;
+        }
+
+        final ArrayList<String> spectrumMatchKeys = new ArrayList<String>(getSpectrumIdentificationSize());
+        for (String spectrumFile : spectrumIdentificationMap.keySet()) {
+            spectrumMatchKeys.addAll(spectrumIdentificationMap.get(spectrumFile));
+        }
+        final int nPsms = spectrumMatchKeys.size();
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(nPsms);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        // Map the peptides of the spectrum matches to the proteins in parallel
+        final Peptide[] peptides = new Peptide[nPsms];
+        final String[] peptideKeys = new String[nPsms];
+        final ConcurrentHashMap<String, ArrayList<String>> proteinMappingCache = new ConcurrentHashMap<String, ArrayList<String>>();
+        int nParts = Math.min(nThreads, Math.max(nPsms, 1));
+        final int partSize = (nPsms + nParts - 1) / nParts;
+
+        ExecutorService pool = Executors.newFixedThreadPool(nParts);
+        try {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(nParts);
+            for (int i = 0; i < nParts; i++) {
+                final int start = i * partSize;
+                final int end = Math.min(start + partSize, nPsms);
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        for (int j = start; j < end; j++) {
+                            String spectrumMatchKey = spectrumMatchKeys.get(j);
+                            SpectrumMatch spectrumMatch = getSpectrumMatch(spectrumMatchKey);
+                            if (spectrumMatch == null) {
+                                throw new IllegalArgumentException("Spectrum match " + spectrumMatchKey + " not found.");
+                            }
+                            if (spectrumMatch.getBestPeptideAssumption() != null) {
+                                Peptide peptide = spectrumMatch.getBestPeptideAssumption().getPeptide();
+                                if (peptide.getParentProteinsNoRemapping() == null) {
+                                    ArrayList<String> parentProteins = proteinMappingCache.get(peptide.getSequence());
+                                    if (parentProteins == null) {
+                                        parentProteins = peptide.getParentProteins(sequenceMatchingPreferences);
+                                        proteinMappingCache.putIfAbsent(peptide.getSequence(), parentProteins);
+                                    } else {
+                                        peptide.setParentProteins(new ArrayList<String>(parentProteins));
+                                    }
+                                }
+                                peptides[j] = peptide;
+                                peptideKeys[j] = peptide.getMatchingKey(sequenceMatchingPreferences);
+                            }
+                            if (waitingHandler != null) {
+                                waitingHandler.increaseSecondaryProgressCounter();
+                                if (waitingHandler.isRunCanceled()) {
+                                    return null;
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) cause;
+            }
+            throw new IllegalArgumentException("An error occurred while mapping the peptides to the proteins.", cause);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
+
+        // Aggregate the peptide and protein matches in memory
+        HashMap<String, Object> peptideMatches = new HashMap<String, Object>();
+        HashMap<String, Object> proteinMatches = new HashMap<String, Object>();
+
+        for (int i = 0; i < nPsms; i++) {
+
+            Peptide peptide = peptides[i];
+
+            if (peptide != null) {
+
+                String spectrumMatchKey = spectrumMatchKeys.get(i);
+                String peptideKey = peptideKeys[i];
+                PeptideMatch peptideMatch = (PeptideMatch) peptideMatches.get(peptideKey);
+
+                if (peptideMatch == null) {
+                    if (peptideIdentification.contains(peptideKey)) {
+                        peptideMatch = getPeptideMatch(peptideKey);
+                        if (peptideMatch == null) {
+                            throw new IllegalArgumentException("Peptide match " + peptideKey + " not found.");
+                        }
+                    } else {
+                        peptideMatch = new PeptideMatch(peptide, peptideKey);
+                        peptideIdentification.add(peptideKey);
+                    }
+                    peptideMatches.put(peptideKey, peptideMatch);
+                }
+                peptideMatch.addSpectrumMatchKey(spectrumMatchKey);
+
+                String proteinKey = ProteinMatch.getProteinMatchKey(peptide);
+                ProteinMatch proteinMatch = (ProteinMatch) proteinMatches.get(proteinKey);
+
+                if (proteinMatch == null) {
+                    if (proteinIdentification.contains(proteinKey)) {
+                        proteinMatch = getProteinMatch(proteinKey);
+                        if (proteinMatch == null) {
+                            throw new IllegalArgumentException("Protein match " + proteinKey + " not found.");
+                        }
+                    } else {
+                        proteinMatch = new ProteinMatch(peptideMatch.getTheoreticPeptide(), peptideKey);
+                        if (!proteinMatch.getKey().equals(proteinKey)) {
+                            throw new IllegalArgumentException("Protein inference issue: the protein key " + proteinKey + " does not match the peptide proteins " + proteinMatch.getKey() + "."
+                                    + " Peptide: " + peptideKey + " found in spectrum " + spectrumMatchKey + ".");
+                        }
+                        proteinIdentification.add(proteinKey);
+                        for (String protein : peptide.getParentProteinsNoRemapping()) {
+                            HashSet<String> proteinKeys = proteinMap.get(protein);
+                            if (proteinKeys == null) {
+                                proteinKeys = new HashSet<String>(1);
+                                proteinMap.put(protein, proteinKeys);
+                            }
+                            proteinKeys.add(proteinKey);
+                        }
+                    }
+                    proteinMatches.put(proteinKey, proteinMatch);
+                }
+                if (!proteinMatch.getPeptideMatchesKeys().contains(peptideKey)) {
+                    proteinMatch.addPeptideMatchKey(peptideKey);
+                }
+            }
+        }
+
+        // Save the matches in the database in batches
+        try {
+            identificationDB.addPeptideMatches(peptideMatches, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new IOException("Error while writing the peptide matches in the database.");
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error while writing the peptide matches in the database.");
+        }
+        try {
+            identificationDB.addProteinMatches(proteinMatches, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new IOException("Error while writing the protein matches in the database.");
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new SQLException("Error while writing the protein matches in the database.");
+        }
+    }
+
     /**
      * Creates the peptides and protein instances based on the given spectrum
      * match. Note that only the best peptide assumption is used, the method has
@@ -0,0 +1,1125 @@
+package com.compomics.util.experiment.identification;
+
+import com.compomics.util.db.ObjectsCodec;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.experiment.personalization.UrParameter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary encoding of the spectrum, peptide and protein matches, of
+ * the peptide assumptions and of the peptides. Integers are written as
+ * variable length integers, the strings repeated in a record are written once
+ * and referenced afterwards, objects referenced several times are written once
+ * like in Java serialization, and the modification names and identification
+ * file names are shared between the decoded objects. The objects which are not
+ * supported by the codec, like the user parameters or the tag assumptions, are
+ * Java serialized together in a block at the beginning of the record.
+ *
+ * Record: magic number (2 bytes), version, type of object, length of the Java
+ * serialized block, Java serialized block, object.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationCodec implements ObjectsCodec {
+
+    /**
+     * The version UID for serialization/deserialization compatibility.
+     */
+    static final long serialVersionUID = -2236915418263950321L;
+    /**
+     * The first byte of the magic number. Differs from the first byte of Java
+     * serialized objects.
+     */
+    public static final byte MAGIC_0 = 0x43;
+    /**
+     * The second byte of the magic number.
+     */
+    public static final byte MAGIC_1 = 0x4D;
+    /**
+     * The version of the encoding.
+     */
+    public static final byte VERSION = 1;
+    /**
+     * Type of a record containing a spectrum match.
+     */
+    private static final byte SPECTRUM_MATCH = 1;
+    /**
+     * Type of a record containing a peptide match.
+     */
+    private static final byte PEPTIDE_MATCH = 2;
+    /**
+     * Type of a record containing a protein match.
+     */
+    private static final byte PROTEIN_MATCH = 3;
+    /**
+     * Type of a record containing a peptide assumption.
+     */
+    private static final byte PEPTIDE_ASSUMPTION = 4;
+    /**
+     * Type of a record containing a peptide.
+     */
+    private static final byte PEPTIDE = 5;
+    /**
+     * Tag of a null object.
+     */
+    private static final int NULL = 0;
+    /**
+     * Tag of an object encoded by the codec.
+     */
+    private static final int ENCODED = 1;
+    /**
+     * Tag of an object in the Java serialized block.
+     */
+    private static final int SERIALIZED = 2;
+    /**
+     * Offset of the references to objects already written.
+     */
+    private static final int REFERENCE = 3;
+    /**
+     * Tag of a string written in the record.
+     */
+    private static final int NEW_STRING = 1;
+    /**
+     * Offset of the references to strings already written.
+     */
+    private static final int STRING_REFERENCE = 2;
+    /**
+     * The UTF-8 charset.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * The maximal number of strings shared between the decoded objects.
+     */
+    private static final int MAX_SHARED_STRINGS = 10000;
+    /**
+     * The strings shared between the decoded objects.
+     */
+    private static final ConcurrentHashMap<String, String> sharedStrings = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Constructor.
+     */
+    public IdentificationCodec() {
+    }
+
+    @Override
+    public byte[] encode(Object object) throws IOException {
+
+        byte type;
+        if (object == null) {
+            return null;
+        } else if (object.getClass() == SpectrumMatch.class) {
+            type = SPECTRUM_MATCH;
+        } else if (object.getClass() == PeptideMatch.class) {
+            type = PEPTIDE_MATCH;
+        } else if (object.getClass() == ProteinMatch.class) {
+            type = PROTEIN_MATCH;
+        } else if (object.getClass() == PeptideAssumption.class) {
+            type = PEPTIDE_ASSUMPTION;
+        } else if (object.getClass() == Peptide.class) {
+            type = PEPTIDE;
+        } else {
+            return null;
+        }
+
+        Encoder encoder = new Encoder();
+        switch (type) {
+            case SPECTRUM_MATCH:
+                encoder.writeSpectrumMatch((SpectrumMatch) object);
+                break;
+            case PEPTIDE_MATCH:
+                encoder.writePeptideMatch((PeptideMatch) object);
+                break;
+            case PROTEIN_MATCH:
+                encoder.writeProteinMatch((ProteinMatch) object);
+                break;
+            case PEPTIDE_ASSUMPTION:
+                encoder.writeAssumption((PeptideAssumption) object);
+                break;
+            default:
+                encoder.writePeptide((Peptide) object);
+        }
+
+        byte[] serializedBlock = null;
+        if (!encoder.serializedObjects.isEmpty()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            try {
+                oos.writeObject(encoder.serializedObjects);
+            } finally {
+                oos.close();
+            }
+            serializedBlock = bos.toByteArray();
+        }
+
+        Buffer record = new Buffer(encoder.buffer.length + (serializedBlock == null ? 0 : serializedBlock.length) + 16);
+        record.writeByte(MAGIC_0);
+        record.writeByte(MAGIC_1);
+        record.writeByte(VERSION);
+        record.writeByte(type);
+        if (serializedBlock == null) {
+            record.writeVarint(0);
+        } else {
+            record.writeVarint(serializedBlock.length);
+            record.writeBytes(serializedBlock, 0, serializedBlock.length);
+        }
+        record.writeBytes(encoder.buffer.bytes, 0, encoder.buffer.length);
+
+        return record.toByteArray();
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes.length > 3 && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    @Override
+    public Object decode(byte[] bytes) throws IOException, ClassNotFoundException {
+
+        if (!canDecode(bytes)) {
+            throw new IOException("Object not encoded by " + getClass().getSimpleName() + ".");
+        }
+        if (bytes[2] > VERSION || bytes[2] < 1) {
+            throw new IOException("Encoding version " + bytes[2] + " not supported, please update the software.");
+        }
+        byte type = bytes[3];
+
+        Decoder decoder = new Decoder(bytes, 4);
+        int serializedBlockLength = decoder.readVarint();
+        if (serializedBlockLength > 0) {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes, decoder.position, serializedBlockLength));
+            try {
+                decoder.serializedObjects = (ArrayList<Object>) in.readObject();
+            } finally {
+                in.close();
+            }
+            decoder.position += serializedBlockLength;
+        }
+
+        switch (type) {
+            case SPECTRUM_MATCH:
+                return decoder.readSpectrumMatch();
+            case PEPTIDE_MATCH:
+                return decoder.readPeptideMatch();
+            case PROTEIN_MATCH:
+                return decoder.readProteinMatch();
+            case PEPTIDE_ASSUMPTION:
+                return decoder.readAssumption();
+            case PEPTIDE:
+                return decoder.readPeptide();
+            default:
+                throw new IOException("Object type " + type + " not supported.");
+        }
+    }
+
+    /**
+     * Returns the shared instance of a string. Only a limited number of
+     * strings are shared, the other ones are returned as is.
+     *
+     * @param string the string
+     *
+     * @return the shared instance of the string
+     */
+    private static String getSharedString(String string) {
+        if (string == null) {
+            return null;
+        }
+        String sharedString = sharedStrings.get(string);
+        if (sharedString != null) {
+            return sharedString;
+        }
+        if (sharedStrings.size() >= MAX_SHARED_STRINGS) {
+            return string;
+        }
+        sharedString = sharedStrings.putIfAbsent(string, string);
+        return sharedString == null ? string : sharedString;
+    }
+
+    /**
+     * Growable array of bytes.
+     */
+    private static class Buffer {
+
+        /**
+         * The bytes.
+         */
+        byte[] bytes;
+        /**
+         * The number of bytes written.
+         */
+        int length = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity the initial capacity
+         */
+        Buffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        /**
+         * Makes sure that the given number of bytes can be written.
+         *
+         * @param n the number of bytes to write
+         */
+        private void ensureCapacity(int n) {
+            if (length + n > bytes.length) {
+                byte[] newBytes = new byte[Math.max(2 * bytes.length, length + n)];
+                System.arraycopy(bytes, 0, newBytes, 0, length);
+                bytes = newBytes;
+            }
+        }
+
+        /**
+         * Writes a byte.
+         *
+         * @param b the byte
+         */
+        void writeByte(int b) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) b;
+        }
+
+        /**
+         * Writes bytes.
+         *
+         * @param source the source array
+         * @param offset the offset in the source array
+         * @param n the number of bytes to write
+         */
+        void writeBytes(byte[] source, int offset, int n) {
+            ensureCapacity(n);
+            System.arraycopy(source, offset, bytes, length, n);
+            length += n;
+        }
+
+        /**
+         * Writes a non-negative integer using 7 bits per byte.
+         *
+         * @param value the integer
+         */
+        void writeVarint(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        /**
+         * Writes an integer using zigzag encoding so that small negative
+         * values use few bytes.
+         *
+         * @param value the integer
+         */
+        void writeSignedVarint(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        /**
+         * Writes a double.
+         *
+         * @param value the double
+         */
+        void writeDouble(double value) {
+            ensureCapacity(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[length++] = (byte) (bits >>> shift);
+            }
+        }
+
+        /**
+         * Returns the bytes written.
+         *
+         * @return the bytes written
+         */
+        byte[] toByteArray() {
+            byte[] result = new byte[length];
+            System.arraycopy(bytes, 0, result, 0, length);
+            return result;
+        }
+    }
+
+    /**
+     * Writes the objects of a record.
+     */
+    private static class Encoder {
+
+        /**
+         * The buffer where the objects are written.
+         */
+        final Buffer buffer = new Buffer(256);
+        /**
+         * The index of the strings written.
+         */
+        private final HashMap<String, Integer> strings = new HashMap<String, Integer>();
+        /**
+         * The index of the objects written.
+         */
+        private final IdentityHashMap<Object, Integer> objects = new IdentityHashMap<Object, Integer>();
+        /**
+         * The objects to Java serialize.
+         */
+        final ArrayList<Object> serializedObjects = new ArrayList<Object>(0);
+
+        /**
+         * Writes a string.
+         *
+         * @param string the string
+         */
+        void writeString(String string) {
+            if (string == null) {
+                buffer.writeVarint(NULL);
+                return;
+            }
+            Integer index = strings.get(string);
+            if (index != null) {
+                buffer.writeVarint(STRING_REFERENCE + index);
+                return;
+            }
+            strings.put(string, strings.size());
+            byte[] bytes = string.getBytes(UTF8);
+            buffer.writeVarint(NEW_STRING);
+            buffer.writeVarint(bytes.length);
+            buffer.writeBytes(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Writes a list of strings.
+         *
+         * @param list the list of strings
+         */
+        void writeStrings(ArrayList<String> list) {
+            if (list == null) {
+                buffer.writeVarint(0);
+                return;
+            }
+            buffer.writeVarint(list.size() + 1);
+            for (String string : list) {
+                writeString(string);
+            }
+        }
+
+        /**
+         * Writes a nullable double.
+         *
+         * @param value the double
+         */
+        void writeNullableDouble(Double value) {
+            if (value == null) {
+                buffer.writeByte(0);
+            } else {
+                buffer.writeByte(1);
+                buffer.writeDouble(value);
+            }
+        }
+
+        /**
+         * Writes a nullable integer.
+         *
+         * @param value the integer
+         */
+        void writeNullableInteger(Integer value) {
+            if (value == null) {
+                buffer.writeByte(0);
+            } else {
+                buffer.writeByte(1);
+                buffer.writeSignedVarint(value);
+            }
+        }
+
+        /**
+         * Adds an object to the Java serialized block and writes its index.
+         *
+         * @param object the object
+         */
+        void writeSerialized(Object object) {
+            buffer.writeVarint(serializedObjects.size());
+            serializedObjects.add(object);
+        }
+
+        /**
+         * Writes the tag of an object. Returns true if the object needs to be
+         * written, false if null or already written.
+         *
+         * @param object the object
+         * @param encoded a boolean indicating whether the object can be
+         * encoded by the codec, if false the object is Java serialized
+         *
+         * @return a boolean indicating whether the object needs to be written
+         */
+        boolean writeObjectTag(Object object, boolean encoded) {
+            if (object == null) {
+                buffer.writeVarint(NULL);
+                return false;
+            }
+            Integer index = objects.get(object);
+            if (index != null) {
+                buffer.writeVarint(REFERENCE + index);
+                return false;
+            }
+            objects.put(object, objects.size());
+            if (!encoded) {
+                buffer.writeVarint(SERIALIZED);
+                writeSerialized(object);
+                return false;
+            }
+            buffer.writeVarint(ENCODED);
+            return true;
+        }
+
+        /**
+         * Writes the user parameters of an object.
+         *
+         * @param experimentObject the object
+         */
+        void writeUrParams(ExperimentObject experimentObject) {
+            HashMap<String, UrParameter> urParams = experimentObject.getUrParams();
+            if (urParams == null) {
+                buffer.writeVarint(0);
+                return;
+            }
+            buffer.writeVarint(urParams.size() + 1);
+            for (Map.Entry<String, UrParameter> entry : urParams.entrySet()) {
+                writeString(entry.getKey());
+                writeSerialized(entry.getValue());
+            }
+        }
+
+        /**
+         * Writes a charge.
+         *
+         * @param charge the charge
+         */
+        void writeCharge(Charge charge) {
+            if (charge == null) {
+                buffer.writeVarint(NULL);
+            } else if (charge.getClass() == Charge.class && charge.getUrParams() == null) {
+                buffer.writeVarint(ENCODED);
+                buffer.writeSignedVarint(charge.sign);
+                buffer.writeSignedVarint(charge.value);
+            } else {
+                buffer.writeVarint(SERIALIZED);
+                writeSerialized(charge);
+            }
+        }
+
+        /**
+         * Writes a peptide.
+         *
+         * @param peptide the peptide
+         */
+        void writePeptide(Peptide peptide) {
+            boolean encoded = peptide == null || peptide.getClass() == Peptide.class && peptide.getVariantMatches() == null;
+            if (!writeObjectTag(peptide, encoded)) {
+                return;
+            }
+            writeUrParams(peptide);
+            writeString(peptide.getSequence());
+            writeStrings(peptide.getParentProteinsNoRemapping());
+            ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+            if (modificationMatches == null) {
+                buffer.writeVarint(0);
+                return;
+            }
+            buffer.writeVarint(modificationMatches.size() + 1);
+            for (ModificationMatch modificationMatch : modificationMatches) {
+                if (modificationMatch.getClass() == ModificationMatch.class && modificationMatch.getUrParams() == null) {
+                    buffer.writeVarint(ENCODED);
+                    writeString(modificationMatch.getTheoreticPtm());
+                    int flags = (modificationMatch.isVariable() ? 1 : 0)
+                            | (modificationMatch.isConfident() ? 2 : 0)
+                            | (modificationMatch.isInferred() ? 4 : 0);
+                    buffer.writeByte(flags);
+                    buffer.writeSignedVarint(modificationMatch.getModificationSite());
+                } else {
+                    buffer.writeVarint(SERIALIZED);
+                    writeSerialized(modificationMatch);
+                }
+            }
+        }
+
+        /**
+         * Writes a spectrum identification assumption. Only peptide
+         * assumptions are encoded, the other assumptions are Java serialized.
+         *
+         * @param assumption the assumption
+         */
+        void writeAssumption(SpectrumIdentificationAssumption assumption) {
+            boolean encoded = assumption == null || assumption.getClass() == PeptideAssumption.class && assumption.getScore() != null;
+            if (!writeObjectTag(assumption, encoded)) {
+                return;
+            }
+            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+            writeUrParams(peptideAssumption);
+            buffer.writeSignedVarint(peptideAssumption.getRank());
+            buffer.writeSignedVarint(peptideAssumption.getAdvocate());
+            writeCharge(peptideAssumption.getIdentificationCharge());
+            buffer.writeDouble(peptideAssumption.getScore());
+            writeString(peptideAssumption.getIdentificationFile());
+            writeNullableDouble(peptideAssumption.getRawScore());
+            ArrayList<double[]> aminoAcidScores = peptideAssumption.getAminoAcidScores();
+            if (aminoAcidScores == null) {
+                buffer.writeVarint(0);
+            } else {
+                buffer.writeVarint(aminoAcidScores.size() + 1);
+                for (double[] scores : aminoAcidScores) {
+                    if (scores == null) {
+                        buffer.writeVarint(0);
+                    } else {
+                        buffer.writeVarint(scores.length + 1);
+                        for (double score : scores) {
+                            buffer.writeDouble(score);
+                        }
+                    }
+                }
+            }
+            writePeptide(peptideAssumption.getPeptide());
+        }
+
+        /**
+         * Writes a spectrum match.
+         *
+         * @param spectrumMatch the spectrum match
+         */
+        void writeSpectrumMatch(SpectrumMatch spectrumMatch) {
+            writeUrParams(spectrumMatch);
+            writeString(spectrumMatch.getKey());
+            writeNullableInteger(spectrumMatch.getSpectrumNumber());
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+            if (assumptionsMap == null) {
+                buffer.writeVarint(0);
+            } else {
+                buffer.writeVarint(assumptionsMap.size() + 1);
+                for (Map.Entry<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> advocateEntry : assumptionsMap.entrySet()) {
+                    writeNullableInteger(advocateEntry.getKey());
+                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = advocateEntry.getValue();
+                    if (advocateMap == null) {
+                        buffer.writeVarint(0);
+                        continue;
+                    }
+                    buffer.writeVarint(advocateMap.size() + 1);
+                    for (Map.Entry<Double, ArrayList<SpectrumIdentificationAssumption>> scoreEntry : advocateMap.entrySet()) {
+                        writeNullableDouble(scoreEntry.getKey());
+                        ArrayList<SpectrumIdentificationAssumption> assumptions = scoreEntry.getValue();
+                        if (assumptions == null) {
+                            buffer.writeVarint(0);
+                            continue;
+                        }
+                        buffer.writeVarint(assumptions.size() + 1);
+                        for (SpectrumIdentificationAssumption assumption : assumptions) {
+                            writeAssumption(assumption);
+                        }
+                    }
+                }
+            }
+            writeAssumption(spectrumMatch.getBestPeptideAssumption());
+            writeAssumption(spectrumMatch.getBestTagAssumption());
+        }
+
+        /**
+         * Writes a peptide match.
+         *
+         * @param peptideMatch the peptide match
+         */
+        void writePeptideMatch(PeptideMatch peptideMatch) {
+            writeUrParams(peptideMatch);
+            writeString(peptideMatch.getKey());
+            writePeptide(peptideMatch.getTheoreticPeptide());
+            writeStrings(peptideMatch.getSpectrumMatchesKeys());
+        }
+
+        /**
+         * Writes a protein match.
+         *
+         * @param proteinMatch the protein match
+         */
+        void writeProteinMatch(ProteinMatch proteinMatch) {
+            writeUrParams(proteinMatch);
+            writeStrings(proteinMatch.getTheoreticProteinsAccessions());
+            writeString(proteinMatch.getMainMatch());
+            writeStrings(proteinMatch.getPeptideMatchesKeys());
+        }
+    }
+
+    /**
+     * Reads the objects of a record.
+     */
+    private static class Decoder {
+
+        /**
+         * The bytes of the record.
+         */
+        private final byte[] bytes;
+        /**
+         * The current position in the record.
+         */
+        int position;
+        /**
+         * The strings read.
+         */
+        private final ArrayList<String> strings = new ArrayList<String>();
+        /**
+         * The objects read.
+         */
+        private final ArrayList<Object> objects = new ArrayList<Object>();
+        /**
+         * The Java serialized objects.
+         */
+        ArrayList<Object> serializedObjects = null;
+
+        /**
+         * Constructor.
+         *
+         * @param bytes the bytes of the record
+         * @param position the position where to start reading
+         */
+        Decoder(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        /**
+         * Reads a byte.
+         *
+         * @return the byte
+         *
+         * @throws IOException exception thrown whenever the end of the record
+         * is reached
+         */
+        int readByte() throws IOException {
+            if (position >= bytes.length) {
+                throw new IOException("Unexpected end of record.");
+            }
+            return bytes[position++];
+        }
+
+        /**
+         * Reads a non-negative integer written using 7 bits per byte.
+         *
+         * @return the integer
+         *
+         * @throws IOException exception thrown whenever the integer is not
+         * valid
+         */
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed integer.");
+        }
+
+        /**
+         * Reads an integer written using zigzag encoding.
+         *
+         * @return the integer
+         *
+         * @throws IOException exception thrown whenever the integer is not
+         * valid
+         */
+        int readSignedVarint() throws IOException {
+            int value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads a double.
+         *
+         * @return the double
+         *
+         * @throws IOException exception thrown whenever the end of the record
+         * is reached
+         */
+        double readDouble() throws IOException {
+            if (position + 8 > bytes.length) {
+                throw new IOException("Unexpected end of record.");
+            }
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (bytes[position++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        /**
+         * Reads a string.
+         *
+         * @return the string
+         *
+         * @throws IOException exception thrown whenever the string is not
+         * valid
+         */
+        String readString() throws IOException {
+            int tag = readVarint();
+            if (tag == NULL) {
+                return null;
+            }
+            if (tag >= STRING_REFERENCE) {
+                return strings.get(tag - STRING_REFERENCE);
+            }
+            int length = readVarint();
+            if (length < 0 || position + length > bytes.length) {
+                throw new IOException("Unexpected end of record.");
+            }
+            String string = new String(bytes, position, length, UTF8);
+            position += length;
+            strings.add(string);
+            return string;
+        }
+
+        /**
+         * Reads a list of strings.
+         *
+         * @return the list of strings
+         *
+         * @throws IOException exception thrown whenever the list is not valid
+         */
+        ArrayList<String> readStrings() throws IOException {
+            int size = readVarint() - 1;
+            if (size < 0) {
+                return null;
+            }
+            ArrayList<String> list = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readString());
+            }
+            return list;
+        }
+
+        /**
+         * Reads a nullable double.
+         *
+         * @return the double
+         *
+         * @throws IOException exception thrown whenever the double is not
+         * valid
+         */
+        Double readNullableDouble() throws IOException {
+            if (readByte() == 0) {
+                return null;
+            }
+            return readDouble();
+        }
+
+        /**
+         * Reads a nullable integer.
+         *
+         * @return the integer
+         *
+         * @throws IOException exception thrown whenever the integer is not
+         * valid
+         */
+        Integer readNullableInteger() throws IOException {
+            if (readByte() == 0) {
+                return null;
+            }
+            return readSignedVarint();
+        }
+
+        /**
+         * Reads the index of a Java serialized object and returns the object.
+         *
+         * @return the object
+         *
+         * @throws IOException exception thrown whenever the index is not
+         * valid
+         */
+        Object readSerialized() throws IOException {
+            int index = readVarint();
+            if (serializedObjects == null || index >= serializedObjects.size()) {
+                throw new IOException("Serialized object " + index + " not found.");
+            }
+            return serializedObjects.get(index);
+        }
+
+        /**
+         * Reads the tag of an object. Returns the object if null, already read
+         * or Java serialized, or this decoder if the object needs to be read,
+         * in which case the index of the object is reserved.
+         *
+         * @return the object or this decoder
+         *
+         * @throws IOException exception thrown whenever the tag is not valid
+         */
+        Object readObjectTag() throws IOException {
+            int tag = readVarint();
+            if (tag == NULL) {
+                return null;
+            }
+            if (tag >= REFERENCE) {
+                return objects.get(tag - REFERENCE);
+            }
+            int index = objects.size();
+            objects.add(null);
+            if (tag == SERIALIZED) {
+                Object object = readSerialized();
+                objects.set(index, object);
+                return object;
+            }
+            return this;
+        }
+
+        /**
+         * Reads the user parameters of an object.
+         *
+         * @param experimentObject the object
+         *
+         * @throws IOException exception thrown whenever the parameters are
+         * not valid
+         */
+        void readUrParams(ExperimentObject experimentObject) throws IOException {
+            int size = readVarint() - 1;
+            if (size < 0) {
+                return;
+            }
+            HashMap<String, UrParameter> urParams = new HashMap<String, UrParameter>(size);
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                urParams.put(key, (UrParameter) readSerialized());
+            }
+            experimentObject.setUrParams(urParams);
+        }
+
+        /**
+         * Reads a charge.
+         *
+         * @return the charge
+         *
+         * @throws IOException exception thrown whenever the charge is not
+         * valid
+         */
+        Charge readCharge() throws IOException {
+            int tag = readVarint();
+            if (tag == NULL) {
+                return null;
+            }
+            if (tag == SERIALIZED) {
+                return (Charge) readSerialized();
+            }
+            int sign = readSignedVarint();
+            int value = readSignedVarint();
+            return new Charge(sign, value);
+        }
+
+        /**
+         * Reads a peptide.
+         *
+         * @return the peptide
+         *
+         * @throws IOException exception thrown whenever the peptide is not
+         * valid
+         */
+        Peptide readPeptide() throws IOException {
+            Object tagResult = readObjectTag();
+            if (tagResult != this) {
+                return (Peptide) tagResult;
+            }
+            int index = objects.size() - 1;
+            HashMap<String, UrParameter> urParams = null;
+            int nUrParams = readVarint() - 1;
+            if (nUrParams >= 0) {
+                urParams = new HashMap<String, UrParameter>(nUrParams);
+                for (int i = 0; i < nUrParams; i++) {
+                    String key = readString();
+                    urParams.put(key, (UrParameter) readSerialized());
+                }
+            }
+            String sequence = readString();
+            ArrayList<String> parentProteins = readStrings();
+            ArrayList<ModificationMatch> modificationMatches = null;
+            int nModifications = readVarint() - 1;
+            if (nModifications >= 0) {
+                modificationMatches = new ArrayList<ModificationMatch>(nModifications);
+                for (int i = 0; i < nModifications; i++) {
+                    if (readVarint() == SERIALIZED) {
+                        modificationMatches.add((ModificationMatch) readSerialized());
+                    } else {
+                        String ptmName = getSharedString(readString());
+                        int flags = readByte();
+                        int site = readSignedVarint();
+                        ModificationMatch modificationMatch = new ModificationMatch(ptmName, (flags & 1) != 0, site);
+                        modificationMatch.setConfident((flags & 2) != 0);
+                        modificationMatch.setInferred((flags & 4) != 0);
+                        modificationMatches.add(modificationMatch);
+                    }
+                }
+            }
+            Peptide peptide = new Peptide(sequence, modificationMatches);
+            if (parentProteins != null) {
+                peptide.setParentProteins(parentProteins);
+            }
+            peptide.setUrParams(urParams);
+            objects.set(index, peptide);
+            return peptide;
+        }
+
+        /**
+         * Reads a spectrum identification assumption.
+         *
+         * @return the assumption
+         *
+         * @throws IOException exception thrown whenever the assumption is not
+         * valid
+         */
+        SpectrumIdentificationAssumption readAssumption() throws IOException {
+            Object tagResult = readObjectTag();
+            if (tagResult != this) {
+                return (SpectrumIdentificationAssumption) tagResult;
+            }
+            int index = objects.size() - 1;
+            HashMap<String, UrParameter> urParams = null;
+            int nUrParams = readVarint() - 1;
+            if (nUrParams >= 0) {
+                urParams = new HashMap<String, UrParameter>(nUrParams);
+                for (int i = 0; i < nUrParams; i++) {
+                    String key = readString();
+                    urParams.put(key, (UrParameter) readSerialized());
+                }
+            }
+            int rank = readSignedVarint();
+            int advocate = readSignedVarint();
+            Charge charge = readCharge();
+            double score = readDouble();
+            String identificationFile = getSharedString(readString());
+            Double rawScore = readNullableDouble();
+            ArrayList<double[]> aminoAcidScores = null;
+            int nAminoAcidScores = readVarint() - 1;
+            if (nAminoAcidScores >= 0) {
+                aminoAcidScores = new ArrayList<double[]>(nAminoAcidScores);
+                for (int i = 0; i < nAminoAcidScores; i++) {
+                    int length = readVarint() - 1;
+                    double[] scores = null;
+                    if (length >= 0) {
+                        scores = new double[length];
+                        for (int j = 0; j < length; j++) {
+                            scores[j] = readDouble();
+                        }
+                    }
+                    aminoAcidScores.add(scores);
+                }
+            }
+            Peptide peptide = readPeptide();
+            PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, rank, advocate, charge, score, identificationFile);
+            peptideAssumption.setRawScore(rawScore);
+            peptideAssumption.setAminoAcidScores(aminoAcidScores);
+            peptideAssumption.setUrParams(urParams);
+            objects.set(index, peptideAssumption);
+            return peptideAssumption;
+        }
+
+        /**
+         * Reads a spectrum match.
+         *
+         * @return the spectrum match
+         *
+         * @throws IOException exception thrown whenever the match is not valid
+         */
+        SpectrumMatch readSpectrumMatch() throws IOException {
+            SpectrumMatch spectrumMatch = new SpectrumMatch();
+            readUrParams(spectrumMatch);
+            spectrumMatch.setKey(readString());
+            spectrumMatch.setSpectrumNumber(readNullableInteger());
+            int nAdvocates = readVarint() - 1;
+            if (nAdvocates >= 0) {
+                HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(nAdvocates);
+                for (int i = 0; i < nAdvocates; i++) {
+                    Integer advocate = readNullableInteger();
+                    int nScores = readVarint() - 1;
+                    HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = null;
+                    if (nScores >= 0) {
+                        advocateMap = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>(nScores);
+                        for (int j = 0; j < nScores; j++) {
+                            Double score = readNullableDouble();
+                            int nAssumptions = readVarint() - 1;
+                            ArrayList<SpectrumIdentificationAssumption> assumptions = null;
+                            if (nAssumptions >= 0) {
+                                assumptions = new ArrayList<SpectrumIdentificationAssumption>(nAssumptions);
+                                for (int k = 0; k < nAssumptions; k++) {
+                                    assumptions.add(readAssumption());
+                                }
+                            }
+                            advocateMap.put(score, assumptions);
+                        }
+                    }
+                    assumptionsMap.put(advocate, advocateMap);
+                }
+                spectrumMatch.setAssumptionMap(assumptionsMap);
+            }
+            spectrumMatch.setBestPeptideAssumption((PeptideAssumption) readAssumption());
+            spectrumMatch.setBestTagAssumption((TagAssumption) readAssumption());
+            return spectrumMatch;
+        }
+
+        /**
+         * Reads a peptide match.
+         *
+         * @return the peptide match
+         *
+         * @throws IOException exception thrown whenever the match is not valid
+         */
+        PeptideMatch readPeptideMatch() throws IOException {
+            HashMap<String, UrParameter> urParams = null;
+            int nUrParams = readVarint() - 1;
+            if (nUrParams >= 0) {
+                urParams = new HashMap<String, UrParameter>(nUrParams);
+                for (int i = 0; i < nUrParams; i++) {
+                    String key = readString();
+                    urParams.put(key, (UrParameter) readSerialized());
+                }
+            }
+            String key = readString();
+            Peptide peptide = readPeptide();
+            PeptideMatch peptideMatch = new PeptideMatch(peptide, key);
+            peptideMatch.setSpectrumMatchesKeys(readStrings());
+            peptideMatch.setUrParams(urParams);
+            return peptideMatch;
+        }
+
+        /**
+         * Reads a protein match.
+         *
+         * @return the protein match
+         *
+         * @throws IOException exception thrown whenever the match is not valid
+         */
+        ProteinMatch readProteinMatch() throws IOException {
+            ProteinMatch proteinMatch = new ProteinMatch();
+            readUrParams(proteinMatch);
+            ArrayList<String> accessions = readStrings();
+            if (accessions != null) {
+                for (String accession : accessions) {
+                    proteinMatch.addTheoreticProtein(accession);
+                }
+            }
+            proteinMatch.setMainMatch(readString());
+            proteinMatch.setPeptideKeys(readStrings());
+            return proteinMatch;
+        }
+    }
+}
@@ -86,10 +86,16 @@ public class IdentificationDB implements Serializable {
      * The database which will contain the objects.
      */
     private ObjectsDB objectsDB;
+    /**
+     * Indicates whether new databases store the matches using the
+     * IdentificationCodec instead of Java serialization.
+     */
+    private static boolean useIdentificationCodec = true;
 
     /**
      * Constructor creating the database and the protein and protein parameters
-     * tables.
+     * tables. New databases store the matches using the IdentificationCodec
+     * if enabled, see setUseIdentificationCodec.
      *
      * @param folder the folder where to put the database
      * @param name the database name
@@ -108,6 +114,9 @@ public class IdentificationDB implements Serializable {
     public IdentificationDB(String folder, String name, boolean deleteOldDatabase, ObjectsCache objectCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         this.dbName = name;
         objectsDB = new ObjectsDB(folder, dbName, deleteOldDatabase, objectCache);
+        if (useIdentificationCodec) {
+            objectsDB.setObjectsCodec(new IdentificationCodec());
+        }
         if (deleteOldDatabase) {
             objectsDB.addTable(proteinTableName);
             objectsDB.addTable(peptideTableName);
@@ -588,6 +597,25 @@ public class IdentificationDB implements Serializable {
         objectsDB.insertObject(peptideTableName, peptideMatch.getKey(), peptideMatch, true);
     }
 
+    /**
+     * Adds peptide matches to the database in batches, matches already in the
+     * database are updated. The matches are not put in the cache.
+     *
+     * @param peptideMatches map of the peptide matches indexed by key
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The progress will be displayed on the secondary progress bar.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the objects in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void addPeptideMatches(HashMap<String, Object> peptideMatches, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        objectsDB.insertObjects(peptideTableName, peptideMatches, waitingHandler);
+    }
+
     /**
      * Returns the desired protein match.
      *
@@ -623,6 +651,25 @@ public class IdentificationDB implements Serializable {
         objectsDB.insertObject(proteinTableName, proteinMatch.getKey(), proteinMatch, true);
     }
 
+    /**
+     * Adds protein matches to the database in batches, matches already in the
+     * database are updated. The matches are not put in the cache.
+     *
+     * @param proteinMatches map of the protein matches indexed by key
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The progress will be displayed on the secondary progress bar.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the objects in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the objects
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred when interacting with the database
+     */
+    public void addProteinMatches(HashMap<String, Object> proteinMatches, WaitingHandler waitingHandler) throws SQLException, IOException, InterruptedException {
+        objectsDB.insertObjects(proteinTableName, proteinMatches, waitingHandler);
+    }
+
     /**
      * Adds an identification match to the database.
      *
@@ -1371,7 +1418,11 @@ public class IdentificationDB implements Serializable {
     }
 
     /**
-     * Restores the connection to the database.
+     * Restores the connection to the database. The codec is saved with the
+     * project, the matches of projects created without the
+     * IdentificationCodec thus remain stored using Java serialization. If the
+     * old database is deleted, the codec is set according to
+     * setUseIdentificationCodec.
      *
      * @param dbFolder the folder where the database is located
      * @param deleteOldDatabase if true, tries to delete the old database
@@ -1389,8 +1440,46 @@ public class IdentificationDB implements Serializable {
      */
     public void restoreConnection(String dbFolder, boolean deleteOldDatabase, ObjectsCache objectsCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         objectsDB.establishConnection(dbFolder, deleteOldDatabase, objectsCache);
+        if (deleteOldDatabase) {
+            objectsDB.setObjectsCodec(useIdentificationCodec ? new IdentificationCodec() : null);
+        }
         objectsCache.addDb(objectsDB);
     }
+
+    /**
+     * Indicates whether new databases store the matches using the
+     * IdentificationCodec instead of Java serialization.
+     *
+     * @return a boolean indicating whether new databases use the
+     * IdentificationCodec
+     */
+    public static boolean isUseIdentificationCodec() {
+        return useIdentificationCodec;
+    }
+
+    /**
+     * Sets whether new databases store the matches using the
+     * IdentificationCodec instead of Java serialization. Disable to create
+     * projects readable by versions without the codec. Existing projects keep
+     * the format they were created with.
+     *
+     * @param useIdentificationCodec a boolean indicating whether new
+     * databases use the IdentificationCodec
+     */
+    public static void setUseIdentificationCodec(boolean useIdentificationCodec) {
+        IdentificationDB.useIdentificationCodec = useIdentificationCodec;
+    }
+
+    /**
+     * Indicates whether the matches of this database are stored using the
+     * IdentificationCodec.
+     *
+     * @return a boolean indicating whether the matches of this database are
+     * stored using the IdentificationCodec
+     */
+    public boolean usesIdentificationCodec() {
+        return objectsDB.getObjectsCodec() instanceof IdentificationCodec;
+    }
     
     /**
      * Indicates whether the connection to the DB is active.
@@ -0,0 +1,320 @@
+package com.compomics.util.experiment.identification.matches_iterators;
+
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Loads batches of matches in a dedicated thread ahead of the threads
+ * iterating the matches. The number of matches loaded ahead of the iteration
+ * is bounded: the loading thread waits when the bound is reached. The batch
+ * size is increased when the iterating threads have to wait for a batch and
+ * decreased when a batch takes longer than the target time to load.
+ *
+ * @author Marc Vaudel
+ */
+public class BatchPrefetcher {
+
+    /**
+     * Interface for the loading of a batch of matches.
+     */
+    public interface BatchLoader {
+
+        /**
+         * Loads the matches of the given keys in the cache.
+         *
+         * @param keys the keys of the matches to load
+         *
+         * @return a boolean indicating whether the loading completed, false if
+         * the process was canceled
+         *
+         * @throws SQLException exception thrown whenever an error occurred
+         * while interacting with the matches database
+         * @throws IOException exception thrown whenever an error occurred
+         * while interacting with the matches database
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurred while deserializing a match from the database
+         * @throws InterruptedException exception thrown whenever a threading
+         * issue occurred while loading the matches
+         */
+        public boolean loadBatch(ArrayList<String> keys) throws SQLException, IOException, ClassNotFoundException, InterruptedException;
+    }
+
+    /**
+     * The default number of batches to load ahead of the iteration.
+     */
+    public static final int DEFAULT_BATCHES_AHEAD = 3;
+    /**
+     * The minimal batch size.
+     */
+    public static final int MIN_BATCH_SIZE = 50;
+    /**
+     * The maximal batch size.
+     */
+    public static final int MAX_BATCH_SIZE = 10000;
+    /**
+     * The time in milliseconds above which the batch size is reduced.
+     */
+    public static final long TARGET_BATCH_TIME = 1000;
+    /**
+     * The keys of the matches to load.
+     */
+    private final ArrayList<String> keys;
+    /**
+     * The loader of the batches.
+     */
+    private final BatchLoader batchLoader;
+    /**
+     * The waiting handler.
+     */
+    private final WaitingHandler waitingHandler;
+    /**
+     * The name of the loading thread.
+     */
+    private final String name;
+    /**
+     * The maximal number of batches to load ahead of the iteration.
+     */
+    private int batchesAhead = DEFAULT_BATCHES_AHEAD;
+    /**
+     * The current batch size.
+     */
+    private int batchSize;
+    /**
+     * The index of the last match loaded.
+     */
+    private int loadedIndex = -1;
+    /**
+     * The highest index requested by the iterating threads.
+     */
+    private int requestedIndex = -1;
+    /**
+     * Boolean indicating whether an iterating thread waited for the current
+     * batch.
+     */
+    private boolean starving = false;
+    /**
+     * The number of times the iterating threads waited for a batch.
+     */
+    private int nIteratorWaits = 0;
+    /**
+     * The number of times the loading thread waited for the iteration.
+     */
+    private int nLoaderWaits = 0;
+    /**
+     * Boolean indicating whether the loading thread is done.
+     */
+    private boolean done = false;
+    /**
+     * Boolean indicating whether the prefetcher was closed.
+     */
+    private boolean closed = false;
+    /**
+     * The exception thrown by the loading thread, if any.
+     */
+    private Exception exception = null;
+    /**
+     * The loading thread, null if not started.
+     */
+    private Thread loadingThread = null;
+
+    /**
+     * Constructor.
+     *
+     * @param keys the keys of the matches to load, in the order of iteration
+     * @param batchLoader the loader of the batches
+     * @param batchSize the initial batch size
+     * @param waitingHandler the waiting handler
+     * @param name the name of the loading thread
+     */
+    public BatchPrefetcher(ArrayList<String> keys, BatchLoader batchLoader, int batchSize, WaitingHandler waitingHandler, String name) {
+        this.keys = keys;
+        this.batchLoader = batchLoader;
+        this.batchSize = Math.min(MAX_BATCH_SIZE, Math.max(MIN_BATCH_SIZE, batchSize));
+        this.waitingHandler = waitingHandler;
+        this.name = name;
+    }
+
+    /**
+     * Sets the maximal number of batches to load ahead of the iteration.
+     *
+     * @param batchesAhead the maximal number of batches to load ahead of the
+     * iteration
+     */
+    public synchronized void setBatchesAhead(int batchesAhead) {
+        if (batchesAhead < 1) {
+            throw new IllegalArgumentException("At least one batch must be loaded ahead of the iteration.");
+        }
+        this.batchesAhead = batchesAhead;
+        notifyAll();
+    }
+
+    /**
+     * Returns the current batch size.
+     *
+     * @return the current batch size
+     */
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns the number of matches loaded and not yet requested.
+     *
+     * @return the number of matches loaded and not yet requested
+     */
+    public synchronized int getNBuffered() {
+        return Math.max(0, loadedIndex - requestedIndex);
+    }
+
+    /**
+     * Returns the number of times the iterating threads waited for a batch.
+     *
+     * @return the number of times the iterating threads waited for a batch
+     */
+    public synchronized int getNIteratorWaits() {
+        return nIteratorWaits;
+    }
+
+    /**
+     * Returns the number of times the loading thread waited for the iteration
+     * to progress.
+     *
+     * @return the number of times the loading thread waited for the iteration
+     */
+    public synchronized int getNLoaderWaits() {
+        return nLoaderWaits;
+    }
+
+    /**
+     * Waits until the match at the given index is loaded. Starts the loading
+     * thread if needed. Returns without waiting if the loading stopped, in
+     * which case the match needs to be retrieved from the database.
+     *
+     * @param index the index of the match
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while waiting for the match
+     */
+    public synchronized void awaitLoaded(int index) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        if (loadingThread == null && !closed) {
+            loadingThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    load();
+                }
+            }, name);
+            loadingThread.setDaemon(true);
+            loadingThread.start();
+        }
+
+        if (index > requestedIndex) {
+            requestedIndex = index;
+            notifyAll();
+        }
+
+        boolean waited = false;
+        while (loadedIndex < index && !done && exception == null) {
+            if (!waited) {
+                waited = true;
+                starving = true;
+                nIteratorWaits++;
+            }
+            wait();
+        }
+
+        if (exception != null) {
+            if (exception instanceof SQLException) {
+                throw (SQLException) exception;
+            } else if (exception instanceof IOException) {
+                throw (IOException) exception;
+            } else if (exception instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) exception;
+            } else if (exception instanceof InterruptedException) {
+                throw (InterruptedException) exception;
+            } else {
+                throw (RuntimeException) exception;
+            }
+        }
+    }
+
+    /**
+     * Stops the loading thread. Needs to be called when the iteration is
+     * stopped before all matches were iterated.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Loads the batches until all matches are loaded, the process is
+     * canceled or the prefetcher is closed.
+     */
+    private void load() {
+
+        try {
+            int nKeys = keys.size();
+
+            while (true) {
+
+                int startIndex, endIndex;
+
+                synchronized (this) {
+                    boolean waited = false;
+                    while (!closed && loadedIndex - requestedIndex >= batchesAhead * batchSize) {
+                        if (!waited) {
+                            waited = true;
+                            nLoaderWaits++;
+                        }
+                        wait(1000);
+                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+                    }
+                    if (closed || loadedIndex >= nKeys - 1) {
+                        return;
+                    }
+                    startIndex = loadedIndex + 1;
+                    endIndex = Math.min(loadedIndex + batchSize, nKeys - 1);
+                    starving = false;
+                }
+
+                ArrayList<String> keysInBatch = new ArrayList<String>(keys.subList(startIndex, endIndex + 1));
+                long start = System.currentTimeMillis();
+                if (!batchLoader.loadBatch(keysInBatch)) {
+                    return;
+                }
+                long batchTime = System.currentTimeMillis() - start;
+
+                synchronized (this) {
+                    loadedIndex = endIndex;
+                    if (starving) {
+                        batchSize = Math.min(MAX_BATCH_SIZE, (int) (1.5 * batchSize));
+                    } else if (batchTime > TARGET_BATCH_TIME) {
+                        batchSize = Math.max(MIN_BATCH_SIZE, (int) (0.75 * batchSize));
+                    }
+                    notifyAll();
+                }
+            }
+
+        } catch (Exception e) {
+            synchronized (this) {
+                exception = e;
+            }
+        } finally {
+            synchronized (this) {
+                done = true;
+                notifyAll();
+            }
+        }
+    }
+}
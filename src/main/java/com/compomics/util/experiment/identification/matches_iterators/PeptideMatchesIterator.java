@@ -80,6 +80,11 @@ public class PeptideMatchesIterator {
      * The waiting handler.
      */
     private WaitingHandler waitingHandler;
+    /**
+     * The prefetcher loading the matches ahead of the iteration, null if not
+     * in prefetching mode.
+     */
+    private BatchPrefetcher prefetcher = null;
 
     /**
      * Constructor.
@@ -160,11 +165,17 @@ public class PeptideMatchesIterator {
     public PeptideMatch next() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         int threadIndex = incrementIndex();
         if (threadIndex < nMatches) {
-            checkBuffer();
+            BatchPrefetcher currentPrefetcher = getPrefetcher();
+            if (currentPrefetcher != null) {
+                currentPrefetcher.awaitLoaded(threadIndex);
+            } else {
+                checkBuffer();
+            }
             String key = peptideKeys.get(threadIndex);
             PeptideMatch match = identification.getPeptideMatch(key);
             return match;
         }
+        close();
         return null;
     }
 
@@ -199,46 +210,10 @@ public class PeptideMatchesIterator {
 
                     int newLoadingIndex = Math.min(loadingIndex + batchSize, nMatches - 1);
                     ArrayList<String> keysInBatch = new ArrayList<String>(peptideKeys.subList(loadingIndex + 1, newLoadingIndex + 1));
-                    identification.loadPeptideMatches(keysInBatch, waitingHandler, false);
-
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    if (!loadBatch(keysInBatch)) {
                         return;
                     }
 
-                    if (peptidesParameters != null) {
-                        for (UrParameter urParameter : peptidesParameters) {
-                            if (urParameter == null) {
-                                throw new IllegalArgumentException("Parameter to batch load is null.");
-                            }
-                            identification.loadPeptideMatchParameters(keysInBatch, urParameter, waitingHandler, false);
-
-                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
-                    }
-
-                    ArrayList<String> psmKeys = null;
-                    if (loadPsms || psmParameters != null) {
-                        psmKeys = new ArrayList<String>(batchSize);
-                        for (String peptideKey : keysInBatch) {
-                            PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-                            psmKeys.addAll(peptideMatch.getSpectrumMatchesKeys());
-                        }
-                    }
-                    if (loadPsms) {
-                        identification.loadSpectrumMatches(psmKeys, waitingHandler, false);
-                    }
-                    if (psmParameters != null) {
-                        for (UrParameter urParameter : psmParameters) {
-                            identification.loadSpectrumMatchParameters(psmKeys, urParameter, waitingHandler, false);
-
-                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
-                    }
-
                     loadingIndex = newLoadingIndex;
                     trigger += (int) (margin * batchSize / 2);
                     trigger = Math.max(0, trigger);
@@ -266,6 +241,112 @@ public class PeptideMatchesIterator {
         }
     }
 
+    /**
+     * Loads the given batch of matches and the associated objects in the
+     * identification cache.
+     *
+     * @param keysInBatch the keys of the matches to load
+     *
+     * @return a boolean indicating whether the loading completed, false if the
+     * process was canceled
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while loading the matches
+     */
+    private boolean loadBatch(ArrayList<String> keysInBatch) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        identification.loadPeptideMatches(keysInBatch, waitingHandler, false);
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return false;
+        }
+
+        if (peptidesParameters != null) {
+            for (UrParameter urParameter : peptidesParameters) {
+                if (urParameter == null) {
+                    throw new IllegalArgumentException("Parameter to batch load is null.");
+                }
+                identification.loadPeptideMatchParameters(keysInBatch, urParameter, waitingHandler, false);
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return false;
+                }
+            }
+        }
+
+        ArrayList<String> psmKeys = null;
+        if (loadPsms || psmParameters != null) {
+            psmKeys = new ArrayList<String>(batchSize);
+            for (String peptideKey : keysInBatch) {
+                PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+                psmKeys.addAll(peptideMatch.getSpectrumMatchesKeys());
+            }
+        }
+        if (loadPsms) {
+            identification.loadSpectrumMatches(psmKeys, waitingHandler, false);
+        }
+        if (psmParameters != null) {
+            for (UrParameter urParameter : psmParameters) {
+                identification.loadSpectrumMatchParameters(psmKeys, urParameter, waitingHandler, false);
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Sets whether the matches should be loaded by a dedicated thread ahead of
+     * the iteration. Needs to be set before the iteration starts.
+     *
+     * @param prefetching a boolean indicating whether the matches should be
+     * loaded by a dedicated thread ahead of the iteration
+     */
+    public synchronized void setPrefetching(boolean prefetching) {
+        if (prefetching && prefetcher == null) {
+            prefetcher = new BatchPrefetcher(peptideKeys, new BatchPrefetcher.BatchLoader() {
+                @Override
+                public boolean loadBatch(ArrayList<String> keys) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+                    return PeptideMatchesIterator.this.loadBatch(keys);
+                }
+            }, batchSize, waitingHandler, "Peptide matches prefetching");
+        } else if (!prefetching && prefetcher != null) {
+            prefetcher.close();
+            prefetcher = null;
+        }
+    }
+
+    /**
+     * Returns the prefetcher loading the matches ahead of the iteration, null
+     * if not in prefetching mode.
+     *
+     * @return the prefetcher loading the matches ahead of the iteration
+     */
+    public synchronized BatchPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Stops the loading of the matches ahead of the iteration. Needs to be
+     * called in prefetching mode when the iteration is stopped before all
+     * matches were iterated.
+     */
+    public void close() {
+        BatchPrefetcher currentPrefetcher = getPrefetcher();
+        if (currentPrefetcher != null) {
+            currentPrefetcher.close();
+        }
+    }
+
     /**
      * Increments the index of the iterator.
      *
@@ -90,6 +90,11 @@ public class ProteinMatchesIterator {
      * The waiting handler.
      */
     private WaitingHandler waitingHandler;
+    /**
+     * The prefetcher loading the matches ahead of the iteration, null if not
+     * in prefetching mode.
+     */
+    private BatchPrefetcher prefetcher = null;
 
     /**
      * Constructor.
@@ -168,11 +173,17 @@ public class ProteinMatchesIterator {
     public ProteinMatch next() throws SQLException, IOException, ClassNotFoundException, InterruptedException {
         int threadIndex = incrementIndex();
         if (threadIndex < nMatches) {
-            checkBuffer();
+            BatchPrefetcher currentPrefetcher = getPrefetcher();
+            if (currentPrefetcher != null) {
+                currentPrefetcher.awaitLoaded(threadIndex);
+            } else {
+                checkBuffer();
+            }
             String key = proteinKeys.get(threadIndex);
             ProteinMatch match = identification.getProteinMatch(key);
             return match;
         }
+        close();
         return null;
     }
 
@@ -207,71 +218,10 @@ public class ProteinMatchesIterator {
 
                     int newLoadingIndex = Math.min(loadingIndex + batchSize, nMatches - 1);
                     ArrayList<String> keysInBatch = new ArrayList<String>(proteinKeys.subList(loadingIndex + 1, newLoadingIndex + 1));
-                    identification.loadProteinMatches(keysInBatch, waitingHandler, false);
-
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    if (!loadBatch(keysInBatch)) {
                         return;
                     }
 
-                    if (proteinParameters != null) {
-                        for (UrParameter urParameter : proteinParameters) {
-                            if (urParameter == null) {
-                                throw new IllegalArgumentException("Parameter to batch load is null.");
-                            }
-                            identification.loadProteinMatchParameters(keysInBatch, urParameter, waitingHandler, false);
-
-                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
-                    }
-                    ArrayList<String> peptideKeys = null;
-                    if (loadPeptides || peptidesParameters != null) {
-                        peptideKeys = new ArrayList<String>(batchSize);
-                        for (String proteinKey : keysInBatch) {
-                            ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
-                            peptideKeys.addAll(proteinMatch.getPeptideMatchesKeys());
-                        }
-                    }
-                    if (loadPeptides) {
-                        identification.loadPeptideMatches(peptideKeys, waitingHandler, false);
-
-                        if (loadPsms) {
-                            ArrayList<String> psmKeys = new ArrayList<String>(peptideKeys.size());
-                            for (String peptideKey : peptideKeys) {
-                                PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-                                psmKeys.addAll(peptideMatch.getSpectrumMatchesKeys());
-                            }
-                            identification.loadSpectrumMatches(psmKeys, waitingHandler, false);
-                            if (psmParameters != null) {
-                                for (UrParameter urParameter : psmParameters) {
-                                    if (urParameter == null) {
-                                        throw new IllegalArgumentException("Parameter to batch load is null.");
-                                    }
-
-                                    identification.loadSpectrumMatchParameters(psmKeys, urParameter, waitingHandler, false);
-
-                                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                        return;
-                                    }
-                                }
-                            }
-                        }
-                    }
-
-                    if (peptidesParameters != null) {
-                        for (UrParameter urParameter : peptidesParameters) {
-                            if (urParameter == null) {
-                                throw new IllegalArgumentException("Parameter to batch load is null.");
-                            }
-                            identification.loadPeptideMatchParameters(peptideKeys, urParameter, waitingHandler, false);
-
-                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                return;
-                            }
-                        }
-                    }
-
                     loadingIndex = newLoadingIndex;
                     trigger += (int) (margin * batchSize / 2);
                     trigger = Math.max(0, trigger);
@@ -299,6 +249,137 @@ public class ProteinMatchesIterator {
         }
     }
 
+    /**
+     * Loads the given batch of matches and the associated objects in the
+     * identification cache.
+     *
+     * @param keysInBatch the keys of the matches to load
+     *
+     * @return a boolean indicating whether the loading completed, false if the
+     * process was canceled
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws IOException exception thrown whenever an error occurred while
+     * interacting with the matches database
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a match from the database
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while loading the matches
+     */
+    private boolean loadBatch(ArrayList<String> keysInBatch) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+
+        identification.loadProteinMatches(keysInBatch, waitingHandler, false);
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return false;
+        }
+
+        if (proteinParameters != null) {
+            for (UrParameter urParameter : proteinParameters) {
+                if (urParameter == null) {
+                    throw new IllegalArgumentException("Parameter to batch load is null.");
+                }
+                identification.loadProteinMatchParameters(keysInBatch, urParameter, waitingHandler, false);
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return false;
+                }
+            }
+        }
+        ArrayList<String> peptideKeys = null;
+        if (loadPeptides || peptidesParameters != null) {
+            peptideKeys = new ArrayList<String>(batchSize);
+            for (String proteinKey : keysInBatch) {
+                ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+                peptideKeys.addAll(proteinMatch.getPeptideMatchesKeys());
+            }
+        }
+        if (loadPeptides) {
+            identification.loadPeptideMatches(peptideKeys, waitingHandler, false);
+
+            if (loadPsms) {
+                ArrayList<String> psmKeys = new ArrayList<String>(peptideKeys.size());
+                for (String peptideKey : peptideKeys) {
+                    PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+                    psmKeys.addAll(peptideMatch.getSpectrumMatchesKeys());
+                }
+                identification.loadSpectrumMatches(psmKeys, waitingHandler, false);
+                if (psmParameters != null) {
+                    for (UrParameter urParameter : psmParameters) {
+                        if (urParameter == null) {
+                            throw new IllegalArgumentException("Parameter to batch load is null.");
+                        }
+
+                        identification.loadSpectrumMatchParameters(psmKeys, urParameter, waitingHandler, false);
+
+                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (peptidesParameters != null) {
+            for (UrParameter urParameter : peptidesParameters) {
+                if (urParameter == null) {
+                    throw new IllegalArgumentException("Parameter to batch load is null.");
+                }
+                identification.loadPeptideMatchParameters(peptideKeys, urParameter, waitingHandler, false);
+
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Sets whether the matches should be loaded by a dedicated thread ahead of
+     * the iteration. Needs to be set before the iteration starts.
+     *
+     * @param prefetching a boolean indicating whether the matches should be
+     * loaded by a dedicated thread ahead of the iteration
+     */
+    public synchronized void setPrefetching(boolean prefetching) {
+        if (prefetching && prefetcher == null) {
+            prefetcher = new BatchPrefetcher(proteinKeys, new BatchPrefetcher.BatchLoader() {
+                @Override
+                public boolean loadBatch(ArrayList<String> keys) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+                    return ProteinMatchesIterator.this.loadBatch(keys);
+                }
+            }, batchSize, waitingHandler, "Protein matches prefetching");
+        } else if (!prefetching && prefetcher != null) {
+            prefetcher.close();
+            prefetcher = null;
+        }
+    }
+
+    /**
+     * Returns the prefetcher loading the matches ahead of the iteration, null
+     * if not in prefetching mode.
+     *
+     * @return the prefetcher loading the matches ahead of the iteration
+     */
+    public synchronized BatchPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Stops the loading of the matches ahead of the iteration. Needs to be
+     * called in prefetching mode when the iteration is stopped before all
+     * matches were iterated.
+     */
+    public void close() {
+        BatchPrefetcher currentPrefetcher = getPrefetcher();
+        if (currentPrefetcher != null) {
+            currentPrefetcher.close();
+        }
+    }
+
     /**
      * Increments the index of the iterator.
      *
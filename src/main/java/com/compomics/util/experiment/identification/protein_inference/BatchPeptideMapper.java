@@ -0,0 +1,238 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps a batch of peptides to proteins using a peptide mapper on several
+ * threads. The peptides are distributed in chunks over the threads and the
+ * results are returned in the order of the input. Any peptide mapper
+ * supporting concurrent calls to getProteinMapping(String,
+ * SequenceMatchingPreferences) can be used.
+ *
+ * @author Marc Vaudel
+ * @author Dominik Kopczynski
+ */
+public class BatchPeptideMapper {
+
+    /**
+     * The number of peptides a thread takes at once.
+     */
+    public static final int CHUNK_SIZE = 64;
+
+    /**
+     * Empty default constructor.
+     */
+    private BatchPeptideMapper() {
+    }
+
+    /**
+     * Returns the protein mappings of the given peptides, one list per peptide
+     * in the iteration order of the collection. The mapper must support
+     * concurrent calls to getProteinMapping(String,
+     * SequenceMatchingPreferences).
+     *
+     * @param peptideMapper the peptide mapper
+     * @param peptideSequences the peptide sequences to map
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads to use
+     *
+     * @return the protein mappings of every peptide in the input order
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with a database.
+     */
+    public static ArrayList<ArrayList<PeptideProteinMapping>> getProteinMappings(PeptideMapper peptideMapper, Collection<String> peptideSequences,
+            SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        return getProteinMappings(peptideMapper, peptideSequences, sequenceMatchingPreferences, nThreads, null);
+    }
+
+    /**
+     * Returns the protein mappings of the given peptides, one list per peptide
+     * in the iteration order of the collection. The mapper must support
+     * concurrent calls to getProteinMapping(String,
+     * SequenceMatchingPreferences). The secondary progress counter of the
+     * waiting handler is increased by one for every peptide mapped.
+     *
+     * @param peptideMapper the peptide mapper
+     * @param peptideSequences the peptide sequences to map
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads to use
+     * @param waitingHandler the waiting handler displaying the progress, can
+     * be null
+     *
+     * @return the protein mappings of every peptide in the input order, null
+     * if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file.
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object.
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping the peptides.
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with a database.
+     */
+    public static ArrayList<ArrayList<PeptideProteinMapping>> getProteinMappings(PeptideMapper peptideMapper, Collection<String> peptideSequences,
+            SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+
+        String[] peptides = peptideSequences.toArray(new String[peptideSequences.size()]);
+        ArrayList<PeptideProteinMapping>[] results = (ArrayList<PeptideProteinMapping>[]) new ArrayList[peptides.length];
+        nThreads = Math.max(Math.min(nThreads, (peptides.length + CHUNK_SIZE - 1) / CHUNK_SIZE), 1);
+
+        AtomicInteger nextChunk = new AtomicInteger(0);
+        ArrayList<MappingRunnable> runnables = new ArrayList<MappingRunnable>(nThreads);
+        if (nThreads == 1) {
+            MappingRunnable mappingRunnable = new MappingRunnable(peptideMapper, peptides, results, nextChunk, sequenceMatchingPreferences, waitingHandler);
+            runnables.add(mappingRunnable);
+            mappingRunnable.run();
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+            try {
+                for (int i = 0; i < nThreads; i++) {
+                    MappingRunnable mappingRunnable = new MappingRunnable(peptideMapper, peptides, results, nextChunk, sequenceMatchingPreferences, waitingHandler);
+                    runnables.add(mappingRunnable);
+                    pool.submit(mappingRunnable);
+                }
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        for (MappingRunnable mappingRunnable : runnables) {
+            Exception exception = mappingRunnable.getException();
+            if (exception != null) {
+                if (exception instanceof IOException) {
+                    throw (IOException) exception;
+                } else if (exception instanceof InterruptedException) {
+                    throw (InterruptedException) exception;
+                } else if (exception instanceof ClassNotFoundException) {
+                    throw (ClassNotFoundException) exception;
+                } else if (exception instanceof SQLException) {
+                    throw (SQLException) exception;
+                } else if (exception instanceof RuntimeException) {
+                    throw (RuntimeException) exception;
+                }
+                throw new IllegalStateException(exception);
+            }
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return null;
+        }
+
+        ArrayList<ArrayList<PeptideProteinMapping>> mappings = new ArrayList<ArrayList<PeptideProteinMapping>>(peptides.length);
+        for (ArrayList<PeptideProteinMapping> result : results) {
+            mappings.add(result);
+        }
+        return mappings;
+    }
+
+    /**
+     * Runnable mapping chunks of peptides until all peptides are mapped or an
+     * exception is encountered.
+     */
+    private static class MappingRunnable implements Runnable {
+
+        /**
+         * The peptide mapper.
+         */
+        private final PeptideMapper peptideMapper;
+        /**
+         * All peptides to map.
+         */
+        private final String[] peptides;
+        /**
+         * The results, indexed like the peptides.
+         */
+        private final ArrayList<PeptideProteinMapping>[] results;
+        /**
+         * The index of the next chunk to process.
+         */
+        private final AtomicInteger nextChunk;
+        /**
+         * The sequence matching preferences.
+         */
+        private final SequenceMatchingPreferences sequenceMatchingPreferences;
+        /**
+         * The waiting handler displaying the progress, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Exception encountered while mapping, null if none.
+         */
+        private Exception exception = null;
+
+        /**
+         * Constructor.
+         *
+         * @param peptideMapper the peptide mapper
+         * @param peptides all peptides to map
+         * @param results the results, indexed like the peptides
+         * @param nextChunk the index of the next chunk to process
+         * @param sequenceMatchingPreferences the sequence matching preferences
+         * @param waitingHandler the waiting handler displaying the progress,
+         * can be null
+         */
+        public MappingRunnable(PeptideMapper peptideMapper, String[] peptides, ArrayList<PeptideProteinMapping>[] results, AtomicInteger nextChunk,
+                SequenceMatchingPreferences sequenceMatchingPreferences, WaitingHandler waitingHandler) {
+            this.peptideMapper = peptideMapper;
+            this.peptides = peptides;
+            this.results = results;
+            this.nextChunk = nextChunk;
+            this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long start;
+                while ((start = (long) nextChunk.getAndIncrement() * CHUNK_SIZE) < peptides.length) {
+                    int end = (int) Math.min(start + CHUNK_SIZE, peptides.length);
+                    for (int i = (int) start; i < end; i++) {
+                        results[i] = peptideMapper.getProteinMapping(peptides[i], sequenceMatchingPreferences);
+                    }
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            nextChunk.set(peptides.length / CHUNK_SIZE + 1);
+                            return;
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter(end - (int) start);
+                    }
+                }
+            } catch (Exception e) {
+                exception = e;
+                // make the other threads stop
+                nextChunk.set(peptides.length / CHUNK_SIZE + 1);
+            }
+        }
+
+        /**
+         * Returns the exception encountered while mapping, null if none.
+         *
+         * @return the exception encountered while mapping
+         */
+        public Exception getException() {
+            return exception;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent
 import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
 import com.compomics.util.experiment.identification.identification_parameters.PtmSettings;
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
+import com.compomics.util.experiment.identification.protein_inference.BatchPeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
@@ -147,10 +148,8 @@ public class PeptideMapping {
             // starting the mapping
             try {
                 long startTimeMapping = System.nanoTime();
-                for (int i = 0; i < peptides.size(); ++i) {
-                    String peptide = peptides.get(i);
-                    waitingHandlerCLIImpl.increaseSecondaryProgressCounter();
-                    ArrayList<PeptideProteinMapping> peptideProteinMappings = peptideMapper.getProteinMapping(peptide, sequenceMatchingPreferences);
+                int nThreads = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+                for (ArrayList<PeptideProteinMapping> peptideProteinMappings : BatchPeptideMapper.getProteinMappings(peptideMapper, peptides, sequenceMatchingPreferences, nThreads, waitingHandlerCLIImpl)) {
                     allPeptideProteinMappings.addAll(peptideProteinMappings);
                 }
                 long diffTimeMapping = System.nanoTime() - startTimeMapping;
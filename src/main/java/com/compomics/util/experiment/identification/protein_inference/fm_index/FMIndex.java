@@ -22,7 +22,10 @@ import com.compomics.util.experiment.identification.protein_inference.PeptidePro
 import com.compomics.util.preferences.PeptideVariantsPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -35,7 +38,16 @@ import java.util.LinkedList;
 import java.util.Set;
 import java.util.TreeSet;
 import org.jsuffixarrays.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The FM index.
@@ -44,10 +56,6 @@ import java.util.concurrent.Semaphore;
  * @author Marc Vaudel
  */
 public class FMIndex implements PeptideMapper {
-    /**
-     * Semaphore for caching.
-     */
-    static Semaphore cacheMutex = new Semaphore(1);
     /**
     * Number of chunks of complete index.
     */
@@ -56,10 +64,14 @@ public class FMIndex implements PeptideMapper {
      * Byte size of index chuck.
      */
     private final int indexChunkSize = 100 * 1024 * 1024;
+    /**
+     * Number of threads to use when building the index parts.
+     */
+    private int nThreads = 1;
     /**
      * Sampled suffix array.
      */
-    private final ArrayList<int[]> suffixArraysPrimary = new ArrayList<int[]>();
+    private final ArrayList<IntBuffer> suffixArraysPrimary = new ArrayList<IntBuffer>();
     /**
      * Wavelet tree for storing the burrows wheeler transform.
      */
@@ -95,7 +107,7 @@ public class FMIndex implements PeptideMapper {
     /**
      * Storing the starting positions of the protein sequences.
      */
-    private final ArrayList<int[]> boundaries = new ArrayList<int[]>();
+    private final ArrayList<IntBuffer> boundaries = new ArrayList<IntBuffer>();
     /**
      * List of all accession IDs in the FASTA file.
      */
@@ -292,6 +304,126 @@ public class FMIndex implements PeptideMapper {
      */
     ArrayList<MassIndexMap> massIndexMaps = null;
 
+    /**
+     * Scratch buffers for the backward searches, reused between the peptides
+     * mapped by a thread. The cells used by the previous peptide are cleared
+     * before being handed out again.
+     */
+    private static class BackwardSearchBuffer {
+
+        /**
+         * The backward matrix of the exact and generic variant searches.
+         */
+        private ArrayList<MatrixContent>[][] backwardMatrix = (ArrayList<MatrixContent>[][]) new ArrayList[0][0];
+        /**
+         * The number of rows of the backward matrix used by the last search.
+         */
+        private int usedRows = 0;
+        /**
+         * The number of columns of the backward matrix used by the last
+         * search.
+         */
+        private int usedColumns = 0;
+        /**
+         * The backward matrix of the specific variant search.
+         */
+        private LinkedList<MatrixContent>[][] linkedBackwardMatrix = (LinkedList<MatrixContent>[][]) new LinkedList[0][0];
+        /**
+         * The number of rows of the linked backward matrix used by the last
+         * search.
+         */
+        private int usedLinkedRows = 0;
+        /**
+         * The number of columns of the linked backward matrix used by the
+         * last search.
+         */
+        private int usedLinkedColumns = 0;
+
+        /**
+         * Returns a backward list of at least the given length with the first
+         * length cells empty.
+         *
+         * @param length the number of cells needed
+         *
+         * @return the backward list
+         */
+        public ArrayList<MatrixContent>[] getBackwardList(int length) {
+            return getBackwardMatrix(1, length)[0];
+        }
+
+        /**
+         * Returns a backward matrix of at least the given dimensions with the
+         * cells of the given dimensions empty.
+         *
+         * @param rows the number of rows needed
+         * @param columns the number of columns needed
+         *
+         * @return the backward matrix
+         */
+        public ArrayList<MatrixContent>[][] getBackwardMatrix(int rows, int columns) {
+            if (backwardMatrix.length < rows || backwardMatrix[0].length < columns) {
+                int newRows = Math.max(rows, backwardMatrix.length);
+                int newColumns = Math.max(columns, backwardMatrix.length == 0 ? 0 : backwardMatrix[0].length);
+                backwardMatrix = (ArrayList<MatrixContent>[][]) new ArrayList[newRows][newColumns];
+                for (int k = 0; k < newRows; ++k) {
+                    for (int j = 0; j < newColumns; ++j) {
+                        backwardMatrix[k][j] = new ArrayList<MatrixContent>(10);
+                    }
+                }
+            } else {
+                for (int k = 0; k < usedRows; ++k) {
+                    for (int j = 0; j < usedColumns; ++j) {
+                        backwardMatrix[k][j].clear();
+                    }
+                }
+            }
+            usedRows = rows;
+            usedColumns = columns;
+            return backwardMatrix;
+        }
+
+        /**
+         * Returns a linked backward matrix of at least the given dimensions
+         * with the cells of the given dimensions empty.
+         *
+         * @param rows the number of rows needed
+         * @param columns the number of columns needed
+         *
+         * @return the linked backward matrix
+         */
+        public LinkedList<MatrixContent>[][] getLinkedBackwardMatrix(int rows, int columns) {
+            if (linkedBackwardMatrix.length < rows || linkedBackwardMatrix[0].length < columns) {
+                int newRows = Math.max(rows, linkedBackwardMatrix.length);
+                int newColumns = Math.max(columns, linkedBackwardMatrix.length == 0 ? 0 : linkedBackwardMatrix[0].length);
+                linkedBackwardMatrix = (LinkedList<MatrixContent>[][]) new LinkedList[newRows][newColumns];
+                for (int k = 0; k < newRows; ++k) {
+                    for (int j = 0; j < newColumns; ++j) {
+                        linkedBackwardMatrix[k][j] = new LinkedList<MatrixContent>();
+                    }
+                }
+            } else {
+                for (int k = 0; k < usedLinkedRows; ++k) {
+                    for (int j = 0; j < usedLinkedColumns; ++j) {
+                        linkedBackwardMatrix[k][j].clear();
+                    }
+                }
+            }
+            usedLinkedRows = rows;
+            usedLinkedColumns = columns;
+            return linkedBackwardMatrix;
+        }
+    }
+
+    /**
+     * The backward search buffers of the threads mapping peptides.
+     */
+    private final ThreadLocal<BackwardSearchBuffer> backwardSearchBuffers = new ThreadLocal<BackwardSearchBuffer>() {
+        @Override
+        protected BackwardSearchBuffer initialValue() {
+            return new BackwardSearchBuffer();
+        }
+    };
+
     /**
      * Returns the position of a value in the array or if not found the position
      * of the closest smaller value.
@@ -301,19 +433,19 @@ public class FMIndex implements PeptideMapper {
      * @return he position of a value in the array or if not found the position
      * of the closest smaller value
      */
-    private static int binarySearch(int[] array, int key) {
+    private static int binarySearch(IntBuffer array, int key) {
         int low = 0;
         int mid = 0;
-        int high = array.length - 1;
+        int high = array.limit() - 1;
         while (low <= high) {
             mid = (low + high) >> 1;
-            if (array[mid] <= key) {
+            if (array.get(mid) <= key) {
                 low = mid + 1;
             } else {
                 high = mid - 1;
             }
         }
-        if (mid > 0 && key < array[mid]) {
+        if (mid > 0 && key < array.get(mid)) {
             mid -= 1;
         }
         return mid;
@@ -465,7 +597,7 @@ public class FMIndex implements PeptideMapper {
     public long getAllocatedBytes() {
         long bytes = 0;
         for (int indexPart = 0; indexPart < indexParts; ++indexPart){
-            bytes += occurrenceTablesPrimary.get(indexPart).getAllocatedBytes() + occurrenceTablesReversed.get(indexPart).getAllocatedBytes() + suffixArraysPrimary.get(indexPart).length * 4;
+            bytes += occurrenceTablesPrimary.get(indexPart).getAllocatedBytes() + occurrenceTablesReversed.get(indexPart).getAllocatedBytes() + suffixArraysPrimary.get(indexPart).limit() * 4;
         }
         return bytes;
     }
@@ -481,9 +613,46 @@ public class FMIndex implements PeptideMapper {
      * @param searchParameters the search parameters
      */
     public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters) {
+        this(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, null);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. If an index file is given,
+     * the index is read from this file when it was built for the current FASTA
+     * file and PTM settings, otherwise the index is built and saved to the
+     * file.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param searchParameters the search parameters
+     * @param indexFile the file where to persist the index, ignored if null
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters, File indexFile) {
+        this(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, indexFile, 1);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. If an index file is given,
+     * the index is read from this file when it was built for the current FASTA
+     * file and PTM settings, otherwise the index is built and saved to the
+     * file. The index parts and their forward and reversed halves are built
+     * concurrently using the given number of threads.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param searchParameters the search parameters
+     * @param indexFile the file where to persist the index, ignored if null
+     * @param nThreads the number of threads to use to build the index
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters, File indexFile, int nThreads) {
+        this.nThreads = Math.max(nThreads, 1);
         massTolerance = searchParameters.getFragmentIonAccuracy();
         massAccuracyType = searchParameters.getFragmentAccuracyType();
-        init(waitingHandler, displayProgress, searchParameters.getPtmSettings(), peptideVariantsPreferences);
+        init(waitingHandler, displayProgress, searchParameters.getPtmSettings(), peptideVariantsPreferences, indexFile);
     }
     
     /**
@@ -496,7 +665,7 @@ public class FMIndex implements PeptideMapper {
      * @param peptideVariantsPreferences contains all parameters for variants
      */
     public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences) {
-        init(waitingHandler, displayProgress, ptmSettings, peptideVariantsPreferences);
+        init(waitingHandler, displayProgress, ptmSettings, peptideVariantsPreferences, null);
     }
         
     /**
@@ -507,9 +676,9 @@ public class FMIndex implements PeptideMapper {
      * @param displayProgress if true, the progress is displayed
      * @param ptmSettings contains modification parameters for identification
      * @param peptideVariantsPreferences contains all parameters for variants
-     * @param massTolerance the mass tolerance
+     * @param indexFile the file where to persist the index, ignored if null
      */
-    private void init(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences){
+    private void init(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences, File indexFile){
 
         // load all variant preferences
         maxNumberVariants = peptideVariantsPreferences.getnVariants();
@@ -950,51 +1119,128 @@ public class FMIndex implements PeptideMapper {
             alphabet[sortedAas[i] >> 6] |= 1L << (sortedAas[i] & 63);
         }
 
-        // reading all proteins in a first pass to get information about number and total length
-        ArrayList<Integer> tmpLengths = new ArrayList<Integer>();
-        ArrayList<Integer> tmpProteins = new ArrayList<Integer>();
-        long ticker = indexChunkSize;
-        try {
-            int indexStringLength = 1;
-            int numProteins = 0;
-            ProteinIterator pi = sf.getProteinIterator(false);
-            while (pi.hasNext()) {
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
-                indexStringLength += proteinLen;
-                ++numProteins;
-                if (indexStringLength > ticker){
-                    tmpLengths.add(indexStringLength);
-                    tmpProteins.add(numProteins);
-                    indexStringLength = 1;
-                    numProteins = 0;
-                }
+        // try to reuse an index saved for the same database and settings
+        int ptmSettingsKey = getPtmSettingsKey(ptmSettings);
+        boolean indexLoaded = false;
+        if (indexFile != null && indexFile.exists()) {
+            try {
+                indexLoaded = loadIndex(indexFile, sf.getCurrentFastaFile(), ptmSettingsKey);
+            } catch (IOException e) {
+                // the index is built again
+                e.printStackTrace();
+                clearIndex();
             }
-            tmpLengths.add(indexStringLength);
-            tmpProteins.add(numProteins);
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
         }
+
+        if (!indexLoaded) {
+            // reading all proteins in a first pass to get information about number and total length
+            ArrayList<Integer> tmpLengths = new ArrayList<Integer>();
+            ArrayList<Integer> tmpProteins = new ArrayList<Integer>();
+            long ticker = indexChunkSize;
+            try {
+                int indexStringLength = 1;
+                int numProteins = 0;
+                ProteinIterator pi = sf.getProteinIterator(false);
+                while (pi.hasNext()) {
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    Protein currentProtein = pi.getNextProtein();
+                    int proteinLen = currentProtein.getLength();
+                    indexStringLength += proteinLen;
+                    ++numProteins;
+                    if (indexStringLength > ticker){
+                        tmpLengths.add(indexStringLength);
+                        tmpProteins.add(numProteins);
+                        indexStringLength = 1;
+                        numProteins = 0;
+                    }
+                }
+                tmpLengths.add(indexStringLength);
+                tmpProteins.add(numProteins);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("An error occurred while reading the FASTA file.", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
         
-        int maxProgressBar = 10 * tmpLengths.size();
+            int maxProgressBar = 10 * tmpLengths.size();
 
-        if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled()) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(maxProgressBar);
-            waitingHandler.setSecondaryProgressCounter(0);
-        }
+            if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled()) {
+                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                waitingHandler.setMaxSecondaryProgressCounter(maxProgressBar);
+                waitingHandler.setSecondaryProgressCounter(0);
+            }
         
-        try {
-            ProteinIterator pi = sf.getProteinIterator(false);
-            for (int i = 0; i < tmpLengths.size(); ++i){
-                addDataToIndex(pi, tmpLengths.get(i), tmpProteins.get(i), alphabet, waitingHandler, displayProgress);
+            ExecutorService pool = nThreads > 1 ? Executors.newFixedThreadPool(nThreads) : null;
+            try {
+                // the permits of the semaphore are megabytes of memory
+                int memoryPermits = getMemoryPermits();
+                Semaphore memory = new Semaphore(memoryPermits);
+                AtomicInteger progress = new AtomicInteger(0);
+                ArrayList<IndexHalf> indexHalves = new ArrayList<IndexHalf>(2 * tmpLengths.size());
+                ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(2 * tmpLengths.size());
+                ProteinIterator pi = sf.getProteinIterator(false);
+                for (int i = 0; i < tmpLengths.size(); ++i){
+                    int partPermits = Math.min(getPartPermits(tmpLengths.get(i) + tmpProteins.get(i) + 1), memoryPermits);
+                    while (!memory.tryAcquire(partPermits, 1, TimeUnit.SECONDS)) {
+                        checkFailures(futures);
+                        reportProgress(progress, waitingHandler, displayProgress);
+                    }
+                    addDataToIndex(pi, tmpLengths.get(i), tmpProteins.get(i), alphabet, waitingHandler, displayProgress, pool, memory, partPermits, progress, indexHalves, futures);
+                }
+                for (Future<Object> future : futures) {
+                    while (true) {
+                        try {
+                            future.get(1, TimeUnit.SECONDS);
+                            break;
+                        } catch (TimeoutException e) {
+                            reportProgress(progress, waitingHandler, displayProgress);
+                        }
+                    }
+                }
+                reportProgress(progress, waitingHandler, displayProgress);
+                for (int i = 0; i < indexHalves.size(); i += 2) {
+                    IndexHalf primary = indexHalves.get(i);
+                    IndexHalf reversed = indexHalves.get(i + 1);
+                    suffixArraysPrimary.add(primary.sampledSuffixArray == null ? null : IntBuffer.wrap(primary.sampledSuffixArray));
+                    occurrenceTablesPrimary.add(primary.occurrenceTable);
+                    occurrenceTablesReversed.add(reversed.occurrenceTable);
+                    lessTablesPrimary.add(primary.lessTable);
+                    lessTablesReversed.add(reversed.lessTable);
+                }
+            } catch (ExecutionException e) {
+                clearIndex();
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalArgumentException("An error occurred while building the index.", cause);
+            } catch (IOException e) {
+                clearIndex();
+                throw new IllegalArgumentException("An error occurred while reading the FASTA file.", e);
+            } catch (InterruptedException e) {
+                clearIndex();
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                if (pool != null) {
+                    pool.shutdownNow();
+                }
+            }
+
+            if (indexFile != null && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+                try {
+                    saveIndex(indexFile, sf.getCurrentFastaFile(), ptmSettingsKey);
+                } catch (IOException e) {
+                    // the index is used from memory and built again next time
+                    e.printStackTrace();
+                }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
         
         int lookupLength = ((int) ((lookupMaxMass + computeInverseMassValue(massTolerance, lookupMaxMass)) * lookupMultiplier));
@@ -1019,12 +1265,77 @@ public class FMIndex implements PeptideMapper {
                return (int)((m1.mass - m2.mass) * 1000000.);
            } 
         });
-        cache = (HashMap<String, CacheElement>[])new HashMap[indexParts];
-        for (int indexPart = 0; indexPart < indexParts; ++indexPart) cache[indexPart] = new HashMap<String, CacheElement>();
+        cache.clear();
     }
 
     /**
-     * Add data to index
+     * Returns the number of megabytes of memory which can be used to build the
+     * index parts, i.e. the memory not in use out of the maximal memory of the
+     * virtual machine.
+     *
+     * @return the number of megabytes of memory available
+     */
+    private static int getMemoryPermits() {
+        Runtime runtime = Runtime.getRuntime();
+        long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        long availableMemory = (runtime.maxMemory() - usedMemory) >> 20;
+        return (int) Math.max(Math.min(availableMemory, Integer.MAX_VALUE), 1);
+    }
+
+    /**
+     * Returns an estimate of the memory in megabytes needed to build a part of
+     * the given length. The text of the part is shared by the two halves, and
+     * every half holds the text as integers, the suffix array, the reversed
+     * text, the Burrows-Wheeler transform and the occurrence table.
+     *
+     * @param indexStringLength the length of the text of the part
+     *
+     * @return the memory needed in megabytes
+     */
+    private static int getPartPermits(int indexStringLength) {
+        long bytes = 22L * indexStringLength;
+        return (int) Math.min((bytes >> 20) + 1, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reports the progress accumulated by the halves to the waiting handler.
+     * To be called from the thread coordinating the construction of the
+     * index.
+     *
+     * @param progress the progress accumulated by the halves
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if progress is to be displayed
+     */
+    private static void reportProgress(AtomicInteger progress, WaitingHandler waitingHandler, boolean displayProgress) {
+        int increase = progress.getAndSet(0);
+        if (increase > 0 && displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+            waitingHandler.increaseSecondaryProgressCounter(increase);
+        }
+    }
+
+    /**
+     * Throws the exception of the first completed half which failed, if any.
+     *
+     * @param futures the futures of the halves
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
+     * @throws ExecutionException exception thrown if a half failed
+     */
+    private static void checkFailures(ArrayList<Future<Object>> futures) throws InterruptedException, ExecutionException {
+        for (Future<Object> future : futures) {
+            if (future.isDone()) {
+                future.get();
+            }
+        }
+    }
+
+    /**
+     * Add data to index. The proteins are read on the calling thread, the
+     * forward and reversed halves of the part are then built on the given
+     * pool, or on the calling thread if the pool is null. The two halves are
+     * added to the given list and their futures to the list of futures. The
+     * halves release the memory permits of the part when completed.
      * 
      * @param pi the protein iterator
      * @param indexStringLength the index string length
@@ -1032,8 +1343,21 @@ public class FMIndex implements PeptideMapper {
      * @param alphabet the alphabet
      * @param waitingHandler the waiting handler
      * @param displayProgress if progress is to be displayed
+     * @param pool the pool to build the halves on, can be null
+     * @param memory semaphore limiting the memory used by the parts, in
+     * megabytes
+     * @param partPermits the number of memory permits acquired for this part
+     * @param progress the progress accumulated by the halves
+     * @param indexHalves the list where to add the halves of the part
+     * @param futures the list where to add the futures of the halves
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown whenever the thread is
+     * interrupted while reading the FASTA file
      */
-    void addDataToIndex(ProteinIterator pi, int indexStringLength, int numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress){
+    void addDataToIndex(ProteinIterator pi, int indexStringLength, int numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress,
+            ExecutorService pool, Semaphore memory, int partPermits, AtomicInteger progress, ArrayList<IndexHalf> indexHalves, ArrayList<Future<Object>> futures) throws IOException, InterruptedException {
         indexParts += 1;
         indexStringLength += numProteins + 1; // delimiters between protein sequences + sentinal
         indexStringLengths.add(indexStringLength);
@@ -1047,118 +1371,355 @@ public class FMIndex implements PeptideMapper {
         T[indexStringLength - 1] = '$'; // adding the sentinal
 
         int[] bndaries = new int[numProteins + 1];
-        boundaries.add(bndaries);
+        boundaries.add(IntBuffer.wrap(bndaries));
         String[] accssions = new String[numProteins];
         accessions.add(accssions);
-        boundaries.get(0)[0] = 1;
+        boundaries.get(0).put(0, 1);
 
         // reading proteins in a second pass to store their amino acid sequences and their accession numbers
         int tmpN = 0;
         int tmpNumProtein = 0;
-        try {
-            for (int i = 0; i < numProteins; ++i){
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                if (!pi.hasNext()) throw new Exception("More sequences from database requested than contained.");
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
-                T[tmpN++] = '/'; // adding the delimiters
-                System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
-                tmpN += proteinLen;
-                accssions[tmpNumProtein++] = currentProtein.getAccession();
-                bndaries[tmpNumProtein] = tmpN + 1;
-
+        for (int i = 0; i < numProteins; ++i){
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                memory.release(partPermits);
+                return;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (!pi.hasNext()) throw new IOException("More sequences from database requested than contained.");
+            Protein currentProtein = pi.getNextProtein();
+            int proteinLen = currentProtein.getLength();
+            T[tmpN++] = '/'; // adding the delimiters
+            System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
+            tmpN += proteinLen;
+            accssions[tmpNumProtein++] = currentProtein.getAccession();
+            bndaries[tmpNumProtein] = tmpN + 1;
+
         }
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
 
-        int[] T_int = new int[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            T_int[i] = T[i];
+        int primaryPermits = partPermits / 2;
+        IndexHalf primary = new IndexHalf(T, false, alphabet, waitingHandler, progress, memory, primaryPermits);
+        IndexHalf reversed = new IndexHalf(T, true, alphabet, waitingHandler, progress, memory, partPermits - primaryPermits);
+        indexHalves.add(primary);
+        indexHalves.add(reversed);
+        if (pool != null) {
+            futures.add(pool.submit(primary));
+            futures.add(pool.submit(reversed));
+        } else {
+            FutureTask<Object> primaryTask = new FutureTask<Object>(primary);
+            primaryTask.run();
+            futures.add(primaryTask);
+            FutureTask<Object> reversedTask = new FutureTask<Object>(reversed);
+            reversedTask.run();
+            futures.add(reversedTask);
         }
-        int[] suffixArrayPrimary = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
+    }
 
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
-        T_int = null;
+    /**
+     * Builds the suffix array, Burrows-Wheeler transform, occurrence table and
+     * less table of the forward or reversed text of an index part. The
+     * progress is accumulated in a counter to be reported by the coordinating
+     * thread.
+     */
+    private class IndexHalf implements Callable<Object> {
+
+        /**
+         * The text of the index part, released once the half is built.
+         */
+        private byte[] T;
+        /**
+         * Indicates whether the half is built on the reversed text.
+         */
+        private final boolean reversed;
+        /**
+         * The alphabet.
+         */
+        private final long[] alphabet;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The progress accumulated by the halves.
+         */
+        private final AtomicInteger progress;
+        /**
+         * Semaphore limiting the memory used by the parts, in megabytes.
+         */
+        private final Semaphore memory;
+        /**
+         * The number of memory permits to release when the half is built.
+         */
+        private final int permits;
+        /**
+         * The sampled suffix array, only for the forward text.
+         */
+        private int[] sampledSuffixArray = null;
+        /**
+         * The occurrence table.
+         */
+        private WaveletTree occurrenceTable = null;
+        /**
+         * The less table.
+         */
+        private int[] lessTable = null;
 
-        // create Burrows-Wheeler-Transform
-        byte[] bwt = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            bwt[i] = (suffixArrayPrimary[i] != 0) ? T[suffixArrayPrimary[i] - 1] : T[indexStringLength - 1];
+        /**
+         * Constructor.
+         *
+         * @param T the text of the index part
+         * @param reversed indicates whether the reversed text is indexed
+         * @param alphabet the alphabet
+         * @param waitingHandler the waiting handler
+         * @param progress the progress accumulated by the halves
+         * @param memory semaphore limiting the memory used by the parts, in
+         * megabytes
+         * @param permits the number of memory permits to release when the
+         * half is built
+         */
+        public IndexHalf(byte[] T, boolean reversed, long[] alphabet, WaitingHandler waitingHandler, AtomicInteger progress, Semaphore memory, int permits) {
+            this.T = T;
+            this.reversed = reversed;
+            this.alphabet = alphabet;
+            this.waitingHandler = waitingHandler;
+            this.progress = progress;
+            this.memory = memory;
+            this.permits = permits;
         }
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+
+        @Override
+        public Object call() throws Exception {
+            try {
+                build();
+            } finally {
+                T = null;
+                memory.release(permits);
+            }
+            return null;
         }
 
-        // sampling suffix array
-        int[] sampledSuffixArray = new int[((indexStringLength + 1) >> samplingShift) + 1];
-        int sampledIndex = 0;
-        for (int i = 0; i < indexStringLength; i += sampling) {
+        /**
+         * Builds the tables of the half.
+         */
+        private void build() {
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                 return;
             }
-            sampledSuffixArray[sampledIndex++] = suffixArrayPrimary[i];
-        }
-        suffixArraysPrimary.add(sampledSuffixArray);
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
+            int indexStringLength = T.length;
+            byte[] text = T;
+            if (reversed) {
+                // create inversed text for inversed index
+                text = new byte[indexStringLength];
+                for (int i = 0; i < indexStringLength - 1; ++i) {
+                    text[indexStringLength - 2 - i] = T[i];
+                }
+                text[indexStringLength - 1] = '$';
+                progress.incrementAndGet();
+            }
 
-        // creating the occurrence table and less table for backward search over forward text
-        WaveletTree occurrenceTablePrimary = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
-        int[] lessTablePrimary = occurrenceTablePrimary.createLessTable();
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
-        }
+            // create the suffix array using at most 128 characters
+            int[] T_int = new int[indexStringLength];
+            for (int i = 0; i < indexStringLength; ++i) {
+                T_int[i] = text[i];
+            }
+            int[] suffixArray = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
+            progress.incrementAndGet();
+            T_int = null;
+
+            // create Burrows-Wheeler-Transform
+            byte[] bwt = new byte[indexStringLength];
+            for (int i = 0; i < indexStringLength; ++i) {
+                bwt[i] = (suffixArray[i] != 0) ? text[suffixArray[i] - 1] : text[indexStringLength - 1];
+            }
+            progress.incrementAndGet();
+
+            if (!reversed) {
+                // sampling suffix array
+                int[] sampledSuffixArray = new int[((indexStringLength + 1) >> samplingShift) + 1];
+                int sampledIndex = 0;
+                for (int i = 0; i < indexStringLength; i += sampling) {
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    sampledSuffixArray[sampledIndex++] = suffixArray[i];
+                }
+                this.sampledSuffixArray = sampledSuffixArray;
+                progress.incrementAndGet();
+            }
+            suffixArray = null;
+            text = null;
 
-        bwt = null;
-        // create inversed text for inversed index
-        byte[] TReversed = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength - 1; ++i) {
-            TReversed[indexStringLength - 2 - i] = T[i];
-        }
-        TReversed[indexStringLength - 1] = '$';
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+            // creating the occurrence table and less table for backward search
+            occurrenceTable = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
+            lessTable = occurrenceTable.createLessTable();
+            progress.incrementAndGet();
         }
+    }
 
-        // create the inversed suffix array using at most 128 characters
-        T_int = new int[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            T_int[i] = TReversed[i];
+    /**
+     * Returns a key for the PTM settings which have an influence on the
+     * content of the index.
+     *
+     * @param ptmSettings the PTM settings, can be null
+     *
+     * @return a key for the PTM settings
+     */
+    private static int getPtmSettingsKey(PtmSettings ptmSettings) {
+        if (ptmSettings == null) {
+            return 0;
         }
-        int[] suffixArrayReversed = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+        ArrayList<String> fixedModifications = new ArrayList<String>(ptmSettings.getFixedModifications());
+        Collections.sort(fixedModifications);
+        ArrayList<String> variableModifications = new ArrayList<String>(ptmSettings.getVariableModifications());
+        Collections.sort(variableModifications);
+        return 31 * fixedModifications.hashCode() + variableModifications.hashCode();
+    }
+
+    /**
+     * Saves the index to the given file. The index is written to a temporary
+     * file in the same folder which is then renamed, so that other processes
+     * never see a partially written index. The lookup tables depending on the
+     * mass tolerance are not saved and are recomputed upon loading.
+     *
+     * @param indexFile the file where to save the index
+     * @param fastaFile the FASTA file indexed
+     * @param ptmSettingsKey the key of the PTM settings used to build the index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void saveIndex(File indexFile, File fastaFile, int ptmSettingsKey) throws IOException {
+        File folder = indexFile.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(indexFile.getName(), FMIndexFile.TEMP_EXTENSION, folder);
+        boolean success = false;
+        try {
+            FMIndexFile fmIndexFile = new FMIndexFile(tempFile);
+            try {
+                fmIndexFile.writeInt(FMIndexFile.MAGIC);
+                fmIndexFile.writeInt(FMIndexFile.VERSION);
+                fmIndexFile.writeLong(fastaFile.length());
+                fmIndexFile.writeLong(fastaFile.lastModified());
+                fmIndexFile.writeInt(ptmSettingsKey);
+                fmIndexFile.writeInt(numMasses);
+                fmIndexFile.writeBoolean(hasPTMatTerminus);
+                fmIndexFile.writeInt(indexParts);
+
+                // table of the parts, filled once the parts are written
+                long tablePosition = fmIndexFile.position();
+                if (tablePosition != FMIndexFile.HEADER_LENGTH) {
+                    throw new IllegalStateException("Header of " + tablePosition + " bytes written, " + FMIndexFile.HEADER_LENGTH + " expected for version " + FMIndexFile.VERSION + ".");
+                }
+                for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                    fmIndexFile.writeLong(0);
+                    fmIndexFile.writeLong(0);
+                }
+
+                for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                    long partStart = fmIndexFile.position();
+                    fmIndexFile.writeInt(indexStringLengths.get(indexPart));
+                    fmIndexFile.writeIntBuffer(boundaries.get(indexPart));
+                    String[] partAccessions = accessions.get(indexPart);
+                    fmIndexFile.writeInt(partAccessions.length);
+                    for (String accession : partAccessions) {
+                        fmIndexFile.writeString(accession);
+                    }
+                    fmIndexFile.writeIntBuffer(suffixArraysPrimary.get(indexPart));
+                    fmIndexFile.writeIntArray(lessTablesPrimary.get(indexPart));
+                    fmIndexFile.writeIntArray(lessTablesReversed.get(indexPart));
+                    occurrenceTablesPrimary.get(indexPart).write(fmIndexFile);
+                    occurrenceTablesReversed.get(indexPart).write(fmIndexFile);
+                    long partLength = fmIndexFile.position() - partStart;
+                    if (partLength > Integer.MAX_VALUE) {
+                        throw new IOException("Index part " + indexPart + " too large to be mapped in memory.");
+                    }
+                    fmIndexFile.writeLongAt(tablePosition + 16 * indexPart, partStart);
+                    fmIndexFile.writeLongAt(tablePosition + 16 * indexPart + 8, partLength);
+                }
+            } finally {
+                fmIndexFile.close();
+            }
+            if (indexFile.exists() && !indexFile.delete()) {
+                throw new IOException("Impossible to replace the index file " + indexFile + ".");
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                throw new IOException("Impossible to rename " + tempFile + " to " + indexFile + ".");
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                tempFile.delete();
+            }
         }
+    }
 
-        // create inversed Burrows-Wheeler-Transform
-        bwt = new byte[indexStringLength];
-        for (int i = 0; i < indexStringLength; ++i) {
-            bwt[i] = (suffixArrayReversed[i] != 0) ? TReversed[suffixArrayReversed[i] - 1] : TReversed[indexStringLength - 1];
+    /**
+     * Loads the index from the given file. The parts of the file are memory
+     * mapped and the suffix arrays, boundaries and occurrence tables are used
+     * as views of the mapping without copy. Returns false if the file was not
+     * created for the FASTA file, as identified by its size and modification
+     * date, and settings, in that case the index is left empty.
+     *
+     * @param indexFile the file where the index was saved
+     * @param fastaFile the FASTA file indexed
+     * @param ptmSettingsKey the key of the PTM settings used to build the index
+     *
+     * @return a boolean indicating whether the index could be loaded
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private boolean loadIndex(File indexFile, File fastaFile, int ptmSettingsKey) throws IOException {
+        if (indexFile.length() < FMIndexFile.HEADER_LENGTH) {
+            return false;
         }
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+        ByteBuffer header = FMIndexFile.map(indexFile, 0, FMIndexFile.HEADER_LENGTH);
+        if (header.getInt() != FMIndexFile.MAGIC
+                || header.getInt() != FMIndexFile.VERSION
+                || header.getLong() != fastaFile.length()
+                || header.getLong() != fastaFile.lastModified()
+                || header.getInt() != ptmSettingsKey
+                || header.getInt() != numMasses
+                || FMIndexFile.readBoolean(header) != hasPTMatTerminus) {
+            return false;
         }
-
-        // create inversed less and occurrence table
-        WaveletTree occurrenceTableReversed = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
-        int[] lessTableReversed = occurrenceTableReversed.createLessTable();
-        if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
-            waitingHandler.increaseSecondaryProgressCounter();
+        int nParts = header.getInt();
+        ByteBuffer table = FMIndexFile.map(indexFile, FMIndexFile.HEADER_LENGTH, 16 * nParts);
+
+        for (int indexPart = 0; indexPart < nParts; ++indexPart) {
+            long partStart = table.getLong();
+            long partLength = table.getLong();
+            ByteBuffer buffer = FMIndexFile.map(indexFile, partStart, partLength);
+            indexStringLengths.add(buffer.getInt());
+            boundaries.add(FMIndexFile.readIntBuffer(buffer));
+            String[] partAccessions = new String[buffer.getInt()];
+            for (int i = 0; i < partAccessions.length; ++i) {
+                partAccessions[i] = FMIndexFile.readString(buffer);
+            }
+            accessions.add(partAccessions);
+            suffixArraysPrimary.add(FMIndexFile.readIntBuffer(buffer));
+            lessTablesPrimary.add(FMIndexFile.readIntArray(buffer));
+            lessTablesReversed.add(FMIndexFile.readIntArray(buffer));
+            occurrenceTablesPrimary.add(WaveletTree.read(buffer));
+            occurrenceTablesReversed.add(WaveletTree.read(buffer));
         }
-        
-        occurrenceTablesPrimary.add(occurrenceTablePrimary);
-        occurrenceTablesReversed.add(occurrenceTableReversed);
-        lessTablesPrimary.add(lessTablePrimary);
-        lessTablesReversed.add(lessTableReversed);
+        indexParts = nParts;
+        return true;
+    }
+
+    /**
+     * Removes all parts from the index.
+     */
+    private void clearIndex() {
+        indexParts = 0;
+        indexStringLengths.clear();
+        boundaries.clear();
+        accessions.clear();
+        suffixArraysPrimary.clear();
+        lessTablesPrimary.clear();
+        lessTablesReversed.clear();
+        occurrenceTablesPrimary.clear();
+        occurrenceTablesReversed.clear();
     }
 
     /**
@@ -1335,7 +1896,7 @@ public class FMIndex implements PeptideMapper {
      * @return the text position
      */
     private int getTextPosition(int index, int indexPart) {
-        int[] suffixArrayPrimary = suffixArraysPrimary.get(indexPart);
+        IntBuffer suffixArrayPrimary = suffixArraysPrimary.get(indexPart);
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
         WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         int indexStringLength = indexStringLengths.get(indexPart);
@@ -1346,7 +1907,7 @@ public class FMIndex implements PeptideMapper {
 
             ++numIterations;
         }
-        int pos = suffixArrayPrimary[index >> samplingShift] + numIterations;
+        int pos = suffixArrayPrimary.get(index >> samplingShift) + numIterations;
         return (pos < indexStringLength) ? pos : pos - indexStringLength;
     }
 
@@ -1400,12 +1961,11 @@ public class FMIndex implements PeptideMapper {
         ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
         int maxX = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
 
-        ArrayList<MatrixContent>[] backwardList = (ArrayList<MatrixContent>[]) new ArrayList[lenPeptide + 1];
+        ArrayList<MatrixContent>[] backwardList = backwardSearchBuffers.get().getBackwardList(lenPeptide + 1);
 
         int countX = 0;
-        for (int i = 0; i <= lenPeptide; ++i) {
-            backwardList[i] = new ArrayList<MatrixContent>(10);
-            if (i < lenPeptide && pep_rev.charAt(i) == 'X') {
+        for (int i = 0; i < lenPeptide; ++i) {
+            if (pep_rev.charAt(i) == 'X') {
                 ++countX;
             }
         }
@@ -1457,7 +2017,7 @@ public class FMIndex implements PeptideMapper {
                     int index = binarySearch(boundaries.get(indexPart), pos);
                     String accession = accessions.get(indexPart)[index];
 
-                    PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, currentPeptide, pos - boundaries.get(indexPart)[index]);
+                    PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, currentPeptide, pos - boundaries.get(indexPart).get(index));
                     allMatches.add(peptideProteinMapping);
                 }
             }
@@ -1487,13 +2047,8 @@ public class FMIndex implements PeptideMapper {
         ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
         int xNumLimit = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
 
-        ArrayList<MatrixContent>[][] backwardMatrix = (ArrayList<MatrixContent>[][]) new ArrayList[maxNumberVariants + 1][lenPeptide + 1];
+        ArrayList<MatrixContent>[][] backwardMatrix = backwardSearchBuffers.get().getBackwardMatrix(maxNumberVariants + 1, lenPeptide + 1);
 
-        for (int k = 0; k <= maxNumberVariants; ++k) {
-            for (int j = 0; j <= lenPeptide; ++j) {
-                backwardMatrix[k][j] = new ArrayList<MatrixContent>(10);
-            }
-        }
         int countX = 0;
         for (int j = 0; j <= lenPeptide; ++j) {
             if (j < lenPeptide && pep_rev.charAt(j) == 'X') {
@@ -1569,8 +2124,8 @@ public class FMIndex implements PeptideMapper {
             }
 
             // traceback
-            for (ArrayList<MatrixContent>[] backwardList : backwardMatrix) {
-                for (MatrixContent content : backwardList[lenPeptide]) {
+            for (int k = 0; k <= maxNumberVariants; ++k) {
+                for (MatrixContent content : backwardMatrix[k][lenPeptide]) {
                     MatrixContent currentContent = content;
                     String currentPeptide = "";
                     String allVariants = "";
@@ -1591,7 +2146,7 @@ public class FMIndex implements PeptideMapper {
                         int index = binarySearch(boundaries.get(indexPart), pos);
                         String accession = accessions.get(indexPart)[index];
 
-                        int startPosition = pos - boundaries.get(indexPart)[index];
+                        int startPosition = pos - boundaries.get(indexPart).get(index);
                         boolean newPeptide = true;
 
                         for (PeptideProteinMapping ppm : allMatches) {
@@ -1655,13 +2210,8 @@ public class FMIndex implements PeptideMapper {
         int xNumLimit = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
 
         int numErrors = maxNumberDeletions + maxNumberInsertions + maxNumberSubstitutions;
-        LinkedList<MatrixContent>[][] backwardMatrix = (LinkedList<MatrixContent>[][]) new LinkedList[numErrors + 1][lenPeptide + 1];
+        LinkedList<MatrixContent>[][] backwardMatrix = backwardSearchBuffers.get().getLinkedBackwardMatrix(numErrors + 1, lenPeptide + 1);
 
-        for (int k = 0; k <= numErrors; ++k) {
-            for (int j = 0; j <= lenPeptide; ++j) {
-                backwardMatrix[k][j] = new LinkedList<MatrixContent>();
-            }
-        }
         int countX = 0;
         for (int j = 0; j <= lenPeptide; ++j) {
             if (j < lenPeptide && pep_rev.charAt(j) == 'X') {
@@ -1742,8 +2292,8 @@ public class FMIndex implements PeptideMapper {
             }
 
             // traceback
-            for (LinkedList<MatrixContent>[] backwardList : backwardMatrix) {
-                for (MatrixContent content : backwardList[lenPeptide]) {
+            for (int k = 0; k <= numErrors; ++k) {
+                for (MatrixContent content : backwardMatrix[k][lenPeptide]) {
                     MatrixContent currentContent = content;
                     String currentPeptide = "";
                     String allVariants = "";
@@ -1764,7 +2314,7 @@ public class FMIndex implements PeptideMapper {
                         int index = binarySearch(boundaries.get(indexPart), pos);
                         String accession = accessions.get(indexPart)[index];
 
-                        int startPosition = pos - boundaries.get(indexPart)[index];
+                        int startPosition = pos - boundaries.get(indexPart).get(index);
                         boolean newPeptide = true;
 
                         for (PeptideProteinMapping ppm : allMatches) {
@@ -1811,7 +2361,7 @@ public class FMIndex implements PeptideMapper {
 
     @Override
     public void emptyCache() {
-        // No cache here
+        cache.clear();
     }
 
     @Override
@@ -4118,7 +4668,7 @@ public class FMIndex implements PeptideMapper {
                     int pos = getTextPosition(j, indexPart);
                     int index = binarySearch(boundaries.get(indexPart), pos);
                     String accession = accessions.get(indexPart)[index];
-                    PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, peptide, pos - boundaries.get(indexPart)[index] + 1, modifications);
+                    PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, peptide, pos - boundaries.get(indexPart).get(index) + 1, modifications);
                     if (checkPTMPattern(peptideProteinMapping)) allMatches.add(peptideProteinMapping);
                 }
             }
@@ -4206,8 +4756,8 @@ public class FMIndex implements PeptideMapper {
                         int index = binarySearch(boundaries.get(indexPart), pos);
                         String accession = accessions.get(indexPart)[index];
 
-                        // pos - boundaries.get(indexPart)[index] +1 because of start counting from one
-                        PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, substitutedPeptides.get(i), pos - boundaries.get(indexPart)[index] + 1, substitutedModifications.get(i));
+                        // pos - boundaries.get(indexPart).get(index) +1 because of start counting from one
+                        PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, substitutedPeptides.get(i), pos - boundaries.get(indexPart).get(index) + 1, substitutedModifications.get(i));
                         if (checkPTMPattern(peptideProteinMapping)) allMatches.add(peptideProteinMapping);
                     }
                 }
@@ -4521,7 +5071,7 @@ public class FMIndex implements PeptideMapper {
                     int index = binarySearch(boundaries.get(indexPart), pos);
                     String accession = accessions.get(indexPart)[index];
 
-                    int startPosition = pos - boundaries.get(indexPart)[index];
+                    int startPosition = pos - boundaries.get(indexPart).get(index);
                     boolean newPeptide = true;
 
                     for (PeptideProteinMapping ppm : allMatches) {
@@ -4611,86 +5161,51 @@ public class FMIndex implements PeptideMapper {
     }
 
     /**
-     * Class for caching intermediate tag to proteome mapping results.
+     * Cache of intermediate tag to proteome mapping results.
      */
-    private class CacheElement {
-
-        Double massFirst;
-        String sequence;
-        Double massSecond;
-        ArrayList<MatrixContent> cachedPrimary;
-
-        /**
-         * Constructor
-         *
-         * @param massFirst
-         * @param sequence
-         * @param massSecond
-         * @param cachedPrimary
-         */
-        public CacheElement(Double massFirst, String sequence, Double massSecond, ArrayList<MatrixContent> cachedPrimary) {
-            this.sequence = sequence;
-            this.massFirst = massFirst;
-            this.massSecond = massSecond;
-            this.cachedPrimary = cachedPrimary;
-        }
-    }
+    private final TagMappingCache cache = new TagMappingCache();
 
     /**
-     * List of cached intermediate tag to proteome mapping results.
+     * Returns the cache of intermediate tag to proteome mapping results, e.g.
+     * to monitor its hits, misses and evictions.
+     *
+     * @return the cache of intermediate tag to proteome mapping results
      */
-    private HashMap<String, CacheElement>[] cache = null;
+    public TagMappingCache getTagMappingCache() {
+        return cache;
+    }
 
     /**
-     * Adding intermediate tag to proteome mapping results into the cache.
+     * Returns the cached intermediate tag to proteome mapping results, null
+     * if not in cache.
      *
-     * @param tagComponents
-     * @return
+     * @param tagComponents the components of the tag
+     * @param indexPart the index part
+     *
+     * @return the cached matrix cells
      */
     private ArrayList<MatrixContent> isCached(TagElement[] tagComponents, int indexPart) {
         if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
             return null;
         }
-        ArrayList<MatrixContent> cached = null;
-
-        try {
-            cacheMutex.acquire();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        
-        
-        String key = tagComponents[1].sequence + String.format("%.5f", tagComponents[2].mass);
-        CacheElement cacheElement = cache[indexPart].get(key);
-        if (cacheElement != null) cached = cacheElement.cachedPrimary;
-        cacheMutex.release();
-        return cached;
+        return cache.get(indexPart, tagComponents[1].sequence, tagComponents[2].mass);
     }
 
     /**
      * Caching intermediate results of previous tag to proteome matches.
      *
-     * @param tagComponents
-     * @param cachedPrimary
+     * @param tagComponents the components of the tag
+     * @param cachedPrimary the matrix cells to cache
+     * @param indexPart the index part
      */
     private void cacheIt(TagElement[] tagComponents, ArrayList<MatrixContent> cachedPrimary, int indexPart) {
         if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
             return;
         }
-        try {
-            cacheMutex.acquire();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        ArrayList<MatrixContent> cacheContentPrimary = new ArrayList<MatrixContent>();
+        ArrayList<MatrixContent> cacheContentPrimary = new ArrayList<MatrixContent>(cachedPrimary.size());
         for (MatrixContent matrixContent : cachedPrimary) {
             cacheContentPrimary.add(new MatrixContent(matrixContent));
         }
-        
-        String key = tagComponents[1].sequence + String.format("%.5f", tagComponents[2].mass);
-        CacheElement cacheElement = new CacheElement(tagComponents[0].mass, tagComponents[1].sequence, tagComponents[2].mass, cacheContentPrimary);
-        if (!cache[indexPart].containsKey(key)) cache[indexPart].put(key, cacheElement);
-        cacheMutex.release();
+        cache.putIfAbsent(indexPart, tagComponents[1].sequence, tagComponents[2].mass, cacheContentPrimary);
     }
 }
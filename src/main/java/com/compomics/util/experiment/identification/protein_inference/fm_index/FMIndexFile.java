@@ -0,0 +1,484 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * On-disk representation of an FM index. The file starts with a header
+ * identifying the FASTA file by size and modification date and the settings
+ * the index was built with, followed by a table of the index parts and the
+ * parts themselves. Every part can be memory mapped on its own and the large
+ * tables are read as views of the mapping, so that several processes working
+ * on the same node share the page cache copy of the file.
+ *
+ * @author Dominik Kopczynski
+ * @author Marc Vaudel
+ */
+public class FMIndexFile {
+
+    /**
+     * Magic number at the start of every index file, "FMIX".
+     */
+    public static final int MAGIC = 0x464D4958;
+    /**
+     * Version of the file format. Increase when the layout changes.
+     */
+    public static final int VERSION = 2;
+    /**
+     * Length in bytes of the header of the current version: magic number,
+     * version, size and modification date of the FASTA file, key of the PTM
+     * settings, number of masses, PTM at terminus flag and number of parts.
+     * Update together with the version when the header changes.
+     */
+    public static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 4 + 4 + 1 + 4;
+    /**
+     * Extension of the index files.
+     */
+    public static final String EXTENSION = ".fmi";
+    /**
+     * Extension of the temporary files where the index is written before
+     * being renamed.
+     */
+    public static final String TEMP_EXTENSION = ".fmi.tmp";
+    /**
+     * Size of the write buffer.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The random access file written.
+     */
+    private final RandomAccessFile randomAccessFile;
+    /**
+     * The channel of the file written.
+     */
+    private final FileChannel channel;
+    /**
+     * The write buffer.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Constructor. Creates a new index file for writing, an existing file
+     * will be overwritten.
+     *
+     * @param file the file to write to
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * creating the file
+     */
+    public FMIndexFile(File file) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Returns the index file to use for the given FASTA file.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the index file
+     */
+    public static File getIndexFile(File fastaFile) {
+        return new File(fastaFile.getParentFile(), fastaFile.getName() + EXTENSION);
+    }
+
+    /**
+     * Returns the current position in the file, i.e. the number of bytes
+     * written so far.
+     *
+     * @return the current position in the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * accessing the file
+     */
+    public long position() throws IOException {
+        return channel.position() + buffer.position();
+    }
+
+    /**
+     * Writes a long at the given position of the file without moving the
+     * current position. Used to fill the table of parts once the parts are
+     * written.
+     *
+     * @param position the position in the file
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeLongAt(long position, long value) throws IOException {
+        flush();
+        ByteBuffer longBuffer = ByteBuffer.allocate(8);
+        longBuffer.putLong(value);
+        longBuffer.flip();
+        channel.write(longBuffer, position);
+    }
+
+    /**
+     * Makes sure that the buffer can take the given number of bytes.
+     *
+     * @param nBytes the number of bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void ensureCapacity(int nBytes) throws IOException {
+        if (buffer.remaining() < nBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes a byte.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeByte(byte value) throws IOException {
+        ensureCapacity(1);
+        buffer.put(value);
+    }
+
+    /**
+     * Writes a boolean as a single byte.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeBoolean(boolean value) throws IOException {
+        writeByte(value ? (byte) 1 : (byte) 0);
+    }
+
+    /**
+     * Writes an int.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeInt(int value) throws IOException {
+        ensureCapacity(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes a long.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeLong(long value) throws IOException {
+        ensureCapacity(8);
+        buffer.putLong(value);
+    }
+
+    /**
+     * Writes an array of bytes preceded by its length, -1 for null.
+     *
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeByteArray(byte[] array) throws IOException {
+        if (array == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(array.length);
+        int offset = 0;
+        while (offset < array.length) {
+            ensureCapacity(1);
+            int length = Math.min(buffer.remaining(), array.length - offset);
+            buffer.put(array, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Writes an array of ints preceded by its length, -1 for null.
+     *
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeIntArray(int[] array) throws IOException {
+        if (array == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(array.length);
+        for (int value : array) {
+            writeInt(value);
+        }
+    }
+
+    /**
+     * Writes the content of a buffer of bytes preceded by its length, -1 for
+     * null. The values are read using absolute positions up to the limit.
+     *
+     * @param values the buffer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeByteBuffer(ByteBuffer values) throws IOException {
+        if (values == null) {
+            writeInt(-1);
+            return;
+        }
+        int length = values.limit();
+        writeInt(length);
+        for (int i = 0; i < length; i++) {
+            writeByte(values.get(i));
+        }
+    }
+
+    /**
+     * Writes the content of a buffer of ints preceded by its length, -1 for
+     * null. The values are read using absolute positions up to the limit.
+     *
+     * @param values the buffer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeIntBuffer(IntBuffer values) throws IOException {
+        if (values == null) {
+            writeInt(-1);
+            return;
+        }
+        int length = values.limit();
+        writeInt(length);
+        for (int i = 0; i < length; i++) {
+            writeInt(values.get(i));
+        }
+    }
+
+    /**
+     * Writes the content of a buffer of longs preceded by its length, -1 for
+     * null. The values are read using absolute positions up to the limit.
+     *
+     * @param values the buffer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeLongBuffer(LongBuffer values) throws IOException {
+        if (values == null) {
+            writeInt(-1);
+            return;
+        }
+        int length = values.limit();
+        writeInt(length);
+        for (int i = 0; i < length; i++) {
+            writeLong(values.get(i));
+        }
+    }
+
+    /**
+     * Writes a string as UTF-8 bytes preceded by their number.
+     *
+     * @param value the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeString(String value) throws IOException {
+        writeByteArray(value == null ? null : value.getBytes("UTF-8"));
+    }
+
+    /**
+     * Flushes the buffer and closes the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Maps a region of the given file in memory, read only.
+     *
+     * @param file the file
+     * @param position the start of the region
+     * @param length the length of the region
+     *
+     * @return the mapped region
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public static MappedByteBuffer map(File file, long position, long length) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            // the mapping stays valid after the file is closed
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, position, length);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Reads a boolean written using writeBoolean.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the value
+     */
+    public static boolean readBoolean(ByteBuffer buffer) {
+        return buffer.get() != 0;
+    }
+
+    /**
+     * Reads an array of bytes written using writeByteArray.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the array
+     */
+    public static byte[] readByteArray(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] array = new byte[length];
+        buffer.get(array);
+        return array;
+    }
+
+    /**
+     * Reads an array of ints written using writeIntArray. The values are
+     * copied, use for small arrays only.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the array
+     */
+    public static int[] readIntArray(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        int[] array = new int[length];
+        buffer.asIntBuffer().get(array);
+        buffer.position(buffer.position() + (length << 2));
+        return array;
+    }
+
+    /**
+     * Returns a view of the given number of bytes of the buffer starting at
+     * its current position, and moves the position of the buffer after them.
+     *
+     * @param buffer the buffer to read from
+     * @param nBytes the number of bytes
+     *
+     * @return the view
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int nBytes) {
+        ByteBuffer view = buffer.slice();
+        view.limit(nBytes);
+        view.order(buffer.order());
+        buffer.position(buffer.position() + nBytes);
+        return view;
+    }
+
+    /**
+     * Reads bytes written using writeByteArray or writeByteBuffer as a view of
+     * the given buffer, no copy is made. The view must be read using absolute
+     * positions.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the view
+     */
+    public static ByteBuffer readByteBuffer(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        return slice(buffer, length);
+    }
+
+    /**
+     * Reads ints written using writeIntArray or writeIntBuffer as a view of
+     * the given buffer, no copy is made. The view must be read using absolute
+     * positions.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the view
+     */
+    public static IntBuffer readIntBuffer(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        return slice(buffer, length << 2).asIntBuffer();
+    }
+
+    /**
+     * Reads longs written using writeLongBuffer as a view of the given buffer,
+     * no copy is made. The view must be read using absolute positions.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the view
+     */
+    public static LongBuffer readLongBuffer(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        return slice(buffer, length << 3).asLongBuffer();
+    }
+
+    /**
+     * Reads a string written using writeString.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the string
+     *
+     * @throws IOException exception thrown whenever the encoding is not
+     * supported
+     */
+    public static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = readByteArray(buffer);
+        return bytes == null ? null : new String(bytes, "UTF-8");
+    }
+}
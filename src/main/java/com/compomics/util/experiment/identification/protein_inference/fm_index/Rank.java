@@ -1,7 +1,14 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
 /**
- * Rank as used in the FM index.
+ * Rank as used in the FM index. The fields are stored in buffers which either
+ * wrap heap arrays when the rank is built or are views of a memory mapped
+ * index file when it is loaded.
  *
  * @author Dominik Kopczynski
  */
@@ -14,15 +21,15 @@ public class Rank {
     /**
      * The bit field.
      */
-    private final long[] bitfield;
+    private final LongBuffer bitfield;
     /**
      * The sums.
      */
-    private final int[] sums;
+    private final IntBuffer sums;
     /**
      * The sums.
      */
-    private final byte[] sumsSecondLevel;
+    private final ByteBuffer sumsSecondLevel;
     /**
      * The shift.
      */
@@ -42,10 +49,10 @@ public class Rank {
         length = text.length;
 
         int field_len = (length >>> 6) + 1;
-        bitfield = new long[field_len];
-        sums = new int[(length >>> 8) + 1];
+        long[] bitfield = new long[field_len];
+        int[] sums = new int[(length >>> 8) + 1];
         sums[0] = 0;
-        sumsSecondLevel = new byte[field_len];
+        byte[] sumsSecondLevel = new byte[field_len];
         sumsSecondLevel[0] = 0;
 
         for (int i = 0; i < length; ++i) {
@@ -68,6 +75,10 @@ public class Rank {
                 sums[i >>> 8] = sums[(i >>> 8) - 1] + (sumsSecondLevel[cell - 1] & 0xFF) + Long.bitCount(bitfield[cell - 1]);
             }
         }
+
+        this.bitfield = LongBuffer.wrap(bitfield);
+        this.sums = IntBuffer.wrap(sums);
+        this.sumsSecondLevel = ByteBuffer.wrap(sumsSecondLevel);
     }
     
     /**
@@ -80,10 +91,10 @@ public class Rank {
         this.length = length;
 
         int field_len = (length >>> 6) + 1;
-        bitfield = originalBitfield;
-        sums = new int[(length >>> 8) + 1];
+        long[] bitfield = originalBitfield;
+        int[] sums = new int[(length >>> 8) + 1];
         sums[0] = 0;
-        sumsSecondLevel = new byte[field_len];
+        byte[] sumsSecondLevel = new byte[field_len];
         sumsSecondLevel[0] = 0;
 
         for (int i = 0; i < length; ++i) {
@@ -100,6 +111,56 @@ public class Rank {
                 sums[i >>> 8] = sums[(i >>> 8) - 1] + (sumsSecondLevel[cell - 1] & 0xFF) + Long.bitCount(bitfield[cell - 1]);
             }
         }
+
+        this.bitfield = LongBuffer.wrap(bitfield);
+        this.sums = IntBuffer.wrap(sums);
+        this.sumsSecondLevel = ByteBuffer.wrap(sumsSecondLevel);
+    }
+
+    /**
+     * Constructor from already computed fields.
+     *
+     * @param length the length
+     * @param bitfield the bit field
+     * @param sums the sums
+     * @param sumsSecondLevel the second level sums
+     */
+    private Rank(int length, LongBuffer bitfield, IntBuffer sums, ByteBuffer sumsSecondLevel) {
+        this.length = length;
+        this.bitfield = bitfield;
+        this.sums = sums;
+        this.sumsSecondLevel = sumsSecondLevel;
+    }
+
+    /**
+     * Writes the rank to an index file.
+     *
+     * @param indexFile the index file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(FMIndexFile indexFile) throws IOException {
+        indexFile.writeInt(length);
+        indexFile.writeLongBuffer(bitfield);
+        indexFile.writeIntBuffer(sums);
+        indexFile.writeByteBuffer(sumsSecondLevel);
+    }
+
+    /**
+     * Reads a rank written using the write method. The fields of the rank are
+     * views of the given buffer.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the rank
+     */
+    public static Rank read(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        LongBuffer bitfield = FMIndexFile.readLongBuffer(buffer);
+        IntBuffer sums = FMIndexFile.readIntBuffer(buffer);
+        ByteBuffer sumsSecondLevel = FMIndexFile.readByteBuffer(buffer);
+        return new Rank(length, bitfield, sums, sumsSecondLevel);
     }
 
     /**
@@ -112,8 +173,8 @@ public class Rank {
     public int getRank(int index, boolean zeros) {
         int cell = index >>> shift;
         int pos = index & mask;
-        long active_ones = bitfield[cell] << (mask - pos);
-        int count_ones = (sumsSecondLevel[cell] & 0xFF) + sums[index >>> 8] + Long.bitCount(active_ones);
+        long active_ones = bitfield.get(cell) << (mask - pos);
+        int count_ones = (sumsSecondLevel.get(cell) & 0xFF) + sums.get(index >>> 8) + Long.bitCount(active_ones);
         return zeros ? index + 1 - count_ones : count_ones;
     }
 
@@ -126,8 +187,8 @@ public class Rank {
     public final int getRankOne(int index) {
         final int cell = index >>> shift;
         final int pos = index & mask;
-        final long active_ones = bitfield[cell] << (mask - pos);
-        final int count_ones = (sumsSecondLevel[cell] & 0xFF) + sums[index >>> 8] + Long.bitCount(active_ones);
+        final long active_ones = bitfield.get(cell) << (mask - pos);
+        final int count_ones = (sumsSecondLevel.get(cell) & 0xFF) + sums.get(index >>> 8) + Long.bitCount(active_ones);
         return count_ones;
     }
 
@@ -140,8 +201,8 @@ public class Rank {
     public int getRankZero(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
-        long active_ones = bitfield[cell] << (mask - pos);
-        int count_ones = (sumsSecondLevel[cell] & 0xFF) + sums[index >>> 8] + Long.bitCount(active_ones);
+        long active_ones = bitfield.get(cell) << (mask - pos);
+        int count_ones = (sumsSecondLevel.get(cell) & 0xFF) + sums.get(index >>> 8) + Long.bitCount(active_ones);
         return index + 1 - count_ones;
     }
 
@@ -154,7 +215,7 @@ public class Rank {
     public boolean isOne(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
-        return (((bitfield[cell] >>> pos) & 1L) == 1);
+        return (((bitfield.get(cell) >>> pos) & 1L) == 1);
     }
 
     /**
@@ -166,7 +227,7 @@ public class Rank {
     public int isOneInt(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
-        return (int)((bitfield[cell] >>> pos) & 1L);
+        return (int)((bitfield.get(cell) >>> pos) & 1L);
     }
 
     /**
@@ -175,6 +236,6 @@ public class Rank {
      * @return the number of bytes for the allocated arrays
      */
     public int getAllocatedBytes() {
-        return (bitfield.length << 3) + (sums.length << 2) + sumsSecondLevel.length;
+        return (bitfield.limit() << 3) + (sums.limit() << 2) + sumsSecondLevel.limit();
     }
 }
@@ -0,0 +1,498 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of intermediate tag to proteome mapping results. The entries
+ * are identified by the index part, the amino acid sequence of the tag and its
+ * C-terminal mass gap rounded to five decimals, combined in a primitive key.
+ * The cache is split in segments locked independently so that threads
+ * mapping tags do not wait on each other, and every segment evicts its least
+ * recently used entries when the number of cached matrix cells exceeds its
+ * share of the maximal weight.
+ *
+ * @author Dominik Kopczynski
+ * @author Marc Vaudel
+ */
+public class TagMappingCache {
+
+    /**
+     * The default maximal number of matrix cells kept in cache.
+     */
+    public static final int DEFAULT_MAX_WEIGHT = 250000;
+    /**
+     * The number of segments, must be a power of two.
+     */
+    private static final int N_SEGMENTS = 32;
+    /**
+     * The factor used to quantize the masses, corresponding to five decimals.
+     */
+    private static final double MASS_QUANTIZATION = 100000.0;
+    /**
+     * The segments of the cache.
+     */
+    private final Segment[] segments = new Segment[N_SEGMENTS];
+    /**
+     * The number of lookups returning a cached result.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * The number of lookups returning no cached result.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * The number of entries removed to respect the maximal weight.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxWeight the maximal number of matrix cells kept in cache
+     */
+    public TagMappingCache(int maxWeight) {
+        int segmentMaxWeight = Math.max(maxWeight / N_SEGMENTS, 1);
+        for (int i = 0; i < N_SEGMENTS; i++) {
+            segments[i] = new Segment(segmentMaxWeight);
+        }
+    }
+
+    /**
+     * Constructor with the default maximal weight.
+     */
+    public TagMappingCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * Returns the quantized representation of a mass used in the keys.
+     *
+     * @param mass the mass
+     *
+     * @return the quantized mass
+     */
+    public static long quantizeMass(double mass) {
+        return Math.round(mass * MASS_QUANTIZATION);
+    }
+
+    /**
+     * Returns the primitive key of an entry.
+     *
+     * @param indexPart the index part
+     * @param sequence the sequence of the tag
+     * @param quantizedMass the quantized mass of the tag
+     *
+     * @return the key
+     */
+    private static long getKey(int indexPart, String sequence, long quantizedMass) {
+        long sequenceKey = 31 * sequence.hashCode() + indexPart;
+        return (sequenceKey << 32) ^ quantizedMass;
+    }
+
+    /**
+     * Returns the segment responsible for the given key.
+     *
+     * @param key the key
+     *
+     * @return the segment
+     */
+    private Segment getSegment(long key) {
+        return segments[spread(key) & (N_SEGMENTS - 1)];
+    }
+
+    /**
+     * Spreads the bits of a key into an int hash.
+     *
+     * @param key the key
+     *
+     * @return the hash
+     */
+    private static int spread(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Returns the cached matrix cells for the given tag, null if not in cache.
+     * The returned list must not be modified.
+     *
+     * @param indexPart the index part
+     * @param sequence the sequence of the tag
+     * @param mass the mass of the tag
+     *
+     * @return the cached matrix cells
+     */
+    public ArrayList<MatrixContent> get(int indexPart, String sequence, double mass) {
+        long quantizedMass = quantizeMass(mass);
+        long key = getKey(indexPart, sequence, quantizedMass);
+        ArrayList<MatrixContent> result = getSegment(key).get(key, indexPart, sequence, quantizedMass);
+        if (result == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Adds the matrix cells of a tag to the cache if not already present. The
+     * list must not be modified after having been added.
+     *
+     * @param indexPart the index part
+     * @param sequence the sequence of the tag
+     * @param mass the mass of the tag
+     * @param matrixContents the matrix cells
+     */
+    public void putIfAbsent(int indexPart, String sequence, double mass, ArrayList<MatrixContent> matrixContents) {
+        long quantizedMass = quantizeMass(mass);
+        long key = getKey(indexPart, sequence, quantizedMass);
+        int nEvicted = getSegment(key).putIfAbsent(key, indexPart, sequence, quantizedMass, matrixContents);
+        if (nEvicted > 0) {
+            evictions.addAndGet(nEvicted);
+        }
+    }
+
+    /**
+     * Empties the cache. The counters are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries in cache.
+     *
+     * @return the number of entries in cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of matrix cells in cache.
+     *
+     * @return the number of matrix cells in cache
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            weight += segment.getWeight();
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the number of lookups which returned a cached result.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups which returned no cached result.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries removed from the cache to respect the
+     * maximal weight.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Entry of the cache, chained in its bucket and in the access order list
+     * of its segment.
+     */
+    private static class Entry {
+
+        /**
+         * The primitive key.
+         */
+        final long key;
+        /**
+         * The index part.
+         */
+        final int indexPart;
+        /**
+         * The sequence of the tag.
+         */
+        final String sequence;
+        /**
+         * The quantized mass of the tag.
+         */
+        final long quantizedMass;
+        /**
+         * The cached matrix cells.
+         */
+        final ArrayList<MatrixContent> matrixContents;
+        /**
+         * The weight of the entry.
+         */
+        final int weight;
+        /**
+         * The next entry in the same bucket.
+         */
+        Entry nextInBucket;
+        /**
+         * The entry accessed before this one.
+         */
+        Entry before;
+        /**
+         * The entry accessed after this one.
+         */
+        Entry after;
+
+        /**
+         * Constructor.
+         *
+         * @param key the primitive key
+         * @param indexPart the index part
+         * @param sequence the sequence of the tag
+         * @param quantizedMass the quantized mass of the tag
+         * @param matrixContents the cached matrix cells
+         */
+        Entry(long key, int indexPart, String sequence, long quantizedMass, ArrayList<MatrixContent> matrixContents) {
+            this.key = key;
+            this.indexPart = indexPart;
+            this.sequence = sequence;
+            this.quantizedMass = quantizedMass;
+            this.matrixContents = matrixContents;
+            this.weight = matrixContents.size() + 1;
+        }
+
+        /**
+         * Indicates whether this entry corresponds to the given tag.
+         *
+         * @param key the primitive key
+         * @param indexPart the index part
+         * @param sequence the sequence of the tag
+         * @param quantizedMass the quantized mass of the tag
+         *
+         * @return a boolean indicating whether this entry corresponds to the
+         * given tag
+         */
+        boolean matches(long key, int indexPart, String sequence, long quantizedMass) {
+            return this.key == key && this.quantizedMass == quantizedMass && this.indexPart == indexPart && this.sequence.equals(sequence);
+        }
+    }
+
+    /**
+     * Segment of the cache: a hash table of entries with a list of the
+     * entries from the least to the most recently used.
+     */
+    private static class Segment {
+
+        /**
+         * The maximal weight of the segment.
+         */
+        private final int maxWeight;
+        /**
+         * The buckets.
+         */
+        private Entry[] table = new Entry[16];
+        /**
+         * Sentinel of the access order list, head.after is the least recently
+         * used entry.
+         */
+        private final Entry head = new Entry(0, 0, "", 0, new ArrayList<MatrixContent>(0));
+        /**
+         * The number of entries.
+         */
+        private int size = 0;
+        /**
+         * The current weight.
+         */
+        private long weight = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param maxWeight the maximal weight of the segment
+         */
+        Segment(int maxWeight) {
+            this.maxWeight = maxWeight;
+            head.before = head;
+            head.after = head;
+        }
+
+        /**
+         * Returns the cached matrix cells, null if not found. Marks the entry
+         * as most recently used.
+         *
+         * @param key the primitive key
+         * @param indexPart the index part
+         * @param sequence the sequence of the tag
+         * @param quantizedMass the quantized mass of the tag
+         *
+         * @return the cached matrix cells
+         */
+        synchronized ArrayList<MatrixContent> get(long key, int indexPart, String sequence, long quantizedMass) {
+            Entry entry = find(key, indexPart, sequence, quantizedMass);
+            if (entry == null) {
+                return null;
+            }
+            unlink(entry);
+            linkLast(entry);
+            return entry.matrixContents;
+        }
+
+        /**
+         * Adds an entry if not already present and evicts the least recently
+         * used entries until the weight fits the maximal weight.
+         *
+         * @param key the primitive key
+         * @param indexPart the index part
+         * @param sequence the sequence of the tag
+         * @param quantizedMass the quantized mass of the tag
+         * @param matrixContents the matrix cells
+         *
+         * @return the number of evicted entries
+         */
+        synchronized int putIfAbsent(long key, int indexPart, String sequence, long quantizedMass, ArrayList<MatrixContent> matrixContents) {
+            if (matrixContents.size() + 1 > maxWeight || find(key, indexPart, sequence, quantizedMass) != null) {
+                return 0;
+            }
+            Entry entry = new Entry(key, indexPart, sequence, quantizedMass, matrixContents);
+            int bucket = spread(key) >>> 5 & (table.length - 1);
+            entry.nextInBucket = table[bucket];
+            table[bucket] = entry;
+            linkLast(entry);
+            size++;
+            weight += entry.weight;
+            int nEvicted = 0;
+            while (weight > maxWeight) {
+                remove(head.after);
+                nEvicted++;
+            }
+            if (size > table.length * 3 / 4) {
+                resize();
+            }
+            return nEvicted;
+        }
+
+        /**
+         * Returns the entry corresponding to the given tag, null if none.
+         *
+         * @param key the primitive key
+         * @param indexPart the index part
+         * @param sequence the sequence of the tag
+         * @param quantizedMass the quantized mass of the tag
+         *
+         * @return the entry
+         */
+        private Entry find(long key, int indexPart, String sequence, long quantizedMass) {
+            Entry entry = table[spread(key) >>> 5 & (table.length - 1)];
+            while (entry != null) {
+                if (entry.matches(key, indexPart, sequence, quantizedMass)) {
+                    return entry;
+                }
+                entry = entry.nextInBucket;
+            }
+            return null;
+        }
+
+        /**
+         * Removes an entry from its bucket and from the access order list.
+         *
+         * @param entry the entry
+         */
+        private void remove(Entry entry) {
+            int bucket = spread(entry.key) >>> 5 & (table.length - 1);
+            Entry previous = null;
+            Entry current = table[bucket];
+            while (current != entry) {
+                previous = current;
+                current = current.nextInBucket;
+            }
+            if (previous == null) {
+                table[bucket] = entry.nextInBucket;
+            } else {
+                previous.nextInBucket = entry.nextInBucket;
+            }
+            unlink(entry);
+            size--;
+            weight -= entry.weight;
+        }
+
+        /**
+         * Doubles the number of buckets.
+         */
+        private void resize() {
+            Entry[] newTable = new Entry[table.length << 1];
+            for (Entry entry = head.after; entry != head; entry = entry.after) {
+                int bucket = spread(entry.key) >>> 5 & (newTable.length - 1);
+                entry.nextInBucket = newTable[bucket];
+                newTable[bucket] = entry;
+            }
+            table = newTable;
+        }
+
+        /**
+         * Removes an entry from the access order list.
+         *
+         * @param entry the entry
+         */
+        private void unlink(Entry entry) {
+            entry.before.after = entry.after;
+            entry.after.before = entry.before;
+        }
+
+        /**
+         * Adds an entry at the end of the access order list.
+         *
+         * @param entry the entry
+         */
+        private void linkLast(Entry entry) {
+            entry.after = head;
+            entry.before = head.before;
+            head.before.after = entry;
+            head.before = entry;
+        }
+
+        /**
+         * Removes all entries.
+         */
+        synchronized void clear() {
+            table = new Entry[16];
+            head.before = head;
+            head.after = head;
+            size = 0;
+            weight = 0;
+        }
+
+        /**
+         * Returns the number of entries.
+         *
+         * @return the number of entries
+         */
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Returns the current weight.
+         *
+         * @return the current weight
+         */
+        synchronized long getWeight() {
+            return weight;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -198,6 +200,71 @@ public class WaveletTree {
         }
     }
 
+    /**
+     * Empty constructor used when reading a tree from an index file.
+     */
+    private WaveletTree() {
+    }
+
+    /**
+     * Writes the tree and its children to an index file.
+     *
+     * @param indexFile the index file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(FMIndexFile indexFile) throws IOException {
+        indexFile.writeLong(alphabetDirections[0]);
+        indexFile.writeLong(alphabetDirections[1]);
+        indexFile.writeInt(firstChar);
+        indexFile.writeInt(lastChar);
+        indexFile.writeInt(lenText);
+        indexFile.writeInt(numMasses);
+        indexFile.writeInt(leftRightMask);
+        indexFile.writeBoolean(continueLeftRangeQuery);
+        indexFile.writeBoolean(continueRightRangeQuery);
+        indexFile.writeIntArray(less);
+        rank.write(indexFile);
+        indexFile.writeBoolean(leftChild != null);
+        if (leftChild != null) {
+            leftChild.write(indexFile);
+        }
+        indexFile.writeBoolean(rightChild != null);
+        if (rightChild != null) {
+            rightChild.write(indexFile);
+        }
+    }
+
+    /**
+     * Reads a tree written using the write method.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the tree
+     */
+    public static WaveletTree read(ByteBuffer buffer) {
+        WaveletTree waveletTree = new WaveletTree();
+        waveletTree.alphabetDirections[0] = buffer.getLong();
+        waveletTree.alphabetDirections[1] = buffer.getLong();
+        waveletTree.firstChar = buffer.getInt();
+        waveletTree.lastChar = buffer.getInt();
+        waveletTree.lenText = buffer.getInt();
+        waveletTree.numMasses = buffer.getInt();
+        waveletTree.leftRightMask = buffer.getInt();
+        waveletTree.continueLeftRangeQuery = FMIndexFile.readBoolean(buffer);
+        waveletTree.continueRightRangeQuery = FMIndexFile.readBoolean(buffer);
+        waveletTree.less = FMIndexFile.readIntArray(buffer);
+        waveletTree.rank = Rank.read(buffer);
+        if (FMIndexFile.readBoolean(buffer)) {
+            waveletTree.leftChild = read(buffer);
+        }
+        if (FMIndexFile.readBoolean(buffer)) {
+            waveletTree.rightChild = read(buffer);
+        }
+        return waveletTree;
+    }
+
     /**
      * Constructor.
      *
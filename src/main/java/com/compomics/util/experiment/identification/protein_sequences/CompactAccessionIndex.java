@@ -0,0 +1,789 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Compact index of the accessions of a FASTA file. The index is a sidecar
+ * file built from a scan of the FASTA file once and read via memory mapping
+ * afterwards. The accessions are sorted and front coded in blocks, the offsets
+ * and lengths of the entries in the FASTA file are stored as primitive arrays
+ * and the decoy status as a bit set. The header of the file also stores the
+ * decoy tag and the number of target sequences. Accessions are looked up by
+ * binary search on the first accession of every block followed by a scan of
+ * the block.
+ *
+ * The index is immutable once written and can be read concurrently by any
+ * number of threads.
+ *
+ * @author Marc Vaudel
+ */
+public class CompactAccessionIndex {
+
+    /**
+     * The magic number at the beginning of an index file.
+     */
+    public static final int MAGIC_NUMBER = 0x43554149;
+    /**
+     * The version of the index format.
+     */
+    public static final int VERSION = 2;
+    /**
+     * The size of the header in bytes.
+     */
+    public static final int HEADER_SIZE = 96;
+    /**
+     * The number of accessions per front coded block.
+     */
+    public static final int BLOCK_SIZE = 16;
+    /**
+     * The size of the mapped segments of the file. The primitive arrays are
+     * aligned on eight bytes and never cross a segment boundary.
+     */
+    public static final long SEGMENT_SIZE = 1L << 30;
+    /**
+     * The encoding used for the accessions.
+     */
+    private static final String ENCODING = "UTF-8";
+    /**
+     * The flag indicating that the FASTA file contains decoy sequences.
+     */
+    private static final int CONCATENATED_TARGET_DECOY = 1;
+    /**
+     * The flag indicating that the decoy accessions use the default decoy
+     * suffix.
+     */
+    private static final int DEFAULT_REVERSED = 2;
+    /**
+     * The mapped segments of the file.
+     */
+    private final MappedByteBuffer[] segments;
+    /**
+     * The number of accessions in the index.
+     */
+    private final int nAccessions;
+    /**
+     * The number of front coded blocks.
+     */
+    private final int nBlocks;
+    /**
+     * The last modification date of the FASTA file when the index was built.
+     */
+    private final long sourceLastModified;
+    /**
+     * The length of the FASTA file when the index was built.
+     */
+    private final long sourceLength;
+    /**
+     * The position of the block pointers in the file.
+     */
+    private final long blocksPosition;
+    /**
+     * The position of the offsets in the file.
+     */
+    private final long offsetsPosition;
+    /**
+     * The position of the lengths in the file.
+     */
+    private final long lengthsPosition;
+    /**
+     * The position of the decoy bit set in the file.
+     */
+    private final long decoysPosition;
+    /**
+     * The position of the front coded accessions in the file.
+     */
+    private final long accessionsPosition;
+    /**
+     * The number of target sequences.
+     */
+    private final int nTarget;
+    /**
+     * Indicates whether the FASTA file contains decoy sequences.
+     */
+    private final boolean concatenatedTargetDecoy;
+    /**
+     * Indicates whether the decoy accessions use the default decoy suffix.
+     */
+    private final boolean defaultReversed;
+    /**
+     * The decoy tag, null if none.
+     */
+    private final String decoyTag;
+
+    /**
+     * Opens the given index file.
+     *
+     * @param indexFile the index file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file or if the file is not a complete index
+     */
+    public CompactAccessionIndex(File indexFile) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Accession index " + indexFile.getName() + " is truncated.");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            }
+            header.flip();
+            if (header.getInt() != MAGIC_NUMBER) {
+                throw new IOException("File " + indexFile.getName() + " is not a complete accession index.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported accession index version " + version + " in " + indexFile.getName() + ".");
+            }
+            nAccessions = header.getInt();
+            nBlocks = header.getInt();
+            sourceLastModified = header.getLong();
+            sourceLength = header.getLong();
+            blocksPosition = header.getLong();
+            offsetsPosition = header.getLong();
+            lengthsPosition = header.getLong();
+            decoysPosition = header.getLong();
+            accessionsPosition = header.getLong();
+            long end = header.getLong();
+            long decoyTagPosition = header.getLong();
+            int flags = header.getInt();
+            nTarget = header.getInt();
+            concatenatedTargetDecoy = (flags & CONCATENATED_TARGET_DECOY) != 0;
+            defaultReversed = (flags & DEFAULT_REVERSED) != 0;
+            if (length < end) {
+                throw new IOException("Accession index " + indexFile.getName() + " is truncated.");
+            }
+            int nSegments = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[nSegments];
+            for (int i = 0; i < nSegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+            }
+            decoyTag = readString(decoyTagPosition);
+        } finally {
+            randomAccessFile.close(); // the mapping remains valid after closing the file
+        }
+    }
+
+    /**
+     * Indicates whether the index was built from the given FASTA file in its
+     * current state.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return a boolean indicating whether the index is up to date
+     */
+    public boolean isUpToDate(File fastaFile) {
+        return fastaFile.lastModified() == sourceLastModified && fastaFile.length() == sourceLength;
+    }
+
+    /**
+     * Returns the number of accessions in the index.
+     *
+     * @return the number of accessions in the index
+     */
+    public int size() {
+        return nAccessions;
+    }
+
+    /**
+     * Returns the number of target sequences.
+     *
+     * @return the number of target sequences
+     */
+    public int getNTarget() {
+        return nTarget;
+    }
+
+    /**
+     * Indicates whether the FASTA file contains decoy sequences.
+     *
+     * @return a boolean indicating whether the FASTA file contains decoy
+     * sequences
+     */
+    public boolean isConcatenatedTargetDecoy() {
+        return concatenatedTargetDecoy;
+    }
+
+    /**
+     * Indicates whether the decoy accessions use the default decoy suffix.
+     *
+     * @return a boolean indicating whether the decoy accessions use the
+     * default decoy suffix
+     */
+    public boolean isDefaultReversed() {
+        return defaultReversed;
+    }
+
+    /**
+     * Returns the decoy tag, null if none.
+     *
+     * @return the decoy tag
+     */
+    public String getDecoyTag() {
+        return decoyTag;
+    }
+
+    /**
+     * Returns the index of the given accession in the sorted accessions, -1
+     * if not found.
+     *
+     * @param accession the accession
+     *
+     * @return the index of the given accession
+     */
+    public int indexOf(String accession) {
+
+        byte[] key = getBytes(accession);
+        byte[] current = new byte[Math.max(64, key.length)];
+
+        // find the last block starting with an accession lower or equal to the key
+        int low = 0;
+        int high = nBlocks - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long position = accessionsPosition + getLong(blocksPosition + 8L * mid);
+            position += getVarLongSize(position); // no shared prefix for the first accession of a block
+            int length = (int) getVarLong(position);
+            position += getVarLongSize(position);
+            int comparison = compare(position, length, key);
+            if (comparison == 0) {
+                return mid * BLOCK_SIZE;
+            } else if (comparison < 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block == -1) {
+            return -1;
+        }
+
+        // scan the block
+        long position = accessionsPosition + getLong(blocksPosition + 8L * block);
+        int blockEnd = Math.min(nAccessions, (block + 1) * BLOCK_SIZE);
+        for (int i = block * BLOCK_SIZE; i < blockEnd; i++) {
+            int shared = (int) getVarLong(position);
+            position += getVarLongSize(position);
+            int suffixLength = (int) getVarLong(position);
+            position += getVarLongSize(position);
+            int length = shared + suffixLength;
+            if (length > current.length) {
+                current = Arrays.copyOf(current, Math.max(length, 2 * current.length));
+            }
+            for (int j = 0; j < suffixLength; j++) {
+                current[shared + j] = get(position + j);
+            }
+            position += suffixLength;
+            int comparison = compare(current, length, key);
+            if (comparison == 0) {
+                return i;
+            } else if (comparison > 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indicates whether the given accession is in the index.
+     *
+     * @param accession the accession
+     *
+     * @return a boolean indicating whether the given accession is in the index
+     */
+    public boolean contains(String accession) {
+        return indexOf(accession) != -1;
+    }
+
+    /**
+     * Returns the accession at the given index in the sorted accessions.
+     *
+     * @param index the index of the accession
+     *
+     * @return the accession
+     */
+    public String getAccession(int index) {
+
+        int block = index / BLOCK_SIZE;
+        long position = accessionsPosition + getLong(blocksPosition + 8L * block);
+        byte[] current = new byte[64];
+        int length = 0;
+        for (int i = block * BLOCK_SIZE; i <= index; i++) {
+            int shared = (int) getVarLong(position);
+            position += getVarLongSize(position);
+            int suffixLength = (int) getVarLong(position);
+            position += getVarLongSize(position);
+            length = shared + suffixLength;
+            if (length > current.length) {
+                current = Arrays.copyOf(current, Math.max(length, 2 * current.length));
+            }
+            for (int j = 0; j < suffixLength; j++) {
+                current[shared + j] = get(position + j);
+            }
+            position += suffixLength;
+        }
+        try {
+            return new String(current, 0, length, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the offset in the FASTA file of the entry at the given index.
+     *
+     * @param index the index of the accession
+     *
+     * @return the offset of the entry
+     */
+    public long getOffset(int index) {
+        return getLong(offsetsPosition + 8L * index);
+    }
+
+    /**
+     * Returns the length in bytes of the entry at the given index in the FASTA
+     * file, header included.
+     *
+     * @param index the index of the accession
+     *
+     * @return the length of the entry
+     */
+    public long getLength(int index) {
+        return getLong(lengthsPosition + 8L * index);
+    }
+
+    /**
+     * Indicates whether the accession at the given index is a decoy.
+     *
+     * @param index the index of the accession
+     *
+     * @return a boolean indicating whether the accession is a decoy
+     */
+    public boolean isDecoy(int index) {
+        long word = getLong(decoysPosition + 8L * (index >>> 6));
+        return (word & (1L << (index & 63))) != 0;
+    }
+
+    /**
+     * Returns the byte at the given position in the file.
+     *
+     * @param position the position in the file
+     *
+     * @return the byte at the given position
+     */
+    private byte get(long position) {
+        return segments[(int) (position / SEGMENT_SIZE)].get((int) (position % SEGMENT_SIZE));
+    }
+
+    /**
+     * Returns the long at the given position in the file. The position must
+     * be aligned on eight bytes.
+     *
+     * @param position the position in the file
+     *
+     * @return the long at the given position
+     */
+    private long getLong(long position) {
+        return segments[(int) (position / SEGMENT_SIZE)].getLong((int) (position % SEGMENT_SIZE));
+    }
+
+    /**
+     * Reads a variable length positive long at the given position in the
+     * file.
+     *
+     * @param position the position in the file
+     *
+     * @return the long
+     */
+    private long getVarLong(long position) {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = get(position++);
+            result |= ((long) (b & 0x7F)) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes used by the variable length long at the
+     * given position in the file.
+     *
+     * @param position the position in the file
+     *
+     * @return the number of bytes used by the long
+     */
+    private int getVarLongSize(long position) {
+        int size = 1;
+        while ((get(position++) & 0x80) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Reads a string written by writeString at the given position in the
+     * file.
+     *
+     * @param position the position in the file
+     *
+     * @return the string, null if a null string was written
+     *
+     * @throws IOException exception thrown whenever the encoding is not
+     * supported
+     */
+    private String readString(long position) throws IOException {
+        int length = (int) getVarLong(position) - 1;
+        if (length == -1) {
+            return null;
+        }
+        position += getVarLongSize(position);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = get(position + i);
+        }
+        return new String(bytes, ENCODING);
+    }
+
+    /**
+     * Compares the accession at the given position in the file to the given
+     * key.
+     *
+     * @param position the position of the accession bytes
+     * @param length the length of the accession in bytes
+     * @param key the key
+     *
+     * @return a negative integer, zero, or a positive integer as the accession
+     * is lower than, equal to, or greater than the key
+     */
+    private int compare(long position, int length, byte[] key) {
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int difference = (get(position + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Compares the given accession bytes to the given key.
+     *
+     * @param accession the accession bytes
+     * @param length the length of the accession in bytes
+     * @param key the key
+     *
+     * @return a negative integer, zero, or a positive integer as the accession
+     * is lower than, equal to, or greater than the key
+     */
+    private static int compare(byte[] accession, int length, byte[] key) {
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int difference = (accession[i] & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Compares two accessions of a pool of accession bytes, ties are resolved
+     * by increasing index.
+     *
+     * @param index1 the index of the first accession
+     * @param index2 the index of the second accession
+     * @param accessionBytes the bytes of all accessions
+     * @param accessionStarts the start of every accession in the bytes, the
+     * end of an accession being the start of the next one
+     *
+     * @return a negative integer, zero, or a positive integer as the first
+     * accession is to be sorted before, with, or after the second
+     */
+    private static int compareAccessions(int index1, int index2, byte[] accessionBytes, int[] accessionStarts) {
+        int start1 = accessionStarts[index1];
+        int length1 = accessionStarts[index1 + 1] - start1;
+        int start2 = accessionStarts[index2];
+        int length2 = accessionStarts[index2 + 1] - start2;
+        int n = Math.min(length1, length2);
+        for (int i = 0; i < n; i++) {
+            int difference = (accessionBytes[start1 + i] & 0xFF) - (accessionBytes[start2 + i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        int result = length1 - length2;
+        if (result == 0) {
+            result = index1 - index2;
+        }
+        return result;
+    }
+
+    /**
+     * Sorts the indexes of accessions of a pool of accession bytes in the
+     * byte order of the accessions, ties are sorted by increasing index.
+     * Quicksort on primitive arrays like BasicMathFunctions.sortIndexes.
+     *
+     * @param indexes the indexes to sort
+     * @param low the first position to sort
+     * @param high the last position to sort
+     * @param accessionBytes the bytes of all accessions
+     * @param accessionStarts the start of every accession in the bytes, the
+     * end of an accession being the start of the next one
+     */
+    private static void sortAccessions(int[] indexes, int low, int high, byte[] accessionBytes, int[] accessionStarts) {
+        while (low < high) {
+            if (high - low < 16) {
+                for (int i = low + 1; i <= high; i++) {
+                    int index = indexes[i];
+                    int j = i - 1;
+                    while (j >= low && compareAccessions(indexes[j], index, accessionBytes, accessionStarts) > 0) {
+                        indexes[j + 1] = indexes[j];
+                        j--;
+                    }
+                    indexes[j + 1] = index;
+                }
+                return;
+            }
+            int pivot = indexes[(low + high) >>> 1];
+            int i = low, j = high;
+            while (i <= j) {
+                while (compareAccessions(indexes[i], pivot, accessionBytes, accessionStarts) < 0) {
+                    i++;
+                }
+                while (compareAccessions(indexes[j], pivot, accessionBytes, accessionStarts) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    int temp = indexes[i];
+                    indexes[i] = indexes[j];
+                    indexes[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            if (j - low < high - i) {
+                sortAccessions(indexes, low, j, accessionBytes, accessionStarts);
+                low = i;
+            } else {
+                sortAccessions(indexes, i, high, accessionBytes, accessionStarts);
+                high = j;
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes of the given accession in the encoding of the index.
+     *
+     * @param accession the accession
+     *
+     * @return the bytes of the accession
+     */
+    static byte[] getBytes(String accession) {
+        try {
+            return accession.getBytes(ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes a variable length positive long to the given stream.
+     *
+     * @param outputStream the stream to write to
+     * @param value the value to write
+     */
+    private static void writeVarLong(ByteArrayOutputStream outputStream, long value) {
+        while ((value & ~0x7FL) != 0) {
+            outputStream.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.write((int) value);
+    }
+
+    /**
+     * Writes a string to the given stream as its length plus one followed by
+     * its bytes, a null string is written as a length of zero.
+     *
+     * @param outputStream the stream to write to
+     * @param string the string to write, can be null
+     */
+    private static void writeString(ByteArrayOutputStream outputStream, String string) {
+        if (string == null) {
+            writeVarLong(outputStream, 0);
+        } else {
+            byte[] bytes = getBytes(string);
+            writeVarLong(outputStream, bytes.length + 1);
+            outputStream.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Returns the position following the given position aligned on eight
+     * bytes.
+     *
+     * @param position the position
+     *
+     * @return the aligned position
+     */
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    /**
+     * Writes the compact index of the given FASTA entries to the given file.
+     * The accessions are given as a single pool of bytes, see getBytes, and
+     * sorted by index without creating an object per accession.
+     *
+     * @param indexFile the file to write to
+     * @param fastaFile the indexed FASTA file
+     * @param nAccessions the number of entries
+     * @param accessionBytes the bytes of the accessions of the entries in the
+     * order of the file
+     * @param accessionStarts the start of the accession of every entry in the
+     * bytes followed by the end of the last accession, i.e. at least
+     * nAccessions + 1 values
+     * @param offsets the offsets of the entries in the FASTA file, ascending
+     * @param decoys the decoy status of the entries
+     * @param decoyTag the decoy tag, null if none
+     * @param defaultReversed boolean indicating whether the decoy accessions
+     * use the default decoy suffix
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     * @throws IllegalArgumentException exception thrown whenever an accession
+     * is found more than once
+     */
+    public static void writeIndex(File indexFile, File fastaFile, int nAccessions, byte[] accessionBytes, int[] accessionStarts, long[] offsets, boolean[] decoys,
+            String decoyTag, boolean defaultReversed) throws IOException, IllegalArgumentException {
+
+        long sourceLength = fastaFile.length();
+
+        // sort the accessions
+        int[] order = new int[nAccessions];
+        int nTarget = 0;
+        int i;
+        for (i = 0; i < nAccessions; i++) {
+            order[i] = i;
+            if (!decoys[i]) {
+                nTarget++;
+            }
+        }
+        sortAccessions(order, 0, nAccessions - 1, accessionBytes, accessionStarts);
+        for (i = 1; i < nAccessions; i++) {
+            int start = accessionStarts[order[i]];
+            int length = accessionStarts[order[i] + 1] - start;
+            int previousStart = accessionStarts[order[i - 1]];
+            int previousLength = accessionStarts[order[i - 1] + 1] - previousStart;
+            if (length == previousLength) {
+                int shared = 0;
+                while (shared < length && accessionBytes[start + shared] == accessionBytes[previousStart + shared]) {
+                    shared++;
+                }
+                if (shared == length) {
+                    String accession = new String(accessionBytes, start, length, ENCODING);
+                    throw new IllegalArgumentException("Non unique accession number found \'" + accession + "\'!\nPlease check your FASTA file.");
+                }
+            }
+        }
+        int flags = (nTarget < nAccessions ? CONCATENATED_TARGET_DECOY : 0) | (defaultReversed ? DEFAULT_REVERSED : 0);
+
+        // front code the accessions
+        int nBlocks = (nAccessions + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long[] blockPointers = new long[nBlocks];
+        ByteArrayOutputStream accessionsStream = new ByteArrayOutputStream();
+        int previousStart = 0, previousLength = 0;
+        for (i = 0; i < nAccessions; i++) {
+            int start = accessionStarts[order[i]];
+            int length = accessionStarts[order[i] + 1] - start;
+            int shared = 0;
+            if (i % BLOCK_SIZE == 0) {
+                blockPointers[i / BLOCK_SIZE] = accessionsStream.size();
+            } else {
+                int n = Math.min(previousLength, length);
+                while (shared < n && accessionBytes[previousStart + shared] == accessionBytes[start + shared]) {
+                    shared++;
+                }
+            }
+            writeVarLong(accessionsStream, shared);
+            writeVarLong(accessionsStream, length - shared);
+            accessionsStream.write(accessionBytes, start + shared, length - shared);
+            previousStart = start;
+            previousLength = length;
+        }
+
+        long blocksPosition = HEADER_SIZE;
+        long offsetsPosition = align(blocksPosition + 8L * nBlocks);
+        long lengthsPosition = offsetsPosition + 8L * nAccessions;
+        long decoysPosition = lengthsPosition + 8L * nAccessions;
+        int nDecoyWords = (nAccessions + 63) / 64;
+        long accessionsPosition = decoysPosition + 8L * nDecoyWords;
+        long decoyTagPosition = accessionsPosition + accessionsStream.size();
+        writeString(accessionsStream, decoyTag);
+        long end = accessionsPosition + accessionsStream.size();
+
+        DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1024 * 1024));
+        try {
+            outputStream.writeInt(MAGIC_NUMBER);
+            outputStream.writeInt(VERSION);
+            outputStream.writeInt(nAccessions);
+            outputStream.writeInt(nBlocks);
+            outputStream.writeLong(fastaFile.lastModified());
+            outputStream.writeLong(sourceLength);
+            outputStream.writeLong(blocksPosition);
+            outputStream.writeLong(offsetsPosition);
+            outputStream.writeLong(lengthsPosition);
+            outputStream.writeLong(decoysPosition);
+            outputStream.writeLong(accessionsPosition);
+            outputStream.writeLong(end);
+            outputStream.writeLong(decoyTagPosition);
+            outputStream.writeInt(flags);
+            outputStream.writeInt(nTarget);
+            for (long blockPointer : blockPointers) {
+                outputStream.writeLong(blockPointer);
+            }
+            for (long position = blocksPosition + 8L * nBlocks; position < offsetsPosition; position++) {
+                outputStream.writeByte(0);
+            }
+            for (i = 0; i < nAccessions; i++) {
+                outputStream.writeLong(offsets[order[i]]);
+            }
+            for (i = 0; i < nAccessions; i++) {
+                int next = order[i] + 1;
+                long entryEnd = next < nAccessions ? offsets[next] : sourceLength;
+                outputStream.writeLong(entryEnd - offsets[order[i]]);
+            }
+            for (int word = 0; word < nDecoyWords; word++) {
+                long bits = 0;
+                for (int bit = 0; bit < 64 && 64 * word + bit < nAccessions; bit++) {
+                    if (decoys[order[64 * word + bit]]) {
+                        bits |= 1L << bit;
+                    }
+                }
+                outputStream.writeLong(bits);
+            }
+            accessionsStream.writeTo(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
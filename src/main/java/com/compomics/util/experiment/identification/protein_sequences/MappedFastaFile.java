@@ -0,0 +1,233 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.protein.Header;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory-mapped view of a FASTA file. Entries are sliced from the
+ * mapped buffers using the offsets and lengths of the compact accession
+ * index. The buffers are
+ * only read using absolute positions so that the instance can be used by
+ * multiple threads without synchronization. The owner of the instance can
+ * release the mapping using close once no thread reads from it anymore.
+ *
+ * @author Marc Vaudel
+ */
+public class MappedFastaFile {
+
+    /**
+     * The number of bits used for the position in a mapped segment.
+     */
+    private static final int SEGMENT_BITS = 30;
+    /**
+     * The maximal size of a mapped segment.
+     */
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    /**
+     * The mask giving the position in a mapped segment.
+     */
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    /**
+     * The mapped segments of the file.
+     */
+    private MappedByteBuffer[] segments;
+    /**
+     * The length of the file.
+     */
+    private final long length;
+    /**
+     * The compact index of the accessions of the file.
+     */
+    private final CompactAccessionIndex accessionIndex;
+
+    /**
+     * Constructor. Maps the given FASTA file in memory.
+     *
+     * @param fastaFile the FASTA file
+     * @param accessionIndex the compact index of the accessions of the FASTA
+     * file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public MappedFastaFile(File fastaFile, CompactAccessionIndex accessionIndex) throws IOException {
+
+        this.accessionIndex = accessionIndex;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(fastaFile, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            length = channel.size();
+            int nSegments = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[nSegments];
+            for (int j = 0; j < nSegments; j++) {
+                long start = j * SEGMENT_SIZE;
+                segments[j] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+            }
+        } finally {
+            randomAccessFile.close(); // the mapping remains valid after closing the file
+        }
+    }
+
+    /**
+     * Returns the byte at the given position in the file.
+     *
+     * @param position the position in the file
+     *
+     * @return the byte at the given position
+     */
+    private byte get(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Returns the accession index of the file.
+     *
+     * @return the accession index of the file
+     */
+    public CompactAccessionIndex getAccessionIndex() {
+        return accessionIndex;
+    }
+
+    /**
+     * Indicates whether the given accession is indexed.
+     *
+     * @param accession the protein accession
+     *
+     * @return a boolean indicating whether the given accession is indexed
+     */
+    public boolean contains(String accession) {
+        return accessionIndex.contains(accession);
+    }
+
+    /**
+     * Indicates whether the given accession is a decoy.
+     *
+     * @param accession the protein accession
+     *
+     * @return a boolean indicating whether the given accession is a decoy
+     */
+    public boolean isDecoy(String accession) {
+        int index = accessionIndex.indexOf(accession);
+        return index != -1 && accessionIndex.isDecoy(index);
+    }
+
+    /**
+     * Returns the offset of the end of the header line of the entry starting
+     * at the given offset.
+     *
+     * @param offset the offset of the entry
+     * @param end the end of the entry
+     *
+     * @return the offset of the end of the header line
+     */
+    private long getHeaderEnd(long offset, long end) {
+        long position = offset;
+        while (position < end) {
+            byte b = get(position);
+            if (b == '\n' || b == '\r') {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Returns the header of the protein with the given accession, null if not
+     * found.
+     *
+     * @param accession the protein accession
+     *
+     * @return the header of the protein
+     */
+    public Header getHeader(String accession) {
+
+        int index = accessionIndex.indexOf(accession);
+        if (index == -1) {
+            return null;
+        }
+        long offset = accessionIndex.getOffset(index);
+        long headerEnd = getHeaderEnd(offset, Math.min(offset + accessionIndex.getLength(index), length));
+        char[] line = new char[(int) (headerEnd - offset)];
+        for (int i = 0; i < line.length; i++) {
+            line[i] = (char) (get(offset + i) & 0xFF);
+        }
+        Header header = Header.parseFromFASTA(new String(line).trim());
+        if (header == null) {
+            throw new IllegalArgumentException("Could not parse FASTA header \"" + new String(line) + "\".");
+        }
+        return header;
+    }
+
+    /**
+     * Returns the sequence of the protein with the given accession as present
+     * in the FASTA file without line breaks and white spaces, null if not
+     * found.
+     *
+     * @param accession the protein accession
+     *
+     * @return the sequence of the protein
+     */
+    public StringBuilder getFastaSequence(String accession) {
+
+        int index = accessionIndex.indexOf(accession);
+        if (index == -1) {
+            return null;
+        }
+        long offset = accessionIndex.getOffset(index);
+        long end = Math.min(offset + accessionIndex.getLength(index), length);
+        long position = getHeaderEnd(offset, end);
+        StringBuilder sequence = new StringBuilder((int) (end - position));
+        for (; position < end; position++) {
+            char aa = (char) (get(position) & 0xFF);
+            if (aa > ' ') {
+                sequence.append(aa);
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * Releases the mapping of the file. The instance cannot be used anymore
+     * afterwards. Must only be called when no other thread reads from the
+     * instance: reading an unmapped buffer crashes the virtual machine.
+     */
+    public void close() {
+        MappedByteBuffer[] mappedSegments = segments;
+        segments = null;
+        if (mappedSegments != null) {
+            for (int j = 0; j < mappedSegments.length; j++) {
+                unmap(mappedSegments[j]);
+                mappedSegments[j] = null;
+            }
+        }
+    }
+
+    /**
+     * Unmaps the given buffer using its cleaner. If the cleaner is not
+     * accessible in this virtual machine the buffer is unmapped when garbage
+     * collected.
+     *
+     * @param buffer the buffer to unmap
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method cleanMethod = cleaner.getClass().getMethod("clean");
+                cleanMethod.setAccessible(true);
+                cleanMethod.invoke(cleaner);
+            }
+        } catch (Exception e) {
+            // the mapping is released when the buffer is garbage collected
+        }
+    }
+}
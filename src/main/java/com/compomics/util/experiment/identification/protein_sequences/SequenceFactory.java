@@ -9,9 +9,11 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
 import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndexFile;
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.io.SerializationUtils;
+import com.compomics.util.maps.StripedLruCache;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.PeptideVariantsPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
@@ -20,6 +22,7 @@ import com.compomics.util.protein.Header;
 import java.io.*;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -51,9 +54,10 @@ public class SequenceFactory {
      */
     private HashMap<String, Protein> currentProteinMap = new HashMap<String, Protein>();
     /**
-     * Index of the FASTA file.
+     * Index of the FASTA file. In the concurrent mode the index is only loaded
+     * when needed by a method not supported by the compact accession index.
      */
-    private FastaIndex fastaIndex = null;
+    private volatile FastaIndex fastaIndex = null;
     /**
      * Random access file of the current FASTA file.
      */
@@ -104,6 +108,28 @@ public class SequenceFactory {
      * The reference number for amino acid occurrence calculation, e.g. 100 for percent, 1000 per mille, 1000000 ppm.
      */
     public final static int nAaOccurrence = 1000000;
+    /**
+     * Indicates whether the FASTA file should be accessed in the read-only
+     * concurrent mode.
+     */
+    private boolean concurrentMode = false;
+    /**
+     * The memory-mapped FASTA file used in the concurrent mode, null if not
+     * in concurrent mode.
+     */
+    private volatile MappedFastaFile mappedFastaFile = null;
+    /**
+     * Cache of the proteins loaded in the concurrent mode, striped so that
+     * threads retrieving different proteins do not wait on each other. The
+     * least recently used proteins of a segment are removed when the segment
+     * holds more than its share of nCache proteins.
+     */
+    private final StripedLruCache<String, Protein> concurrentProteinCache = new StripedLruCache<String, Protein>(nCache);
+    /**
+     * Cache of the headers loaded in the concurrent mode, striped like the
+     * proteins cache.
+     */
+    private final StripedLruCache<String, Header> concurrentHeaderCache = new StripedLruCache<String, Header>(nCache);
 
     /**
      * Constructor.
@@ -166,6 +192,7 @@ public class SequenceFactory {
         currentFastaFile = null;
         loadedProteins.clear();
         molecularWeights.clear();
+        clearConcurrentCache();
     }
 
     /**
@@ -176,11 +203,235 @@ public class SequenceFactory {
         currentProteinMap.clear();
         loadedProteins.clear();
         molecularWeights.clear();
+        clearConcurrentCache();
         if (defaultPeptideMapper != null) {
             defaultPeptideMapper.emptyCache();
         }
     }
 
+    /**
+     * Empties the cache of the concurrent mode.
+     */
+    private void clearConcurrentCache() {
+        concurrentProteinCache.clear();
+        concurrentHeaderCache.clear();
+    }
+
+    /**
+     * Indicates whether the factory is in the read-only concurrent mode.
+     *
+     * @return a boolean indicating whether the factory is in the read-only
+     * concurrent mode
+     */
+    public boolean isConcurrentMode() {
+        return concurrentMode;
+    }
+
+    /**
+     * Sets whether the factory should use the read-only concurrent mode. In
+     * this mode the FASTA file is memory-mapped and proteins and headers are
+     * sliced from the mapped file without locking, allowing many threads to
+     * query the factory in parallel. The accessions are looked up in a
+     * compact accession index stored next to the FASTA file and the FASTA
+     * index is not loaded. The database is not re-indexed when a protein is
+     * not found.
+     *
+     * @param concurrentMode a boolean indicating whether the factory should
+     * use the read-only concurrent mode
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping or indexing the FASTA file
+     */
+    public void setConcurrentMode(boolean concurrentMode) throws IOException {
+        setConcurrentMode(concurrentMode, null);
+    }
+
+    /**
+     * Sets whether the factory should use the read-only concurrent mode and
+     * indexes the loaded FASTA file accordingly: the compact accession index
+     * is loaded in the concurrent mode, the FASTA index otherwise.
+     *
+     * @param concurrentMode a boolean indicating whether the factory should
+     * use the read-only concurrent mode
+     * @param waitingHandler a waitingHandler showing the progress
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping or indexing the FASTA file
+     */
+    private synchronized void setConcurrentMode(boolean concurrentMode, WaitingHandler waitingHandler) throws IOException {
+        this.concurrentMode = concurrentMode;
+        clearConcurrentCache();
+        mappedFastaFile = null;
+        if (currentFastaFile != null) {
+            if (concurrentMode) {
+                CompactAccessionIndex accessionIndex = getCompactAccessionIndex(currentFastaFile, waitingHandler);
+                if (accessionIndex != null) {
+                    mappedFastaFile = new MappedFastaFile(currentFastaFile, accessionIndex);
+                }
+            } else if (fastaIndex == null) {
+                fastaIndex = getFastaIndex(false, waitingHandler);
+            }
+        }
+    }
+
+    /**
+     * Returns the compact accession index of the given FASTA file. The index
+     * is read from the file next to the FASTA file if it matches the size and
+     * last modification date of the FASTA file, (re)built from a scan of the
+     * FASTA file otherwise.
+     *
+     * @param fastaFile the FASTA file
+     * @param waitingHandler a waitingHandler showing the progress
+     *
+     * @return the compact accession index of the FASTA file, null if the
+     * indexing was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing the index
+     * @throws IllegalArgumentException if non unique accession numbers are
+     * found
+     */
+    public static CompactAccessionIndex getCompactAccessionIndex(File fastaFile, WaitingHandler waitingHandler) throws IOException, IllegalArgumentException {
+
+        File indexFile = new File(fastaFile.getParent(), getCompactIndexName(fastaFile.getName()));
+
+        if (indexFile.exists()) {
+            try {
+                CompactAccessionIndex accessionIndex = new CompactAccessionIndex(indexFile);
+                if (accessionIndex.isUpToDate(fastaFile)) {
+                    return accessionIndex;
+                }
+                System.err.println("Reindexing accessions: " + fastaFile.getName() + ". (changes in the file detected)");
+            } catch (IOException e) {
+                System.err.println("Reindexing accessions: " + fastaFile.getName() + ". (Reason: " + e.getLocalizedMessage() + ")");
+            }
+        }
+
+        if (!createCompactAccessionIndex(fastaFile, indexFile, waitingHandler)) {
+            return null;
+        }
+        return new CompactAccessionIndex(indexFile);
+    }
+
+    /**
+     * Scans the headers of the given FASTA file and writes its compact
+     * accession index to the given file. The decoy tag is inferred like in
+     * createFastaIndex.
+     *
+     * @param fastaFile the FASTA file
+     * @param indexFile the file to write the index to
+     * @param waitingHandler a waitingHandler showing the progress
+     *
+     * @return a boolean indicating whether the index was written, false if
+     * the indexing was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file or writing the index
+     * @throws IllegalArgumentException if non unique accession numbers are
+     * found
+     */
+    private static boolean createCompactAccessionIndex(File fastaFile, File indexFile, WaitingHandler waitingHandler) throws IOException, IllegalArgumentException {
+
+        int nAccessions = 0;
+        byte[] accessionBytes = new byte[16 * 1024];
+        int[] accessionStarts = new int[1025];
+        long[] offsets = new long[1024];
+        boolean[] decoys = new boolean[1024];
+        String decoyTag = null;
+        boolean decoy = false, defaultReversed = false;
+
+        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(fastaFile, "r", 1024 * 100);
+
+        try {
+
+            if (waitingHandler != null) {
+                waitingHandler.resetSecondaryProgressCounter();
+                waitingHandler.setMaxSecondaryProgressCounter(100);
+            }
+
+            long progressUnit = bufferedRandomAccessFile.length() / 100;
+            long index = bufferedRandomAccessFile.getFilePointer();
+            int lineNumber = 0;
+            String line;
+
+            while ((line = bufferedRandomAccessFile.readLine()) != null) {
+
+                lineNumber++;
+
+                if (line.startsWith(">")) {
+
+                    String accession = Header.parseFromFASTA(line).getAccessionOrRest();
+                    if (accession == null) {
+                        throw new IllegalArgumentException("No accession found for header at line " + lineNumber + ".");
+                    }
+                    if (accession.lastIndexOf("'") != -1 || accession.lastIndexOf("\"") != -1) {
+                        throw new IllegalArgumentException("Accession numbers cannot contain quotation marks: \'" + accession + "\'!\nPlease check your FASTA file.");
+                    }
+
+                    if (decoyTag == null) {
+                        decoyTag = getDecoyFlag(accession);
+                    }
+                    boolean isDecoy = decoyTag != null && isDecoy(accession, decoyTag);
+                    if (isDecoy && !decoy) {
+                        decoy = true;
+                        defaultReversed = accession.endsWith(getDefaultDecoyAccessionSuffix());
+                    }
+
+                    if (nAccessions == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, 2 * nAccessions);
+                        decoys = Arrays.copyOf(decoys, 2 * nAccessions);
+                        accessionStarts = Arrays.copyOf(accessionStarts, 2 * nAccessions + 1);
+                    }
+                    byte[] bytes = CompactAccessionIndex.getBytes(accession);
+                    int start = accessionStarts[nAccessions];
+                    if (bytes.length > Integer.MAX_VALUE - 8 - start) {
+                        throw new IllegalArgumentException("Too many accessions in " + fastaFile.getName() + " for the compact accession index.");
+                    }
+                    if (start + bytes.length > accessionBytes.length) {
+                        long newLength = Math.max(2L * accessionBytes.length, start + bytes.length);
+                        accessionBytes = Arrays.copyOf(accessionBytes, (int) Math.min(newLength, Integer.MAX_VALUE - 8));
+                    }
+                    System.arraycopy(bytes, 0, accessionBytes, start, bytes.length);
+                    accessionStarts[nAccessions + 1] = start + bytes.length;
+                    offsets[nAccessions] = index;
+                    decoys[nAccessions] = isDecoy;
+                    nAccessions++;
+
+                    if (waitingHandler != null && progressUnit != 0) {
+                        waitingHandler.setSecondaryProgressCounter((int) (index / progressUnit));
+                        if (waitingHandler.isRunCanceled()) {
+                            return false;
+                        }
+                    }
+                }
+
+                index = bufferedRandomAccessFile.getFilePointer();
+            }
+
+        } finally {
+            bufferedRandomAccessFile.close();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        CompactAccessionIndex.writeIndex(indexFile, fastaFile, nAccessions, accessionBytes, accessionStarts, offsets, decoys, decoyTag, defaultReversed);
+        return true;
+    }
+
+    /**
+     * Returns the name of the compact accession index corresponding to the
+     * given FASTA file name.
+     *
+     * @param fastaName the name of the FASTA file
+     *
+     * @return the name of the compact accession index
+     */
+    public static String getCompactIndexName(String fastaName) {
+        return fastaName + ".cai";
+    }
+
     /**
      * Returns the desired protein. If the protein is not found, the database
      * will be re-indexed.
@@ -195,9 +446,48 @@ public class SequenceFactory {
      * @throws FileNotFoundException if a FileNotFoundException occurs
      */
     public Protein getProtein(String accession) throws IOException, IllegalArgumentException, InterruptedException, FileNotFoundException {
+        MappedFastaFile mappedFile = mappedFastaFile;
+        if (mappedFile != null) {
+            return getProtein(accession, mappedFile);
+        }
         return getProtein(accession, true);
     }
 
+    /**
+     * Returns the desired protein from the memory-mapped FASTA file used in
+     * the concurrent mode.
+     *
+     * @param accession accession of the desired protein
+     * @param mappedFile the memory-mapped FASTA file
+     *
+     * @return the desired protein
+     *
+     * @throws IOException thrown whenever an error is encountered while reading
+     * the FASTA file
+     * @throws IllegalArgumentException thrown if the protein is not found
+     */
+    private Protein getProtein(String accession, MappedFastaFile mappedFile) throws IOException, IllegalArgumentException {
+
+        Protein currentProtein = concurrentProteinCache.get(accession);
+
+        if (currentProtein == null) {
+
+            StringBuilder sequence = mappedFile.getFastaSequence(accession);
+            if (sequence == null) {
+                throw new IllegalArgumentException("Protein not found: " + accession + ".");
+            }
+            Header currentHeader = getHeader(accession, mappedFile);
+            boolean decoy = mappedFile.isDecoy(accession);
+            currentProtein = new Protein(accession, currentHeader.getDatabaseType(), importSequenceFromFasta(sequence), decoy);
+
+            if (decoyInMemory || !decoy) {
+                concurrentProteinCache.put(accession, currentProtein);
+            }
+        }
+
+        return currentProtein;
+    }
+
     /**
      * Returns the desired protein. Eventually re-indexes the database if the
      * protein is not found.
@@ -467,9 +757,39 @@ public class SequenceFactory {
      * occurred while waiting for the connection to the FASTA file to recover.
      */
     public Header getHeader(String accession) throws IOException, InterruptedException {
+        MappedFastaFile mappedFile = mappedFastaFile;
+        if (mappedFile != null) {
+            return getHeader(accession, mappedFile);
+        }
         return getHeader(accession, true);
     }
 
+    /**
+     * Returns the desired header from the memory-mapped FASTA file used in the
+     * concurrent mode.
+     *
+     * @param accession accession of the desired protein
+     * @param mappedFile the memory-mapped FASTA file
+     *
+     * @return the corresponding header
+     *
+     * @throws IllegalArgumentException thrown if the protein is not found
+     */
+    private Header getHeader(String accession, MappedFastaFile mappedFile) throws IllegalArgumentException {
+
+        Header result = concurrentHeaderCache.get(accession);
+
+        if (result == null) {
+            result = mappedFile.getHeader(accession);
+            if (result == null) {
+                throw new IllegalArgumentException("Protein not found: " + accession + ".");
+            }
+            concurrentHeaderCache.put(accession, result);
+        }
+
+        return result;
+    }
+
     /**
      * Returns the desired header for the protein in the FASTA file.
      *
@@ -579,7 +899,8 @@ public class SequenceFactory {
         defaultPeptideMapper = null;
         currentFastaFile = fastaFile;
         currentRandomAccessFile = new BufferedRandomAccessFile(fastaFile, "r", 1024 * 100);
-        fastaIndex = getFastaIndex(false, waitingHandler);
+        fastaIndex = null;
+        setConcurrentMode(concurrentMode, waitingHandler);
     }
 
     /**
@@ -953,7 +1274,7 @@ public class SequenceFactory {
      * @throws IOException if an IOException occurs
      */
     public void saveIndex() throws IOException {
-        writeIndex(fastaIndex, currentFastaFile.getParentFile());
+        writeIndex(getLoadedFastaIndex(), currentFastaFile.getParentFile());
     }
 
     /**
@@ -969,6 +1290,7 @@ public class SequenceFactory {
             currentRandomAccessFile.close();
             currentFastaFile = null;
         }
+        mappedFastaFile = null;
         if (defaultPeptideMapper != null) {
             defaultPeptideMapper.close();
         }
@@ -1019,6 +1341,10 @@ public class SequenceFactory {
      * @return true if decoy
      */
     public boolean isDecoyAccession(String proteinAccession) {
+        MappedFastaFile mappedFile = mappedFastaFile;
+        if (mappedFile != null) {
+            return mappedFile.isDecoy(proteinAccession);
+        }
         return fastaIndex.isDecoy(proteinAccession);
     }
 
@@ -1029,6 +1355,10 @@ public class SequenceFactory {
      * sequences
      */
     public boolean concatenatedTargetDecoy() {
+        MappedFastaFile mappedFile = mappedFastaFile;
+        if (mappedFile != null) {
+            return mappedFile.getAccessionIndex().isConcatenatedTargetDecoy();
+        }
         return fastaIndex.isConcatenatedTargetDecoy();
     }
 
@@ -1042,6 +1372,10 @@ public class SequenceFactory {
      * method
      */
     public boolean isDefaultReversed() {
+        MappedFastaFile mappedFile = mappedFastaFile;
+        if (mappedFile != null) {
+            return mappedFile.getAccessionIndex().isDefaultReversed();
+        }
         return fastaIndex.isDefaultReversed();
     }
 
@@ -1051,6 +1385,10 @@ public class SequenceFactory {
      * @return the number of target sequences in the database
      */
     public int getNTargetSequences() {
+        MappedFastaFile mappedFile = mappedFastaFile;
+        if (mappedFile != null) {
+            return mappedFile.getAccessionIndex().getNTarget();
+        }
         return fastaIndex.getNTarget();
     }
 
@@ -1060,6 +1398,10 @@ public class SequenceFactory {
      * @return the number of sequences in the FASTA file
      */
     public int getNSequences() {
+        MappedFastaFile mappedFile = mappedFastaFile;
+        if (mappedFile != null) {
+            return mappedFile.getAccessionIndex().size();
+        }
         return fastaIndex.getNSequences();
     }
 
@@ -1093,7 +1435,7 @@ public class SequenceFactory {
 
         if (waitingHandler != null) {
             waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(fastaIndex.getNTarget());
+            waitingHandler.setMaxSecondaryProgressCounter(getNTargetSequences());
         }
 
         // first create the new target-decoy file
@@ -1198,7 +1540,13 @@ public class SequenceFactory {
      */
     public Set<String> getAccessions() {
         Set<String> setToFill = new HashSet<String>();
-        if (fastaIndex != null) {
+        MappedFastaFile mappedFile = mappedFastaFile;
+        if (mappedFile != null) {
+            CompactAccessionIndex accessionIndex = mappedFile.getAccessionIndex();
+            for (int i = 0; i < accessionIndex.size(); i++) {
+                setToFill.add(accessionIndex.getAccession(i));
+            }
+        } else if (fastaIndex != null) {
             setToFill = fastaIndex.getIndexes().keySet();
         }
         return setToFill;
@@ -1220,6 +1568,8 @@ public class SequenceFactory {
      */
     public void setnCache(int nCache) {
         this.nCache = nCache;
+        concurrentProteinCache.setMaxSize(nCache);
+        concurrentHeaderCache.setMaxSize(nCache);
     }
 
     /**
@@ -1311,6 +1661,9 @@ public class SequenceFactory {
      */
     public String getFileName() {
         if (fastaIndex == null) {
+            if (mappedFastaFile != null) {
+                return currentFastaFile.getName();
+            }
             return null;
         }
         return fastaIndex.getFileName();
@@ -1373,7 +1726,31 @@ public class SequenceFactory {
      * @return the FASTA index of the currently loaded file
      */
     public FastaIndex getCurrentFastaIndex() {
-        return fastaIndex;
+        return getLoadedFastaIndex();
+    }
+
+    /**
+     * Returns the FASTA index of the currently loaded file, loading it if
+     * needed in the concurrent mode. Null if no file is loaded.
+     *
+     * @return the FASTA index of the currently loaded file
+     */
+    private FastaIndex getLoadedFastaIndex() {
+        FastaIndex result = fastaIndex;
+        if (result == null && mappedFastaFile != null) {
+            synchronized (this) {
+                result = fastaIndex;
+                if (result == null) {
+                    try {
+                        result = getFastaIndex(false, null);
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException("An error occurred while indexing " + currentFastaFile.getName() + ": " + e.getLocalizedMessage());
+                    }
+                    fastaIndex = result;
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -1448,7 +1825,8 @@ public class SequenceFactory {
     /**
      * Returns the default peptide to protein mapper for the database loaded in
      * factory according to the sequence matching preferences. Creates a new one
-     * if none found.
+     * if none found. The FM index is saved next to the FASTA file and reused
+     * only if enabled in the user preferences.
      *
      * @param sequenceMatchingPreferences the sequences matching preferences
      * @param waitingHandler waiting handler displaying progress to the user
@@ -1480,7 +1858,8 @@ public class SequenceFactory {
             PeptideMapperType peptideMapperType = sequenceMatchingPreferences.getPeptideMapperType();
             switch (peptideMapperType) {
                 case fm_index:
-                    defaultPeptideMapper = new FMIndex(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters);
+                    File indexFile = UtilitiesUserPreferences.loadUserPreferences().getSaveFmIndex() ? FMIndexFile.getIndexFile(currentFastaFile) : null;
+                    defaultPeptideMapper = new FMIndex(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, indexFile, nThreads);
                     break;
                 case tree:
 
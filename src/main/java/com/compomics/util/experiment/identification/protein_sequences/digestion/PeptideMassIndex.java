@@ -0,0 +1,591 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.protein_sequences.CompactAccessionIndex;
+import com.compomics.util.experiment.identification.protein_sequences.MappedFastaFile;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the peptides obtained by digestion of the proteins of the sequence
+ * factory. Peptides are deduplicated and sorted by monoisotopic mass. The
+ * sequences, masses, modifications and the proteins where every peptide was
+ * found are stored in primitive arrays, peptide objects are only created when
+ * queried. The index is immutable once built and can be queried concurrently
+ * by any number of threads.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideMassIndex {
+
+    /**
+     * The maximal length of the arrays of the index.
+     */
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    /**
+     * The accessions of the proteins digested.
+     */
+    private final String[] accessions;
+    /**
+     * The amino acids of the peptides sorted by mass, concatenated.
+     */
+    private final byte[] sequences;
+    /**
+     * The index of the first amino acid of every peptide in the sequences
+     * array, the last element being the total number of amino acids.
+     */
+    private final int[] sequenceOffsets;
+    /**
+     * The masses of the peptides in ascending order.
+     */
+    private final double[] masses;
+    /**
+     * The names of the modifications found on the peptides.
+     */
+    private final String[] modificationNames;
+    /**
+     * The index of the first modification of every peptide in the
+     * modification codes and sites arrays, the last element being the total
+     * number of modifications.
+     */
+    private final int[] modificationsStart;
+    /**
+     * The code of every modification: twice the index of its name in the
+     * modification names array, plus one if the modification is variable.
+     */
+    private final int[] modificationCodes;
+    /**
+     * The site of every modification.
+     */
+    private final int[] modificationSites;
+    /**
+     * The index of the first protein reference of every peptide in the
+     * protein indexes and positions arrays, the last element being the total
+     * number of references.
+     */
+    private final int[] proteinReferencesStart;
+    /**
+     * The index in the accessions array of the protein of every reference.
+     */
+    private final int[] proteinIndexes;
+    /**
+     * The position on the protein of every reference.
+     */
+    private final int[] positions;
+
+    /**
+     * Constructor.
+     *
+     * @param accessions the accessions of the proteins digested
+     * @param sequences the amino acids of the peptides sorted by mass
+     * @param sequenceOffsets the index of the first amino acid of every
+     * peptide
+     * @param masses the masses of the peptides in ascending order
+     * @param modificationNames the names of the modifications
+     * @param modificationsStart the index of the first modification of every
+     * peptide
+     * @param modificationCodes the code of every modification
+     * @param modificationSites the site of every modification
+     * @param proteinReferencesStart the index of the first protein reference
+     * of every peptide
+     * @param proteinIndexes the index of the protein of every reference
+     * @param positions the position on the protein of every reference
+     */
+    private PeptideMassIndex(String[] accessions, byte[] sequences, int[] sequenceOffsets, double[] masses, String[] modificationNames,
+            int[] modificationsStart, int[] modificationCodes, int[] modificationSites, int[] proteinReferencesStart, int[] proteinIndexes, int[] positions) {
+        this.accessions = accessions;
+        this.sequences = sequences;
+        this.sequenceOffsets = sequenceOffsets;
+        this.masses = masses;
+        this.modificationNames = modificationNames;
+        this.modificationsStart = modificationsStart;
+        this.modificationCodes = modificationCodes;
+        this.modificationSites = modificationSites;
+        this.proteinReferencesStart = proteinReferencesStart;
+        this.proteinIndexes = proteinIndexes;
+        this.positions = positions;
+    }
+
+    /**
+     * Builds the peptide mass index of the FASTA file loaded in the sequence
+     * factory. The protein sequences are read without locking from the
+     * memory-mapped FASTA file using its compact accession index, and the
+     * proteins are digested in parallel.
+     *
+     * @param sequenceFactory the sequence factory
+     * @param iteratorFactory the iterator factory used to digest the proteins
+     * @param digestionPreferences the digestion preferences
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     * @param includeDecoys boolean indicating whether decoy proteins should be
+     * digested
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler displaying progress, can be null
+     *
+     * @return the peptide mass index, null if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading a protein
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public static PeptideMassIndex build(final SequenceFactory sequenceFactory, final IteratorFactory iteratorFactory, final DigestionPreferences digestionPreferences,
+            final double massMin, final double massMax, boolean includeDecoys, int nThreads, final WaitingHandler waitingHandler) throws IOException, InterruptedException {
+
+        File fastaFile = sequenceFactory.getCurrentFastaFile();
+        if (fastaFile == null) {
+            throw new IllegalArgumentException("Protein sequences not loaded in the sequence factory.");
+        }
+        CompactAccessionIndex accessionIndex = SequenceFactory.getCompactAccessionIndex(fastaFile, null);
+
+        ArrayList<String> accessionsList = new ArrayList<String>(accessionIndex.size());
+        for (int i = 0; i < accessionIndex.size(); i++) {
+            if (includeDecoys || !accessionIndex.isDecoy(i)) {
+                accessionsList.add(accessionIndex.getAccession(i));
+            }
+        }
+        final String[] accessions = accessionsList.toArray(new String[accessionsList.size()]);
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(accessions.length);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        // digest the proteins, every thread taking one protein every nThreads
+        final int nParts = Math.max(1, nThreads);
+        ArrayList<HashMap<String, PeptideEntry>> partMaps = new ArrayList<HashMap<String, PeptideEntry>>(nParts);
+        final MappedFastaFile mappedFastaFile = new MappedFastaFile(fastaFile, accessionIndex);
+        ExecutorService pool = Executors.newFixedThreadPool(nParts);
+        try {
+            ArrayList<Future<HashMap<String, PeptideEntry>>> futures = new ArrayList<Future<HashMap<String, PeptideEntry>>>(nParts);
+            for (int i = 0; i < nParts; i++) {
+                final int part = i;
+                futures.add(pool.submit(new Callable<HashMap<String, PeptideEntry>>() {
+                    @Override
+                    public HashMap<String, PeptideEntry> call() throws Exception {
+                        HashMap<String, PeptideEntry> peptideMap = new HashMap<String, PeptideEntry>();
+                        for (int proteinIndex = part; proteinIndex < accessions.length; proteinIndex += nParts) {
+                            if ((waitingHandler != null && waitingHandler.isRunCanceled()) || Thread.currentThread().isInterrupted()) {
+                                break;
+                            }
+                            String sequence = SequenceFactory.importSequenceFromFasta(mappedFastaFile.getFastaSequence(accessions[proteinIndex]));
+                            SequenceIterator sequenceIterator = iteratorFactory.getSequenceIterator(sequence, digestionPreferences, massMin, massMax);
+                            PeptideWithPosition peptideWithPosition;
+                            while ((peptideWithPosition = sequenceIterator.getNextPeptide()) != null) {
+                                Peptide peptide = peptideWithPosition.getPeptide();
+                                String key = peptide.getKey();
+                                PeptideEntry peptideEntry = peptideMap.get(key);
+                                if (peptideEntry == null) {
+                                    peptideEntry = new PeptideEntry(key, peptide.getSequence(), peptide.getModificationMatches(), peptide.getMass());
+                                    peptideMap.put(key, peptideEntry);
+                                }
+                                peptideEntry.addProtein(proteinIndex, peptideWithPosition.getPosition());
+                            }
+                            if (waitingHandler != null) {
+                                waitingHandler.increaseSecondaryProgressCounter();
+                            }
+                        }
+                        return peptideMap;
+                    }
+                }));
+            }
+            for (Future<HashMap<String, PeptideEntry>> future : futures) {
+                partMaps.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IllegalArgumentException("An error occurred while digesting the proteins.", cause);
+        } finally {
+            pool.shutdownNow();
+            close(pool, mappedFastaFile);
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return null;
+        }
+
+        // merge the peptides of the different parts
+        HashMap<String, PeptideEntry> peptideMap = partMaps.get(0);
+        for (int i = 1; i < partMaps.size(); i++) {
+            for (PeptideEntry peptideEntry : partMaps.get(i).values()) {
+                PeptideEntry existingEntry = peptideMap.get(peptideEntry.key);
+                if (existingEntry == null) {
+                    peptideMap.put(peptideEntry.key, peptideEntry);
+                } else {
+                    existingEntry.addProteins(peptideEntry);
+                }
+            }
+            partMaps.set(i, null);
+        }
+
+        // sort by mass and store in arrays
+        PeptideEntry[] entries = peptideMap.values().toArray(new PeptideEntry[peptideMap.size()]);
+        peptideMap.clear();
+        Arrays.sort(entries, new Comparator<PeptideEntry>() {
+            @Override
+            public int compare(PeptideEntry o1, PeptideEntry o2) {
+                int comparison = Double.compare(o1.mass, o2.mass);
+                if (comparison != 0) {
+                    return comparison;
+                }
+                return o1.key.compareTo(o2.key);
+            }
+        });
+
+        long nAminoAcids = 0;
+        long nModifications = 0;
+        long nReferences = 0;
+        for (PeptideEntry peptideEntry : entries) {
+            nAminoAcids += peptideEntry.sequence.length();
+            if (peptideEntry.modificationMatches != null) {
+                nModifications += peptideEntry.modificationMatches.size();
+            }
+            nReferences += peptideEntry.nProteins;
+        }
+        if (nAminoAcids > MAX_ARRAY_LENGTH || nModifications > MAX_ARRAY_LENGTH || nReferences > MAX_ARRAY_LENGTH) {
+            throw new IllegalArgumentException("Too many peptides to index: " + nAminoAcids + " amino acids, " + nModifications + " modifications and "
+                    + nReferences + " protein references for at most " + MAX_ARRAY_LENGTH + " each.");
+        }
+
+        byte[] sequences = new byte[(int) nAminoAcids];
+        int[] sequenceOffsets = new int[entries.length + 1];
+        double[] masses = new double[entries.length];
+        HashMap<String, Integer> modificationIndexes = new HashMap<String, Integer>();
+        ArrayList<String> modificationNames = new ArrayList<String>();
+        int[] modificationsStart = new int[entries.length + 1];
+        int[] modificationCodes = new int[(int) nModifications];
+        int[] modificationSites = new int[(int) nModifications];
+        int[] proteinReferencesStart = new int[entries.length + 1];
+        int[] proteinIndexes = new int[(int) nReferences];
+        int[] positions = new int[(int) nReferences];
+        int aminoAcid = 0;
+        int modification = 0;
+        int reference = 0;
+        for (int i = 0; i < entries.length; i++) {
+            PeptideEntry peptideEntry = entries[i];
+            sequenceOffsets[i] = aminoAcid;
+            String sequence = peptideEntry.sequence;
+            for (int j = 0; j < sequence.length(); j++) {
+                sequences[aminoAcid++] = (byte) sequence.charAt(j);
+            }
+            masses[i] = peptideEntry.mass;
+            modificationsStart[i] = modification;
+            if (peptideEntry.modificationMatches != null) {
+                for (ModificationMatch modificationMatch : peptideEntry.modificationMatches) {
+                    String modificationName = modificationMatch.getTheoreticPtm();
+                    Integer modificationIndex = modificationIndexes.get(modificationName);
+                    if (modificationIndex == null) {
+                        modificationIndex = modificationNames.size();
+                        modificationIndexes.put(modificationName, modificationIndex);
+                        modificationNames.add(modificationName);
+                    }
+                    modificationCodes[modification] = 2 * modificationIndex + (modificationMatch.isVariable() ? 1 : 0);
+                    modificationSites[modification] = modificationMatch.getModificationSite();
+                    modification++;
+                }
+            }
+            proteinReferencesStart[i] = reference;
+            peptideEntry.sortProteins();
+            System.arraycopy(peptideEntry.proteinIndexes, 0, proteinIndexes, reference, peptideEntry.nProteins);
+            System.arraycopy(peptideEntry.positions, 0, positions, reference, peptideEntry.nProteins);
+            reference += peptideEntry.nProteins;
+            entries[i] = null;
+        }
+        sequenceOffsets[entries.length] = aminoAcid;
+        modificationsStart[entries.length] = modification;
+        proteinReferencesStart[entries.length] = reference;
+
+        return new PeptideMassIndex(accessions, sequences, sequenceOffsets, masses, modificationNames.toArray(new String[modificationNames.size()]),
+                modificationsStart, modificationCodes, modificationSites, proteinReferencesStart, proteinIndexes, positions);
+    }
+
+    /**
+     * Waits for the digestion threads to stop and releases the mapping of the
+     * FASTA file. If the threads do not stop in time or the waiting is
+     * interrupted, the mapping is left to the garbage collector as unmapping
+     * a file being read crashes the virtual machine.
+     *
+     * @param pool the pool of the digestion threads, already shut down
+     * @param mappedFastaFile the mapped FASTA file
+     */
+    private static void close(ExecutorService pool, MappedFastaFile mappedFastaFile) {
+        try {
+            if (pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                mappedFastaFile.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of peptides in the index.
+     *
+     * @return the number of peptides in the index
+     */
+    public int size() {
+        return masses.length;
+    }
+
+    /**
+     * Returns the index of the first peptide with a mass higher than or equal
+     * to the given mass.
+     *
+     * @param mass the mass
+     *
+     * @return the index of the first peptide with a mass higher than or equal
+     * to the given mass
+     */
+    public int getLowerBound(double mass) {
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (masses[mid] < mass) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first peptide with a mass strictly higher than
+     * the given mass.
+     *
+     * @param mass the mass
+     *
+     * @return the index of the first peptide with a mass strictly higher than
+     * the given mass
+     */
+    public int getUpperBound(double mass) {
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (masses[mid] <= mass) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the peptides with a mass in the given window, bounds included.
+     *
+     * @param massMin the minimal mass
+     * @param massMax the maximal mass
+     *
+     * @return the peptides with a mass in the given window
+     */
+    public ArrayList<Peptide> getPeptides(double massMin, double massMax) {
+        int start = getLowerBound(massMin);
+        int end = getUpperBound(massMax);
+        ArrayList<Peptide> result = new ArrayList<Peptide>(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            result.add(getPeptide(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the peptide at the given index. A new peptide object is created
+     * at every call.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the peptide at the given index
+     */
+    public Peptide getPeptide(int index) {
+        ArrayList<ModificationMatch> modificationMatches = null;
+        int modificationsEnd = modificationsStart[index + 1];
+        if (modificationsEnd > modificationsStart[index]) {
+            modificationMatches = new ArrayList<ModificationMatch>(modificationsEnd - modificationsStart[index]);
+            for (int i = modificationsStart[index]; i < modificationsEnd; i++) {
+                int code = modificationCodes[i];
+                modificationMatches.add(new ModificationMatch(modificationNames[code >>> 1], (code & 1) == 1, modificationSites[i]));
+            }
+        }
+        return new Peptide(getSequence(index), modificationMatches, false, masses[index]);
+    }
+
+    /**
+     * Returns the amino acid sequence of the peptide at the given index.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the amino acid sequence of the peptide
+     */
+    public String getSequence(int index) {
+        int start = sequenceOffsets[index];
+        char[] sequence = new char[sequenceOffsets[index + 1] - start];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = (char) sequences[start + i];
+        }
+        return new String(sequence);
+    }
+
+    /**
+     * Returns the mass of the peptide at the given index.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the mass of the peptide at the given index
+     */
+    public double getMass(int index) {
+        return masses[index];
+    }
+
+    /**
+     * Returns the number of protein references of the peptide at the given
+     * index.
+     *
+     * @param index the index of the peptide
+     *
+     * @return the number of protein references of the peptide
+     */
+    public int getNProteins(int index) {
+        return proteinReferencesStart[index + 1] - proteinReferencesStart[index];
+    }
+
+    /**
+     * Returns the accession of the protein of the given reference of the
+     * peptide at the given index.
+     *
+     * @param index the index of the peptide
+     * @param reference the index of the protein reference of the peptide
+     *
+     * @return the accession of the protein
+     */
+    public String getProteinAccession(int index, int reference) {
+        return accessions[proteinIndexes[proteinReferencesStart[index] + reference]];
+    }
+
+    /**
+     * Returns the position on the protein of the given reference of the
+     * peptide at the given index.
+     *
+     * @param index the index of the peptide
+     * @param reference the index of the protein reference of the peptide
+     *
+     * @return the position of the peptide on the protein
+     */
+    public int getPosition(int index, int reference) {
+        return positions[proteinReferencesStart[index] + reference];
+    }
+
+    /**
+     * A peptide and the proteins where it was found during the digestion.
+     */
+    private static class PeptideEntry {
+
+        /**
+         * The key of the peptide.
+         */
+        private final String key;
+        /**
+         * The amino acid sequence of the peptide.
+         */
+        private final String sequence;
+        /**
+         * The modifications of the peptide, null if none.
+         */
+        private final ArrayList<ModificationMatch> modificationMatches;
+        /**
+         * The mass of the peptide.
+         */
+        private final double mass;
+        /**
+         * The indexes of the proteins.
+         */
+        private int[] proteinIndexes = new int[2];
+        /**
+         * The positions on the proteins.
+         */
+        private int[] positions = new int[2];
+        /**
+         * The number of protein references.
+         */
+        private int nProteins = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param key the key of the peptide
+         * @param sequence the amino acid sequence of the peptide
+         * @param modificationMatches the modifications of the peptide, null if
+         * none
+         * @param mass the mass of the peptide
+         */
+        private PeptideEntry(String key, String sequence, ArrayList<ModificationMatch> modificationMatches, double mass) {
+            this.key = key;
+            this.sequence = sequence;
+            this.modificationMatches = modificationMatches;
+            this.mass = mass;
+        }
+
+        /**
+         * Adds a protein reference.
+         *
+         * @param proteinIndex the index of the protein
+         * @param position the position on the protein
+         */
+        private void addProtein(int proteinIndex, int position) {
+            if (nProteins == proteinIndexes.length) {
+                proteinIndexes = Arrays.copyOf(proteinIndexes, 2 * nProteins);
+                positions = Arrays.copyOf(positions, 2 * nProteins);
+            }
+            proteinIndexes[nProteins] = proteinIndex;
+            positions[nProteins] = position;
+            nProteins++;
+        }
+
+        /**
+         * Adds the protein references of another entry.
+         *
+         * @param otherEntry the other entry
+         */
+        private void addProteins(PeptideEntry otherEntry) {
+            for (int i = 0; i < otherEntry.nProteins; i++) {
+                addProtein(otherEntry.proteinIndexes[i], otherEntry.positions[i]);
+            }
+        }
+
+        /**
+         * Sorts the protein references by protein index and position.
+         */
+        private void sortProteins() {
+            long[] references = new long[nProteins];
+            for (int i = 0; i < nProteins; i++) {
+                references[i] = (((long) proteinIndexes[i]) << 32) | (positions[i] & 0xFFFFFFFFL);
+            }
+            Arrays.sort(references);
+            for (int i = 0; i < nProteins; i++) {
+                proteinIndexes[i] = (int) (references[i] >>> 32);
+                positions[i] = (int) references[i];
+            }
+        }
+    }
+}
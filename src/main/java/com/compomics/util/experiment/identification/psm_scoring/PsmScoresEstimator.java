@@ -9,6 +9,7 @@ import com.compomics.util.experiment.identification.psm_scoring.psm_scores.Hyper
 import com.compomics.util.experiment.identification.psm_scoring.psm_scores.IntensityRankScore;
 import com.compomics.util.experiment.identification.psm_scoring.psm_scores.MS2MzFidelityScore;
 import com.compomics.util.experiment.identification.psm_scoring.psm_scores.PrecursorAccuracy;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
@@ -16,7 +17,9 @@ import com.compomics.util.preferences.IdentificationParameters;
 import org.apache.commons.math.MathException;
 
 /**
- * This class can be used to estimate PSM scores.
+ * This class can be used to estimate PSM scores. The estimator reuses buffers
+ * when computing multiple scores at once and is not thread safe: use one
+ * instance per thread.
  *
  * @author Marc Vaudel
  */
@@ -55,6 +58,11 @@ public class PsmScoresEstimator {
      * Instance of the PrecursorAccuracy.
      */
     private PrecursorAccuracy precursorAccuracy;
+    /**
+     * The kernel used to compute multiple scores from a single matching of the
+     * fragment ions.
+     */
+    private PsmScoringKernel psmScoringKernel;
 
     /**
      * Constructor.
@@ -77,6 +85,7 @@ public class PsmScoresEstimator {
         intensityRankScore = new IntensityRankScore();
         ms2MzFidelityScore = new MS2MzFidelityScore();
         precursorAccuracy = new PrecursorAccuracy();
+        psmScoringKernel = new PsmScoringKernel();
     }
 
     /**
@@ -196,4 +205,75 @@ public class PsmScoresEstimator {
                 throw new UnsupportedOperationException("Score not implemented.");
         }
     }
+
+    /**
+     * Scores the match between the given peptide and spectrum using the given
+     * scores. The fragment ions are matched to the spectrum only once and the
+     * hyperscore, m/z fidelity, intensity rank and complementarity scores are
+     * derived from the same matches. The other scores are computed
+     * individually.
+     *
+     * @param peptide the peptide of interest
+     * @param peptideCharge the charge of the peptide
+     * @param spectrum the spectrum of interest
+     * @param identificationParameters the identification parameters
+     * @param specificAnnotationPreferences the annotation preferences specific
+     * to this psm
+     * @param peptideSpectrumAnnotator the spectrum annotator to use for the
+     * scores not supported by the scoring kernel
+     * @param psmScores the scores to use
+     *
+     * @return the scores of the match in the order of the given scores
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     * @throws org.apache.commons.math.MathException exception thrown if a math exception occurred when estimating the noise level 
+     */
+    public double[] getScores(Peptide peptide, Integer peptideCharge, MSnSpectrum spectrum, IdentificationParameters identificationParameters,
+            SpecificAnnotationSettings specificAnnotationPreferences, PeptideSpectrumAnnotator peptideSpectrumAnnotator, PsmScore[] psmScores)
+            throws InterruptedException, MathException {
+
+        double[] scores = new double[psmScores.length];
+        boolean matched = false;
+
+        for (int i = 0; i < psmScores.length; i++) {
+            PsmScore psmScore = psmScores[i];
+            switch (psmScore) {
+                case hyperScore:
+                case ms2_mz_fidelity:
+                case intensity:
+                case complementarity:
+                    if (!matched) {
+                        AnnotationSettings annotationSettings = identificationParameters.getAnnotationPreferences();
+                        double intensityLimit = spectrum.getIntensityLimit(annotationSettings.getIntensityThresholdType(), annotationSettings.getAnnotationIntensityLimit());
+                        psmScoringKernel.setFragments(peptide, specificAnnotationPreferences);
+                        psmScoringKernel.match(spectrum.getMzValues(), spectrum.getIntensityValues(), intensityLimit,
+                                specificAnnotationPreferences.getFragmentIonAccuracy(), specificAnnotationPreferences.isFragmentIonPpm(),
+                                annotationSettings.getTiesResolution());
+                        matched = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            switch (psmScore) {
+                case hyperScore:
+                    scores[i] = psmScoringKernel.getHyperScore(specificAnnotationPreferences.getPrecursorCharge(), spectrum.getTotalIntensity());
+                    break;
+                case ms2_mz_fidelity:
+                    scores[i] = psmScoringKernel.getMzFidelityScore(specificAnnotationPreferences.getFragmentIonAccuracyInDa(spectrum.getMaxMz()));
+                    break;
+                case intensity:
+                    scores[i] = psmScoringKernel.getIntensityRankScore();
+                    break;
+                case complementarity:
+                    scores[i] = psmScoringKernel.getComplementarityScore(peptide.getSequence().length());
+                    break;
+                default:
+                    scores[i] = getScore(peptide, peptideCharge, spectrum, identificationParameters, specificAnnotationPreferences, peptideSpectrumAnnotator, psmScore);
+            }
+        }
+
+        return scores;
+    }
 }
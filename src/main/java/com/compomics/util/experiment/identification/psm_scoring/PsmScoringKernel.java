@@ -0,0 +1,631 @@
+package com.compomics.util.experiment.identification.psm_scoring;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.biology.ions.TagFragmentIon;
+import com.compomics.util.experiment.identification.protein_sequences.AaOccurrence;
+import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator.TiesResolution;
+import com.compomics.util.experiment.massspectrometry.SimpleNoiseDistribution;
+import com.compomics.util.math.BasicMathFunctions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import org.apache.commons.math.util.FastMath;
+
+/**
+ * Computes PSM scores from primitive arrays. The m/z of the theoretic
+ * fragment ions and of the spectrum peaks are matched once using a sweep of
+ * the two sorted arrays, and the hyperscore, m/z fidelity, complementarity,
+ * intensity rank and SNR scores are derived from the resulting match vectors.
+ * The buffers are reused from one PSM to the next, an instance is hence not
+ * thread safe: use one instance per thread.
+ *
+ * @author Marc Vaudel
+ */
+public class PsmScoringKernel {
+
+    /**
+     * Log2.
+     */
+    private static final double LOG2 = FastMath.log(2.0);
+    /**
+     * Log10 value of the lowest limit of a double.
+     */
+    private static final double LIMIT_LOG10 = -FastMath.log10(Double.MIN_VALUE);
+    /**
+     * The ion factory.
+     */
+    private final IonFactory ionFactory = IonFactory.getInstance();
+    /**
+     * The number of fragment ions.
+     */
+    private int nFragments = 0;
+    /**
+     * The m/z of the fragment ions.
+     */
+    private double[] fragmentMzs = new double[0];
+    /**
+     * The index of the type of the fragment ions.
+     */
+    private int[] fragmentTypes = new int[0];
+    /**
+     * The subtype of the fragment ions.
+     */
+    private int[] fragmentSubTypes = new int[0];
+    /**
+     * The number of the fragment ions, 0 for ions which are not numbered.
+     */
+    private int[] fragmentNumbers = new int[0];
+    /**
+     * Indicates whether the fragment ions have neutral losses.
+     */
+    private boolean[] fragmentLosses = new boolean[0];
+    /**
+     * The indexes of the fragment ions sorted by increasing m/z.
+     */
+    private int[] fragmentOrder = new int[0];
+    /**
+     * The m/z of the peaks, sorted in increasing order.
+     */
+    private double[] peakMzs = new double[0];
+    /**
+     * The intensities of the peaks in the order of the m/z.
+     */
+    private double[] peakIntensities = new double[0];
+    /**
+     * The number of peaks.
+     */
+    private int nPeaks = 0;
+    /**
+     * For every fragment ion the index of the matched peak, -1 if none.
+     */
+    private int[] matches = new int[0];
+    /**
+     * For every fragment ion the index of the matched peak among the peaks
+     * passing the intensity limit, -1 if none.
+     */
+    private int[] filteredMatches = new int[0];
+    /**
+     * Stamps marking the peaks which are within tolerance of a fragment ion.
+     */
+    private int[] explainedPeaks = new int[0];
+    /**
+     * The stamp of the peaks explained by the current fragment ions.
+     */
+    private int explainedStamp = 0;
+    /**
+     * Stamps marking peaks when computing the scores.
+     */
+    private int[] peakStamps = new int[0];
+    /**
+     * Stamps marking peaks when computing the scores, second level.
+     */
+    private int[] peakStamps2 = new int[0];
+    /**
+     * The current stamp for the peaks.
+     */
+    private int peakStamp = 0;
+    /**
+     * Stamps marking the numbers of the forward ions.
+     */
+    private int[] forwardStamps = new int[0];
+    /**
+     * Stamps marking the numbers of the rewind ions.
+     */
+    private int[] rewindStamps = new int[0];
+    /**
+     * The current stamp for the ion numbers.
+     */
+    private int numberStamp = 0;
+    /**
+     * Buffer for the m/z errors.
+     */
+    private double[] errors = new double[0];
+    /**
+     * Buffer for the number of matches per residue.
+     */
+    private int[] residueMatches = new int[0];
+    /**
+     * The peak intensities for which the intensity order was computed.
+     */
+    private double[] orderedIntensities = null;
+    /**
+     * The indexes of the peaks sorted by decreasing intensity.
+     */
+    private int[] intensityOrder = new int[0];
+
+    /**
+     * Constructor.
+     */
+    public PsmScoringKernel() {
+
+    }
+
+    /**
+     * Sets the fragment ions of the given peptide to match using the fragment
+     * ions plans cached by the IonFactory.
+     *
+     * @param peptide the peptide
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this PSM
+     */
+    public void setFragments(Peptide peptide, SpecificAnnotationSettings specificAnnotationSettings) {
+        setFragments(ionFactory.getFragmentIonsPlan(peptide, specificAnnotationSettings).getFragmentIons(), specificAnnotationSettings);
+    }
+
+    /**
+     * Sets the fragment ions to match. The ions are selected and ordered like
+     * in the PeptideSpectrumAnnotator.
+     *
+     * @param possibleFragmentIons the possible fragment ions as returned by
+     * the IonFactory
+     * @param specificAnnotationSettings the annotation settings specific to
+     * this PSM
+     */
+    public void setFragments(HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons, SpecificAnnotationSettings specificAnnotationSettings) {
+
+        int precursorCharge = specificAnnotationSettings.getPrecursorCharge();
+        NeutralLossesMap neutralLossesMap = specificAnnotationSettings.getNeutralLossesMap();
+        ArrayList<Integer> selectedCharges = specificAnnotationSettings.getSelectedCharges();
+
+        nFragments = 0;
+        HashMap<Ion.IonType, HashSet<Integer>> ionTypes = specificAnnotationSettings.getIonTypes();
+        for (Ion.IonType ionType : ionTypes.keySet()) {
+            HashMap<Integer, ArrayList<Ion>> ionMap = possibleFragmentIons.get(ionType.index);
+            if (ionMap != null) {
+                boolean precursor = ionType == Ion.IonType.PRECURSOR_ION;
+                int nCharges = precursor ? precursorCharge : selectedCharges.size();
+                for (int subType : ionTypes.get(ionType)) {
+                    ArrayList<Ion> subTypeIons = ionMap.get(subType);
+                    if (subTypeIons != null) {
+                        for (Ion ion : subTypeIons) {
+                            if (SpectrumAnnotator.lossesValidated(neutralLossesMap, ion)) {
+                                for (int i = 0; i < nCharges; i++) {
+                                    int charge = precursor ? i + 1 : selectedCharges.get(i);
+                                    if (SpectrumAnnotator.chargeValidated(ion, charge, precursorCharge)) {
+                                        addFragment(ion, charge);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        if (fragmentOrder.length < nFragments) {
+            fragmentOrder = new int[fragmentMzs.length];
+        }
+        for (int i = 0; i < nFragments; i++) {
+            fragmentOrder[i] = i;
+        }
+        BasicMathFunctions.sortIndexes(fragmentOrder, 0, nFragments - 1, fragmentMzs, false);
+    }
+
+    /**
+     * Adds a fragment ion to the fragment arrays.
+     *
+     * @param ion the ion
+     * @param charge the charge of the ion
+     */
+    private void addFragment(Ion ion, int charge) {
+        if (nFragments == fragmentMzs.length) {
+            int newLength = Math.max(2 * nFragments, 64);
+            fragmentMzs = Arrays.copyOf(fragmentMzs, newLength);
+            fragmentTypes = Arrays.copyOf(fragmentTypes, newLength);
+            fragmentSubTypes = Arrays.copyOf(fragmentSubTypes, newLength);
+            fragmentNumbers = Arrays.copyOf(fragmentNumbers, newLength);
+            fragmentLosses = Arrays.copyOf(fragmentLosses, newLength);
+        }
+        fragmentMzs[nFragments] = ion.getTheoreticMz(charge);
+        fragmentTypes[nFragments] = ion.getType().index;
+        fragmentSubTypes[nFragments] = ion.getSubType();
+        if (ion instanceof PeptideFragmentIon) {
+            fragmentNumbers[nFragments] = ((PeptideFragmentIon) ion).getNumber();
+        } else if (ion instanceof TagFragmentIon) {
+            fragmentNumbers[nFragments] = ((TagFragmentIon) ion).getNumber();
+        } else {
+            fragmentNumbers[nFragments] = 0;
+        }
+        fragmentLosses[nFragments] = ion.hasNeutralLosses();
+        nFragments++;
+    }
+
+    /**
+     * Matches the fragment ions to the given peaks. For every fragment ion the
+     * best peak within tolerance is retained among all peaks and among the
+     * peaks passing the intensity limit. The arrays are not copied and must
+     * not be modified until the scores are computed.
+     *
+     * @param mzs the m/z of the peaks sorted in increasing order
+     * @param intensities the intensities of the peaks in the order of the m/z
+     * @param intensityLimit the intensity limit of the annotation
+     * @param tolerance the m/z tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     * @param tiesResolution the method used to select the peak when multiple
+     * peaks are within tolerance
+     */
+    public void match(double[] mzs, double[] intensities, double intensityLimit, double tolerance, boolean ppm, TiesResolution tiesResolution) {
+
+        peakMzs = mzs;
+        peakIntensities = intensities;
+        nPeaks = mzs.length;
+
+        if (matches.length < nFragments) {
+            matches = new int[fragmentMzs.length];
+            filteredMatches = new int[fragmentMzs.length];
+        }
+        if (explainedPeaks.length < nPeaks) {
+            explainedPeaks = new int[nPeaks];
+            explainedStamp = 0;
+        }
+        explainedStamp++;
+
+        int start = 0;
+        for (int k = 0; k < nFragments; k++) {
+
+            int fragment = fragmentOrder[k];
+            double fragmentMz = fragmentMzs[fragment];
+
+            while (start < nPeaks && getError(peakMzs[start], fragmentMz, ppm) < -tolerance) {
+                start++;
+            }
+
+            int best = -1, bestFiltered = -1;
+            for (int j = start; j < nPeaks; j++) {
+                double error = getError(peakMzs[j], fragmentMz, ppm);
+                if (error > tolerance) {
+                    break;
+                }
+                explainedPeaks[j] = explainedStamp;
+                if (best == -1 || isBetter(j, best, fragmentMz, ppm, tiesResolution)) {
+                    best = j;
+                }
+                if (peakIntensities[j] >= intensityLimit
+                        && (bestFiltered == -1 || isBetter(j, bestFiltered, fragmentMz, ppm, tiesResolution))) {
+                    bestFiltered = j;
+                }
+            }
+
+            matches[fragment] = best;
+            filteredMatches[fragment] = bestFiltered;
+        }
+    }
+
+    /**
+     * Returns the signed error between a peak and a fragment ion.
+     *
+     * @param peakMz the m/z of the peak
+     * @param fragmentMz the m/z of the fragment ion
+     * @param ppm boolean indicating whether the error should be in ppm
+     *
+     * @return the error
+     */
+    private static double getError(double peakMz, double fragmentMz, boolean ppm) {
+        if (ppm) {
+            return ((peakMz - fragmentMz) * 1000000) / fragmentMz;
+        }
+        return peakMz - fragmentMz;
+    }
+
+    /**
+     * Indicates whether a peak is a better match for a fragment ion than the
+     * current best peak. Peaks are inspected in increasing m/z, ties are
+     * resolved like in the PeptideSpectrumAnnotator.
+     *
+     * @param peak the index of the peak
+     * @param best the index of the current best peak
+     * @param fragmentMz the m/z of the fragment ion
+     * @param ppm boolean indicating whether the error should be in ppm
+     * @param tiesResolution the method used to resolve ties
+     *
+     * @return a boolean indicating whether the peak is a better match
+     */
+    private boolean isBetter(int peak, int best, double fragmentMz, boolean ppm, TiesResolution tiesResolution) {
+        double error = Math.abs(getError(peakMzs[peak], fragmentMz, ppm));
+        double bestError = Math.abs(getError(peakMzs[best], fragmentMz, ppm));
+        switch (tiesResolution) {
+            case mostAccurateMz:
+                return error < bestError
+                        || error == bestError && peakIntensities[peak] > peakIntensities[best];
+            case mostIntense:
+                return peakIntensities[peak] > peakIntensities[best]
+                        || peakIntensities[peak] == peakIntensities[best] && error < bestError;
+            default:
+                throw new UnsupportedOperationException("Ties resolution method " + tiesResolution + " not implemented.");
+        }
+    }
+
+    /**
+     * Returns a new stamp to mark the peaks.
+     *
+     * @return a new stamp
+     */
+    private int newPeakStamp() {
+        if (peakStamps.length < nPeaks) {
+            peakStamps = new int[nPeaks];
+            peakStamps2 = new int[nPeaks];
+            peakStamp = 0;
+        }
+        return ++peakStamp;
+    }
+
+    /**
+     * Returns a new stamp to mark the ion numbers.
+     *
+     * @return a new stamp
+     */
+    private int newNumberStamp() {
+        int maxNumber = 0;
+        for (int i = 0; i < nFragments; i++) {
+            if (fragmentNumbers[i] > maxNumber) {
+                maxNumber = fragmentNumbers[i];
+            }
+        }
+        if (forwardStamps.length <= maxNumber) {
+            forwardStamps = new int[maxNumber + 1];
+            rewindStamps = new int[maxNumber + 1];
+            numberStamp = 0;
+        }
+        return ++numberStamp;
+    }
+
+    /**
+     * Returns the number of fragment ions.
+     *
+     * @return the number of fragment ions
+     */
+    public int getNFragments() {
+        return nFragments;
+    }
+
+    /**
+     * Returns the index of the peak matched by the given fragment ion, -1 if
+     * none.
+     *
+     * @param fragment the index of the fragment ion
+     * @param filtered if true only the peaks passing the intensity limit are
+     * considered
+     *
+     * @return the index of the matched peak
+     */
+    public int getMatchedPeak(int fragment, boolean filtered) {
+        return filtered ? filteredMatches[fragment] : matches[fragment];
+    }
+
+    /**
+     * Returns the hyperscore of the match, see HyperScore. The peaks passing
+     * the intensity limit are used.
+     *
+     * @param charge the charge of the peptide
+     * @param totalIntensity the total intensity of the spectrum
+     *
+     * @return the hyperscore
+     */
+    public double getHyperScore(int charge, double totalIntensity) {
+
+        int stamp = newPeakStamp();
+        boolean peakMatched = false;
+        double coveredIntensity = 0.0;
+        for (int i = 0; i < nFragments; i++) {
+            int peak = filteredMatches[i];
+            if (peak != -1) {
+                if (peakStamps[peak] != stamp) {
+                    peakStamps[peak] = stamp;
+                    coveredIntensity += peakIntensities[peak];
+                }
+                if (fragmentTypes[i] == Ion.IonType.PEPTIDE_FRAGMENT_ION.index && !fragmentLosses[i] && fragmentNumbers[i] >= 2) {
+                    peakMatched = true;
+                }
+            }
+        }
+        if (!peakMatched) {
+            return 0.0;
+        }
+
+        double consideredIntensity = totalIntensity - coveredIntensity;
+
+        stamp = newPeakStamp();
+        int numbers = newNumberStamp();
+        int nForward = 0, nRewind = 0;
+        double xCorr = 0;
+        for (int i = 0; i < nFragments; i++) {
+            int peak = filteredMatches[i];
+            if (peak != -1 && fragmentTypes[i] == Ion.IonType.PEPTIDE_FRAGMENT_ION.index && !fragmentLosses[i] && peakStamps[peak] != stamp) {
+                int number = fragmentNumbers[i];
+                if (number > 1) {
+                    peakStamps[peak] = stamp;
+                    xCorr += peakIntensities[peak] / consideredIntensity;
+                    int subType = fragmentSubTypes[i];
+                    if (subType == PeptideFragmentIon.X_ION
+                            || subType == PeptideFragmentIon.Y_ION
+                            || subType == PeptideFragmentIon.Z_ION) {
+                        if (forwardStamps[number] != numbers) {
+                            forwardStamps[number] = numbers;
+                            nForward++;
+                        }
+                    } else if (subType == PeptideFragmentIon.A_ION
+                            || subType == PeptideFragmentIon.B_ION
+                            || subType == PeptideFragmentIon.C_ION) {
+                        if (rewindStamps[number] != numbers) {
+                            rewindStamps[number] = numbers;
+                            nRewind++;
+                        }
+                    }
+                }
+            }
+        }
+        nForward = nForward / (Math.max(charge - 1, 1));
+        nRewind = nRewind / (Math.max(charge - 1, 1));
+        nForward = nForward > 20 ? 20 : nForward;
+        nRewind = nRewind > 20 ? 20 : nRewind;
+        return xCorr * BasicMathFunctions.factorial(nForward) * BasicMathFunctions.factorial(nRewind);
+    }
+
+    /**
+     * Returns the m/z fidelity score of the match, see MS2MzFidelityScore. The
+     * peaks passing the intensity limit are used.
+     *
+     * @param defaultValue the value to return if less than two ions are
+     * matched, typically the fragment ion tolerance in Da
+     *
+     * @return the m/z fidelity score
+     */
+    public double getMzFidelityScore(double defaultValue) {
+        if (errors.length < nFragments) {
+            errors = new double[fragmentMzs.length];
+        }
+        int nErrors = 0;
+        for (int i = 0; i < nFragments; i++) {
+            int peak = filteredMatches[i];
+            if (peak != -1) {
+                errors[nErrors++] = peakMzs[peak] - fragmentMzs[i];
+            }
+        }
+        if (nErrors < 2) {
+            return defaultValue;
+        }
+        Arrays.sort(errors, 0, nErrors);
+        double deviationUp = BasicMathFunctions.percentileSorted(errors, nErrors, 0.75);
+        double deviationDown = BasicMathFunctions.percentileSorted(errors, nErrors, 0.25);
+        return (deviationUp - deviationDown) / 2;
+    }
+
+    /**
+     * Returns the complementarity score of the match, see
+     * ComplementarityScore. The peaks passing the intensity limit are used.
+     *
+     * @param sequenceLength the length of the peptide sequence
+     *
+     * @return the complementarity score
+     */
+    public double getComplementarityScore(int sequenceLength) {
+        if (residueMatches.length <= sequenceLength) {
+            residueMatches = new int[sequenceLength + 1];
+        }
+        Arrays.fill(residueMatches, 0, sequenceLength + 1, 0);
+        for (int i = 0; i < nFragments; i++) {
+            if (filteredMatches[i] != -1 && fragmentTypes[i] == Ion.IonType.PEPTIDE_FRAGMENT_ION.index) {
+                residueMatches[fragmentNumbers[i]]++;
+            }
+        }
+        double mean = 0;
+        if (sequenceLength > 0) {
+            double sum = 0;
+            for (int number = 1; number <= sequenceLength; number++) {
+                sum += FastMath.log((double) residueMatches[number]) / LOG2;
+            }
+            mean = sum / sequenceLength;
+        }
+        return Math.pow(2, mean);
+    }
+
+    /**
+     * Returns the intensity rank score of the match, see IntensityRankScore.
+     * All peaks are used, a peak is annotated if it is within tolerance of a
+     * fragment ion. Peaks of same intensity are inspected in increasing m/z.
+     *
+     * @return the intensity rank score
+     */
+    public double getIntensityRankScore() {
+
+        if (orderedIntensities != peakIntensities) {
+            if (intensityOrder.length < nPeaks) {
+                intensityOrder = new int[nPeaks];
+            }
+            for (int i = 0; i < nPeaks; i++) {
+                intensityOrder[i] = i;
+            }
+            BasicMathFunctions.sortIndexes(intensityOrder, 0, nPeaks - 1, peakIntensities, true);
+            orderedIntensities = peakIntensities;
+        }
+
+        double nMissedTolerance = 10 * ((double) nPeaks) / 100;
+        double rank = 0;
+        int missed = 0;
+        for (int i = 0; i < nPeaks; i++) {
+            if (explainedPeaks[intensityOrder[i]] != explainedStamp) {
+                missed++;
+                if (missed > nMissedTolerance) {
+                    return rank / nPeaks;
+                }
+            }
+            rank++;
+        }
+        return rank / nPeaks;
+    }
+
+    /**
+     * Returns the SNR score of the match, see SnrScore. All peaks are used.
+     *
+     * @param sequence the sequence of the peptide
+     * @param aaOccurrence the occurrence of the amino acids in the database
+     * @param binnedCumulativeFunction the intensity distribution of the
+     * spectrum
+     *
+     * @return the SNR score
+     */
+    public double getSnrScore(char[] sequence, AaOccurrence aaOccurrence, SimpleNoiseDistribution binnedCumulativeFunction) {
+
+        int sequenceLength = sequence.length;
+        int annotated = newPeakStamp();
+        double pFragmentIonMinusLog = 0.0;
+        double pAnnotatedMinusLog = 0.0;
+
+        for (int i = 0; i < nFragments; i++) {
+            int peak = matches[i];
+            if (peak != -1) {
+                double pMinusLog = -binnedCumulativeFunction.getBinnedCumulativeProbabilityLog(peakIntensities[peak]);
+                if (peakStamps[peak] != annotated) {
+                    peakStamps[peak] = annotated;
+                    pAnnotatedMinusLog += pMinusLog;
+                }
+                int number = fragmentNumbers[i];
+                if (peakStamps2[peak] != annotated && fragmentTypes[i] == Ion.IonType.PEPTIDE_FRAGMENT_ION.index && !fragmentLosses[i] && number >= 2) {
+                    peakStamps2[peak] = annotated;
+                    int subType = fragmentSubTypes[i];
+                    double aasP;
+                    if (subType == PeptideFragmentIon.A_ION
+                            || subType == PeptideFragmentIon.B_ION
+                            || subType == PeptideFragmentIon.C_ION) {
+                        aasP = aaOccurrence.getP(sequence, 0, number, 4);
+                    } else {
+                        aasP = aaOccurrence.getP(sequence, sequenceLength - number, sequenceLength, 4);
+                    }
+                    pFragmentIonMinusLog += pMinusLog + aasP;
+                }
+            }
+        }
+
+        if (pFragmentIonMinusLog == 0.0) {
+            return pFragmentIonMinusLog;
+        }
+
+        double pTotalMinusLog = 0.0;
+        for (int i = 0; i < nPeaks; i++) {
+            pTotalMinusLog += -binnedCumulativeFunction.getBinnedCumulativeProbabilityLog(peakIntensities[i]);
+        }
+
+        double pNotAnnotatedMinusLog = pTotalMinusLog - pAnnotatedMinusLog;
+
+        if (pNotAnnotatedMinusLog < LIMIT_LOG10) {
+            double pNotAnnotated = FastMath.pow(10, -pNotAnnotatedMinusLog);
+            if (pNotAnnotated > 1.0 - Double.MIN_VALUE) {
+                pNotAnnotated = 1.0 - Double.MIN_VALUE;
+            }
+            pNotAnnotated = 1.0 - pNotAnnotated;
+            double notAnnotatedCorrection = -FastMath.log10(pNotAnnotated);
+            if (notAnnotatedCorrection > pAnnotatedMinusLog) {
+                notAnnotatedCorrection = pAnnotatedMinusLog;
+            }
+            pFragmentIonMinusLog += notAnnotatedCorrection;
+        }
+        return pFragmentIonMinusLog;
+    }
+}
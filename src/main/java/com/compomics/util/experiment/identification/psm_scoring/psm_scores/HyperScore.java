@@ -334,24 +334,53 @@ public class HyperScore {
         }
         RegressionStatistics regressionStatistics = LinearRegression.getSimpleLinearRegression(evalueFunctionX, evalueFunctionY);
         if (useCache) {
-            Double roundedA = Util.roundDouble(regressionStatistics.a, 2);
-            Double roundedB = Util.roundDouble(regressionStatistics.b, 2);
-            Integer nA = as.get(roundedA);
-            if (nA == null) {
-                as.put(roundedA, 1);
-            } else {
-                as.put(roundedA, nA + 1);
-            }
-            Integer nB = bs.get(roundedB);
-            if (nB == null) {
-                bs.put(roundedB, 1);
-            } else {
-                bs.put(roundedB, nB + 1);
-            }
+            addInterpolationValues(regressionStatistics.a, regressionStatistics.b);
         }
         return new double[]{regressionStatistics.a, regressionStatistics.b};
     }
 
+    /**
+     * Returns the interpolation values for the scores streamed in the given
+     * e-value estimator in the form {a, b}. Null if not enough scores are
+     * present or if they are not spread.
+     *
+     * @param eValueEstimator the e-value estimator
+     * @param useCache if true the interpolation values will be stored in the
+     * histograms in cache
+     *
+     * @return the interpolation values for the given scores
+     */
+    public double[] getInterpolationValues(HyperScoreEValueEstimator eValueEstimator, boolean useCache) {
+        double[] ab = eValueEstimator.getInterpolationValues();
+        if (ab != null && useCache) {
+            addInterpolationValues(ab[0], ab[1]);
+        }
+        return ab;
+    }
+
+    /**
+     * Adds the given interpolation values to the histograms in cache.
+     *
+     * @param a the slope of the interpolation
+     * @param b the offset of the interpolation
+     */
+    private synchronized void addInterpolationValues(double a, double b) {
+        Double roundedA = Util.roundDouble(a, 2);
+        Double roundedB = Util.roundDouble(b, 2);
+        Integer nA = as.get(roundedA);
+        if (nA == null) {
+            as.put(roundedA, 1);
+        } else {
+            as.put(roundedA, nA + 1);
+        }
+        Integer nB = bs.get(roundedB);
+        if (nB == null) {
+            bs.put(roundedB, 1);
+        } else {
+            bs.put(roundedB, nB + 1);
+        }
+    }
+
     /**
      * Returns the interpolation of a list of hyperscores using a linear
      * interpolation of the form result = a * log(score) + b. If the score is
@@ -402,7 +431,7 @@ public class HyperScore {
      * @return the rounded median of the as found in the previously interpolated
      * scores
      */
-    public Double getMendianA() {
+    public synchronized Double getMendianA() {
         if (as.isEmpty()) {
             return null;
         }
@@ -416,7 +445,7 @@ public class HyperScore {
      * @return the rounded median of the bs found in the previously interpolated
      * scores
      */
-    public Double getMendianB() {
+    public synchronized Double getMendianB() {
         if (bs.isEmpty()) {
             return null;
         }
@@ -424,22 +453,22 @@ public class HyperScore {
     }
 
     /**
-     * Returns a histogram of the as found in the previously interpolated
-     * scores.
+     * Returns a copy of the histogram of the as found in the previously
+     * interpolated scores.
      *
      * @return a histogram of the as found in the previously interpolated scores
      */
-    public HashMap<Double, Integer> getAs() {
-        return as;
+    public synchronized HashMap<Double, Integer> getAs() {
+        return new HashMap<Double, Integer>(as);
     }
 
     /**
-     * Returns a histogram of the bs found in the previously interpolated
-     * scores.
+     * Returns a copy of the histogram of the bs found in the previously
+     * interpolated scores.
      *
      * @return a histogram of the bs found in the previously interpolated scores
      */
-    public HashMap<Double, Integer> getBs() {
-        return bs;
+    public synchronized HashMap<Double, Integer> getBs() {
+        return new HashMap<Double, Integer>(bs);
     }
 }
@@ -0,0 +1,338 @@
+package com.compomics.util.experiment.identification.psm_scoring.psm_scores;
+
+import java.util.Arrays;
+import org.apache.commons.math.util.FastMath;
+
+/**
+ * Incremental estimation of hyperscore e-values. The hyperscores of the
+ * candidates are streamed into a histogram with bins of width one, and the
+ * e-value function is interpolated as in HyperScore.getEValueMap. The bins
+ * below the given number of bins are stored in an array, the higher bins in
+ * a primitive hash table, so that the memory used depends on the number of
+ * distinct bins and not on the number of scores. Instances are not thread
+ * safe: use one estimator per thread and merge them if needed.
+ *
+ * @author Marc Vaudel
+ */
+public class HyperScoreEValueEstimator {
+
+    /**
+     * The default number of bins.
+     */
+    public static final int DEFAULT_N_BINS = 1024;
+    /**
+     * The number of scores per bin below the number of bins, the bin of a
+     * score is its integer value.
+     */
+    private final int[] histogram;
+    /**
+     * The bins above the histogram range in an open addressing hash table,
+     * zero for empty slots.
+     */
+    private int[] overflowBins = new int[16];
+    /**
+     * The number of scores of the bins above the histogram range, at the slot
+     * of the bin.
+     */
+    private int[] overflowCounts = new int[16];
+    /**
+     * The number of bins above the histogram range.
+     */
+    private int nOverflowBins = 0;
+    /**
+     * The number of scores added.
+     */
+    private int nScores = 0;
+    /**
+     * The number of scores with a bin above the histogram range.
+     */
+    private int nOverflow = 0;
+    /**
+     * The lowest non-empty bin.
+     */
+    private int minBin = Integer.MAX_VALUE;
+    /**
+     * The highest non-empty bin.
+     */
+    private int maxBin = 0;
+    /**
+     * The slope of the interpolation, NaN if not estimated.
+     */
+    private double a = Double.NaN;
+    /**
+     * The offset of the interpolation, NaN if not estimated.
+     */
+    private double b = Double.NaN;
+
+    /**
+     * Constructor.
+     *
+     * @param nBins the number of bins stored in an array, higher bins are
+     * stored in a hash table
+     */
+    public HyperScoreEValueEstimator(int nBins) {
+        if (nBins < 2) {
+            throw new IllegalArgumentException("At least two bins are needed for the e-value estimation.");
+        }
+        histogram = new int[nBins];
+    }
+
+    /**
+     * Constructor using the default number of bins.
+     */
+    public HyperScoreEValueEstimator() {
+        this(DEFAULT_N_BINS);
+    }
+
+    /**
+     * Adds a score to the histogram. Invalidates the previous interpolation.
+     *
+     * @param hyperScore the hyperscore
+     */
+    public void add(double hyperScore) {
+        nScores++;
+        int bin = (int) hyperScore;
+        if (bin > 0) {
+            if (bin < minBin) {
+                minBin = bin;
+            }
+            if (bin > maxBin) {
+                maxBin = bin;
+            }
+            addToBin(bin, 1);
+        }
+        a = Double.NaN;
+        b = Double.NaN;
+    }
+
+    /**
+     * Adds the scores of another estimator to this estimator. The estimators
+     * can have different numbers of bins. Invalidates the previous
+     * interpolation.
+     *
+     * @param other the other estimator
+     */
+    public void merge(HyperScoreEValueEstimator other) {
+        int otherMax = Math.min(other.maxBin, other.histogram.length - 1);
+        for (int bin = other.minBin; bin <= otherMax; bin++) {
+            if (other.histogram[bin] > 0) {
+                addToBin(bin, other.histogram[bin]);
+            }
+        }
+        for (int slot = 0; slot < other.overflowBins.length; slot++) {
+            if (other.overflowBins[slot] != 0) {
+                addToBin(other.overflowBins[slot], other.overflowCounts[slot]);
+            }
+        }
+        nScores += other.nScores;
+        if (other.minBin < minBin) {
+            minBin = other.minBin;
+        }
+        if (other.maxBin > maxBin) {
+            maxBin = other.maxBin;
+        }
+        a = Double.NaN;
+        b = Double.NaN;
+    }
+
+    /**
+     * Clears the histogram in order to reuse the estimator.
+     */
+    public void reset() {
+        int max = Math.min(maxBin, histogram.length - 1);
+        for (int bin = minBin; bin <= max; bin++) {
+            histogram[bin] = 0;
+        }
+        if (nOverflowBins > 0) {
+            Arrays.fill(overflowBins, 0);
+            Arrays.fill(overflowCounts, 0);
+            nOverflowBins = 0;
+        }
+        nScores = 0;
+        nOverflow = 0;
+        minBin = Integer.MAX_VALUE;
+        maxBin = 0;
+        a = Double.NaN;
+        b = Double.NaN;
+    }
+
+    /**
+     * Returns the number of scores added.
+     *
+     * @return the number of scores added
+     */
+    public int getNScores() {
+        return nScores;
+    }
+
+    /**
+     * Returns the number of scores with a bin above the histogram range.
+     *
+     * @return the number of scores with a bin above the histogram range
+     */
+    public int getNOverflow() {
+        return nOverflow;
+    }
+
+    /**
+     * Returns the slot of the given bin in the overflow table, or the empty
+     * slot where it should be inserted.
+     *
+     * @param bin the bin
+     *
+     * @return the slot of the bin
+     */
+    private int getOverflowSlot(int bin) {
+        int mask = overflowBins.length - 1;
+        int hash = bin * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (overflowBins[slot] != 0 && overflowBins[slot] != bin) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Adds scores to a bin, in the histogram or in the overflow table.
+     *
+     * @param bin the bin
+     * @param count the number of scores to add
+     */
+    private void addToBin(int bin, int count) {
+        if (bin < histogram.length) {
+            histogram[bin] += count;
+        } else {
+            addOverflow(bin, count);
+            nOverflow += count;
+        }
+    }
+
+    /**
+     * Adds scores to a bin above the histogram range.
+     *
+     * @param bin the bin
+     * @param count the number of scores to add
+     */
+    private void addOverflow(int bin, int count) {
+        int slot = getOverflowSlot(bin);
+        if (overflowBins[slot] == 0) {
+            if (2 * (nOverflowBins + 1) > overflowBins.length) {
+                int[] oldBins = overflowBins;
+                int[] oldCounts = overflowCounts;
+                overflowBins = new int[2 * oldBins.length];
+                overflowCounts = new int[2 * oldBins.length];
+                for (int i = 0; i < oldBins.length; i++) {
+                    if (oldBins[i] != 0) {
+                        int newSlot = getOverflowSlot(oldBins[i]);
+                        overflowBins[newSlot] = oldBins[i];
+                        overflowCounts[newSlot] = oldCounts[i];
+                    }
+                }
+                slot = getOverflowSlot(bin);
+            }
+            overflowBins[slot] = bin;
+            nOverflowBins++;
+        }
+        overflowCounts[slot] += count;
+    }
+
+    /**
+     * Returns the number of scores in the given bin.
+     *
+     * @param bin the bin
+     *
+     * @return the number of scores in the bin
+     */
+    private int getCount(int bin) {
+        if (bin < histogram.length) {
+            return histogram[bin];
+        }
+        return overflowCounts[getOverflowSlot(bin)];
+    }
+
+    /**
+     * Estimates the interpolation values in the form {a, b} as done in
+     * HyperScore.getInterpolationValues. Bins after the first empty bin are
+     * counted once and bins after the second empty bin are ignored. Returns
+     * null if not enough bins are populated.
+     *
+     * @return the interpolation values
+     */
+    public double[] getInterpolationValues() {
+
+        if (!Double.isNaN(a)) {
+            return new double[]{a, b};
+        }
+        if (minBin > maxBin) {
+            return null;
+        }
+
+        int firstEmptyBin = maxBin;
+        int secondEmptyBin = maxBin;
+        boolean emptyBin = false;
+        for (long bin = minBin; bin <= maxBin; bin++) {
+            if (getCount((int) bin) == 0) {
+                if (!emptyBin) {
+                    emptyBin = true;
+                    firstEmptyBin = (int) bin;
+                } else {
+                    secondEmptyBin = (int) bin;
+                    break;
+                }
+            }
+        }
+
+        int n = 0;
+        int currentSum = 0;
+        double x0 = 0.0;
+        boolean newX = false;
+        double sumXY = 0.0, sumX = 0.0, sumX2 = 0.0, sumY = 0.0;
+        for (int bin = Math.min(maxBin, secondEmptyBin); bin >= minBin; bin--) {
+            int nInBin = getCount(bin);
+            if (nInBin > 0) {
+                currentSum += bin > firstEmptyBin ? 1 : nInBin;
+                double xi = FastMath.log10((double) bin);
+                double yi = FastMath.log10((double) currentSum);
+                if (n == 0) {
+                    x0 = xi;
+                } else if (!newX && xi != x0) {
+                    newX = true;
+                }
+                sumXY += xi * yi;
+                sumX += xi;
+                sumX2 += xi * xi;
+                sumY += yi;
+                n++;
+            }
+        }
+        if (n <= 1 || !newX) {
+            return null;
+        }
+
+        double xMean = sumX / n;
+        double yMean = sumY / n;
+        a = (sumXY - (xMean * sumY)) / (sumX2 - (sumX * sumX / n));
+        b = yMean - (a * xMean);
+        return new double[]{a, b};
+    }
+
+    /**
+     * Returns the e-value of the given score using the interpolation of the
+     * scores added so far. If the score is not positive the number of scores
+     * is returned. Returns null if the interpolation could not be estimated.
+     *
+     * @param hyperScore the hyperscore
+     *
+     * @return the e-value
+     */
+    public Double getEValue(double hyperScore) {
+        if (hyperScore <= 0) {
+            return (double) nScores;
+        }
+        double[] ab = getInterpolationValues();
+        if (ab == null) {
+            return null;
+        }
+        return HyperScore.getInterpolation(FastMath.log10(hyperScore), ab[0], ab[1]);
+    }
+}
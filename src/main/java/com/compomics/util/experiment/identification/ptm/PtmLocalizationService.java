@@ -0,0 +1,374 @@
+package com.compomics.util.experiment.identification.ptm;
+
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.ptm.ptmscores.AScore;
+import com.compomics.util.experiment.identification.ptm.ptmscores.PhosphoRS;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.maps.StripedLruCache;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.math.MathException;
+
+/**
+ * This class scores the localization of PTMs on batches of peptide spectrum
+ * matches using multiple threads. Every thread uses its own spectrum
+ * annotator, the fragment ions of the candidate peptides are shared through
+ * the fragment ions plans of the IonFactory, and the spectra reduced to their
+ * most intense peaks for the A-score are kept in cache per spectrum key.
+ *
+ * @author Marc Vaudel
+ */
+public class PtmLocalizationService {
+
+    /**
+     * The default number of reduced spectra kept in cache.
+     */
+    public static final int DEFAULT_REDUCED_SPECTRA_CACHE_SIZE = 1000;
+    /**
+     * The global annotation settings.
+     */
+    private final AnnotationSettings annotationSettings;
+    /**
+     * Boolean indicating whether neutral losses should be accounted for.
+     */
+    private final boolean accountNeutralLosses;
+    /**
+     * The sequence matching preferences for peptide to protein mapping.
+     */
+    private final SequenceMatchingPreferences sequenceMatchingPreferences;
+    /**
+     * The sequence matching preferences for PTM to peptide mapping.
+     */
+    private final SequenceMatchingPreferences ptmSequenceMatchingPreferences;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+    /**
+     * Cache for the spectra reduced to their most intense peaks indexed by
+     * spectrum key and m/z tolerance, striped so that the scoring threads do
+     * not wait on each other. The least recently used spectra of a segment
+     * are removed when the segment is full.
+     */
+    private final StripedLruCache<String, HashMap<Integer, MSnSpectrum>> reducedSpectraCache = new StripedLruCache<String, HashMap<Integer, MSnSpectrum>>(DEFAULT_REDUCED_SPECTRA_CACHE_SIZE);
+
+    /**
+     * Constructor.
+     *
+     * @param annotationSettings the global annotation settings
+     * @param accountNeutralLosses a boolean indicating whether or not the
+     * scoring shall account for neutral losses
+     * @param sequenceMatchingPreferences the sequence matching preferences for
+     * peptide to protein mapping
+     * @param ptmSequenceMatchingPreferences the sequence matching preferences
+     * for PTM to peptide mapping
+     * @param nThreads the number of threads to use
+     */
+    public PtmLocalizationService(AnnotationSettings annotationSettings, boolean accountNeutralLosses, SequenceMatchingPreferences sequenceMatchingPreferences,
+            SequenceMatchingPreferences ptmSequenceMatchingPreferences, int nThreads) {
+        this.annotationSettings = annotationSettings;
+        this.accountNeutralLosses = accountNeutralLosses;
+        this.sequenceMatchingPreferences = sequenceMatchingPreferences;
+        this.ptmSequenceMatchingPreferences = ptmSequenceMatchingPreferences;
+        this.nThreads = Math.max(nThreads, 1);
+    }
+
+    /**
+     * Returns the A-scores of the given peptide spectrum matches in the same
+     * order, see AScore.getAScore for the details on the scores.
+     *
+     * @param inputs the peptide spectrum matches to score
+     * @param waitingHandler the waiting handler displaying the progress. Can be
+     * null. The progress will be displayed as secondary.
+     *
+     * @return the A-scores of the peptide spectrum matches, null for the
+     * matches not scored if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while scoring the PTMs
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the protein tree
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the protein tree
+     * @throws MathException exception thrown whenever a math error occurred
+     * while computing the scores
+     */
+    public ArrayList<HashMap<Integer, Double>> getAScores(ArrayList<LocalizationInput> inputs, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
+        return getScores(inputs, false, waitingHandler);
+    }
+
+    /**
+     * Returns the PhosphoRS site probabilities of the given peptide spectrum
+     * matches in the same order, see PhosphoRS.getSequenceProbabilities for
+     * the details on the scores.
+     *
+     * @param inputs the peptide spectrum matches to score
+     * @param waitingHandler the waiting handler displaying the progress. Can be
+     * null. The progress will be displayed as secondary.
+     *
+     * @return the PhosphoRS site probabilities of the peptide spectrum matches,
+     * null for the matches not scored if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while scoring the PTMs
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the protein tree
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the protein tree
+     * @throws MathException exception thrown whenever a math error occurred
+     * while computing the scores
+     */
+    public ArrayList<HashMap<Integer, Double>> getPhosphoRsProbabilities(ArrayList<LocalizationInput> inputs, WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
+        return getScores(inputs, true, waitingHandler);
+    }
+
+    /**
+     * Scores the given peptide spectrum matches using multiple threads. The
+     * threads take the next match to score until all are scored so that the
+     * load is balanced even if the scoring time varies between matches.
+     *
+     * @param inputs the peptide spectrum matches to score
+     * @param phosphoRS if true the PhosphoRS probabilities are returned,
+     * otherwise the A-scores
+     * @param waitingHandler the waiting handler displaying the progress, can
+     * be null
+     *
+     * @return the scores in the order of the inputs
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while scoring the PTMs
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object from the protein tree
+     * @throws SQLException exception thrown whenever an error occurred while
+     * interacting with the protein tree
+     * @throws MathException exception thrown whenever a math error occurred
+     * while computing the scores
+     */
+    private ArrayList<HashMap<Integer, Double>> getScores(final ArrayList<LocalizationInput> inputs, final boolean phosphoRS, final WaitingHandler waitingHandler)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
+
+        final int nInputs = inputs.size();
+        final ArrayList<HashMap<Integer, Double>> results = new ArrayList<HashMap<Integer, Double>>(nInputs);
+        for (int i = 0; i < nInputs; i++) {
+            results.add(null);
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(nInputs);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        final AtomicInteger nextInput = new AtomicInteger();
+        int nWorkers = Math.min(nThreads, Math.max(nInputs, 1));
+
+        ExecutorService pool = Executors.newFixedThreadPool(nWorkers);
+        try {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>(nWorkers);
+            for (int i = 0; i < nWorkers; i++) {
+                futures.add(pool.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
+                        int j;
+                        while ((j = nextInput.getAndIncrement()) < nInputs) {
+                            LocalizationInput input = inputs.get(j);
+                            HashMap<Integer, Double> scores;
+                            if (phosphoRS) {
+                                scores = PhosphoRS.getSequenceProbabilities(input.getPeptide(), input.getPtms(), input.getSpectrum(), annotationSettings,
+                                        input.getSpecificAnnotationSettings(), accountNeutralLosses, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, spectrumAnnotator);
+                            } else {
+                                MSnSpectrum spectrum = input.getSpectrum();
+                                double mzTolerance = input.getSpecificAnnotationSettings().getFragmentIonAccuracyInDa(spectrum.getMaxMz());
+                                scores = AScore.getAScore(input.getPeptide(), input.getPtms(), spectrum, annotationSettings,
+                                        input.getSpecificAnnotationSettings(), accountNeutralLosses, sequenceMatchingPreferences, ptmSequenceMatchingPreferences, spectrumAnnotator,
+                                        getReducedSpectra(spectrum, mzTolerance));
+                            }
+                            results.set(j, scores);
+                            if (waitingHandler != null) {
+                                waitingHandler.increaseSecondaryProgressCounter();
+                                if (waitingHandler.isRunCanceled()) {
+                                    return null;
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof MathException) {
+                throw (MathException) cause;
+            } else if (cause instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) cause;
+            }
+            throw new IllegalArgumentException("An error occurred while scoring the PTM localization.", cause);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns the given spectrum reduced to its most intense peaks as needed
+     * for the A-score. The reduced spectra are kept in cache per spectrum key
+     * and tolerance and must not be modified.
+     *
+     * @param spectrum the spectrum
+     * @param mzTolerance the m/z tolerance in Da
+     *
+     * @return the reduced spectra indexed by depth
+     */
+    public HashMap<Integer, MSnSpectrum> getReducedSpectra(MSnSpectrum spectrum, double mzTolerance) {
+        String key = spectrum.getSpectrumKey() + "_" + mzTolerance;
+        HashMap<Integer, MSnSpectrum> spectrumMap = reducedSpectraCache.get(key);
+        if (spectrumMap == null) {
+            spectrumMap = AScore.getReducedSpectra(spectrum, mzTolerance, AScore.MAX_DEPTH);
+            HashMap<Integer, MSnSpectrum> cachedMap = reducedSpectraCache.putIfAbsent(key, spectrumMap);
+            if (cachedMap != null) {
+                spectrumMap = cachedMap;
+            }
+        }
+        return spectrumMap;
+    }
+
+    /**
+     * Sets the number of reduced spectra to keep in cache.
+     *
+     * @param reducedSpectraCacheSize the number of reduced spectra to keep in
+     * cache
+     */
+    public void setReducedSpectraCacheSize(int reducedSpectraCacheSize) {
+        reducedSpectraCache.setMaxSize(reducedSpectraCacheSize);
+    }
+
+    /**
+     * Returns the number of reduced spectra to keep in cache.
+     *
+     * @return the number of reduced spectra to keep in cache
+     */
+    public int getReducedSpectraCacheSize() {
+        return reducedSpectraCache.getMaxSize();
+    }
+
+    /**
+     * Clears the cache of reduced spectra.
+     */
+    public void clearReducedSpectraCache() {
+        reducedSpectraCache.clear();
+    }
+
+    /**
+     * A peptide spectrum match to score.
+     */
+    public static class LocalizationInput {
+
+        /**
+         * The peptide.
+         */
+        private final Peptide peptide;
+        /**
+         * The PTMs to score, considered as indistinguishable.
+         */
+        private final ArrayList<PTM> ptms;
+        /**
+         * The spectrum.
+         */
+        private final MSnSpectrum spectrum;
+        /**
+         * The annotation settings specific to this peptide and spectrum.
+         */
+        private final SpecificAnnotationSettings specificAnnotationSettings;
+
+        /**
+         * Constructor.
+         *
+         * @param peptide the peptide
+         * @param ptms the PTMs to score, for instance different
+         * phosphorylations (the PTMs are considered as indistinguishable, i.e.
+         * of same mass)
+         * @param spectrum the spectrum
+         * @param specificAnnotationSettings the annotation settings specific
+         * to this peptide and spectrum
+         */
+        public LocalizationInput(Peptide peptide, ArrayList<PTM> ptms, MSnSpectrum spectrum, SpecificAnnotationSettings specificAnnotationSettings) {
+            this.peptide = peptide;
+            this.ptms = ptms;
+            this.spectrum = spectrum;
+            this.specificAnnotationSettings = specificAnnotationSettings;
+        }
+
+        /**
+         * Returns the peptide.
+         *
+         * @return the peptide
+         */
+        public Peptide getPeptide() {
+            return peptide;
+        }
+
+        /**
+         * Returns the PTMs to score.
+         *
+         * @return the PTMs to score
+         */
+        public ArrayList<PTM> getPtms() {
+            return ptms;
+        }
+
+        /**
+         * Returns the spectrum.
+         *
+         * @return the spectrum
+         */
+        public MSnSpectrum getSpectrum() {
+            return spectrum;
+        }
+
+        /**
+         * Returns the annotation settings specific to this peptide and
+         * spectrum.
+         *
+         * @return the annotation settings specific to this peptide and
+         * spectrum
+         */
+        public SpecificAnnotationSettings getSpecificAnnotationSettings() {
+            return specificAnnotationSettings;
+        }
+    }
+}
@@ -15,9 +15,11 @@ import com.compomics.util.math.statistics.distributions.BinomialDistribution;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.math.BasicMathFunctions;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import org.apache.commons.math.MathException;
@@ -32,6 +34,11 @@ import org.apache.commons.math.util.MathUtils;
  */
 public class AScore {
 
+    /**
+     * The maximal depth used to reduce the spectra, 10 in the original paper.
+     */
+    public static final int MAX_DEPTH = 10;
+
     /**
      * Returns the A-score for the best PTM location. In case the two best
      * locations score the same they are both given with the score of 0. 1 is
@@ -82,6 +89,63 @@ public class AScore {
             SpecificAnnotationSettings specificAnnotationPreferences, boolean accountNeutralLosses, SequenceMatchingPreferences sequenceMatchingPreferences,
             SequenceMatchingPreferences ptmSequenceMatchingPreferences, PeptideSpectrumAnnotator spectrumAnnotator)
             throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
+        return getAScore(peptide, ptms, spectrum, annotationPreferences, specificAnnotationPreferences, accountNeutralLosses, sequenceMatchingPreferences,
+                ptmSequenceMatchingPreferences, spectrumAnnotator, null);
+    }
+
+    /**
+     * Returns the A-score for the best PTM location. In case the two best
+     * locations score the same they are both given with the score of 0. 1 is
+     * the first amino acid. The N-terminus is indexed 0 and the C-terminus with
+     * the peptide length+1. Note that PTMs found on peptides must be loaded in
+     * the PTM factory (com.compomics.util.experiment.biology.PTMFactory), and
+     * if the scoring involves protein terminal PTMs, the protein sequences must
+     * be loaded in the sequence factory
+     * (com.compomics.util.experiment.identification.SequenceFactory) and
+     * indexed using the protein tree (see getDefaultProteinTree in
+     * SequenceFactory). PTMs of same mass should be scored together and given
+     * in the PTMs list. Neutral losses of mass equal to the mass of the PTM
+     * will be ignored. Neutral losses to be accounted for should be given in
+     * the SpecificAnnotationPreferences and will be ignored if
+     * accountNeutralLosses is false.
+     *
+     * @param peptide the peptide of interest
+     * @param ptms the PTMs to score, for instance different phosphorylations
+     * (the PTMs are considered as indistinguishable, i.e. of same mass).
+     * @param spectrum the corresponding spectrum
+     * @param annotationPreferences the global annotation preferences
+     * @param specificAnnotationPreferences the annotation preferences specific
+     * to this peptide and spectrum
+     * @param accountNeutralLosses if false, neutral losses available in the
+     * specific annotation preferences will be ignored
+     * @param sequenceMatchingPreferences the sequence matching preferences for
+     * peptide to protein mapping
+     * @param ptmSequenceMatchingPreferences the sequence matching preferences
+     * for PTM to peptide mapping
+     * @param spectrumAnnotator a spectrum annotator to annotate the spectra
+     * @param spectrumMap the spectra reduced to the most intense peaks indexed
+     * by depth as returned by getReducedSpectra with a depth of MAX_DEPTH, if
+     * null they will be extracted from the spectrum
+     *
+     * @return a map containing the best or two best PTM location(s) and the
+     * corresponding A-score
+     *
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading issue occurred while scoring the PTM
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing an object from the protein tree (the
+     * protein sequence index)
+     * @throws java.sql.SQLException exception thrown whenever an error occurred
+     * while interacting with the protein tree
+     * @throws org.apache.commons.math.MathException exception thrown whenever a
+     * math error occurred while computing the score.
+     */
+    public static HashMap<Integer, Double> getAScore(Peptide peptide, ArrayList<PTM> ptms, MSnSpectrum spectrum, AnnotationSettings annotationPreferences,
+            SpecificAnnotationSettings specificAnnotationPreferences, boolean accountNeutralLosses, SequenceMatchingPreferences sequenceMatchingPreferences,
+            SequenceMatchingPreferences ptmSequenceMatchingPreferences, PeptideSpectrumAnnotator spectrumAnnotator, HashMap<Integer, MSnSpectrum> spectrumMap)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException, MathException {
 
         if (ptms.isEmpty()) {
             throw new IllegalArgumentException("No PTM given for A-score calculation.");
@@ -142,7 +206,9 @@ public class AScore {
         if (possibleSites.size() > nPTM) {
             Collections.sort(possibleSites);
             Peptide noModPeptide = Peptide.getNoModPeptide(peptide, ptms);
-            HashMap<Integer, MSnSpectrum> spectrumMap = getReducedSpectra(spectrum, specificAnnotationPreferences.getFragmentIonAccuracyInDa(spectrum.getMaxMz()), 10);
+            if (spectrumMap == null) {
+                spectrumMap = getReducedSpectra(spectrum, specificAnnotationPreferences.getFragmentIonAccuracyInDa(spectrum.getMaxMz()), MAX_DEPTH);
+            }
 
             HashMap<Integer, HashMap<Integer, Double>> positionToScoreMap = getPositionToScoreMap(peptide, noModPeptide, possibleSites,
                     spectrum, spectrumMap, annotationPreferences, specificAnnotationPreferences, spectrumAnnotator, refPTM);
@@ -588,17 +654,16 @@ public class AScore {
     public static HashMap<Integer, MSnSpectrum> getReducedSpectra(MSnSpectrum baseSpectrum, double mzTolerance, int depthMax) {
 
         HashMap<Integer, MSnSpectrum> result = new HashMap<Integer, MSnSpectrum>();
-        HashMap<Double, Peak> tempMap, peakMap = baseSpectrum.getPeakMap();
-        ArrayList<Double> intensities, mz = new ArrayList<Double>(peakMap.keySet());
-        Collections.sort(mz);
-        double mzMax = mz.get(mz.size() - 1);
+        double[] mz = baseSpectrum.getMzValues();
+        double[] intensity = baseSpectrum.getIntensityValues();
+        double mzMax = mz[mz.length - 1];
         int cpt = 0;
         double currentmzMin = 0;
 
         while (currentmzMin < mzMax) {
             int cptTemp = 0;
-            while (cpt < mz.size()
-                    && mz.get(cpt) < currentmzMin + 20 * mzTolerance) {
+            while (cpt < mz.length
+                    && mz[cpt] < currentmzMin + 20 * mzTolerance) {
                 cptTemp++;
                 cpt++;
             }
@@ -609,35 +674,62 @@ public class AScore {
             currentmzMin += 200 * mzTolerance;
         }
 
+        // the peaks of every reduced spectrum are collected in arrays and set once
+        double[][] reducedMz = new double[depthMax][];
+        double[][] reducedIntensity = new double[depthMax][];
+        int[] nReducedPeaks = new int[depthMax];
         for (int i = 0; i < depthMax; i++) {
-            result.put(i, new MSnSpectrum(2, baseSpectrum.getPrecursor(), baseSpectrum.getSpectrumTitle() + "_" + i, new HashMap<Double, Peak>(), "a score"));
+            reducedMz[i] = new double[16];
+            reducedIntensity[i] = new double[16];
         }
 
         cpt = 0;
         currentmzMin = 0;
 
         while (currentmzMin < mzMax) {
-            intensities = new ArrayList<Double>();
-            tempMap = new HashMap<Double, Peak>();
-
-            while (cpt < mz.size()
-                    && mz.get(cpt) < currentmzMin + 20 * mzTolerance) {
-                Peak tempPeak = peakMap.get(mz.get(cpt));
-                intensities.add(-tempPeak.intensity);
-                tempMap.put(-tempPeak.intensity, tempPeak);
+
+            int windowStart = cpt;
+            while (cpt < mz.length
+                    && mz[cpt] < currentmzMin + 20 * mzTolerance) {
                 cpt++;
             }
+            int windowSize = cpt - windowStart;
+
+            // sort the peaks of the window by decreasing intensity
+            int[] order = new int[windowSize];
+            for (int i = 0; i < windowSize; i++) {
+                order[i] = windowStart + i;
+            }
+            BasicMathFunctions.sortIndexes(order, 0, windowSize - 1, intensity, true);
+
+            for (int i = 0; i < windowSize && i < depthMax; i++) {
 
-            Collections.sort(intensities);
+                // peaks of same intensity are represented by the one of highest m/z
+                int peakIndex = order[i];
+                for (int k = i + 1; k < windowSize && intensity[order[k]] == intensity[peakIndex]; k++) {
+                    peakIndex = order[k];
+                }
 
-            for (int i = 0; i < intensities.size(); i++) {
                 for (int j = i; j < depthMax; j++) {
-                    result.get(j).addPeak(tempMap.get(intensities.get(i)));
+                    if (nReducedPeaks[j] == reducedMz[j].length) {
+                        reducedMz[j] = Arrays.copyOf(reducedMz[j], 2 * nReducedPeaks[j]);
+                        reducedIntensity[j] = Arrays.copyOf(reducedIntensity[j], 2 * nReducedPeaks[j]);
+                    }
+                    reducedMz[j][nReducedPeaks[j]] = mz[peakIndex];
+                    reducedIntensity[j][nReducedPeaks[j]] = intensity[peakIndex];
+                    nReducedPeaks[j]++;
                 }
             }
 
             currentmzMin += 200 * mzTolerance;
         }
+
+        for (int i = 0; i < depthMax; i++) {
+            MSnSpectrum reducedSpectrum = new MSnSpectrum(2, baseSpectrum.getPrecursor(), baseSpectrum.getSpectrumTitle() + "_" + i, new HashMap<Double, Peak>(), "a score");
+            reducedSpectrum.setPeakList(Arrays.copyOf(reducedMz[i], nReducedPeaks[i]), Arrays.copyOf(reducedIntensity[i], nReducedPeaks[i]));
+            result.put(i, reducedSpectrum);
+        }
+
         return result;
     }
 }
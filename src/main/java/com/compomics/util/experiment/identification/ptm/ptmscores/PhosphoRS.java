@@ -1,6 +1,7 @@
 package com.compomics.util.experiment.identification.ptm.ptmscores;
 
 import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.FragmentIonsPlan;
 import com.compomics.util.experiment.biology.Ion;
 import com.compomics.util.experiment.biology.IonFactory;
 import com.compomics.util.experiment.biology.NeutralLoss;
@@ -9,6 +10,7 @@ import com.compomics.util.experiment.biology.Peptide;
 import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
@@ -25,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.util.FastMath;
 
@@ -57,9 +60,10 @@ public class PhosphoRS {
      */
     private static int distributionCacheSize = 1000;
     /**
-     * The binomial distributions cache.
+     * The binomial distributions cache. Read without lock by the threads
+     * scoring concurrently, modified in addDistributionToCache only.
      */
-    private static HashMap<Double, HashMap<Integer, BinomialDistribution>> distributionCache = new HashMap<Double, HashMap<Integer, BinomialDistribution>>();
+    private static ConcurrentHashMap<Double, ConcurrentHashMap<Integer, BinomialDistribution>> distributionCache = new ConcurrentHashMap<Double, ConcurrentHashMap<Integer, BinomialDistribution>>();
 
     /**
      * Returns the PhosphoRS sequence probabilities for the PTM possible
@@ -202,7 +206,7 @@ public class PhosphoRS {
             HashMap<String, HashMap<Integer, HashMap<Integer, ArrayList<Ion>>>> profileToPossibleFragments = getPossiblePeptideFragments(profileToPeptide, scoringAnnotationSetttings);
             HashMap<String, Integer> profileToN = getPossiblePeptideToN(profileToPeptide, profileToPossibleFragments, spectrumAnnotator, scoringAnnotationSetttings);
 
-            HashMap<Double, ArrayList<String>> siteDeterminingIonsMap = getSiteDeterminingIons(noModPeptide, possibleProfiles, ptms, spectrumAnnotator, scoringAnnotationSetttings);
+            HashMap<Double, ArrayList<String>> siteDeterminingIonsMap = getSiteDeterminingIons(noModPeptide, possibleProfiles, ptms, scoringAnnotationSetttings);
             ArrayList<Double> siteDeterminingIons = new ArrayList<Double>(siteDeterminingIonsMap.keySet());
 
             double minMz = spectrum.getMinMz(), maxMz = spectrum.getMaxMz(), tempMax;
@@ -326,7 +330,7 @@ public class PhosphoRS {
                             bestI = MAX_DEPTH - 1;
                         }
 
-                        reducedSpectrum.putAll(spectra.get(bestI).getPeakMap());
+                        addPeaks(reducedSpectrum, spectra.get(bestI));
 
                     } else {
 
@@ -339,7 +343,7 @@ public class PhosphoRS {
                             nExpectedFragmentIons += expectedIons.size();
                         }
                         IonFactory fragmentFactory = IonFactory.getInstance();
-                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentFactory.getFragmentIons(peptide, scoringAnnotationSetttings);
+                        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentFactory.getFragmentIonsPlan(peptide, scoringAnnotationSetttings).getFragmentIons();
                         for (int i = 0; i < spectra.size(); i++) {
                             MSnSpectrum currentSpectrum = spectra.get(i);
                             double currentP = getp(currentSpectrum, WINDOW_SIZE, d, nDecimals);
@@ -351,7 +355,7 @@ public class PhosphoRS {
                             }
                         }
 
-                        reducedSpectrum.putAll(spectra.get(bestI).getPeakMap());
+                        addPeaks(reducedSpectrum, spectra.get(bestI));
                     }
                 }
 
@@ -449,7 +453,7 @@ public class PhosphoRS {
             AnnotationSettings annotationSettings, SpecificAnnotationSettings scoringAnnotationSettings) throws MathException, InterruptedException {
 
         BinomialDistribution distribution = null;
-        HashMap<Integer, BinomialDistribution> distributionsAtP = distributionCache.get(p);
+        ConcurrentHashMap<Integer, BinomialDistribution> distributionsAtP = distributionCache.get(p);
         boolean inCache = true;
         if (distributionsAtP != null) {
             distribution = distributionsAtP.get(n);
@@ -493,9 +497,9 @@ public class PhosphoRS {
                 }
             }
         }
-        HashMap<Integer, BinomialDistribution> distributionsAtP = distributionCache.get(p);
+        ConcurrentHashMap<Integer, BinomialDistribution> distributionsAtP = distributionCache.get(p);
         if (distributionsAtP == null) {
-            distributionsAtP = new HashMap<Integer, BinomialDistribution>(2);
+            distributionsAtP = new ConcurrentHashMap<Integer, BinomialDistribution>(2);
             distributionCache.put(p, distributionsAtP);
         }
         distributionsAtP.put(n, binomialDistribution);
@@ -517,7 +521,7 @@ public class PhosphoRS {
         if (w == 0.0) {
             return 1.0;
         }
-        int N = spectrum.getPeakMap().size();
+        int N = spectrum.getNPeaks();
         if (N <= 1) {
             return 1.0;
         }
@@ -610,7 +614,7 @@ public class PhosphoRS {
         IonFactory fragmentFactory = IonFactory.getInstance();
         for (String profileKey : possiblePeptides.keySet()) {
             Peptide peptide = possiblePeptides.get(profileKey);
-            HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentFactory.getFragmentIons(peptide, scoringAnnotationSetttings);
+            HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentFactory.getFragmentIonsPlan(peptide, scoringAnnotationSetttings).getFragmentIons();
             result.put(profileKey, possibleFragmentIons);
         }
         return result;
@@ -657,21 +661,25 @@ public class PhosphoRS {
 
     /**
      * Returns a map of all potential site determining ions indexed by their
-     * m/z.
+     * m/z. The m/z of the ions are taken from the fragment ions plans cached
+     * in the IonFactory, they are hence computed only once per peptide.
      *
      * @param noModPeptide the version of the peptide which does not contain the
      * modification of interest
      * @param possibleProfiles the possible modification profiles to inspect
      * @param ptms the PTMs scored
-     * @param spectrumAnnotator the spectrum annotator used throughout the
-     * scoring
      * @param scoringAnnotationSetttings the annotation settings specific to
      * this peptide and spectrum
      *
      * @return a map of all potential site determining ions indexed by their m/z
      */
-    private static HashMap<Double, ArrayList<String>> getSiteDeterminingIons(Peptide noModPeptide, ArrayList<ArrayList<Integer>> possibleProfiles, ArrayList<PTM> ptms, PeptideSpectrumAnnotator spectrumAnnotator, SpecificAnnotationSettings scoringAnnotationSetttings) {
+    private static HashMap<Double, ArrayList<String>> getSiteDeterminingIons(Peptide noModPeptide, ArrayList<ArrayList<Integer>> possibleProfiles, ArrayList<PTM> ptms, SpecificAnnotationSettings scoringAnnotationSetttings) {
 
+        IonFactory fragmentFactory = IonFactory.getInstance();
+        HashSet<Integer> selectedSubTypes = scoringAnnotationSetttings.getIonTypes().get(Ion.IonType.PEPTIDE_FRAGMENT_ION);
+        NeutralLossesMap neutralLossesMap = scoringAnnotationSetttings.getNeutralLossesMap();
+        ArrayList<Integer> selectedCharges = scoringAnnotationSetttings.getSelectedCharges();
+        int precursorCharge = scoringAnnotationSetttings.getPrecursorCharge();
         String sequence = noModPeptide.getSequence();
         Peptide peptide = new Peptide(sequence, noModPeptide.getModificationMatches());
         int sequenceLength = sequence.length();
@@ -696,12 +704,25 @@ public class PhosphoRS {
 
             HashSet<Double> mzs = new HashSet<Double>(2);
 
-            for (ArrayList<Ion> ions : spectrumAnnotator.getExpectedIons(scoringAnnotationSetttings, peptide).values()) {
-                for (Ion ion : ions) {
-                    if (ion.getType() == Ion.IonType.PEPTIDE_FRAGMENT_ION) {
-                        for (int charge : scoringAnnotationSetttings.getSelectedCharges()) {
-                            double mz = ion.getTheoreticMz(charge);
-                            mzs.add(mz);
+            if (selectedSubTypes != null) {
+                FragmentIonsPlan fragmentIonsPlan = fragmentFactory.getFragmentIonsPlan(peptide, scoringAnnotationSetttings);
+                for (int i = 0; i < fragmentIonsPlan.size(); i++) {
+                    if (fragmentIonsPlan.getType(i) == Ion.IonType.PEPTIDE_FRAGMENT_ION.index
+                            && selectedSubTypes.contains(fragmentIonsPlan.getSubType(i))) {
+                        Ion ion = fragmentIonsPlan.getIon(i);
+                        if (SpectrumAnnotator.lossesValidated(neutralLossesMap, ion)) {
+                            boolean expected = false;
+                            for (int charge : selectedCharges) {
+                                if (SpectrumAnnotator.chargeValidated(ion, charge, precursorCharge)) {
+                                    expected = true;
+                                    break;
+                                }
+                            }
+                            if (expected) {
+                                for (int charge : selectedCharges) {
+                                    mzs.add(fragmentIonsPlan.getMz(i, charge));
+                                }
+                            }
                         }
                     }
                 }
@@ -752,7 +773,7 @@ public class PhosphoRS {
         }
 
         ArrayList<MSnSpectrum> reducedSpectra = new ArrayList<MSnSpectrum>(MAX_DEPTH);
-        HashMap<Double, ArrayList<Peak>> intensityToPeakMap = new HashMap<Double, ArrayList<Peak>>(spectrum.getPeakMap().size());
+        HashMap<Double, ArrayList<Peak>> intensityToPeakMap = new HashMap<Double, ArrayList<Peak>>(spectrum.getNPeaks());
 
         for (Peak peak : spectrum.getPeakList()) {
             double intensity = peak.intensity;
@@ -821,12 +842,14 @@ public class PhosphoRS {
             throw new IllegalArgumentException("All peaks removed by filtering.");
         }
 
-        HashMap<Double, Peak> peakMap = spectrum.getPeakMap(),
-                newMap = new HashMap<Double, Peak>(peakMap.size()),
+        double[] mzValues = spectrum.getMzValues();
+        double[] intensityValues = spectrum.getIntensityValues();
+        HashMap<Double, Peak> newMap = new HashMap<Double, Peak>(mzValues.length),
                 tempMap = new HashMap<Double, Peak>();
         Double refMz = null;
 
-        for (Double mz : spectrum.getOrderedMzValues()) {
+        for (int peakIndex = 0; peakIndex < mzValues.length; peakIndex++) {
+            double mz = mzValues[peakIndex];
             if (refMz == null) {
                 refMz = mz;
             } else if (mz > refMz + window) {
@@ -845,7 +868,7 @@ public class PhosphoRS {
                 }
                 refMz += window;
             }
-            Peak peak = peakMap.get(mz);
+            Peak peak = new Peak(mz, intensityValues[peakIndex]);
             tempMap.put(peak.intensity, peak);
         }
 
@@ -860,4 +883,18 @@ public class PhosphoRS {
 
         return new MSnSpectrum(spectrum.getLevel(), spectrum.getPrecursor(), spectrum.getSpectrumTitle() + "_filtered", newMap, spectrum.getFileName());
     }
+
+    /**
+     * Adds the peaks of a spectrum to a peak map.
+     *
+     * @param peakMap the peak map
+     * @param spectrum the spectrum
+     */
+    private static void addPeaks(HashMap<Double, Peak> peakMap, MSnSpectrum spectrum) {
+        double[] mzValues = spectrum.getMzValues();
+        double[] intensityValues = spectrum.getIntensityValues();
+        for (int i = 0; i < mzValues.length; i++) {
+            peakMap.put(mzValues[i], new Peak(mzValues[i], intensityValues[i]));
+        }
+    }
 }
@@ -252,7 +252,7 @@ public abstract class SpectrumAnnotator {
 
             // Create new index
             //if (spectrumIndex == null || spectrumIndex.intensityLimit != intensityLimit) { // @TODO: see if this if can/should be readded? results in the accuracy slider not updating the plot though
-                spectrumIndex = new SpectrumIndex(spectrum.getPeakMap(), intensityLimit, mzTolerance, isPpm);
+                spectrumIndex = new SpectrumIndex(spectrum.getMzValues(), spectrum.getIntensityValues(), intensityLimit, mzTolerance, isPpm);
                 spectrum.addUrParam(spectrumIndex);
             //}
         }
@@ -289,7 +289,7 @@ public abstract class SpectrumAnnotator {
      *
      * @return boolean indicating whether the neutral loss should be considered
      */
-    public boolean isAccounted(NeutralLossesMap neutralLosses, NeutralLoss neutralLoss, Ion ion) {
+    public static boolean isAccounted(NeutralLossesMap neutralLosses, NeutralLoss neutralLoss, Ion ion) {
 
         if (neutralLosses == null || neutralLosses.isEmpty()) {
             return false;
@@ -347,7 +347,7 @@ public abstract class SpectrumAnnotator {
      * @return a boolean indicating whether the neutral losses of the given
      * fragment ion are fit the requirement of the given neutral losses map
      */
-    public boolean lossesValidated(NeutralLossesMap neutralLosses, Ion theoreticIon) {
+    public static boolean lossesValidated(NeutralLossesMap neutralLosses, Ion theoreticIon) {
         if (theoreticIon.hasNeutralLosses()) {
             for (NeutralLoss neutralLoss : theoreticIon.getNeutralLosses()) {
                 if (!isAccounted(neutralLosses, neutralLoss, theoreticIon)) {
@@ -369,7 +369,7 @@ public abstract class SpectrumAnnotator {
      * @return a boolean indicating whether the given charge can be found on the
      * given fragment ion
      */
-    public boolean chargeValidated(Ion theoreticIon, int charge, int precursorCharge) {
+    public static boolean chargeValidated(Ion theoreticIon, int charge, int precursorCharge) {
         if (charge == 1) {
             return true;
         }
@@ -728,13 +728,14 @@ public abstract class SpectrumAnnotator {
     public static ArrayList<IonMatch> matchReporterIon(Ion theoreticIon, int charge, Spectrum spectrum, double massTolerance) throws InterruptedException {
         ArrayList<IonMatch> result = new ArrayList<IonMatch>(1);
         double targetMass = theoreticIon.getTheoreticMz(charge);
-        for (double mz : spectrum.getOrderedMzValues()) {
-            if (Math.abs(mz - targetMass) <= massTolerance) {
-                result.add(new IonMatch(spectrum.getPeakMap().get(mz), theoreticIon, charge));
-            }
+        double[] mzArray = spectrum.getMzValues();
+        double[] intensityArray = spectrum.getIntensityValues();
+        for (int i = spectrum.getFirstPeakIndexAbove(targetMass - massTolerance); i < mzArray.length; i++) {
+            double mz = mzArray[i];
             if (mz > targetMass + massTolerance) {
                 break;
             }
+            result.add(new IonMatch(new Peak(mz, intensityArray[i]), theoreticIon, charge));
         }
         return result;
     }
@@ -11,7 +11,6 @@ import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.SimplePeptideAnnotator.IonSeries;
-import com.compomics.util.experiment.massspectrometry.Peak;
 import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
 import java.util.ArrayList;
 
@@ -142,36 +141,51 @@ public class FragmentAnnotator {
      * @return the ions matched in the given spectrum at the given charge
      */
     public ArrayList<IonMatch> getIonMatches(SpectrumIndex spectrumIndex, int peptideCharge) {
+        return getIonMatches(spectrumIndex, peptideCharge, new int[spectrumIndex.getMaxMatches()]);
+    }
+
+    /**
+     * Returns the ions matched in the given spectrum at the given charge using
+     * the given buffer for the peak lookup. The buffer should be at least of
+     * the size returned by spectrumIndex.getMaxMatches().
+     *
+     * @param spectrumIndex the index of the spectrum
+     * @param peptideCharge the charge of the peptide
+     * @param buffer the buffer to use for the peak lookup
+     *
+     * @return the ions matched in the given spectrum at the given charge
+     */
+    public ArrayList<IonMatch> getIonMatches(SpectrumIndex spectrumIndex, int peptideCharge, int[] buffer) {
 
         ArrayList<IonMatch> results = new ArrayList<IonMatch>(0);
 
         for (int i = 0; i < peptideLength; i++) {
 
             double ionMz = forwardIonMz1[i];
-            ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(ionMz);
+            int nPeaks = spectrumIndex.getMatchingPeaks(ionMz, buffer);
 
-            if (!peaks.isEmpty()) {
+            if (nPeaks > 0) {
 
                 int ionNumber = i + 1;
                 double ionMass = ionMz - ElementaryIon.proton.getTheoreticMass();
 
-                for (Peak peak : peaks) {
+                for (int j = 0; j < nPeaks; j++) {
                     Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, null);
-                    results.add(new IonMatch(peak, ion, 1));
+                    results.add(new IonMatch(spectrumIndex.getPeak(buffer[j]), ion, 1));
                 }
             }
 
             ionMz = complementaryIonMz1[i];
-            peaks = spectrumIndex.getMatchingPeaks(ionMz);
+            nPeaks = spectrumIndex.getMatchingPeaks(ionMz, buffer);
 
-            if (!peaks.isEmpty()) {
+            if (nPeaks > 0) {
 
                 double ionMass = ionMz - ElementaryIon.proton.getTheoreticMass();
                 int ionNumber = peptideLength - i - 1;
 
-                for (Peak peak : peaks) {
+                for (int j = 0; j < nPeaks; j++) {
                     Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, null);
-                    results.add(new IonMatch(peak, ion, 1));
+                    results.add(new IonMatch(spectrumIndex.getPeak(buffer[j]), ion, 1));
                 }
             }
         }
@@ -185,31 +199,31 @@ public class FragmentAnnotator {
 
                 double ionMz1 = forwardIonMz1[i];
                 double ionMz = (ionMz1 + protonContribution) / ionCharge;
-                ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(ionMz);
+                int nPeaks = spectrumIndex.getMatchingPeaks(ionMz, buffer);
 
-                if (!peaks.isEmpty()) {
+                if (nPeaks > 0) {
 
                     int ionNumber = i + 1;
                     double ionMass = ionMz1 - ElementaryIon.proton.getTheoreticMass();
 
-                    for (Peak peak : peaks) {
+                    for (int j = 0; j < nPeaks; j++) {
                         Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, null);
-                        results.add(new IonMatch(peak, ion, ionCharge));
+                        results.add(new IonMatch(spectrumIndex.getPeak(buffer[j]), ion, ionCharge));
                     }
                 }
 
                 ionMz1 = complementaryIonMz1[i];
                 ionMz = (ionMz1 + protonContribution) / ionCharge;
-                peaks = spectrumIndex.getMatchingPeaks(ionMz);
+                nPeaks = spectrumIndex.getMatchingPeaks(ionMz, buffer);
 
-                if (!peaks.isEmpty()) {
+                if (nPeaks > 0) {
 
                     double ionMass = ionMz1 - ElementaryIon.proton.getTheoreticMass();
                     int ionNumber = peptideLength - i - 1;
 
-                    for (Peak peak : peaks) {
+                    for (int j = 0; j < nPeaks; j++) {
                         Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, null);
-                        results.add(new IonMatch(peak, ion, ionCharge));
+                        results.add(new IonMatch(spectrumIndex.getPeak(buffer[j]), ion, ionCharge));
                     }
                 }
             }
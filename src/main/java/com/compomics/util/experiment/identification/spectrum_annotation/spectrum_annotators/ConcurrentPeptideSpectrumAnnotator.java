@@ -0,0 +1,260 @@
+package com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators;
+
+import com.compomics.util.experiment.biology.FragmentIonsPlan;
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.IonFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator.TiesResolution;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import org.apache.commons.math.MathException;
+
+/**
+ * Annotates a spectrum with peptide fragments like the
+ * PeptideSpectrumAnnotator but without internal state: the fragment ions to
+ * look for are taken from the fragment ions plans of the IonFactory and the
+ * spectrum is indexed in an immutable spectrum context, both of which can be
+ * shared between threads. One instance can hence be used by multiple threads
+ * concurrently. The spectrum context of a spectrum is built once using
+ * getSpectrumContext and then reused for all the peptides to annotate. Note
+ * that the mass shifts of the PeptideSpectrumAnnotator are not supported.
+ *
+ * @author Marc Vaudel
+ */
+public class ConcurrentPeptideSpectrumAnnotator {
+
+    /**
+     * The factory generating the fragment ions.
+     */
+    private final IonFactory fragmentFactory = IonFactory.getInstance();
+
+    /**
+     * Constructor.
+     */
+    public ConcurrentPeptideSpectrumAnnotator() {
+
+    }
+
+    /**
+     * Returns the spectrum context to use to annotate the given spectrum.
+     *
+     * @param annotationSettings the annotation settings
+     * @param specificAnnotationSettings the specific annotation settings
+     * @param spectrum the spectrum to annotate
+     * @param useIntensityFilter boolean indicating whether intensity filters
+     * should be used
+     *
+     * @return the spectrum context to use to annotate the given spectrum
+     *
+     * @throws java.lang.InterruptedException exception thrown if a threading
+     * error occurred when estimating the noise level
+     * @throws org.apache.commons.math.MathException exception thrown if a math
+     * exception occurred when estimating the noise level
+     */
+    public SpectrumContext getSpectrumContext(AnnotationSettings annotationSettings, SpecificAnnotationSettings specificAnnotationSettings,
+            MSnSpectrum spectrum, boolean useIntensityFilter) throws InterruptedException, MathException {
+        double intensityLimit = useIntensityFilter ? spectrum.getIntensityLimit(annotationSettings.getIntensityThresholdType(), annotationSettings.getAnnotationIntensityLimit()) : 0.0;
+        SpectrumIndex spectrumIndex = new SpectrumIndex(spectrum.getMzValues(), spectrum.getIntensityValues(), intensityLimit, specificAnnotationSettings.getFragmentIonAccuracy(), specificAnnotationSettings.isFragmentIonPpm());
+        return new SpectrumContext(spectrumIndex, specificAnnotationSettings.isFragmentIonPpm(), annotationSettings.getTiesResolution());
+    }
+
+    /**
+     * Returns the spectrum annotations of a spectrum in a list of IonMatches.
+     *
+     * Note that, except for +1 precursors, fragments ions will be expected to
+     * have a charge strictly smaller than the precursor ion charge.
+     *
+     * @param spectrumContext the spectrum context of the spectrum to match,
+     * see getSpectrumContext
+     * @param specificAnnotationSettings the specific annotation settings
+     * @param peptide the peptide of interest
+     *
+     * @return an ArrayList of IonMatch containing the ion matches with the
+     * given settings
+     */
+    public ArrayList<IonMatch> getSpectrumAnnotation(SpectrumContext spectrumContext, SpecificAnnotationSettings specificAnnotationSettings, Peptide peptide) {
+        FragmentIonsPlan fragmentIonsPlan = fragmentFactory.getFragmentIonsPlan(peptide, specificAnnotationSettings);
+        return getSpectrumAnnotation(spectrumContext, specificAnnotationSettings, fragmentIonsPlan);
+    }
+
+    /**
+     * Returns the matches of the ions of the given fragment ions plan in the
+     * spectrum of the given context.
+     *
+     * Note that, except for +1 precursors, fragments ions will be expected to
+     * have a charge strictly smaller than the precursor ion charge.
+     *
+     * @param spectrumContext the spectrum context of the spectrum to match,
+     * see getSpectrumContext
+     * @param specificAnnotationSettings the specific annotation settings
+     * @param fragmentIonsPlan the fragment ions plan of the peptide
+     *
+     * @return an ArrayList of IonMatch containing the ion matches
+     */
+    public ArrayList<IonMatch> getSpectrumAnnotation(SpectrumContext spectrumContext, SpecificAnnotationSettings specificAnnotationSettings, FragmentIonsPlan fragmentIonsPlan) {
+
+        SpectrumIndex spectrumIndex = spectrumContext.spectrumIndex;
+        ArrayList<IonMatch> result = new ArrayList<IonMatch>();
+        if (spectrumIndex.getNPeaks() == 0) {
+            return result;
+        }
+
+        int precursorCharge = specificAnnotationSettings.getPrecursorCharge();
+        NeutralLossesMap neutralLossesMap = specificAnnotationSettings.getNeutralLossesMap();
+        ArrayList<Integer> precursorCharges = new ArrayList<Integer>(precursorCharge);
+        for (int i = 1; i <= precursorCharge; i++) {
+            precursorCharges.add(i);
+        }
+
+        int[] buffer = new int[spectrumIndex.getMaxMatches()];
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> possibleFragmentIons = fragmentIonsPlan.getFragmentIons();
+        HashMap<Ion.IonType, HashSet<Integer>> ionTypes = specificAnnotationSettings.getIonTypes();
+        for (Ion.IonType ionType : ionTypes.keySet()) {
+            HashMap<Integer, ArrayList<Ion>> ionMap = possibleFragmentIons.get(ionType.index);
+            if (ionMap != null) {
+                ArrayList<Integer> ionPossibleCharges = (ionType == Ion.IonType.PRECURSOR_ION) ? precursorCharges : specificAnnotationSettings.getSelectedCharges();
+                for (int subType : ionTypes.get(ionType)) {
+                    ArrayList<Ion> subTypeIons = ionMap.get(subType);
+                    if (subTypeIons != null) {
+                        for (Ion ion : subTypeIons) {
+                            if (SpectrumAnnotator.lossesValidated(neutralLossesMap, ion)) {
+                                for (int charge : ionPossibleCharges) {
+                                    if (SpectrumAnnotator.chargeValidated(ion, charge, precursorCharge)) {
+                                        double fragmentMz = ion.getTheoreticMz(charge);
+                                        int nMatches = spectrumIndex.getMatchingPeaks(fragmentMz, buffer);
+                                        if (nMatches > 0) {
+                                            int bestIndex = nMatches == 1 ? buffer[0] : getBestPeak(spectrumContext, fragmentMz, buffer, nMatches);
+                                            result.add(new IonMatch(spectrumIndex.getPeak(bestIndex), ion, charge));
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the index of the peak to retain of the matched peaks according
+     * to the ties resolution setting.
+     *
+     * @param spectrumContext the spectrum context
+     * @param fragmentMz the theoretic m/z of the fragment
+     * @param buffer the buffer containing the indexes of the matched peaks
+     * @param nMatches the number of matched peaks
+     *
+     * @return the index of the peak to retain
+     */
+    private int getBestPeak(SpectrumContext spectrumContext, double fragmentMz, int[] buffer, int nMatches) {
+
+        SpectrumIndex spectrumIndex = spectrumContext.spectrumIndex;
+        int bestIndex = buffer[0];
+        double bestError = getError(spectrumIndex.getMz(bestIndex), fragmentMz, spectrumContext.isPpm);
+
+        switch (spectrumContext.tiesResolution) {
+            case mostAccurateMz:
+                for (int i = 1; i < nMatches; i++) {
+                    int index = buffer[i];
+                    double error = getError(spectrumIndex.getMz(index), fragmentMz, spectrumContext.isPpm);
+                    if (error < bestError
+                            || error == bestError && spectrumIndex.getIntensity(index) > spectrumIndex.getIntensity(bestIndex)) {
+                        bestIndex = index;
+                        bestError = error;
+                    }
+                }
+                return bestIndex;
+            case mostIntense:
+                for (int i = 1; i < nMatches; i++) {
+                    int index = buffer[i];
+                    double intensity = spectrumIndex.getIntensity(index);
+                    double bestIntensity = spectrumIndex.getIntensity(bestIndex);
+                    if (intensity > bestIntensity) {
+                        bestIndex = index;
+                        bestError = getError(spectrumIndex.getMz(index), fragmentMz, spectrumContext.isPpm);
+                    } else if (intensity == bestIntensity) {
+                        double error = getError(spectrumIndex.getMz(index), fragmentMz, spectrumContext.isPpm);
+                        if (error < bestError) {
+                            bestIndex = index;
+                            bestError = error;
+                        }
+                    }
+                }
+                return bestIndex;
+            default:
+                throw new UnsupportedOperationException("Ties resolution method " + spectrumContext.tiesResolution + " not implemented.");
+        }
+    }
+
+    /**
+     * Returns the absolute matching error as computed by the IonMatch.
+     *
+     * @param peakMz the m/z of the peak
+     * @param fragmentMz the theoretic m/z of the fragment
+     * @param isPpm a boolean indicating whether the error should be in ppm
+     *
+     * @return the absolute matching error
+     */
+    private static double getError(double peakMz, double fragmentMz, boolean isPpm) {
+        if (isPpm) {
+            return Math.abs(((peakMz - fragmentMz) * 1000000) / fragmentMz);
+        } else {
+            return Math.abs(peakMz - fragmentMz);
+        }
+    }
+
+    /**
+     * The indexed peaks of a spectrum and the settings used to match them.
+     * The context is immutable and can be shared between threads.
+     */
+    public static class SpectrumContext {
+
+        /**
+         * The index of the spectrum peaks.
+         */
+        private final SpectrumIndex spectrumIndex;
+        /**
+         * Boolean indicating whether the fragment ion accuracy is in ppm.
+         */
+        private final boolean isPpm;
+        /**
+         * The method used to resolve ties.
+         */
+        private final TiesResolution tiesResolution;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumIndex the index of the spectrum peaks, built with
+         * the fragment ion accuracy
+         * @param isPpm boolean indicating whether the fragment ion accuracy
+         * is in ppm
+         * @param tiesResolution the method used to resolve ties
+         */
+        public SpectrumContext(SpectrumIndex spectrumIndex, boolean isPpm, TiesResolution tiesResolution) {
+            this.spectrumIndex = spectrumIndex;
+            this.isPpm = isPpm;
+            this.tiesResolution = tiesResolution;
+        }
+
+        /**
+         * Returns the index of the spectrum peaks.
+         *
+         * @return the index of the spectrum peaks
+         */
+        public SpectrumIndex getSpectrumIndex() {
+            return spectrumIndex;
+        }
+    }
+}
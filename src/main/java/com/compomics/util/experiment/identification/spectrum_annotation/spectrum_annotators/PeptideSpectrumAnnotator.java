@@ -26,7 +26,8 @@ import org.apache.commons.math.MathException;
 
 /**
  * Annotates a spectrum with peptide fragments. Warning: use one iterator per
- * thread.
+ * thread, or the ConcurrentPeptideSpectrumAnnotator which can be shared
+ * between threads.
  *
  * @author Marc Vaudel
  */
@@ -36,6 +37,15 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
      * The theoretic peptide to match.
      */
     private Peptide peptide;
+    /**
+     * The settings used to select the theoretic fragment ions.
+     */
+    private SpecificAnnotationSettings fragmentIonsSettings;
+    /**
+     * Boolean indicating whether the theoretic fragment ions are shared with
+     * the cache of the fragment factory.
+     */
+    private boolean sharedFragmentIons = false;
 
     /**
      * Constructor.
@@ -77,10 +87,13 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
             // Set new values
             this.peptide = peptide;
             this.precursorCharge = precursorCharge;
+            fragmentIonsSettings = specificAnnotationSettings;
             if (possibleFragmentIons == null) {
-                theoreticalFragmentIons = fragmentFactory.getFragmentIons(peptide, specificAnnotationSettings);
+                theoreticalFragmentIons = fragmentFactory.getFragmentIonsPlan(peptide, specificAnnotationSettings).getFragmentIons();
+                sharedFragmentIons = true;
             } else {
                 theoreticalFragmentIons = possibleFragmentIons;
+                sharedFragmentIons = false;
             }
             if (massShift != 0 || massShiftNTerm != 0 || massShiftCTerm != 0) {
                 updateMassShifts();
@@ -88,6 +101,16 @@ public class PeptideSpectrumAnnotator extends SpectrumAnnotator {
         }
     }
 
+    @Override
+    protected void updateMassShifts() {
+        if (sharedFragmentIons) {
+            // the mass shifts cannot be applied to the cached ions
+            theoreticalFragmentIons = fragmentFactory.getFragmentIons(peptide, fragmentIonsSettings);
+            sharedFragmentIons = false;
+        }
+        super.updateMassShifts();
+    }
+
     /**
      * This method matches the potential fragment ions of a given peptide with a
      * given peak according to the annotation settings.
@@ -254,20 +254,21 @@ public class SimplePeptideAnnotator {
     public ArrayList<IonMatch> getIonMatches(SpectrumIndex spectrumIndex, int peptideCharge, int precursorIsotopeMax) {
         
         ArrayList<IonMatch> result = new ArrayList<IonMatch>(0);
+        int[] buffer = new int[spectrumIndex.getMaxMatches()];
         if (axFragmentAnnotator != null) {
-            result.addAll(axFragmentAnnotator.getIonMatches(spectrumIndex, peptideCharge));
+            result.addAll(axFragmentAnnotator.getIonMatches(spectrumIndex, peptideCharge, buffer));
         }
         if (axFragmentAnnotatorNL != null) {
             result.addAll(axFragmentAnnotatorNL.getIonMatches(spectrumIndex, peptideCharge));
         }
         if (byFragmentAnnotator != null) {
-            result.addAll(byFragmentAnnotator.getIonMatches(spectrumIndex, peptideCharge));
+            result.addAll(byFragmentAnnotator.getIonMatches(spectrumIndex, peptideCharge, buffer));
         }
         if (byFragmentAnnotatorNL != null) {
             result.addAll(byFragmentAnnotatorNL.getIonMatches(spectrumIndex, peptideCharge));
         }
         if (czFragmentAnnotator != null) {
-            result.addAll(czFragmentAnnotator.getIonMatches(spectrumIndex, peptideCharge));
+            result.addAll(czFragmentAnnotator.getIonMatches(spectrumIndex, peptideCharge, buffer));
         }
         if (czFragmentAnnotatorNL != null) {
             result.addAll(czFragmentAnnotatorNL.getIonMatches(spectrumIndex, peptideCharge));
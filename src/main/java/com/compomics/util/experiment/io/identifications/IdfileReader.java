@@ -96,6 +96,41 @@ public interface IdfileReader {
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException, XmlPullParserException;
 
+    /**
+     * Parses the identifications from an identification file and passes the
+     * spectrum matches to the given consumer in batches while parsing, so that
+     * the spectrum matches of the file do not need to be held in memory at
+     * once. The hits of a spectrum found in different parts of the file can
+     * be passed in different spectrum matches with the same key, it is up to
+     * the consumer to merge them, as done when adding the matches to an
+     * identification. It is very important to close the file reader after
+     * creation. Secondary peptide and tag maps are filled according to the
+     * file content and the sequence matching preferences. If the sequence
+     * matching preferences are null, the maps are not filled.
+     *
+     * @param waitingHandler a waiting handler displaying the progress (can be
+     * null). The secondary progress methods will be called.
+     * @param searchParameters the search parameters
+     * @param sequenceMatchingPreferences the sequence matching preferences to
+     * use for the creation of the secondary maps
+     * @param expandAaCombinations if true, a peptide assumption (not
+     * implemented for tag assumptions) will be created for all possible amino
+     * acid combination for peptide sequences containing an ambiguity like an X
+     * @param consumer the consumer of the spectrum matches
+     * @param batchSize the number of spectrum matches to pass to the consumer
+     * at once
+     *
+     * @throws IOException if an IOException occurs
+     * @throws IllegalArgumentException if an IllegalArgumentException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if an\ ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     * @throws JAXBException if a JAXBException occurs
+     * @throws XmlPullParserException if an XmlPullParserException occurs
+     */
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters, SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations, SpectrumMatchesConsumer consumer, int batchSize)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException;
+
     /**
      * Returns a boolean indicating whether the file contains de novo results as tags.
      * 
@@ -0,0 +1,153 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+/**
+ * Buffer used by the identification file readers to pass the spectrum matches
+ * to a consumer in batches while parsing.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchesBuffer {
+
+    /**
+     * The default number of spectrum matches per batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    /**
+     * The consumer of the spectrum matches.
+     */
+    private final SpectrumMatchesConsumer consumer;
+    /**
+     * The number of spectrum matches per batch.
+     */
+    private final int batchSize;
+    /**
+     * The spectrum matches not yet passed to the consumer.
+     */
+    private ArrayList<SpectrumMatch> batch;
+    /**
+     * The number of spectrum matches passed to the consumer.
+     */
+    private int nConsumed = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param consumer the consumer of the spectrum matches
+     * @param batchSize the number of spectrum matches per batch
+     */
+    public SpectrumMatchesBuffer(SpectrumMatchesConsumer consumer, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive.");
+        }
+        this.consumer = consumer;
+        this.batchSize = batchSize;
+        batch = new ArrayList<SpectrumMatch>(batchSize);
+    }
+
+    /**
+     * Adds a spectrum match to the buffer. The batch is passed to the consumer
+     * when full.
+     *
+     * @param spectrumMatch the spectrum match
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    public void add(SpectrumMatch spectrumMatch) throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        batch.add(spectrumMatch);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Passes the spectrum matches in the buffer to the consumer. Needs to be
+     * called when the parsing is complete.
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    public void flush() throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+        if (!batch.isEmpty()) {
+            ArrayList<SpectrumMatch> toConsume = batch;
+            batch = new ArrayList<SpectrumMatch>(batchSize);
+            nConsumed += toConsume.size();
+            consumer.consume(toConsume);
+        }
+    }
+
+    /**
+     * Returns the number of spectrum matches passed to the consumer.
+     *
+     * @return the number of spectrum matches passed to the consumer
+     */
+    public int getNConsumed() {
+        return nConsumed;
+    }
+
+    /**
+     * Consumer gathering all spectrum matches in a list. Used to implement the
+     * methods returning all matches at once. Spectrum matches having the key
+     * of a match already collected are merged into this match.
+     */
+    public static class Collector implements SpectrumMatchesConsumer {
+
+        /**
+         * The spectrum matches collected indexed by key.
+         */
+        private final LinkedHashMap<String, SpectrumMatch> spectrumMatches = new LinkedHashMap<String, SpectrumMatch>();
+
+        @Override
+        public void consume(ArrayList<SpectrumMatch> spectrumMatches) {
+            for (SpectrumMatch spectrumMatch : spectrumMatches) {
+                SpectrumMatch previousMatch = this.spectrumMatches.get(spectrumMatch.getKey());
+                if (previousMatch == null) {
+                    this.spectrumMatches.put(spectrumMatch.getKey(), spectrumMatch);
+                } else {
+                    merge(previousMatch, spectrumMatch);
+                }
+            }
+        }
+
+        /**
+         * Adds the hits of a spectrum match to the match collected for the
+         * same spectrum.
+         *
+         * @param previousMatch the spectrum match collected
+         * @param spectrumMatch the spectrum match to merge into the collected
+         * one
+         */
+        protected void merge(SpectrumMatch previousMatch, SpectrumMatch spectrumMatch) {
+            if (spectrumMatch.getAssumptionsMap() != null) {
+                for (Integer advocate : spectrumMatch.getAssumptionsMap().keySet()) {
+                    for (ArrayList<SpectrumIdentificationAssumption> assumptions : spectrumMatch.getAllAssumptions(advocate).values()) {
+                        for (SpectrumIdentificationAssumption assumption : assumptions) {
+                            previousMatch.addHit(advocate, assumption, true);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the spectrum matches collected.
+         *
+         * @return the spectrum matches collected
+         */
+        public LinkedList<SpectrumMatch> getSpectrumMatches() {
+            return new LinkedList<SpectrumMatch>(spectrumMatches.values());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.compomics.util.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * Interface for the processing of the spectrum matches streamed by an
+ * identification file reader.
+ *
+ * @author Marc Vaudel
+ */
+public interface SpectrumMatchesConsumer {
+
+    /**
+     * Processes a batch of spectrum matches. The list is not reused by the
+     * reader after this call.
+     *
+     * @param spectrumMatches the spectrum matches
+     *
+     * @throws IOException if an IOException occurs
+     * @throws SQLException if an SQLException occurs
+     * @throws ClassNotFoundException if a ClassNotFoundException occurs
+     * @throws InterruptedException if an InterruptedException occurs
+     */
+    public void consume(ArrayList<SpectrumMatch> spectrumMatches) throws IOException, SQLException, ClassNotFoundException, InterruptedException;
+}
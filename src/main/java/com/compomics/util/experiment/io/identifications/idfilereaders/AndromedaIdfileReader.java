@@ -9,6 +9,8 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchesBuffer;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchesConsumer;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
@@ -75,18 +77,27 @@ public class AndromedaIdfileReader extends ExperimentObject implements IdfileRea
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchesBuffer.Collector collector = new SpectrumMatchesBuffer.Collector();
+        streamSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, collector, SpectrumMatchesBuffer.DEFAULT_BATCH_SIZE);
+        return collector.getSpectrumMatches();
+    }
+
+    @Override
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations,
+            SpectrumMatchesConsumer consumer, int batchSize)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         String mgfFile = Util.removeExtension(fileName) + ".mgf"; //@TODO: make this generic?
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
-        HashMap<String, SpectrumMatch> spectrumMatchesMap = new HashMap<String, SpectrumMatch>();
+        SpectrumMatchesBuffer spectrumMatchesBuffer = new SpectrumMatchesBuffer(consumer, batchSize);
         BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(resultsFile, "r", 1024 * 100);
         if (waitingHandler != null) {
             waitingHandler.setMaxSecondaryProgressCounter(100);
         }
         long progressUnit = bufferedRandomAccessFile.length() / 100;
         String line, title = null;
-        SpectrumMatch spectrumMatch = null;
+        SpectrumMatch spectrumMatch = null, lastMatch = null;
         int rank = 0;
         boolean firstSpectrum = false;
         while ((line = bufferedRandomAccessFile.readLine()) != null) {
@@ -105,12 +116,15 @@ public class AndromedaIdfileReader extends ExperimentObject implements IdfileRea
             } else if (firstSpectrum) {
                 if (spectrumMatch == null) {
                     String spectrumKey = Spectrum.getSpectrumKey(mgfFile, title);
-                    spectrumMatch = spectrumMatchesMap.get(spectrumKey);
                     rank = 0; // the rank is here per charge
-                    if (spectrumMatch == null) {
-                        spectrumMatch = new SpectrumMatch(Spectrum.getSpectrumKey(mgfFile, title));
-                        result.add(spectrumMatch);
-                        spectrumMatchesMap.put(spectrumKey, spectrumMatch);
+                    if (lastMatch != null && lastMatch.getKey().equals(spectrumKey)) {
+                        spectrumMatch = lastMatch;
+                    } else {
+                        if (lastMatch != null) {
+                            spectrumMatchesBuffer.add(lastMatch);
+                        }
+                        spectrumMatch = new SpectrumMatch(spectrumKey);
+                        lastMatch = spectrumMatch;
                     }
                 }
                 rank++;
@@ -138,7 +152,10 @@ public class AndromedaIdfileReader extends ExperimentObject implements IdfileRea
             }
         }
 
-        return result;
+        if (lastMatch != null) {
+            spectrumMatchesBuffer.add(lastMatch);
+        }
+        spectrumMatchesBuffer.flush();
     }
 
     /**
@@ -14,6 +14,8 @@ import com.compomics.util.experiment.identification.identification_parameters.to
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchesBuffer;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchesConsumer;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
@@ -454,6 +456,16 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchesBuffer.Collector collector = new SpectrumMatchesBuffer.Collector();
+        streamSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, collector, SpectrumMatchesBuffer.DEFAULT_BATCH_SIZE);
+        return collector.getSpectrumMatches();
+    }
+
+    @Override
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations,
+            SpectrumMatchesConsumer consumer, int batchSize)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         direcTagParameters = (DirecTagParameters) searchParameters.getAlgorithmSpecificParameters().get(Advocate.direcTag.getIndex());
 
@@ -484,7 +496,7 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
             waitingHandler.setSecondaryProgressCounter(0);
         }
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
+        SpectrumMatchesBuffer spectrumMatchesBuffer = new SpectrumMatchesBuffer(consumer, batchSize);
         int sCpt = 0;
         Integer sIdColumnIndex = spectrumLineContent.get("ID");
         Integer chargeColumnIndex = spectrumLineContent.get("Charge");
@@ -511,7 +523,7 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
                     if (!sId.equals(lastId)) {
                         if (currentMatch != null && currentMatch.hasAssumption()) {
 
-                            result.add(currentMatch);
+                            spectrumMatchesBuffer.add(currentMatch);
                         }
                         int utilitiesId = sId + 1; // first spectrum is 1 in utilities
                         String spectrumTitle = utilitiesId + "";
@@ -536,12 +548,12 @@ public class DirecTagIdfileReader extends ExperimentObject implements IdfileRead
 
             if (currentMatch != null && currentMatch.hasAssumption()) {
 
-                result.add(currentMatch);
+                spectrumMatchesBuffer.add(currentMatch);
             }
         } finally {
             reader.close();
         }
-        return result;
+        spectrumMatchesBuffer.flush();
     }
 
     /**
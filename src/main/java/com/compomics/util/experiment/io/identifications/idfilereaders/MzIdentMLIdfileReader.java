@@ -9,22 +9,35 @@ import com.compomics.util.experiment.identification.identification_parameters.Se
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchesBuffer;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchesConsumer;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
 import java.net.URLDecoder;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.bind.JAXBException;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserFactory;
@@ -104,6 +117,15 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      * The list of fixed modifications extracted by the custom parser.
      */
     private ArrayList<SearchModificationCustom> fixedModificationsCustomParser;
+    /**
+     * The namespace prefix of the root element, null if the root element is
+     * not prefixed.
+     */
+    private String rootPrefix = null;
+    /**
+     * The namespace declarations of the root element as XML attributes.
+     */
+    private String rootNamespaceDeclarations = "";
     /**
      * The sequence matching parameters.
      */
@@ -122,6 +144,16 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      * Boolean indicating whether the mzId file contains de novo tags.
      */
     private boolean hasDenovoTags = false;
+    /**
+     * The number of threads to use for the parsing of the
+     * SpectrumIdentificationResult elements by the custom parser.
+     */
+    private int nThreads = 1;
+    /**
+     * The number of SpectrumIdentificationResult elements per section parsed
+     * by a thread.
+     */
+    public static final int RESULTS_PER_SECTION = 1000;
 
     /**
      * Default constructor for the purpose of instantiation.
@@ -219,13 +251,27 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
     public LinkedList<SpectrumMatch> getAllSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations)
             throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
+        SpectrumMatchesBuffer.Collector collector = new SpectrumMatchesBuffer.Collector();
+        streamSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, collector, SpectrumMatchesBuffer.DEFAULT_BATCH_SIZE);
+        return collector.getSpectrumMatches();
+    }
+
+    @Override
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations,
+            SpectrumMatchesConsumer consumer, int batchSize)
+            throws IOException, IllegalArgumentException, SQLException, ClassNotFoundException, InterruptedException, JAXBException {
 
         this.sequenceMatchingPreferences = sequenceMatchingPreferences;
         this.expandAaCombinations = expandAaCombinations;
 
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
+        SpectrumMatchesBuffer spectrumMatchesBuffer = new SpectrumMatchesBuffer(consumer, batchSize);
+
+        if (useCustomParser && nThreads > 1) {
+
+            parseFileParallel(waitingHandler, spectrumMatchesBuffer);
 
-        if (useCustomParser) {
+        } else if (useCustomParser) {
 
             // set the waiting handler max value
             if (waitingHandler != null) {
@@ -248,7 +294,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 waitingHandler.setMaxSecondaryProgressCounter(lineCounter);
             }
 
-            return parseFile(waitingHandler);
+            parseFile(waitingHandler, spectrumMatchesBuffer);
         } else {
 
             DataCollection dataCollection = unmarshaller.unmarshal(DataCollection.class);
@@ -453,7 +499,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                         waitingHandler.increaseSecondaryProgressCounter();
                     }
 
-                    result.add(currentMatch);
+                    spectrumMatchesBuffer.add(currentMatch);
                 }
 
                 if (waitingHandler != null) {
@@ -464,7 +510,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
             }
         }
 
-        return result;
+        spectrumMatchesBuffer.flush();
     }
 
     /**
@@ -496,7 +542,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      *
      * @return the advocate
      */
-    private Advocate getAdvocate() {
+    private synchronized Advocate getAdvocate() {
         for (String softwareName : tempSoftwareVersions.keySet()) {
             Advocate advocate = Advocate.getAdvocate(softwareName);
             if (advocate != null) {
@@ -526,6 +572,32 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
         return hasDenovoTags;
     }
 
+    /**
+     * Sets the number of threads to use for the parsing of the spectrum
+     * identification results by the custom parser. If more than one thread is
+     * used, the peptides, peptide evidences, spectra data and modifications
+     * are parsed first, the spectrum identification results are then parsed
+     * by sections in parallel.
+     *
+     * @param nThreads the number of threads to use
+     */
+    public void setNThreads(int nThreads) {
+        if (nThreads < 1) {
+            throw new IllegalArgumentException("At least one thread must be used.");
+        }
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Returns the number of threads to use for the parsing of the spectrum
+     * identification results by the custom parser.
+     *
+     * @return the number of threads to use
+     */
+    public int getNThreads() {
+        return nThreads;
+    }
+
     /**
      * Main method for testing purposes only.
      *
@@ -533,17 +605,35 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      */
     public static void main(String[] args) {
         MzIdentMLIdfileReader temp = new MzIdentMLIdfileReader();
-        temp.parseFile(null);
+        try {
+            temp.parseFile(null, new SpectrumMatchesBuffer(new SpectrumMatchesBuffer.Collector(), SpectrumMatchesBuffer.DEFAULT_BATCH_SIZE));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Parse the mzid file.
+     * Parse the mzid file and adds the spectrum matches to the buffer as they
+     * are parsed. Input/output and database exceptions, including those
+     * thrown by the consumer of the spectrum matches, are passed on, other
+     * exceptions are printed.
+     *
+     * @param waitingHandler the waiting handler
+     * @param spectrumMatchesBuffer the buffer where to add the spectrum
+     * matches, if null the parsing stops at the first
+     * SpectrumIdentificationResult
      *
-     * @return the list of spectrum matches
+     * @throws IOException exception thrown if an error occurred while
+     * reading the file or consuming the spectrum matches
+     * @throws SQLException exception thrown if an error occurred while
+     * consuming the spectrum matches
+     * @throws ClassNotFoundException exception thrown if an error occurred
+     * while consuming the spectrum matches
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred while consuming the spectrum matches
      */
-    private LinkedList<SpectrumMatch> parseFile(WaitingHandler waitingHandler) {
-
-        LinkedList<SpectrumMatch> result = new LinkedList<SpectrumMatch>();
+    private void parseFile(WaitingHandler waitingHandler, SpectrumMatchesBuffer spectrumMatchesBuffer)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
 
         try {
             // create the pull parser
@@ -571,7 +661,9 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
             // get the analysis software, the spectra data,the peptides and the psms
             while (type != XmlPullParser.END_DOCUMENT) {
 
-                if (type == XmlPullParser.START_TAG && parser.getName().equals("AnalysisSoftware")) {
+                if (type == XmlPullParser.START_TAG && parser.getDepth() == 1) {
+                    parseRootNamespaces(parser);
+                } else if (type == XmlPullParser.START_TAG && parser.getName().equals("AnalysisSoftware")) {
                     parseSoftware(parser);
                 } else if (type == XmlPullParser.START_TAG && parser.getName().equals("Peptide")) {
                     parsePeptide(parser);
@@ -582,7 +674,10 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
                 } else if (type == XmlPullParser.START_TAG && parser.getName().equals("ModificationParams")) {
                     parseFixedPtms(parser);
                 } else if (type == XmlPullParser.START_TAG && parser.getName().equals("SpectrumIdentificationResult")) {
-                    parsePsm(parser, result);
+                    if (spectrumMatchesBuffer == null) {
+                        break;
+                    }
+                    spectrumMatchesBuffer.add(parsePsm(parser));
                 }
 
                 type = parser.next();
@@ -594,11 +689,262 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
 
             br.close();
 
+        } catch (IOException e) {
+            throw e;
+        } catch (SQLException e) {
+            throw e;
+        } catch (ClassNotFoundException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
         }
+    }
 
-        return result;
+    /**
+     * Stores the namespace prefix and the namespace declarations of the root
+     * element.
+     *
+     * @param parser the XML parser positioned on the root element
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private void parseRootNamespaces(XmlPullParser parser) throws Exception {
+
+        rootPrefix = parser.getPrefix();
+
+        StringBuilder declarations = new StringBuilder();
+        for (int i = parser.getNamespaceCount(0); i < parser.getNamespaceCount(1); i++) {
+            String prefix = parser.getNamespacePrefix(i);
+            String uri = parser.getNamespaceUri(i).replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;");
+            declarations.append(" xmlns");
+            if (prefix != null) {
+                declarations.append(':').append(prefix);
+            }
+            declarations.append("=\"").append(uri).append('"');
+        }
+        rootNamespaceDeclarations = declarations.toString();
+    }
+
+    /**
+     * Parses the mzid file using multiple threads. The elements preceding the
+     * spectrum identification results are parsed first. The byte offsets of
+     * the SpectrumIdentificationResult elements are then located and sections
+     * of the file are parsed in parallel. The spectrum matches are added to
+     * the buffer in the order of the file. The number of sections parsed ahead
+     * of the buffer is bounded in order to keep the memory usage stable. If no
+     * SpectrumIdentificationResult element is located, the file is parsed
+     * sequentially. Exceptions thrown while parsing a section which are not
+     * input/output exceptions are wrapped in input/output exceptions.
+     *
+     * @param waitingHandler the waiting handler
+     * @param spectrumMatchesBuffer the buffer where to add the spectrum
+     * matches
+     *
+     * @throws IOException exception thrown if an error occurred while
+     * reading the file or consuming the spectrum matches
+     * @throws SQLException exception thrown if an error occurred while
+     * consuming the spectrum matches
+     * @throws ClassNotFoundException exception thrown if an error occurred
+     * while consuming the spectrum matches
+     * @throws InterruptedException exception thrown if a threading error
+     * occurred while parsing or consuming the spectrum matches
+     */
+    private void parseFileParallel(WaitingHandler waitingHandler, SpectrumMatchesBuffer spectrumMatchesBuffer)
+            throws IOException, SQLException, ClassNotFoundException, InterruptedException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        // parse the peptides, peptide evidences, spectra data and modifications
+        parseFile(null, null);
+
+        ArrayList<long[]> sections = getResultsSections();
+
+        if (sections.isEmpty()) {
+            parseFile(waitingHandler, spectrumMatchesBuffer);
+            return;
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(sections.size());
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        LinkedList<Future<ArrayList<SpectrumMatch>>> futures = new LinkedList<Future<ArrayList<SpectrumMatch>>>();
+
+        try {
+            int nextSection = 0;
+
+            while (nextSection < sections.size() || !futures.isEmpty()) {
+
+                while (nextSection < sections.size() && futures.size() < 2 * nThreads) {
+                    final long[] section = sections.get(nextSection++);
+                    futures.add(pool.submit(new Callable<ArrayList<SpectrumMatch>>() {
+                        @Override
+                        public ArrayList<SpectrumMatch> call() throws Exception {
+                            return parseSection(section[0], section[1]);
+                        }
+                    }));
+                }
+
+                ArrayList<SpectrumMatch> spectrumMatches;
+                try {
+                    spectrumMatches = futures.removeFirst().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IOException("An error occurred while parsing " + mzIdentMLFile.getName() + ".", cause);
+                }
+
+                for (SpectrumMatch spectrumMatch : spectrumMatches) {
+                    spectrumMatchesBuffer.add(spectrumMatch);
+                }
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+            }
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Locates the SpectrumIdentificationResult elements in the file and
+     * groups them in sections of RESULTS_PER_SECTION elements. The elements
+     * are expected to use the namespace prefix of the root element.
+     *
+     * @return the start and end byte offsets of the sections
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private ArrayList<long[]> getResultsSections() throws IOException {
+
+        String tagName = rootPrefix == null ? "SpectrumIdentificationResult" : rootPrefix + ":SpectrumIdentificationResult";
+        byte[] startTag = ("<" + tagName).getBytes("US-ASCII");
+        byte[] endTag = ("</" + tagName + ">").getBytes("US-ASCII");
+
+        ArrayList<long[]> sections = new ArrayList<long[]>();
+        long sectionStart = -1, resultEnd = -1, offset = 0;
+        int startMatched = 0, endMatched = 0, nResults = 0;
+        boolean startTagFound = false;
+
+        InputStream inputStream = new FileInputStream(mzIdentMLFile);
+
+        try {
+            byte[] buffer = new byte[1024 * 1024];
+            int nRead;
+
+            while ((nRead = inputStream.read(buffer)) != -1) {
+
+                for (int i = 0; i < nRead; i++, offset++) {
+
+                    byte b = buffer[i];
+
+                    // the start tag must not be followed by other letters, e.g. SpectrumIdentificationResultFoo
+                    if (startTagFound) {
+                        startTagFound = false;
+                        if ((b == ' ' || b == '>' || b == '\n' || b == '\r' || b == '\t') && sectionStart == -1) {
+                            sectionStart = offset - startTag.length;
+                        }
+                    }
+
+                    if (b == startTag[startMatched]) {
+                        startMatched++;
+                        if (startMatched == startTag.length) {
+                            startTagFound = true;
+                            startMatched = 0;
+                        }
+                    } else {
+                        startMatched = b == startTag[0] ? 1 : 0;
+                    }
+
+                    if (b == endTag[endMatched]) {
+                        endMatched++;
+                        if (endMatched == endTag.length) {
+                            endMatched = 0;
+                            resultEnd = offset + 1;
+                            if (sectionStart != -1 && ++nResults == RESULTS_PER_SECTION) {
+                                sections.add(new long[]{sectionStart, resultEnd});
+                                sectionStart = -1;
+                                nResults = 0;
+                            }
+                        }
+                    } else {
+                        endMatched = b == endTag[0] ? 1 : 0;
+                    }
+                }
+            }
+
+            if (sectionStart != -1 && nResults > 0) {
+                sections.add(new long[]{sectionStart, resultEnd});
+            }
+
+        } finally {
+            inputStream.close();
+        }
+
+        return sections;
+    }
+
+    /**
+     * Parses the SpectrumIdentificationResult elements of a section of the
+     * file. The peptides, peptide evidences, spectra data and modifications
+     * must have been parsed already.
+     *
+     * @param start the start byte offset of the section
+     * @param end the end byte offset of the section
+     *
+     * @return the spectrum matches of the section in the order of the file
+     *
+     * @throws Exception thrown if an exception occurs
+     */
+    private ArrayList<SpectrumMatch> parseSection(long start, long end) throws Exception {
+
+        byte[] bytes = new byte[(int) (end - start)];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mzIdentMLFile, "r");
+        try {
+            randomAccessFile.seek(start);
+            randomAccessFile.readFully(bytes);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        // wrap the section in a root element declaring the namespaces of the file
+        InputStream sectionStream = new SequenceInputStream(new ByteArrayInputStream(("<section" + rootNamespaceDeclarations + ">").getBytes("UTF-8")),
+                new SequenceInputStream(new ByteArrayInputStream(bytes), new ByteArrayInputStream("</section>".getBytes("US-ASCII"))));
+
+        XmlPullParserFactory factory = XmlPullParserFactory.newInstance(System.getProperty(XmlPullParserFactory.PROPERTY_NAME), null);
+        factory.setNamespaceAware(true);
+        XmlPullParser parser = factory.newPullParser();
+        parser.setInput(new BufferedReader(new InputStreamReader(sectionStream)));
+
+        ArrayList<SpectrumMatch> spectrumMatches = new ArrayList<SpectrumMatch>(RESULTS_PER_SECTION);
+        int type = parser.next();
+
+        while (type != XmlPullParser.END_DOCUMENT) {
+            if (type == XmlPullParser.START_TAG && parser.getName().equals("SpectrumIdentificationResult")) {
+                spectrumMatches.add(parsePsm(parser));
+            }
+            type = parser.next();
+        }
+
+        return spectrumMatches;
     }
 
     /**
@@ -998,10 +1344,10 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
      * Parse a PSM object.
      *
      * @param parser the XML parser
-     * @param result the list to add the extracted PSM to
+     * @return the extracted PSM
      * @throws Exception thrown if an exception occurs
      */
-    private void parsePsm(XmlPullParser parser, LinkedList<SpectrumMatch> result) throws Exception {
+    private SpectrumMatch parsePsm(XmlPullParser parser) throws Exception {
 
         String spectraDataRef = null;
         String spectrumId = null;
@@ -1257,7 +1603,7 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
             currentMatch.setKey(Spectrum.getSpectrumKey(spectrumFileName, spectrumTitle)); // @TOOD: can spectrumID be used if spectrumTitle is missing...?
         }
 
-        result.add(currentMatch);
+        return currentMatch;
     }
 
     /**
@@ -1300,12 +1646,14 @@ public class MzIdentMLIdfileReader extends ExperimentObject implements IdfileRea
 
             // get the software version
             String name = advocate.getName();
-            if (!softwareVersions.containsKey(name)) {
-                ArrayList<String> versions = tempSoftwareVersions.get(name);
-                if (versions == null) {
-                    versions = new ArrayList<String>();
+            synchronized (softwareVersions) {
+                if (!softwareVersions.containsKey(name)) {
+                    ArrayList<String> versions = tempSoftwareVersions.get(name);
+                    if (versions == null) {
+                        versions = new ArrayList<String>();
+                    }
+                    softwareVersions.put(name, versions);
                 }
-                softwareVersions.put(name, versions);
             }
 
             // create the e-value object
@@ -12,6 +12,8 @@ import com.compomics.util.experiment.identification.SpectrumIdentificationAssump
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.io.identifications.IdfileReader;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchesBuffer;
+import com.compomics.util.experiment.io.identifications.SpectrumMatchesConsumer;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
@@ -40,7 +42,8 @@ import org.xmlpull.v1.XmlPullParserFactory;
 public class PepxmlIdfileReader implements IdfileReader {
 
     /**
-     * List of the spectrum matches in the file.
+     * List of the spectrum matches in the file, null until parsed by
+     * getAllSpectrumMatches.
      */
     private LinkedList<SpectrumMatch> spectrumMatches = null;
     /**
@@ -99,7 +102,10 @@ public class PepxmlIdfileReader implements IdfileReader {
     }
 
     /**
-     * Parses the identification file.
+     * Parses the identification file. The hits of consecutive spectrum queries
+     * of the same spectrum are gathered in a single spectrum match, the
+     * queries of a spectrum found in different parts of the file are passed
+     * in different spectrum matches, see Collector.
      *
      * @param waitingHandler waiting handler returning information about the
      * progress and allowing canceling the parsing.
@@ -107,6 +113,8 @@ public class PepxmlIdfileReader implements IdfileReader {
      * be expanded
      * @param overwriteExtension if true, the extension of the input file will
      * be overwritten to mgf
+     * @param spectrumMatchesBuffer the buffer where to add the spectrum
+     * matches
      *
      * @throws XmlPullParserException
      * @throws FileNotFoundException
@@ -115,7 +123,7 @@ public class PepxmlIdfileReader implements IdfileReader {
      * @throws ClassNotFoundException
      * @throws InterruptedException
      */
-    private void parseFile(WaitingHandler waitingHandler, boolean expandAaCombinations, boolean overwriteExtension)
+    private void parseFile(WaitingHandler waitingHandler, boolean expandAaCombinations, boolean overwriteExtension, SpectrumMatchesBuffer spectrumMatchesBuffer)
             throws XmlPullParserException, FileNotFoundException, IOException, SQLException, ClassNotFoundException, InterruptedException {
 
         // Create the pull parser.
@@ -133,9 +141,7 @@ public class PepxmlIdfileReader implements IdfileReader {
             int type;
             boolean hasMatch = false;
 
-            HashMap<String, SpectrumMatch> spectrumMatchesMap = new HashMap<String, SpectrumMatch>();
-            spectrumMatches = new LinkedList<SpectrumMatch>();
-            SpectrumMatch currentMatch = null;
+            SpectrumMatch currentMatch = null, lastMatch = null;
             Integer currentCharge = null;
 
             // Go through the whole document.
@@ -153,9 +159,8 @@ public class PepxmlIdfileReader implements IdfileReader {
                 }
                 if (type == XmlPullParser.START_TAG && tagName.equals("spectrum_query")) {
                     currentMatch = parseSpectrumQuery(parser);
-                    SpectrumMatch previousMatch = spectrumMatchesMap.get(currentMatch.getKey());
-                    if (previousMatch != null) {
-                        currentMatch = previousMatch;
+                    if (lastMatch != null && lastMatch.getKey().equals(currentMatch.getKey())) {
+                        currentMatch = lastMatch;
                     }
                     for (int i = 0; i < parser.getAttributeCount(); i++) {
                         String attributeName = parser.getAttributeName(i);
@@ -180,36 +185,7 @@ public class PepxmlIdfileReader implements IdfileReader {
                     Peptide peptide = peptideAssumption.getPeptide();
                     String peptideSequence = peptide.getSequence();
                     hasMatch = true;
-                    boolean found = false;
-                    if (currentMatch.getAllAssumptions() != null) {
-                        for (SpectrumIdentificationAssumption tempAssumption : currentMatch.getAllAssumptions()) {
-                            PeptideAssumption tempPeptideAssumption = (PeptideAssumption) tempAssumption;
-                            Peptide tempPeptide = tempPeptideAssumption.getPeptide();
-                            if (peptide.getSequence().equals(tempPeptide.getSequence())) {
-                                boolean sameModifications = peptide.getNModifications() == tempPeptide.getNModifications();
-                                if (sameModifications && peptide.isModified()) {
-                                    for (ModificationMatch originalMatch : peptide.getModificationMatches()) {
-                                        boolean ptmFound = false;
-                                        for (ModificationMatch otherMatch : tempPeptide.getModificationMatches()) {
-                                            if (originalMatch.getTheoreticPtm().equals(otherMatch.getTheoreticPtm()) && originalMatch.getModificationSite() == otherMatch.getModificationSite()) {
-                                                ptmFound = true;
-                                                break;
-                                            }
-                                        }
-                                        if (!ptmFound) {
-                                            sameModifications = false;
-                                            break;
-                                        }
-                                    }
-                                }
-                                if (sameModifications) {
-                                    found = true;
-                                    break;
-                                }
-                            }
-                        }
-                    }
-                    if (!found) {
+                    if (!hasPeptide(currentMatch, peptide)) {
 
                         Advocate advocate = Advocate.getAdvocate(searchEngine);
                         if (expandAaCombinations && AminoAcidSequence.hasCombination(peptideSequence)) {
@@ -238,10 +214,11 @@ public class PepxmlIdfileReader implements IdfileReader {
                 }
                 if (type == XmlPullParser.END_TAG && tagName.equals("spectrum_query")) {
                     if (hasMatch) {
-                        String key = currentMatch.getKey();
-                        if (!spectrumMatchesMap.containsKey(key)) {
-                            spectrumMatchesMap.put(key, currentMatch);
-                            spectrumMatches.add(currentMatch);
+                        if (currentMatch != lastMatch) {
+                            if (lastMatch != null) {
+                                spectrumMatchesBuffer.add(lastMatch);
+                            }
+                            lastMatch = currentMatch;
                         }
                         hasMatch = false;
                         currentMatch = null;
@@ -253,13 +230,56 @@ public class PepxmlIdfileReader implements IdfileReader {
                 }
             }
 
-            spectrumMatchesMap.clear();
+            if (lastMatch != null) {
+                spectrumMatchesBuffer.add(lastMatch);
+            }
 
         } finally {
             br.close();
         }
     }
 
+    /**
+     * Indicates whether a spectrum match already has a hit with the sequence
+     * and modifications of the given peptide.
+     *
+     * @param spectrumMatch the spectrum match
+     * @param peptide the peptide
+     *
+     * @return a boolean indicating whether the spectrum match already has a
+     * hit for the peptide
+     */
+    private static boolean hasPeptide(SpectrumMatch spectrumMatch, Peptide peptide) {
+        if (spectrumMatch.getAllAssumptions() != null) {
+            for (SpectrumIdentificationAssumption tempAssumption : spectrumMatch.getAllAssumptions()) {
+                PeptideAssumption tempPeptideAssumption = (PeptideAssumption) tempAssumption;
+                Peptide tempPeptide = tempPeptideAssumption.getPeptide();
+                if (peptide.getSequence().equals(tempPeptide.getSequence())) {
+                    boolean sameModifications = peptide.getNModifications() == tempPeptide.getNModifications();
+                    if (sameModifications && peptide.isModified()) {
+                        for (ModificationMatch originalMatch : peptide.getModificationMatches()) {
+                            boolean ptmFound = false;
+                            for (ModificationMatch otherMatch : tempPeptide.getModificationMatches()) {
+                                if (originalMatch.getTheoreticPtm().equals(otherMatch.getTheoreticPtm()) && originalMatch.getModificationSite() == otherMatch.getModificationSite()) {
+                                    ptmFound = true;
+                                    break;
+                                }
+                            }
+                            if (!ptmFound) {
+                                sameModifications = false;
+                                break;
+                            }
+                        }
+                    }
+                    if (sameModifications) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Parses a search hit.
      *
@@ -688,13 +708,48 @@ public class PepxmlIdfileReader implements IdfileReader {
             SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations) throws IOException, IllegalArgumentException,
             SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
         if (spectrumMatches == null) {
-            parseFile(waitingHandler, expandAaCombinations, true);
+            Collector collector = new Collector();
+            streamSpectrumMatches(waitingHandler, searchParameters, sequenceMatchingPreferences, expandAaCombinations, collector, SpectrumMatchesBuffer.DEFAULT_BATCH_SIZE);
+            spectrumMatches = collector.getSpectrumMatches();
         }
         return spectrumMatches;
     }
 
+    @Override
+    public void streamSpectrumMatches(WaitingHandler waitingHandler, SearchParameters searchParameters,
+            SequenceMatchingPreferences sequenceMatchingPreferences, boolean expandAaCombinations,
+            SpectrumMatchesConsumer consumer, int batchSize) throws IOException, IllegalArgumentException,
+            SQLException, ClassNotFoundException, InterruptedException, JAXBException, XmlPullParserException {
+        SpectrumMatchesBuffer spectrumMatchesBuffer = new SpectrumMatchesBuffer(consumer, batchSize);
+        parseFile(waitingHandler, expandAaCombinations, true, spectrumMatchesBuffer);
+        spectrumMatchesBuffer.flush();
+    }
+
     @Override
     public boolean hasDeNovoTags() {
         return false;
     }
+
+    /**
+     * Collector merging the spectrum queries of a spectrum found in different
+     * parts of the file into the first match of the spectrum, skipping the
+     * hits of a peptide already found for the spectrum.
+     */
+    private static class Collector extends SpectrumMatchesBuffer.Collector {
+
+        @Override
+        protected void merge(SpectrumMatch previousMatch, SpectrumMatch spectrumMatch) {
+            if (spectrumMatch.getAssumptionsMap() != null) {
+                for (Integer advocate : spectrumMatch.getAssumptionsMap().keySet()) {
+                    for (ArrayList<SpectrumIdentificationAssumption> assumptions : spectrumMatch.getAllAssumptions(advocate).values()) {
+                        for (SpectrumIdentificationAssumption assumption : assumptions) {
+                            if (!hasPeptide(previousMatch, ((PeptideAssumption) assumption).getPeptide())) {
+                                previousMatch.addHit(advocate, assumption, false);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,708 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary store of the spectra of a spectrum file. The store is a sidecar file
+ * built from the spectrum file once and read via memory mapping afterwards.
+ * It contains a fixed size record per spectrum with the precursor and the
+ * location of the peaks, followed by one block per spectrum containing the
+ * title, the scan number and the peaks. The m/z values of the peaks can be
+ * delta encoded and the peaks compressed.
+ *
+ * The store is immutable once written and can be read concurrently by any
+ * number of threads.
+ *
+ * @author Marc Vaudel
+ */
+public class BinarySpectrumStore {
+
+    /**
+     * The magic number at the beginning of a store file.
+     */
+    public static final int MAGIC_NUMBER = 0x43555331;
+    /**
+     * The version of the store format.
+     */
+    public static final int VERSION = 1;
+    /**
+     * Flag indicating that the m/z values are delta encoded.
+     */
+    public static final int DELTA_ENCODING = 1;
+    /**
+     * Flag indicating that the peaks are compressed.
+     */
+    public static final int COMPRESSION = 2;
+    /**
+     * The size of the header in bytes.
+     */
+    public static final int HEADER_SIZE = 64;
+    /**
+     * The size of a spectrum record in bytes.
+     */
+    public static final int RECORD_SIZE = 64;
+    /**
+     * The maximal number of charges which can be stored per precursor.
+     */
+    public static final int MAX_CHARGES = 8;
+    /**
+     * The size of the mapped segments of the file. Records and peak blocks
+     * never cross a segment boundary.
+     */
+    public static final long SEGMENT_SIZE = 1L << 30;
+    /**
+     * The encoding used for the strings.
+     */
+    private static final String ENCODING = "UTF-8";
+    /**
+     * The file opened by this store.
+     */
+    private final RandomAccessFile randomAccessFile;
+    /**
+     * The mapped segments of the file.
+     */
+    private final MappedByteBuffer[] segments;
+    /**
+     * The number of spectra in the store.
+     */
+    private final int nSpectra;
+    /**
+     * The flags used to write the peaks.
+     */
+    private final int flags;
+    /**
+     * The last modification date of the spectrum file when the store was
+     * built.
+     */
+    private final long sourceLastModified;
+    /**
+     * The length of the spectrum file when the store was built.
+     */
+    private final long sourceLength;
+
+    /**
+     * Opens the given store file.
+     *
+     * @param storeFile the store file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file or if the file is not a complete store
+     */
+    public BinarySpectrumStore(File storeFile) throws IOException {
+        randomAccessFile = new RandomAccessFile(storeFile, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Spectrum store " + storeFile.getName() + " is truncated.");
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            }
+            header.flip();
+            if (header.getInt() != MAGIC_NUMBER) {
+                throw new IOException("File " + storeFile.getName() + " is not a complete spectrum store.");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported spectrum store version " + version + " in " + storeFile.getName() + ".");
+            }
+            flags = header.getInt();
+            nSpectra = header.getInt();
+            sourceLastModified = header.getLong();
+            sourceLength = header.getLong();
+            if (length < HEADER_SIZE + (long) nSpectra * RECORD_SIZE) {
+                throw new IOException("Spectrum store " + storeFile.getName() + " is truncated.");
+            }
+            int nSegments = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[nSegments];
+            for (int i = 0; i < nSegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+            }
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Indicates whether the store was built from the given spectrum file in
+     * its current state.
+     *
+     * @param spectrumFile the spectrum file
+     *
+     * @return a boolean indicating whether the store is up to date with the
+     * given spectrum file
+     */
+    public boolean isUpToDate(File spectrumFile) {
+        return spectrumFile.lastModified() == sourceLastModified && spectrumFile.length() == sourceLength;
+    }
+
+    /**
+     * Returns the number of spectra in the store.
+     *
+     * @return the number of spectra in the store
+     */
+    public int getNSpectra() {
+        return nSpectra;
+    }
+
+    /**
+     * Returns the flags used to write the peaks.
+     *
+     * @return the flags used to write the peaks
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Returns the number of peaks of the spectrum at the given index.
+     *
+     * @param spectrumIndex the index of the spectrum in the file
+     *
+     * @return the number of peaks of the spectrum
+     */
+    public int getNPeaks(int spectrumIndex) {
+        long recordPosition = getRecordPosition(spectrumIndex);
+        return getSegment(recordPosition).getInt(getPositionInSegment(recordPosition) + 8);
+    }
+
+    /**
+     * Returns the precursor of the spectrum at the given index.
+     *
+     * @param spectrumIndex the index of the spectrum in the file
+     *
+     * @return the precursor of the spectrum
+     */
+    public Precursor getPrecursor(int spectrumIndex) {
+        long recordPosition = getRecordPosition(spectrumIndex);
+        MappedByteBuffer segment = getSegment(recordPosition);
+        int position = getPositionInSegment(recordPosition);
+        double mz = segment.getDouble(position + 16);
+        double intensity = segment.getDouble(position + 24);
+        double rt = segment.getDouble(position + 32);
+        double rtMin = segment.getDouble(position + 40);
+        double rtMax = segment.getDouble(position + 48);
+        ArrayList<Charge> charges = new ArrayList<Charge>(1);
+        for (int i = 0; i < MAX_CHARGES; i++) {
+            byte charge = segment.get(position + 56 + i);
+            if (charge == 0) {
+                break;
+            }
+            if (charge > 0) {
+                charges.add(new Charge(Charge.PLUS, charge));
+            } else {
+                charges.add(new Charge(Charge.MINUS, -charge));
+            }
+        }
+        return new Precursor(rt, mz, intensity, charges, rtMin, rtMax);
+    }
+
+    /**
+     * Returns the spectrum at the given index.
+     *
+     * @param spectrumIndex the index of the spectrum in the file
+     * @param fileName the name of the spectrum file
+     *
+     * @return the spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * decoding the spectrum
+     */
+    public MSnSpectrum getSpectrum(int spectrumIndex, String fileName) throws IOException {
+
+        long recordPosition = getRecordPosition(spectrumIndex);
+        MappedByteBuffer segment = getSegment(recordPosition);
+        int recordPositionInSegment = getPositionInSegment(recordPosition);
+        long blockPosition = segment.getLong(recordPositionInSegment);
+        int nPeaks = segment.getInt(recordPositionInSegment + 8);
+        int blockLength = segment.getInt(recordPositionInSegment + 12);
+
+        ByteBuffer block = getSegment(blockPosition).duplicate();
+        int blockStart = getPositionInSegment(blockPosition);
+        block.limit(blockStart + blockLength);
+        block.position(blockStart);
+
+        String spectrumTitle = getString(block);
+        String scanNumber = getString(block);
+
+        ByteBuffer peaks;
+        if ((flags & COMPRESSION) != 0) {
+            int peaksLength = block.getInt();
+            byte[] compressed = new byte[block.remaining()];
+            block.get(compressed);
+            byte[] uncompressed = new byte[peaksLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                int read = 0;
+                while (read < peaksLength) {
+                    int n = inflater.inflate(uncompressed, read, peaksLength - read);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Truncated peak block for spectrum " + spectrumTitle + " in store of " + fileName + ".");
+                    }
+                    read += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted peak block for spectrum " + spectrumTitle + " in store of " + fileName + ": " + e.getLocalizedMessage());
+            } finally {
+                inflater.end();
+            }
+            peaks = ByteBuffer.wrap(uncompressed);
+        } else {
+            peaks = block;
+        }
+
+        double[] mz = new double[nPeaks];
+        double[] intensity = new double[nPeaks];
+        if ((flags & DELTA_ENCODING) != 0) {
+            long bits = 0;
+            for (int i = 0; i < nPeaks; i++) {
+                bits += getVarLong(peaks);
+                mz[i] = Double.longBitsToDouble(bits);
+            }
+        } else {
+            for (int i = 0; i < nPeaks; i++) {
+                mz[i] = peaks.getDouble();
+            }
+        }
+        for (int i = 0; i < nPeaks; i++) {
+            intensity[i] = peaks.getDouble();
+        }
+
+        MSnSpectrum spectrum = new MSnSpectrum(2, getPrecursor(spectrumIndex), spectrumTitle, mz, intensity, fileName);
+        spectrum.setScanNumber(scanNumber);
+        return spectrum;
+    }
+
+    /**
+     * Closes the store. The mapped segments are released by the garbage
+     * collector.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    /**
+     * Returns the position in the file of the record of the given spectrum.
+     *
+     * @param spectrumIndex the index of the spectrum
+     *
+     * @return the position in the file of the record
+     */
+    private long getRecordPosition(int spectrumIndex) {
+        if (spectrumIndex < 0 || spectrumIndex >= nSpectra) {
+            throw new IndexOutOfBoundsException("Spectrum index " + spectrumIndex + " out of bounds, " + nSpectra + " spectra in store.");
+        }
+        return HEADER_SIZE + (long) spectrumIndex * RECORD_SIZE;
+    }
+
+    /**
+     * Returns the segment containing the given position.
+     *
+     * @param position a position in the file
+     *
+     * @return the segment containing the given position
+     */
+    private MappedByteBuffer getSegment(long position) {
+        return segments[(int) (position / SEGMENT_SIZE)];
+    }
+
+    /**
+     * Returns the position of the given file position in its segment.
+     *
+     * @param position a position in the file
+     *
+     * @return the position in the segment
+     */
+    private static int getPositionInSegment(long position) {
+        return (int) (position % SEGMENT_SIZE);
+    }
+
+    /**
+     * Reads a string written by putString.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the string, null if a null string was written
+     *
+     * @throws UnsupportedEncodingException exception thrown if the encoding
+     * is not supported
+     */
+    private static String getString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    /**
+     * Reads a zigzag encoded variable length long.
+     *
+     * @param buffer the buffer to read from
+     *
+     * @return the long value
+     */
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writer of a spectrum store. The spectra must be added in the order of
+     * the spectrum file. The header is written when closing the writer, an
+     * interrupted write thus never produces a readable store.
+     */
+    public static class Writer {
+
+        /**
+         * The size of the write buffers.
+         */
+        private static final int BUFFER_SIZE = 1024 * 1024;
+        /**
+         * The file written.
+         */
+        private final RandomAccessFile randomAccessFile;
+        /**
+         * The channel of the file written.
+         */
+        private final FileChannel channel;
+        /**
+         * The spectrum file.
+         */
+        private final File spectrumFile;
+        /**
+         * The number of spectra to write.
+         */
+        private final int nSpectra;
+        /**
+         * The flags to use to write the peaks.
+         */
+        private final int flags;
+        /**
+         * Buffer for the records.
+         */
+        private final ByteBuffer recordBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        /**
+         * The position in the file of the records buffer.
+         */
+        private long recordBufferPosition = HEADER_SIZE;
+        /**
+         * Buffer for the peak blocks.
+         */
+        private ByteBuffer blockBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        /**
+         * The position in the file of the peak blocks buffer.
+         */
+        private long blockBufferPosition;
+        /**
+         * Buffer used to encode the peaks.
+         */
+        private ByteBuffer peaksBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        /**
+         * The compressor, null if the peaks are not compressed.
+         */
+        private final Deflater deflater;
+        /**
+         * Buffer for the compressed peaks.
+         */
+        private byte[] compressedBuffer = new byte[BUFFER_SIZE];
+        /**
+         * The number of spectra written.
+         */
+        private int nWritten = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param storeFile the store file to write
+         * @param spectrumFile the spectrum file the store is built from
+         * @param nSpectra the number of spectra in the spectrum file
+         * @param flags the flags to use to write the peaks, see DELTA_ENCODING
+         * and COMPRESSION
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while opening the file
+         */
+        public Writer(File storeFile, File spectrumFile, int nSpectra, int flags) throws IOException {
+            this.spectrumFile = spectrumFile;
+            this.nSpectra = nSpectra;
+            this.flags = flags;
+            deflater = (flags & COMPRESSION) != 0 ? new Deflater(Deflater.BEST_SPEED) : null;
+            randomAccessFile = new RandomAccessFile(storeFile, "rw");
+            randomAccessFile.setLength(0);
+            channel = randomAccessFile.getChannel();
+            blockBufferPosition = HEADER_SIZE + (long) nSpectra * RECORD_SIZE;
+        }
+
+        /**
+         * Adds a spectrum to the store.
+         *
+         * @param spectrum the spectrum
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         * @throws IllegalArgumentException exception thrown if the spectrum
+         * cannot be represented in the store
+         */
+        public void add(MSnSpectrum spectrum) throws IOException, IllegalArgumentException {
+
+            if (nWritten == nSpectra) {
+                throw new IllegalArgumentException("All " + nSpectra + " spectra were already written.");
+            }
+
+            Precursor precursor = spectrum.getPrecursor();
+            ArrayList<Charge> charges = precursor.getPossibleCharges();
+            if (charges.size() > MAX_CHARGES) {
+                throw new IllegalArgumentException("More than " + MAX_CHARGES + " charges for spectrum " + spectrum.getSpectrumTitle() + ".");
+            }
+            byte[] chargeValues = new byte[MAX_CHARGES];
+            for (int i = 0; i < charges.size(); i++) {
+                Charge charge = charges.get(i);
+                if (charge.value <= 0 || charge.value > Byte.MAX_VALUE || charge.sign == Charge.NEUTRAL) {
+                    throw new IllegalArgumentException("Charge " + charge + " of spectrum " + spectrum.getSpectrumTitle() + " cannot be stored.");
+                }
+                chargeValues[i] = (byte) (charge.sign == Charge.MINUS ? -charge.value : charge.value);
+            }
+
+            // encode the peaks
+            double[] mz = spectrum.getMzValues();
+            double[] intensity = spectrum.getIntensityValues();
+            int nPeaks = mz.length;
+            peaksBuffer = ensureCapacity(peaksBuffer, 18 * nPeaks);
+            peaksBuffer.clear();
+            if ((flags & DELTA_ENCODING) != 0) {
+                long previousBits = 0;
+                for (int i = 0; i < nPeaks; i++) {
+                    long bits = Double.doubleToLongBits(mz[i]);
+                    putVarLong(peaksBuffer, bits - previousBits);
+                    previousBits = bits;
+                }
+            } else {
+                for (int i = 0; i < nPeaks; i++) {
+                    peaksBuffer.putDouble(mz[i]);
+                }
+            }
+            for (int i = 0; i < nPeaks; i++) {
+                peaksBuffer.putDouble(intensity[i]);
+            }
+            peaksBuffer.flip();
+            int peaksLength = peaksBuffer.remaining();
+
+            byte[] titleBytes = spectrum.getSpectrumTitle() == null ? null : spectrum.getSpectrumTitle().getBytes(ENCODING);
+            String scanNumber = spectrum.getScanNumber();
+            byte[] scanBytes = scanNumber == null ? null : scanNumber.getBytes(ENCODING);
+            int headerLength = 8 + (titleBytes == null ? 0 : titleBytes.length) + (scanBytes == null ? 0 : scanBytes.length);
+
+            int compressedLength = 0;
+            int blockLength;
+            if (deflater != null) {
+                deflater.reset();
+                deflater.setInput(peaksBuffer.array(), 0, peaksLength);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (compressedLength == compressedBuffer.length) {
+                        byte[] newBuffer = new byte[2 * compressedBuffer.length];
+                        System.arraycopy(compressedBuffer, 0, newBuffer, 0, compressedLength);
+                        compressedBuffer = newBuffer;
+                    }
+                    compressedLength += deflater.deflate(compressedBuffer, compressedLength, compressedBuffer.length - compressedLength);
+                }
+                blockLength = headerLength + 4 + compressedLength;
+            } else {
+                blockLength = headerLength + peaksLength;
+            }
+            if (blockLength > SEGMENT_SIZE) {
+                throw new IllegalArgumentException("Spectrum " + spectrum.getSpectrumTitle() + " too large for the spectrum store.");
+            }
+
+            // make sure that the block does not cross a segment boundary
+            long blockPosition = blockBufferPosition + blockBuffer.position();
+            long segmentEnd = (blockPosition / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+            if (blockPosition + blockLength > segmentEnd) {
+                flushBlocks();
+                blockBufferPosition = segmentEnd;
+                blockPosition = segmentEnd;
+            }
+
+            // write the block
+            if (blockBuffer.remaining() < blockLength) {
+                flushBlocks();
+                blockBuffer = ensureCapacity(blockBuffer, blockLength);
+            }
+            putBytes(blockBuffer, titleBytes);
+            putBytes(blockBuffer, scanBytes);
+            if (deflater != null) {
+                blockBuffer.putInt(peaksLength);
+                blockBuffer.put(compressedBuffer, 0, compressedLength);
+            } else {
+                blockBuffer.put(peaksBuffer);
+            }
+
+            // write the record
+            if (!recordBuffer.hasRemaining()) {
+                flushRecords();
+            }
+            double[] rtWindow = precursor.getRtWindow();
+            recordBuffer.putLong(blockPosition);
+            recordBuffer.putInt(nPeaks);
+            recordBuffer.putInt(blockLength);
+            recordBuffer.putDouble(precursor.getMz());
+            recordBuffer.putDouble(precursor.getIntensity());
+            recordBuffer.putDouble(precursor.getRt());
+            recordBuffer.putDouble(rtWindow[0]);
+            recordBuffer.putDouble(rtWindow[1]);
+            recordBuffer.put(chargeValues);
+
+            nWritten++;
+        }
+
+        /**
+         * Writes the remaining data and the header and closes the file.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        public void close() throws IOException {
+            try {
+                if (nWritten != nSpectra) {
+                    throw new IOException(nWritten + " spectra written out of " + nSpectra + ".");
+                }
+                flushRecords();
+                flushBlocks();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC_NUMBER);
+                header.putInt(VERSION);
+                header.putInt(flags);
+                header.putInt(nSpectra);
+                header.putLong(spectrumFile.lastModified());
+                header.putLong(spectrumFile.length());
+                header.clear();
+                write(header, 0);
+                channel.force(false);
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+                randomAccessFile.close();
+            }
+        }
+
+        /**
+         * Writes the records buffer to the file.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        private void flushRecords() throws IOException {
+            recordBuffer.flip();
+            int length = recordBuffer.remaining();
+            write(recordBuffer, recordBufferPosition);
+            recordBufferPosition += length;
+            recordBuffer.clear();
+        }
+
+        /**
+         * Writes the peak blocks buffer to the file.
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        private void flushBlocks() throws IOException {
+            blockBuffer.flip();
+            int length = blockBuffer.remaining();
+            write(blockBuffer, blockBufferPosition);
+            blockBufferPosition += length;
+            blockBuffer.clear();
+        }
+
+        /**
+         * Writes the content of the given buffer at the given position.
+         *
+         * @param buffer the buffer to write
+         * @param position the position in the file
+         *
+         * @throws IOException exception thrown whenever an error occurred
+         * while writing the file
+         */
+        private void write(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    /**
+     * Returns a buffer of at least the given capacity, the given buffer if
+     * large enough.
+     *
+     * @param buffer the current buffer
+     * @param capacity the capacity needed
+     *
+     * @return a buffer of at least the given capacity
+     */
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer.capacity() >= capacity) {
+            return buffer;
+        }
+        return ByteBuffer.allocate(Math.max(capacity, 2 * buffer.capacity()));
+    }
+
+    /**
+     * Writes the given bytes preceded by their length, -1 for null.
+     *
+     * @param buffer the buffer to write to
+     * @param bytes the bytes to write
+     */
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Writes a long using zigzag and variable length encoding.
+     *
+     * @param buffer the buffer to write to
+     * @param value the value to write
+     */
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            buffer.put((byte) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+}
@@ -12,7 +12,6 @@ import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
 import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
@@ -207,188 +206,24 @@ public class MgfReader {
      * reading the file
      */
     public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler) throws FileNotFoundException, IOException {
+        return getIndexMap(mgfFile, waitingHandler, Runtime.getRuntime().availableProcessors());
+    }
 
-        HashMap<String, Long> indexes = new HashMap<String, Long>();
-        HashMap<String, Integer> spectrumIndexes = new HashMap<String, Integer>();
-        HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>();
-        LinkedHashSet<String> spectrumTitles = new LinkedHashSet<String>();
-        HashMap<String, Integer> duplicateTitles = new HashMap<String, Integer>();
-        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(mgfFile, "r", 1024 * 100);
-        long currentIndex = 0;
-        String title = null;
-        int spectrumCounter = 0;
-        double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
-        int maxCharge = 0, maxPeakCount = 0, peakCount = 0;
-        boolean peakPicked = true;
-        boolean precursorChargesMissing = false;
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(100);
-            waitingHandler.setSecondaryProgressCounter(0);
-        }
-
-        long progressUnit = bufferedRandomAccessFile.length() / 100;
-
-        String line;
-        boolean insideSpectrum = false;
-        boolean chargeTagFound = false;
-
-        while ((line = bufferedRandomAccessFile.getNextLine()) != null) {
-
-            // fix for lines ending with \r
-            if (line.endsWith("\r")) {
-                line = line.replace("\r", "");
-            }
-
-            if (line.equals("BEGIN IONS")) {
-                insideSpectrum = true;
-                chargeTagFound = false;
-                currentIndex = bufferedRandomAccessFile.getFilePointer();
-                spectrumCounter++;
-                peakCount = 0;
-                if (waitingHandler != null) {
-                    if (waitingHandler.isRunCanceled()) {
-                        break;
-                    }
-                    waitingHandler.setSecondaryProgressCounter((int) (currentIndex / progressUnit));
-                }
-            } else if (line.startsWith("TITLE")) {
-
-                title = line.substring(line.indexOf('=') + 1);
-
-                try {
-                    title = URLDecoder.decode(title, "utf-8");
-                } catch (UnsupportedEncodingException e) {
-                    if (waitingHandler != null) {
-                        waitingHandler.appendReport("An exception was thrown when trying to decode an mgf title: " + title, true, true);
-                    }
-                    System.out.println("An exception was thrown when trying to decode an mgf title: " + title);
-                    e.printStackTrace();
-                }
-                Integer nDuplicates = duplicateTitles.get(title);
-                if (nDuplicates != null || spectrumTitles.contains(title)) {
-                    if (nDuplicates == null) {
-                        nDuplicates = 0;
-                        System.err.println("Warning: Spectrum title " + title + " is not unique in " + mgfFile.getName() + "!");
-                    }
-                    duplicateTitles.put(title, ++nDuplicates);
-                    title += "_" + nDuplicates;
-                }
-                spectrumTitles.add(title);
-                indexes.put(title, currentIndex);
-                spectrumIndexes.put(title, spectrumCounter - 1);
-            } else if (line.startsWith("CHARGE")) {
-                ArrayList<Charge> precursorCharges = parseCharges(line);
-                for (Charge charge : precursorCharges) {
-                    if (charge.value > maxCharge) {
-                        maxCharge = charge.value;
-                    }
-                }
-                chargeTagFound = true;
-            } else if (line.startsWith("PEPMASS")) {
-                String temp = line.substring(line.indexOf("=") + 1);
-                String[] values = temp.split("\\s");
-                double precursorMz = Double.parseDouble(values[0]);
-
-                if (precursorMz > maxMz) {
-                    maxMz = precursorMz;
-                }
-
-                if (values.length > 1) {
-                    double precursorIntensity = Double.parseDouble(values[1]);
-
-                    if (precursorIntensity > maxIntensity) {
-                        maxIntensity = precursorIntensity;
-                    }
-                }
-
-                precursorMzMap.put(spectrumCounter - 1, precursorMz);
-
-            } else if (line.startsWith("RTINSECONDS")) {
-
-                String rtInput = "";
-
-                try {
-                    rtInput = line.substring(line.indexOf('=') + 1);
-                    String[] rtWindow = rtInput.split("-");
-
-                    if (rtWindow.length == 1) {
-                        String tempRt = rtWindow[0];
-                        // possible fix for values like RTINSECONDS=PT121.250000S
-                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
-                            tempRt = tempRt.substring(2, tempRt.length() - 1);
-                        }
-                        double rt = new Double(tempRt);
-                        if (rt > maxRT) {
-                            maxRT = rt;
-                        }
-                        if (rt < minRT) {
-                            minRT = rt;
-                        }
-                    } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
-                        double rt1 = new Double(rtWindow[0]);
-                        if (rt1 > maxRT) {
-                            maxRT = rt1;
-                        }
-                        if (rt1 < minRT) {
-                            minRT = rt1;
-                        }
-                        double rt2 = new Double(rtWindow[1]);
-                        if (rt2 > maxRT) {
-                            maxRT = rt2;
-                        }
-                        if (rt2 < minRT) {
-                            minRT = rt2;
-                        }
-                    }
-                } catch (NumberFormatException e) {
-                    throw new IllegalArgumentException("Cannot parse retention time: " + rtInput);
-                }
-            } else if (line.startsWith("END IONS")) {
-                insideSpectrum = false;
-                if (title != null) {
-                    if (peakCount > maxPeakCount) {
-                        maxPeakCount = peakCount;
-                    }
-                }
-                title = null;
-                if (!chargeTagFound) {
-                    precursorChargesMissing = true;
-                }
-            } else if (insideSpectrum && !line.equals("")) {
-                try {
-                    String values[] = line.split("\\s+");
-                    //Double mz = new Double(values[0]);
-                    Double intensity = new Double(values[1]);
-                    if (peakPicked && intensity == 0) {
-                        peakPicked = false;
-                    }
-                    peakCount++;
-                } catch (Exception e1) {
-                    // ignore comments and all other lines
-                }
-            }
-        }
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-        }
-
-        bufferedRandomAccessFile.close();
-
-        if (minRT == Double.MAX_VALUE) {
-            minRT = 0;
-        }
-
-        // convert the spectrum titles to an arraylist
-        ArrayList<String> spectrumTitlesAsArrayList = new ArrayList<String>(); // @TODO: is there a faster way of doing this?
-        for (String temp : spectrumTitles) {
-            spectrumTitlesAsArrayList.add(temp);
-        }
-
-        return new MgfIndex(spectrumTitlesAsArrayList, duplicateTitles, indexes, spectrumIndexes, precursorMzMap, mgfFile.getName(), minRT, maxRT,
-                maxMz, maxIntensity, maxCharge, maxPeakCount, peakPicked, precursorChargesMissing, mgfFile.lastModified(), spectrumCounter);
+    /**
+     * Returns the index of all spectra in the given MGF file. Large files are
+     * indexed in chunks on the given number of threads.
+     *
+     * @param mgfFile the given MGF file
+     * @param waitingHandler a waitingHandler showing the progress
+     * @param nThreads the number of threads to use
+     * @return the index of all spectra
+     * @throws FileNotFoundException Exception thrown whenever the file is not
+     * found
+     * @throws IOException Exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler, int nThreads) throws FileNotFoundException, IOException {
+        return MgfStreamReader.getIndexMap(mgfFile, waitingHandler, nThreads);
     }
 
     /**
@@ -1163,7 +998,7 @@ public class MgfReader {
      * @return the possible charges found
      * @throws IllegalArgumentException
      */
-    private static ArrayList<Charge> parseCharges(String chargeLine) throws IllegalArgumentException {
+    static ArrayList<Charge> parseCharges(String chargeLine) throws IllegalArgumentException {
 
         ArrayList<Charge> result = new ArrayList<Charge>(1);
         String tempLine = chargeLine.substring(chargeLine.indexOf("=") + 1);
@@ -1331,12 +1166,11 @@ public class MgfReader {
                 aplWriter.write("fragmentation=" + fragmentation + "\n");
                 aplWriter.write("charge=" + spectrum.getPrecursor().getPossibleCharges().get(0).value + "\n"); //@TODO what if many/no charge is present?
                 aplWriter.write("header=" + spectrum.getSpectrumTitle() + "\n");
-                HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
-                ArrayList<Double> fragmentMasses = new ArrayList<Double>(peakMap.keySet());
-                Collections.sort(fragmentMasses);
+                double[] mzArray = spectrum.getMzValues();
+                double[] intensityArray = spectrum.getIntensityValues();
 
-                for (double fragmentMass : fragmentMasses) {
-                    aplWriter.write(fragmentMass + "\t" + peakMap.get(fragmentMass).intensity + "\n");
+                for (int i = 0; i < mzArray.length; i++) {
+                    aplWriter.write(mzArray[i] + "\t" + intensityArray[i] + "\n");
                 }
 
                 aplWriter.write("peaklist end\n\n");
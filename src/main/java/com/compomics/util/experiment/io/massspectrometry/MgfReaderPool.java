@@ -0,0 +1,173 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of streaming readers of an MGF file. Every reader opens the file with
+ * its own channel so that spectra can be read by several threads
+ * simultaneously without contention, and so that a thread interrupted while
+ * reading only closes the channel of its reader. Readers with a closed
+ * channel are discarded when given back.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfReaderPool {
+
+    /**
+     * The file read by this pool.
+     */
+    private final File mgfFile;
+    /**
+     * The readers not in use.
+     */
+    private final ConcurrentLinkedQueue<MgfStreamReader> idleReaders = new ConcurrentLinkedQueue<MgfStreamReader>();
+    /**
+     * The number of readers not in use.
+     */
+    private final AtomicInteger nIdleReaders = new AtomicInteger();
+    /**
+     * The maximal number of readers kept when not in use.
+     */
+    private final int maxIdleReaders;
+    /**
+     * Boolean indicating whether the pool was closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param mgfFile the MGF file
+     * @param maxIdleReaders the maximal number of readers kept when not in use
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public MgfReaderPool(File mgfFile, int maxIdleReaders) throws IOException {
+        this.mgfFile = mgfFile;
+        this.maxIdleReaders = maxIdleReaders;
+        release(new MgfStreamReader(mgfFile));
+    }
+
+    /**
+     * Constructor keeping at most one idle reader per available processor.
+     *
+     * @param mgfFile the MGF file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public MgfReaderPool(File mgfFile) throws IOException {
+        this(mgfFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns a reader for the exclusive use of the calling thread. The
+     * reader must be given back using release.
+     *
+     * @return a reader
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public MgfStreamReader borrow() throws IOException {
+        if (closed) {
+            throw new IOException("The reader pool of " + mgfFile.getName() + " is closed.");
+        }
+        MgfStreamReader reader = idleReaders.poll();
+        if (reader == null) {
+            return new MgfStreamReader(mgfFile);
+        }
+        nIdleReaders.decrementAndGet();
+        return reader;
+    }
+
+    /**
+     * Gives back a reader obtained using borrow.
+     *
+     * @param reader the reader
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    public void release(MgfStreamReader reader) throws IOException {
+        if (!closed && reader.isOpen()) {
+            if (nIdleReaders.incrementAndGet() <= maxIdleReaders) {
+                idleReaders.offer(reader);
+                if (!closed || !idleReaders.remove(reader)) {
+                    return;
+                }
+            } else {
+                nIdleReaders.decrementAndGet();
+            }
+        }
+        reader.close();
+    }
+
+    /**
+     * Returns the spectrum starting at the given index. See
+     * MgfStreamReader.getSpectrum.
+     *
+     * @param index the index of the spectrum in the file
+     * @param fileName the name of the file
+     *
+     * @return the spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws IllegalArgumentException exception thrown whenever the file is
+     * not correctly formatted
+     */
+    public MSnSpectrum getSpectrum(long index, String fileName) throws IOException, IllegalArgumentException {
+        MgfStreamReader reader = borrow();
+        try {
+            return reader.getSpectrum(index, fileName);
+        } finally {
+            release(reader);
+        }
+    }
+
+    /**
+     * Returns the precursor of the spectrum starting at the given index. See
+     * MgfStreamReader.getPrecursor.
+     *
+     * @param index the index of the spectrum in the file
+     * @param fileName the name of the file
+     *
+     * @return the precursor
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws IllegalArgumentException exception thrown whenever the file is
+     * not correctly formatted
+     */
+    public Precursor getPrecursor(long index, String fileName) throws IOException, IllegalArgumentException {
+        MgfStreamReader reader = borrow();
+        try {
+            return reader.getPrecursor(index, fileName);
+        } finally {
+            release(reader);
+        }
+    }
+
+    /**
+     * Closes the readers not in use. The readers in use are closed when given
+     * back.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    public void close() throws IOException {
+        closed = true;
+        MgfStreamReader reader;
+        while ((reader = idleReaders.poll()) != null) {
+            reader.close();
+        }
+        nIdleReaders.set(0);
+    }
+}
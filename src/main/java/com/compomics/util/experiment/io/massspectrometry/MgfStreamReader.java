@@ -0,0 +1,1146 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streaming reader for MGF files. The file is read in a reusable byte buffer
+ * using positional reads on the file channel and the lines are parsed in
+ * place: peak lines are parsed without creating objects, and only the header
+ * lines of the spectra are converted to strings. Several readers can share
+ * the channel of a file, allowing the indexing of large files on several
+ * threads, the file being split in chunks at spectrum boundaries.
+ *
+ * @author Marc Vaudel
+ * @author Harald Barsnes
+ */
+public class MgfStreamReader {
+
+    /**
+     * The initial size of the read buffer.
+     */
+    public static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The number of bytes read at once when reading a single spectrum.
+     */
+    public static final int SPECTRUM_READ_SIZE = 64 * 1024;
+    /**
+     * The minimal size of a chunk of file indexed by a thread.
+     */
+    public static final long MIN_CHUNK_SIZE = 8 * 1024 * 1024;
+    /**
+     * The interval in milliseconds at which the progress of the chunks is
+     * reported while indexing.
+     */
+    private static final long PROGRESS_INTERVAL = 200;
+    /**
+     * The powers of ten which can be represented exactly as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = new double[]{1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /**
+     * The tag starting a spectrum.
+     */
+    private static final byte[] BEGIN_IONS = getBytes("BEGIN IONS");
+    /**
+     * The tag ending a spectrum.
+     */
+    private static final byte[] END_IONS = getBytes("END IONS");
+    /**
+     * The title tag.
+     */
+    private static final byte[] TITLE = getBytes("TITLE");
+    /**
+     * The charge tag.
+     */
+    private static final byte[] CHARGE = getBytes("CHARGE");
+    /**
+     * The precursor mass tag.
+     */
+    private static final byte[] PEPMASS = getBytes("PEPMASS");
+    /**
+     * The retention time tag.
+     */
+    private static final byte[] RTINSECONDS = getBytes("RTINSECONDS");
+    /**
+     * The scan number tag.
+     */
+    private static final byte[] SCANS = getBytes("SCANS");
+    /**
+     * The file opened by this reader, null if the channel was provided.
+     */
+    private final RandomAccessFile randomAccessFile;
+    /**
+     * The channel read.
+     */
+    private final FileChannel channel;
+    /**
+     * The read buffer.
+     */
+    private byte[] bytes = new byte[BUFFER_SIZE];
+    /**
+     * The position in the file of the first byte of the buffer.
+     */
+    private long bufferPosition = 0;
+    /**
+     * The number of bytes of the buffer filled from the file.
+     */
+    private int bufferLimit = 0;
+    /**
+     * The index in the buffer of the next byte to read.
+     */
+    private int position = 0;
+    /**
+     * The position in the file where reading stops.
+     */
+    private long end = 0;
+    /**
+     * The maximal number of bytes read from the file at once.
+     */
+    private int readSize = BUFFER_SIZE;
+    /**
+     * The index in the buffer of the first byte of the current line.
+     */
+    private int lineStart = 0;
+    /**
+     * The index in the buffer after the last byte of the current line,
+     * excluding the line break.
+     */
+    private int lineEnd = 0;
+    /**
+     * The index in the buffer after the last number parsed, -1 if the parsing
+     * failed.
+     */
+    private int numberEnd = -1;
+    /**
+     * The m/z values of the spectrum being parsed.
+     */
+    private double[] mzBuffer = new double[1024];
+    /**
+     * The intensity values of the spectrum being parsed.
+     */
+    private double[] intensityBuffer = new double[1024];
+
+    /**
+     * Constructor opening the given file.
+     *
+     * @param mgfFile the MGF file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public MgfStreamReader(File mgfFile) throws IOException {
+        randomAccessFile = new RandomAccessFile(mgfFile, "r");
+        channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * Constructor reading from the given channel. The channel is not closed
+     * by the reader and can be shared by several readers.
+     *
+     * @param channel the channel of an MGF file
+     */
+    public MgfStreamReader(FileChannel channel) {
+        randomAccessFile = null;
+        this.channel = channel;
+    }
+
+    /**
+     * Closes the file if it was opened by this reader.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    public void close() throws IOException {
+        if (randomAccessFile != null) {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Indicates whether the channel read is open. The channel is closed when
+     * a thread is interrupted while reading from it.
+     *
+     * @return a boolean indicating whether the channel read is open
+     */
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Returns the bytes of an ASCII string.
+     *
+     * @param string the string
+     *
+     * @return the bytes of the string
+     */
+    private static byte[] getBytes(String string) {
+        byte[] result = new byte[string.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) string.charAt(i);
+        }
+        return result;
+    }
+
+    /**
+     * Positions the reader at the given position in the file. The reader will
+     * not read beyond the given end.
+     *
+     * @param start the position in the file where to start reading
+     * @param end the position in the file where to stop reading
+     * @param readSize the maximal number of bytes to read from the file at
+     * once
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * accessing the file
+     */
+    private void seek(long start, long end, int readSize) throws IOException {
+        bufferPosition = start;
+        bufferLimit = 0;
+        position = 0;
+        this.end = Math.min(end, channel.size());
+        this.readSize = readSize;
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and fills the rest of
+     * the buffer from the file. The buffer is enlarged if it is full.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private void fill() throws IOException {
+        int remaining = bufferLimit - position;
+        if (position == 0 && bufferLimit == bytes.length) {
+            bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+        } else if (position > 0) {
+            System.arraycopy(bytes, position, bytes, 0, remaining);
+        }
+        bufferPosition += position;
+        position = 0;
+        bufferLimit = remaining;
+        int length = (int) Math.min(Math.min(bytes.length - bufferLimit, readSize), end - bufferPosition - bufferLimit);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, bufferLimit, length);
+        while (byteBuffer.hasRemaining()) {
+            int read = channel.read(byteBuffer, bufferPosition + byteBuffer.position());
+            if (read < 0) {
+                end = bufferPosition + byteBuffer.position();
+                break;
+            }
+        }
+        bufferLimit = byteBuffer.position();
+    }
+
+    /**
+     * Reads the next line. Trailing carriage returns are excluded from the
+     * line.
+     *
+     * @return a boolean indicating whether a line was read
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private boolean nextLine() throws IOException {
+        int scanned = position;
+        while (true) {
+            for (int i = scanned; i < bufferLimit; i++) {
+                if (bytes[i] == '\n') {
+                    setLine(position, i);
+                    position = i + 1;
+                    return true;
+                }
+            }
+            if (bufferPosition + bufferLimit >= end) {
+                if (position < bufferLimit) {
+                    setLine(position, bufferLimit);
+                    position = bufferLimit;
+                    return true;
+                }
+                return false;
+            }
+            scanned = bufferLimit - position;
+            fill();
+        }
+    }
+
+    /**
+     * Sets the bounds of the current line.
+     *
+     * @param start the index of the first byte of the line
+     * @param lineBreak the index of the line break
+     */
+    private void setLine(int start, int lineBreak) {
+        lineStart = start;
+        lineEnd = lineBreak;
+        while (lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+            lineEnd--;
+        }
+    }
+
+    /**
+     * Returns the position in the file of the line following the current
+     * line.
+     *
+     * @return the position in the file of the next line
+     */
+    private long getNextLinePosition() {
+        return bufferPosition + position;
+    }
+
+    /**
+     * Indicates whether the current line starts with the given tag.
+     *
+     * @param tag the tag
+     *
+     * @return a boolean indicating whether the current line starts with the
+     * given tag
+     */
+    private boolean startsWith(byte[] tag) {
+        if (lineEnd - lineStart < tag.length) {
+            return false;
+        }
+        for (int i = 0; i < tag.length; i++) {
+            if (bytes[lineStart + i] != tag[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether the current line is the given tag.
+     *
+     * @param tag the tag
+     *
+     * @return a boolean indicating whether the current line is the given tag
+     */
+    private boolean lineEquals(byte[] tag) {
+        return lineEnd - lineStart == tag.length && startsWith(tag);
+    }
+
+    /**
+     * Returns the index in the buffer of the value of a tag line, i.e. after
+     * the first equal sign, the start of the line if none.
+     *
+     * @return the index of the value in the buffer
+     */
+    private int getValueStart() {
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (bytes[i] == '=') {
+                return i + 1;
+            }
+        }
+        return lineStart;
+    }
+
+    /**
+     * Returns the current line as string starting from the given index.
+     *
+     * @param from the index in the buffer where to start
+     *
+     * @return the line as string
+     *
+     * @throws IOException exception thrown whenever the encoding is not
+     * supported
+     */
+    private String getLine(int from) throws IOException {
+        return new String(bytes, from, lineEnd - from, "UTF-8");
+    }
+
+    /**
+     * Returns the given bytes of the buffer as string, one character per
+     * byte.
+     *
+     * @param from the index of the first byte
+     * @param to the index after the last byte
+     *
+     * @return the bytes as string
+     */
+    private String getAscii(int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (bytes[from + i] & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the spectrum title contained in the current line.
+     *
+     * @return the spectrum title
+     *
+     * @throws IOException exception thrown whenever the encoding is not
+     * supported
+     */
+    private String getTitle() throws IOException {
+        int from = getValueStart();
+        String title = getLine(from);
+        for (int i = from; i < lineEnd; i++) {
+            if (bytes[i] == '%' || bytes[i] == '+') {
+                return URLDecoder.decode(title, "utf-8");
+            }
+        }
+        return title;
+    }
+
+    /**
+     * Indicates whether the given byte is a white space.
+     *
+     * @param b the byte
+     *
+     * @return a boolean indicating whether the given byte is a white space
+     */
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * Parses a decimal number in the buffer. The index after the number is
+     * stored in numberEnd, -1 if no number could be parsed. Numbers which
+     * cannot be converted exactly using a single multiplication or division
+     * by a power of ten are parsed using Double.parseDouble.
+     *
+     * @param from the index of the first byte of the number
+     * @param to the index where the parsing stops
+     *
+     * @return the number parsed
+     */
+    private double parseNumber(int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int nDigits = 0;
+        boolean digitFound = false;
+        boolean truncated = false;
+        while (i < to && bytes[i] >= '0' && bytes[i] <= '9') {
+            if (nDigits < 18) {
+                mantissa = 10 * mantissa + (bytes[i] - '0');
+                if (mantissa > 0) {
+                    nDigits++;
+                }
+            } else {
+                exponent++;
+                truncated = true;
+            }
+            digitFound = true;
+            i++;
+        }
+        if (i < to && bytes[i] == '.') {
+            i++;
+            while (i < to && bytes[i] >= '0' && bytes[i] <= '9') {
+                if (nDigits < 18) {
+                    mantissa = 10 * mantissa + (bytes[i] - '0');
+                    if (mantissa > 0) {
+                        nDigits++;
+                    }
+                    exponent--;
+                } else {
+                    truncated = true;
+                }
+                digitFound = true;
+                i++;
+            }
+        }
+        if (!digitFound) {
+            numberEnd = -1;
+            return Double.NaN;
+        }
+        if (i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            if (i == to || bytes[i] < '0' || bytes[i] > '9') {
+                numberEnd = -1;
+                return Double.NaN;
+            }
+            int exponentValue = 0;
+            while (i < to && bytes[i] >= '0' && bytes[i] <= '9') {
+                if (exponentValue < 10000) {
+                    exponentValue = 10 * exponentValue + (bytes[i] - '0');
+                }
+                i++;
+            }
+            exponent += negativeExponent ? -exponentValue : exponentValue;
+        }
+        numberEnd = i;
+        if (!truncated && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(getAscii(from, i));
+    }
+
+    /**
+     * Parses the first number of the value of a tag line. The index after the
+     * number is stored in numberEnd.
+     *
+     * @param from the index where the value starts
+     *
+     * @return the number parsed
+     *
+     * @throws NumberFormatException exception thrown if the value does not
+     * start with a number
+     */
+    private double parseValue(int from) throws NumberFormatException {
+        int to = from;
+        while (to < lineEnd && !isWhiteSpace(bytes[to])) {
+            to++;
+        }
+        double value = parseNumber(from, to);
+        if (numberEnd != to) {
+            throw new NumberFormatException("Impossible to parse " + getAscii(from, to) + " as a number.");
+        }
+        return value;
+    }
+
+    /**
+     * Parses the current line as a peak, storing its m/z and intensity in the
+     * given arrays at the given index. Returns false if the line is not a
+     * peak.
+     *
+     * @param mz the array where to store the m/z
+     * @param intensity the array where to store the intensity
+     * @param index the index where to store the peak
+     *
+     * @return a boolean indicating whether the line was parsed as a peak
+     */
+    private boolean parsePeak(double[] mz, double[] intensity, int index) {
+        int i = lineStart;
+        while (i < lineEnd && isWhiteSpace(bytes[i])) {
+            i++;
+        }
+        double mzValue = parseNumber(i, lineEnd);
+        if (numberEnd == -1 || numberEnd == lineEnd || !isWhiteSpace(bytes[numberEnd])) {
+            return false;
+        }
+        i = numberEnd;
+        while (i < lineEnd && isWhiteSpace(bytes[i])) {
+            i++;
+        }
+        double intensityValue = parseNumber(i, lineEnd);
+        if (numberEnd == -1 || numberEnd < lineEnd && !isWhiteSpace(bytes[numberEnd])) {
+            return false;
+        }
+        mz[index] = mzValue;
+        intensity[index] = intensityValue;
+        return true;
+    }
+
+    /**
+     * Returns the spectrum starting at the given index.
+     *
+     * @param index the position in the file where to start looking for the
+     * spectrum
+     * @param fileName the name of the MGF file
+     *
+     * @return the next spectrum encountered
+     *
+     * @throws IOException exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public MSnSpectrum getSpectrum(long index, String fileName) throws IOException, IllegalArgumentException {
+
+        seek(index, Long.MAX_VALUE, SPECTRUM_READ_SIZE);
+        double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
+        ArrayList<Charge> precursorCharges = new ArrayList<Charge>();
+        String scanNumber = "", spectrumTitle = "";
+        int nPeaks = 0;
+        boolean insideSpectrum = false;
+
+        while (nextLine()) {
+
+            if (startsWith(BEGIN_IONS)) {
+                insideSpectrum = true;
+                nPeaks = 0;
+            } else if (startsWith(TITLE)) {
+                insideSpectrum = true;
+                spectrumTitle = getTitle();
+            } else if (startsWith(CHARGE)) {
+                precursorCharges = MgfReader.parseCharges(getLine(lineStart));
+            } else if (startsWith(PEPMASS)) {
+                precursorMz = parseValue(getValueStart());
+                int i = numberEnd;
+                while (i < lineEnd && isWhiteSpace(bytes[i])) {
+                    i++;
+                }
+                precursorIntensity = i < lineEnd ? parseValue(i) : 0.0;
+            } else if (startsWith(RTINSECONDS)) {
+                try {
+                    String rtInput = getLine(getValueStart());
+                    String[] rtWindow = rtInput.split("-");
+                    if (rtWindow.length == 1) {
+                        String tempRt = rtWindow[0];
+                        // possible fix for values like RTINSECONDS=PT121.250000S
+                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                            tempRt = tempRt.substring(2, tempRt.length() - 1);
+                        }
+                        rt = new Double(tempRt);
+                    } else if (rtWindow.length == 2) {
+                        rt1 = new Double(rtWindow[0]);
+                        rt2 = new Double(rtWindow[1]);
+                    }
+                } catch (Exception e) {
+                    System.out.println("An exception was thrown when trying to decode the retention time: " + spectrumTitle);
+                    e.printStackTrace();
+                    // ignore exception, RT will not be parsed
+                }
+            } else if (startsWith(SCANS)) {
+                scanNumber = getLine(getValueStart());
+            } else if (startsWith(END_IONS)) {
+                Precursor precursor;
+                if (rt1 != -1 && rt2 != -1) {
+                    precursor = new Precursor(precursorMz, precursorIntensity, precursorCharges, rt1, rt2);
+                } else {
+                    precursor = new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
+                }
+                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, Arrays.copyOf(mzBuffer, nPeaks), Arrays.copyOf(intensityBuffer, nPeaks), fileName);
+                msnSpectrum.setScanNumber(scanNumber);
+                return msnSpectrum;
+            } else if (insideSpectrum && lineEnd > lineStart) {
+                if (nPeaks == mzBuffer.length) {
+                    mzBuffer = Arrays.copyOf(mzBuffer, 2 * nPeaks);
+                    intensityBuffer = Arrays.copyOf(intensityBuffer, 2 * nPeaks);
+                }
+                if (parsePeak(mzBuffer, intensityBuffer, nPeaks)) {
+                    nPeaks++;
+                }
+                // ignore comments and all other lines
+            }
+        }
+
+        throw new IllegalArgumentException("End of the file reached before encountering the tag \"END IONS\".");
+    }
+
+    /**
+     * Returns the precursor of the spectrum starting at the given index.
+     *
+     * @param index the position in the file where to start looking for the
+     * spectrum
+     * @param fileName the name of the MGF file
+     *
+     * @return the precursor of the next spectrum encountered
+     *
+     * @throws IOException exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public Precursor getPrecursor(long index, String fileName) throws IOException, IllegalArgumentException {
+
+        seek(index, Long.MAX_VALUE, SPECTRUM_READ_SIZE);
+        String title = null;
+        double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
+        ArrayList<Charge> precursorCharges = new ArrayList<Charge>(1);
+
+        while (nextLine()) {
+
+            if (startsWith(TITLE)) {
+                title = getTitle();
+            } else if (startsWith(CHARGE)) {
+                precursorCharges = MgfReader.parseCharges(getLine(lineStart));
+            } else if (startsWith(PEPMASS)) {
+                precursorMz = parseValue(getValueStart());
+                int i = numberEnd;
+                while (i < lineEnd && isWhiteSpace(bytes[i])) {
+                    i++;
+                }
+                precursorIntensity = i < lineEnd ? parseValue(i) : 0.0;
+            } else if (startsWith(RTINSECONDS)) {
+                try {
+                    String rtInput = getLine(getValueStart());
+                    String[] rtWindow = rtInput.split("-");
+                    if (rtWindow.length == 1) {
+                        String tempRt = rtWindow[0];
+                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) { // possible fix for values like RTINSECONDS=PT121.250000S
+                            tempRt = tempRt.substring(2, tempRt.length() - 1);
+                        }
+                        rt = new Double(tempRt);
+                    } else if (rtWindow.length == 2) {
+                        rt1 = new Double(rtWindow[0]);
+                        rt2 = new Double(rtWindow[1]);
+                    }
+                } catch (Exception e) {
+                    System.out.println("An exception was thrown when trying to decode the retention time: " + title);
+                    e.printStackTrace(); // ignore exception, RT will not be parsed
+                }
+            } else if (lineEnd > lineStart) {
+                if (startsWith(END_IONS) || !lineContains('#') && !lineContains('=')) {
+                    if (rt1 != -1 && rt2 != -1) {
+                        return new Precursor(precursorMz, precursorIntensity, precursorCharges, rt1, rt2);
+                    }
+                    return new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("End of the file reached before encountering the tag \"END IONS\". File: " + fileName + ", title: " + title);
+    }
+
+    /**
+     * Indicates whether the current line contains the given character.
+     *
+     * @param character the character
+     *
+     * @return a boolean indicating whether the current line contains the
+     * given character
+     */
+    private boolean lineContains(char character) {
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (bytes[i] == character) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the position of the first spectrum starting at or after the
+     * given position, the end of the file if none.
+     *
+     * @param from the position in the file where to start looking
+     *
+     * @return the position of the first "BEGIN IONS" line at or after the
+     * given position
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private long getNextSpectrumStart(long from) throws IOException {
+        long fileLength = channel.size();
+        if (from == 0) {
+            seek(0, fileLength, SPECTRUM_READ_SIZE);
+        } else {
+            // skip the line containing the byte before the given position
+            seek(from - 1, fileLength, SPECTRUM_READ_SIZE);
+            nextLine();
+        }
+        while (nextLine()) {
+            if (lineEquals(BEGIN_IONS)) {
+                return bufferPosition + lineStart;
+            }
+        }
+        return fileLength;
+    }
+
+    /**
+     * Returns the index of all spectra in the given MGF file. The file is
+     * split in chunks at spectrum boundaries which are indexed in parallel.
+     * The progress is reported to the waiting handler from the calling thread
+     * only.
+     *
+     * @param mgfFile the MGF file
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     * @param nThreads the number of threads to use
+     *
+     * @return the index of all spectra
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler, int nThreads) throws IOException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mgfFile, "r");
+        ArrayList<IndexChunk> chunks = new ArrayList<IndexChunk>();
+
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long fileLength = channel.size();
+            long nChunks = Math.max(Math.min(4L * nThreads, fileLength / MIN_CHUNK_SIZE), 1);
+
+            // split the file at the spectrum starts
+            MgfStreamReader boundaryReader = new MgfStreamReader(channel);
+            long start = 0;
+            for (long i = 1; i <= nChunks; i++) {
+                long chunkEnd = i == nChunks ? fileLength : boundaryReader.getNextSpectrumStart(fileLength * i / nChunks);
+                if (chunkEnd > start) {
+                    chunks.add(new IndexChunk(new MgfStreamReader(channel), start, chunkEnd, waitingHandler));
+                    start = chunkEnd;
+                }
+            }
+
+            if (waitingHandler == null && (chunks.size() == 1 || nThreads == 1)) {
+                for (IndexChunk chunk : chunks) {
+                    chunk.run();
+                }
+            } else {
+                // the chunks only count their progress, it is reported from this thread while waiting
+                ExecutorService pool = Executors.newFixedThreadPool(Math.max(Math.min(nThreads, chunks.size()), 1));
+                try {
+                    for (IndexChunk chunk : chunks) {
+                        pool.submit(chunk);
+                    }
+                    pool.shutdown();
+                    while (!pool.awaitTermination(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        reportProgress(chunks, fileLength, waitingHandler);
+                    }
+                    reportProgress(chunks, fileLength, waitingHandler);
+                } catch (InterruptedException e) {
+                    throw new IOException("Indexing of " + mgfFile.getName() + " interrupted.", e);
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+
+        for (IndexChunk chunk : chunks) {
+            Exception exception = chunk.getException();
+            if (exception != null) {
+                if (exception instanceof IOException) {
+                    throw (IOException) exception;
+                } else if (exception instanceof RuntimeException) {
+                    throw (RuntimeException) exception;
+                }
+                throw new IllegalStateException(exception);
+            }
+        }
+
+        // merge the chunks in the order of the file
+        HashMap<String, Long> indexes = new HashMap<String, Long>();
+        HashMap<String, Integer> spectrumIndexes = new HashMap<String, Integer>();
+        HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>();
+        LinkedHashSet<String> spectrumTitles = new LinkedHashSet<String>();
+        HashMap<String, Integer> duplicateTitles = new HashMap<String, Integer>();
+        double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
+        int maxCharge = 0, maxPeakCount = 0;
+        boolean peakPicked = true;
+        boolean precursorChargesMissing = false;
+        int spectrumCounter = 0;
+
+        for (IndexChunk chunk : chunks) {
+
+            for (int i = 0; i < chunk.titles.size(); i++) {
+                String title = chunk.titles.get(i);
+                Integer nDuplicates = duplicateTitles.get(title);
+                if (nDuplicates != null || spectrumTitles.contains(title)) {
+                    if (nDuplicates == null) {
+                        nDuplicates = 0;
+                        System.err.println("Warning: Spectrum title " + title + " is not unique in " + mgfFile.getName() + "!");
+                    }
+                    duplicateTitles.put(title, ++nDuplicates);
+                    title += "_" + nDuplicates;
+                }
+                spectrumTitles.add(title);
+                indexes.put(title, chunk.titleIndexes[i]);
+                spectrumIndexes.put(title, spectrumCounter + chunk.titleSpectrumNumbers[i]);
+            }
+            for (int i = 0; i < chunk.nSpectra; i++) {
+                double precursorMz = chunk.precursorMzs[i];
+                if (!Double.isNaN(precursorMz)) {
+                    precursorMzMap.put(spectrumCounter + i, precursorMz);
+                }
+            }
+            spectrumCounter += chunk.nSpectra;
+
+            maxRT = Math.max(maxRT, chunk.maxRT);
+            minRT = Math.min(minRT, chunk.minRT);
+            maxMz = Math.max(maxMz, chunk.maxMz);
+            maxIntensity = Math.max(maxIntensity, chunk.maxIntensity);
+            maxCharge = Math.max(maxCharge, chunk.maxCharge);
+            maxPeakCount = Math.max(maxPeakCount, chunk.maxPeakCount);
+            peakPicked = peakPicked && chunk.peakPicked;
+            precursorChargesMissing = precursorChargesMissing || chunk.precursorChargesMissing;
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        if (minRT == Double.MAX_VALUE) {
+            minRT = 0;
+        }
+
+        return new MgfIndex(new ArrayList<String>(spectrumTitles), duplicateTitles, indexes, spectrumIndexes, precursorMzMap, mgfFile.getName(), minRT, maxRT,
+                maxMz, maxIntensity, maxCharge, maxPeakCount, peakPicked, precursorChargesMissing, mgfFile.lastModified(), spectrumCounter);
+    }
+
+    /**
+     * Sets the secondary progress of the waiting handler to the share of the
+     * file indexed by the chunks.
+     *
+     * @param chunks the chunks of the file
+     * @param fileLength the length of the file
+     * @param waitingHandler the waiting handler, can be null
+     */
+    private static void reportProgress(ArrayList<IndexChunk> chunks, long fileLength, WaitingHandler waitingHandler) {
+        if (waitingHandler != null && !waitingHandler.isRunCanceled()) {
+            long nBytesIndexed = 0;
+            for (IndexChunk chunk : chunks) {
+                nBytesIndexed += chunk.nBytesIndexed;
+            }
+            long progressUnit = Math.max(fileLength / 100, 1);
+            waitingHandler.setSecondaryProgressCounter((int) Math.min(nBytesIndexed / progressUnit, 100));
+        }
+    }
+
+    /**
+     * Runnable indexing a chunk of an MGF file. The spectra are numbered from
+     * the start of the chunk, and the titles are not deduplicated. The chunk
+     * counts the bytes it indexed, the progress is reported by the thread
+     * merging the chunks.
+     */
+    private static class IndexChunk implements Runnable {
+
+        /**
+         * The reader used to read the chunk.
+         */
+        private final MgfStreamReader reader;
+        /**
+         * The position in the file where the chunk starts.
+         */
+        private final long start;
+        /**
+         * The position in the file where the chunk ends.
+         */
+        private final long end;
+        /**
+         * The waiting handler used to check whether the run is canceled, can
+         * be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The number of bytes of the chunk indexed so far.
+         */
+        volatile long nBytesIndexed = 0;
+        /**
+         * The titles of the spectra in the order of the file.
+         */
+        final ArrayList<String> titles = new ArrayList<String>();
+        /**
+         * The positions in the file of the spectra of the titles.
+         */
+        long[] titleIndexes = new long[1024];
+        /**
+         * The numbers in the chunk of the spectra of the titles.
+         */
+        int[] titleSpectrumNumbers = new int[1024];
+        /**
+         * The precursor m/z of every spectrum, NaN if not found.
+         */
+        double[] precursorMzs = new double[1024];
+        /**
+         * The number of spectra in the chunk.
+         */
+        int nSpectra = 0;
+        /**
+         * The minimal retention time.
+         */
+        double minRT = Double.MAX_VALUE;
+        /**
+         * The maximal retention time.
+         */
+        double maxRT = -1;
+        /**
+         * The maximal precursor m/z.
+         */
+        double maxMz = -1;
+        /**
+         * The maximal precursor intensity.
+         */
+        double maxIntensity = 0;
+        /**
+         * The maximal precursor charge.
+         */
+        int maxCharge = 0;
+        /**
+         * The maximal number of peaks in a spectrum.
+         */
+        int maxPeakCount = 0;
+        /**
+         * Indicates whether all spectra are peak picked.
+         */
+        boolean peakPicked = true;
+        /**
+         * Indicates whether a spectrum has no charge.
+         */
+        boolean precursorChargesMissing = false;
+        /**
+         * Exception encountered while indexing, null if none.
+         */
+        private Exception exception = null;
+
+        /**
+         * Constructor.
+         *
+         * @param reader the reader used to read the chunk
+         * @param start the position in the file where the chunk starts
+         * @param end the position in the file where the chunk ends
+         * @param waitingHandler the waiting handler used to check whether the
+         * run is canceled, can be null
+         */
+        IndexChunk(MgfStreamReader reader, long start, long end, WaitingHandler waitingHandler) {
+            this.reader = reader;
+            this.start = start;
+            this.end = end;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                index();
+            } catch (Exception e) {
+                exception = e;
+            }
+        }
+
+        /**
+         * Returns the exception encountered while indexing, null if none.
+         *
+         * @return the exception encountered while indexing
+         */
+        Exception getException() {
+            return exception;
+        }
+
+        /**
+         * Indexes the chunk.
+         *
+         * @throws IOException exception thrown whenever an error occurred while
+         * reading the file
+         */
+        private void index() throws IOException {
+
+            MgfStreamReader r = reader;
+            r.seek(start, end, BUFFER_SIZE);
+            long currentIndex = 0;
+            int nTitles = 0, peakCount = 0;
+            boolean insideSpectrum = false;
+            boolean chargeTagFound = false;
+            boolean titleFound = false;
+            double[] mz = new double[1];
+            double[] intensity = new double[1];
+
+            while (r.nextLine()) {
+
+                if (r.lineEquals(BEGIN_IONS)) {
+                    insideSpectrum = true;
+                    chargeTagFound = false;
+                    currentIndex = r.getNextLinePosition();
+                    if (nSpectra == precursorMzs.length) {
+                        precursorMzs = Arrays.copyOf(precursorMzs, 2 * nSpectra);
+                    }
+                    precursorMzs[nSpectra++] = Double.NaN;
+                    peakCount = 0;
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            break;
+                        }
+                        nBytesIndexed = currentIndex - start;
+                    }
+                } else if (r.startsWith(TITLE)) {
+                    if (nTitles == titleIndexes.length) {
+                        titleIndexes = Arrays.copyOf(titleIndexes, 2 * nTitles);
+                        titleSpectrumNumbers = Arrays.copyOf(titleSpectrumNumbers, 2 * nTitles);
+                    }
+                    titles.add(r.getTitle());
+                    titleFound = true;
+                    titleIndexes[nTitles] = currentIndex;
+                    titleSpectrumNumbers[nTitles] = nSpectra - 1;
+                    nTitles++;
+                } else if (r.startsWith(CHARGE)) {
+                    ArrayList<Charge> precursorCharges = MgfReader.parseCharges(r.getLine(r.lineStart));
+                    for (Charge charge : precursorCharges) {
+                        if (charge.value > maxCharge) {
+                            maxCharge = charge.value;
+                        }
+                    }
+                    chargeTagFound = true;
+                } else if (r.startsWith(PEPMASS)) {
+                    double precursorMz = r.parseValue(r.getValueStart());
+                    if (precursorMz > maxMz) {
+                        maxMz = precursorMz;
+                    }
+                    int i = r.numberEnd;
+                    while (i < r.lineEnd && isWhiteSpace(r.bytes[i])) {
+                        i++;
+                    }
+                    if (i < r.lineEnd) {
+                        double precursorIntensity = r.parseValue(i);
+                        if (precursorIntensity > maxIntensity) {
+                            maxIntensity = precursorIntensity;
+                        }
+                    }
+                    if (nSpectra > 0) {
+                        precursorMzs[nSpectra - 1] = precursorMz;
+                    }
+                } else if (r.startsWith(RTINSECONDS)) {
+                    String rtInput = "";
+                    try {
+                        rtInput = r.getLine(r.getValueStart());
+                        String[] rtWindow = rtInput.split("-");
+                        if (rtWindow.length == 1) {
+                            String tempRt = rtWindow[0];
+                            // possible fix for values like RTINSECONDS=PT121.250000S
+                            if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                                tempRt = tempRt.substring(2, tempRt.length() - 1);
+                            }
+                            double rt = new Double(tempRt);
+                            maxRT = Math.max(maxRT, rt);
+                            minRT = Math.min(minRT, rt);
+                        } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
+                            double rt1 = new Double(rtWindow[0]);
+                            maxRT = Math.max(maxRT, rt1);
+                            minRT = Math.min(minRT, rt1);
+                            double rt2 = new Double(rtWindow[1]);
+                            maxRT = Math.max(maxRT, rt2);
+                            minRT = Math.min(minRT, rt2);
+                        }
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Cannot parse retention time: " + rtInput);
+                    }
+                } else if (r.startsWith(END_IONS)) {
+                    insideSpectrum = false;
+                    if (titleFound && peakCount > maxPeakCount) {
+                        maxPeakCount = peakCount;
+                    }
+                    titleFound = false;
+                    if (!chargeTagFound) {
+                        precursorChargesMissing = true;
+                    }
+                } else if (insideSpectrum && r.lineEnd > r.lineStart) {
+                    if (r.parsePeak(mz, intensity, 0)) {
+                        if (peakPicked && intensity[0] == 0) {
+                            peakPicked = false;
+                        }
+                        peakCount++;
+                    }
+                    // ignore comments and all other lines
+                }
+            }
+            nBytesIndexed = end - start;
+        }
+    }
+}
@@ -4,7 +4,6 @@ import com.compomics.util.experiment.biology.ions.ElementaryIon;
 import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.FragmentationMethod;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
-import com.compomics.util.experiment.massspectrometry.Peak;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.Spectrum;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
@@ -127,10 +126,10 @@ public class AplExporter {
         bw.write("header=" + spectrum.getSpectrumTitle());
         bw.newLine();
 
-        HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
-        for (double mz : spectrum.getOrderedMzValues()) {
-            Peak peak = peakMap.get(mz);
-            bw.write(peak.mz + "\t" + peak.intensity);
+        double[] mzArray = spectrum.getMzValues();
+        double[] intensityArray = spectrum.getIntensityValues();
+        for (int i = 0; i < mzArray.length; i++) {
+            bw.write(mzArray[i] + "\t" + intensityArray[i]);
             bw.newLine();
         }
         bw.write("peaklist end");
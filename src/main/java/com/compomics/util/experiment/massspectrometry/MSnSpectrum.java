@@ -55,7 +55,26 @@ public class MSnSpectrum extends Spectrum {
         this.level = level;
         this.precursor = precursor;
         this.spectrumTitle = spectrumTitle;
-        this.peakList = peakMap;
+        setPeakList(peakMap);
+        this.fileName = fileName;
+    }
+
+    /**
+     * Constructor for the spectrum. The arrays are used by the spectrum and
+     * must not be modified afterwards.
+     *
+     * @param level MS level
+     * @param precursor precursor
+     * @param spectrumTitle spectrum title
+     * @param mz the m/z values of the peaks
+     * @param intensity the intensity values of the peaks
+     * @param fileName file name
+     */
+    public MSnSpectrum(int level, Precursor precursor, String spectrumTitle, double[] mz, double[] intensity, String fileName) {
+        this.level = level;
+        this.precursor = precursor;
+        this.spectrumTitle = spectrumTitle;
+        setPeakList(mz, intensity);
         this.fileName = fileName;
     }
 
@@ -73,7 +92,7 @@ public class MSnSpectrum extends Spectrum {
         this.level = level;
         this.precursor = precursor;
         this.spectrumTitle = spectrumTitle;
-        this.peakList = peakMap;
+        setPeakList(peakMap);
         this.fileName = fileName;
         this.scanStartTime = scanStartTime;
     }
@@ -157,15 +176,12 @@ public class MSnSpectrum extends Spectrum {
             results.append("SCANS=").append(scanNumber).append(lineBreak);
         }
 
-        // add the values to a tree map to get them sorted in mz    
-        TreeMap<Double, Double> sortedPeakList = new TreeMap<Double, Double>();
-
-        for (Peak peak : peakList.values()) {
-            sortedPeakList.put(peak.mz, peak.intensity);
-        }
+        // the peaks are sorted by m/z
+        double[] mzArray = getMzValues();
+        double[] intensityArray = getIntensityValues();
 
-        for (Map.Entry<Double, Double> entry : sortedPeakList.entrySet()) {
-            results.append(entry.getKey()).append(" ").append(entry.getValue()).append(lineBreak);
+        for (int i = 0; i < mzArray.length; i++) {
+            results.append(mzArray[i]).append(" ").append(intensityArray[i]).append(lineBreak);
         }
 
         results.append("END IONS").append(lineBreak).append(lineBreak);
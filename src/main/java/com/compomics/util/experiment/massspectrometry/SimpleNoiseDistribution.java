@@ -45,10 +45,21 @@ public class SimpleNoiseDistribution {
      * @throws MathException thrown if a math error occurs
      */
     public SimpleNoiseDistribution(HashMap<Double, Peak> peakList) throws MathException {
+        this(getIntensities(peakList));
+    }
 
-        ArrayList<Double> intensitiesLog = new ArrayList<Double>(peakList.size());
-        for (Peak peak : peakList.values()) {
-            double log = FastMath.log10(peak.intensity);
+    /**
+     * Constructor.
+     * 
+     * @param intensities the intensities of the peaks
+     * 
+     * @throws MathException thrown if a math error occurs
+     */
+    public SimpleNoiseDistribution(double[] intensities) throws MathException {
+
+        ArrayList<Double> intensitiesLog = new ArrayList<Double>(intensities.length);
+        for (double intensity : intensities) {
+            double log = FastMath.log10(intensity);
             intensitiesLog.add(log);
         }
         Collections.sort(intensitiesLog);
@@ -66,6 +77,22 @@ public class SimpleNoiseDistribution {
         }
     }
 
+    /**
+     * Returns the intensities of the given peaks.
+     * 
+     * @param peakList the peak list
+     * 
+     * @return the intensities of the peaks
+     */
+    private static double[] getIntensities(HashMap<Double, Peak> peakList) {
+        double[] intensities = new double[peakList.size()];
+        int i = 0;
+        for (Peak peak : peakList.values()) {
+            intensities[i++] = peak.intensity;
+        }
+        return intensities;
+    }
+
     /**
      * Get the binned cumulative probability.
      * 
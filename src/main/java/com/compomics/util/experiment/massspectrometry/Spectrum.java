@@ -4,6 +4,9 @@ import com.compomics.util.experiment.identification.matches.IonMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
 import com.compomics.util.experiment.personalization.ExperimentObject;
 import com.compomics.util.math.BasicMathFunctions;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -37,9 +40,18 @@ public abstract class Spectrum extends ExperimentObject {
      */
     protected int level;
     /**
-     * mz indexed Peak list.
+     * The m/z and intensity values of the peaks. Replaced as a whole when the
+     * peaks change so that readers always get matching arrays. Null if no
+     * peak list is set.
      */
-    protected HashMap<Double, Peak> peakList;
+    private volatile PeakArrays peakArrays = null;
+    /**
+     * The peak list of the spectra serialized before the peaks were stored in
+     * arrays. Only used during deserialization, see readObject.
+     *
+     * @deprecated the peaks are stored in peakArrays
+     */
+    private HashMap<Double, Peak> peakList = null;
     /**
      * Intensity indexed Peak map.
      */
@@ -61,33 +73,16 @@ public abstract class Spectrum extends ExperimentObject {
      * The peak list as an array directly plottable by JFreeChart.
      */
     private double[][] jFreePeakList = null;
-    /**
-     * The mz values as array. Null until set by the getter.
-     */
-    private double[] mzValuesAsArray = null;
-    /**
-     * The mz values sorted in acceding order as array. Null until set by the
-     * getter.
-     */
-    private double[] mzValuesOrderedAsArray = null;
     /**
      * The peak list as an array list formatted as text, e.g. [[303.17334
      * 3181.14],[318.14542 37971.93], ... ].
      */
     private String peakListAsString = null;
-    /**
-     * The intensity values as array. Null until set by the getter.
-     */
-    private double[] intensityValuesAsArray = null;
     /**
      * The intensity values as array normalized against the most intense peak.
      * Null until set by the getter.
      */
     private double[] intensityValuesNormaizedAsArray = null; // @TODO: correct typo
-    /**
-     * The mz and intensity values as array. Null until set by the getter.
-     */
-    private double[][] mzAndIntensityAsArray = null;
     /**
      * The total intensity.
      */
@@ -96,14 +91,6 @@ public abstract class Spectrum extends ExperimentObject {
      * The maximal intensity.
      */
     private Double maxIntensity;
-    /**
-     * The maximal m/z.
-     */
-    private Double maxMz;
-    /**
-     * The minimal m/z.
-     */
-    private Double minMz;
     /**
      * Mutex for the setting of the attributes in cache.
      */
@@ -202,14 +189,9 @@ public abstract class Spectrum extends ExperimentObject {
         if (jFreePeakList == null) {
             mutex.acquire();
             if (jFreePeakList == null) {
-                double[] mz = new double[peakList.size()];
-                double[] intensity = new double[peakList.size()];
-                int cpt = 0;
-                for (Peak currentPeak : peakList.values()) {
-                    mz[cpt] = currentPeak.mz;
-                    intensity[cpt] = currentPeak.intensity;
-                    cpt++;
-                }
+                double[][] arrays = getMzAndIntensityAsArray();
+                double[] mz = arrays[0];
+                double[] intensity = arrays[1];
 
                 jFreePeakList = new double[6][mz.length];
                 jFreePeakList[0] = mz;
@@ -225,25 +207,143 @@ public abstract class Spectrum extends ExperimentObject {
     }
 
     /**
-     * Returns a peak map where peaks are indexed by their m/z.
+     * Returns a peak map where peaks are indexed by their m/z. The map is
+     * built from the peak arrays at every call and changes made to it are not
+     * reflected in the spectrum. Prefer the array getters and getPeak(double)
+     * where performance matters.
      *
      * @return a peak map
      */
     public HashMap<Double, Peak> getPeakMap() {
-        return peakList;
+        PeakArrays arrays = peakArrays;
+        if (arrays == null) {
+            return null;
+        }
+        double[] mz = arrays.mz;
+        double[] intensity = arrays.intensity;
+        HashMap<Double, Peak> peakMap = new HashMap<Double, Peak>(mz.length);
+        for (int i = 0; i < mz.length; i++) {
+            peakMap.put(mz[i], new Peak(mz[i], intensity[i]));
+        }
+        return peakMap;
     }
 
     /**
-     * Adds a peak to the spectrum peak list.
+     * Returns the peak at the given m/z, null if none.
+     *
+     * @param mz the m/z of the peak
+     *
+     * @return the peak at the given m/z
+     */
+    public Peak getPeak(double mz) {
+        PeakArrays arrays = peakArrays;
+        if (arrays == null) {
+            return null;
+        }
+        int index = Arrays.binarySearch(arrays.mz, mz);
+        if (index < 0) {
+            return null;
+        }
+        return new Peak(arrays.mz[index], arrays.intensity[index]);
+    }
+
+    /**
+     * Returns the index of the peak at the given m/z in the arrays of m/z and
+     * intensity values. If no peak is found at this m/z, returns
+     * (-(insertion point) - 1) like Arrays.binarySearch.
+     *
+     * @param mz the m/z of the peak
+     *
+     * @return the index of the peak
+     */
+    public int getPeakIndex(double mz) {
+        PeakArrays arrays = peakArrays;
+        if (arrays == null) {
+            return -1;
+        }
+        return Arrays.binarySearch(arrays.mz, mz);
+    }
+
+    /**
+     * Returns the index of the first peak with an m/z larger than or equal to
+     * the given m/z, the number of peaks if none.
+     *
+     * @param mz the m/z
+     *
+     * @return the index of the first peak with an m/z larger than or equal to
+     * the given m/z
+     */
+    public int getFirstPeakIndexAbove(double mz) {
+        double[] mzArray = getMzValues();
+        int low = 0;
+        int high = mzArray.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mzArray[middle] < mz) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the m/z values of the peaks sorted in ascending order, an empty
+     * array if no peak list is set. The array is shared and must not be
+     * modified. Use getMzAndIntensityAsArray to get the m/z and intensity
+     * values of the same peak list when the peaks can change concurrently.
+     *
+     * @return the m/z values of the peaks
+     */
+    public double[] getMzValues() {
+        PeakArrays arrays = peakArrays;
+        return arrays == null ? new double[0] : arrays.mz;
+    }
+
+    /**
+     * Returns the intensity values of the peaks in the order of the m/z
+     * values, an empty array if no peak list is set. The array is shared and
+     * must not be modified. Use getMzAndIntensityAsArray to get the m/z and
+     * intensity values of the same peak list when the peaks can change
+     * concurrently.
+     *
+     * @return the intensity values of the peaks
+     */
+    public double[] getIntensityValues() {
+        PeakArrays arrays = peakArrays;
+        return arrays == null ? new double[0] : arrays.intensity;
+    }
+
+    /**
+     * Adds a peak to the spectrum peak list. If a peak is already present at
+     * this m/z it is replaced. The peak arrays are copied at every call, use
+     * setPeakList(double[], double[]) to set many peaks.
      *
      * @param aPeak the peak to add
      */
     public synchronized void addPeak(Peak aPeak) {
-        if (peakList == null) {
-            peakList = new HashMap<Double, Peak>();
+        PeakArrays arrays = peakArrays;
+        double[] mzArray = arrays == null ? new double[0] : arrays.mz;
+        double[] intensityArray = arrays == null ? new double[0] : arrays.intensity;
+        int index = Arrays.binarySearch(mzArray, aPeak.mz);
+        if (index >= 0) {
+            intensityArray = intensityArray.clone();
+            intensityArray[index] = aPeak.intensity;
+        } else {
+            index = -index - 1;
+            double[] newMz = new double[mzArray.length + 1];
+            double[] newIntensity = new double[mzArray.length + 1];
+            System.arraycopy(mzArray, 0, newMz, 0, index);
+            System.arraycopy(intensityArray, 0, newIntensity, 0, index);
+            newMz[index] = aPeak.mz;
+            newIntensity[index] = aPeak.intensity;
+            System.arraycopy(mzArray, index, newMz, index + 1, mzArray.length - index);
+            System.arraycopy(intensityArray, index, newIntensity, index + 1, mzArray.length - index);
+            mzArray = newMz;
+            intensityArray = newIntensity;
         }
-        this.peakList.put(aPeak.mz, aPeak);
-        resetSavedData();
+        setPeakArrays(mzArray, intensityArray);
     }
 
     /**
@@ -252,21 +352,100 @@ public abstract class Spectrum extends ExperimentObject {
      * @param peaks the peaks to set
      */
     public synchronized void setPeaks(ArrayList<Peak> peaks) {
+        setPeaks((Collection<Peak>) peaks);
+    }
 
-        if (peakList != null) {
-            this.peakList.clear();
-        } else {
-            peakList = new HashMap<Double, Peak>();
+    /**
+     * Sets the peaks from a collection of peaks. When several peaks have the
+     * same m/z the last one is kept.
+     *
+     * @param peaks the peaks to set
+     */
+    private void setPeaks(Collection<Peak> peaks) {
+        double[] mz = new double[peaks.size()];
+        double[] intensity = new double[peaks.size()];
+        int i = 0;
+        for (Peak peak : peaks) {
+            mz[i] = peak.mz;
+            intensity[i] = peak.intensity;
+            i++;
         }
+        setPeakList(mz, intensity);
+    }
 
-        for (Peak p : peaks) {
-            double mz = p.mz;
-            peakList.put(mz, p);
+    /**
+     * Sets the peak list from arrays of m/z and intensity values. The arrays
+     * are used by the spectrum and must not be modified afterwards. If the m/z
+     * values are not sorted the arrays are sorted in place, and when several
+     * peaks have the same m/z the last one is kept.
+     *
+     * @param mz the m/z values of the peaks
+     * @param intensity the intensity values of the peaks
+     */
+    public synchronized void setPeakList(double[] mz, double[] intensity) {
+        if (mz.length != intensity.length) {
+            throw new IllegalArgumentException("The numbers of m/z and intensity values differ (" + mz.length + " and " + intensity.length + ").");
+        }
+        int nPeaks = mz.length;
+        boolean sorted = true;
+        for (int i = 1; i < nPeaks && sorted; i++) {
+            sorted = mz[i - 1] < mz[i];
         }
+        if (!sorted) {
+            sortPeaks(mz, intensity);
+            int last = 0;
+            for (int i = 1; i < nPeaks; i++) {
+                if (mz[i] == mz[last]) {
+                    intensity[last] = intensity[i];
+                } else {
+                    last++;
+                    mz[last] = mz[i];
+                    intensity[last] = intensity[i];
+                }
+            }
+            if (nPeaks > 0 && last + 1 < nPeaks) {
+                mz = Arrays.copyOf(mz, last + 1);
+                intensity = Arrays.copyOf(intensity, last + 1);
+            }
+        }
+        setPeakArrays(mz, intensity);
+    }
 
+    /**
+     * Sets the peak arrays and resets the values derived from the peaks. The
+     * arrays are published together in a single write.
+     *
+     * @param mz the sorted m/z values of the peaks, null to remove the peak
+     * list
+     * @param intensity the intensity values of the peaks
+     */
+    private void setPeakArrays(double[] mz, double[] intensity) {
+        peakArrays = mz == null ? null : new PeakArrays(mz, intensity);
         resetSavedData();
     }
 
+    /**
+     * Sorts the peaks by m/z. The sort is stable so that the last of several
+     * peaks at the same m/z remains last.
+     *
+     * @param mz the m/z values of the peaks
+     * @param intensity the intensity values of the peaks
+     */
+    private static void sortPeaks(double[] mz, double[] intensity) {
+        int nPeaks = mz.length;
+        int[] order = new int[nPeaks];
+        for (int i = 0; i < nPeaks; i++) {
+            order[i] = i;
+        }
+        double[] mzCopy = mz.clone();
+        BasicMathFunctions.sortIndexes(order, 0, nPeaks - 1, mzCopy, false);
+        double[] intensityCopy = intensity.clone();
+        for (int i = 0; i < nPeaks; i++) {
+            mz[i] = mzCopy[order[i]];
+            intensity[i] = intensityCopy[order[i]];
+        }
+    }
+
     /**
      * Getter for the scan number.
      *
@@ -313,12 +492,23 @@ public abstract class Spectrum extends ExperimentObject {
     }
 
     /**
-     * Returns the peak list.
+     * Returns the peak list sorted by m/z. The peaks are created from the peak
+     * arrays at every call.
      *
      * @return the peak list
      */
     public Collection<Peak> getPeakList() {
-        return peakList.values();
+        PeakArrays arrays = peakArrays;
+        if (arrays == null) {
+            return null;
+        }
+        double[] mz = arrays.mz;
+        double[] intensity = arrays.intensity;
+        ArrayList<Peak> peaks = new ArrayList<Peak>(mz.length);
+        for (int i = 0; i < mz.length; i++) {
+            peaks.add(new Peak(mz[i], intensity[i]));
+        }
+        return peaks;
     }
 
     /**
@@ -327,8 +517,11 @@ public abstract class Spectrum extends ExperimentObject {
      * @param peakList HashSet of peaks containing the peaks of the spectrum
      */
     public synchronized void setPeakList(HashMap<Double, Peak> peakList) {
-        this.peakList = peakList;
-        resetSavedData();
+        if (peakList == null) {
+            setPeakArrays(null, null);
+        } else {
+            setPeaks(peakList.values());
+        }
     }
 
     /**
@@ -344,24 +537,24 @@ public abstract class Spectrum extends ExperimentObject {
 
         if (peakListAsString == null) {
 
-            double[] mzValues = getOrderedMzValues();
+            double[][] arrays = getMzAndIntensityAsArray();
+            double[] mzArray = arrays[0];
+            double[] intensityArray = arrays[1];
             mutex.acquire();
 
             StringBuilder sb = new StringBuilder();
             sb.append("[");
 
-            for (double mzValue : mzValues) {
+            for (int i = 0; i < mzArray.length; i++) {
 
                 if (sb.length() > 1) {
                     sb.append(",");
                 }
 
-                Peak currentPeak = peakList.get(mzValue);
-
                 sb.append("[");
-                sb.append(currentPeak.mz);
+                sb.append(mzArray[i]);
                 sb.append(",");
-                sb.append(currentPeak.intensity);
+                sb.append(intensityArray[i]);
                 sb.append("]");
             }
 
@@ -397,8 +590,8 @@ public abstract class Spectrum extends ExperimentObject {
      * consumption of the model.
      */
     public synchronized void removePeakList() {
-        if (peakList != null) {
-            peakList.clear();
+        if (peakArrays != null) {
+            setPeakArrays(new double[0], new double[0]);
         }
     }
 
@@ -412,20 +605,7 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[] getMzValuesAsArray() throws InterruptedException {
-
-        if (mzValuesAsArray == null) {
-            mutex.acquire();
-            if (mzValuesAsArray == null) {
-                mzValuesAsArray = new double[peakList.size()];
-                int counter = 0;
-                for (double currentMz : peakList.keySet()) {
-                    mzValuesAsArray[counter++] = currentMz;
-                }
-            }
-            mutex.release();
-        }
-
-        return mzValuesAsArray;
+        return getMzValues();
     }
 
     /**
@@ -437,26 +617,22 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[] getOrderedMzValues() throws InterruptedException {
-        if (mzValuesOrderedAsArray == null) {
-            getMzValuesAsArray();
-            if (mzValuesOrderedAsArray == null) {
-                mutex.acquire();
-                mzValuesOrderedAsArray = mzValuesAsArray.clone();
-                Arrays.sort(mzValuesOrderedAsArray);
-                mutex.release();
-            }
-        }
-        return mzValuesOrderedAsArray;
+        return getMzValues();
     }
 
     /**
-     * Setter for the intensityValuesAsArray.
+     * Replaces the intensity values of the peaks. The array must be indexed
+     * like the m/z values, it is used by the spectrum and must not be modified
+     * afterwards.
      *
      * @param intensityValuesAsArray the intensity values array
      */
     public synchronized void setIntensityValuesAsArray(double[] intensityValuesAsArray) {
-        this.intensityValuesAsArray = intensityValuesAsArray;
-        removePeakList();
+        double[] mzArray = getMzValues();
+        if (intensityValuesAsArray.length != mzArray.length) {
+            throw new IllegalArgumentException("The numbers of m/z and intensity values differ (" + mzArray.length + " and " + intensityValuesAsArray.length + ").");
+        }
+        setPeakArrays(mzArray, intensityValuesAsArray);
     }
 
     /**
@@ -468,20 +644,7 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[] getIntensityValuesAsArray() throws InterruptedException {
-
-        if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
-            mutex.acquire();
-            if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
-                intensityValuesAsArray = new double[peakList.size()];
-                int counter = 0;
-                for (Peak currentPeak : peakList.values()) {
-                    intensityValuesAsArray[counter++] = currentPeak.intensity;
-                }
-            }
-            mutex.release();
-        }
-
-        return intensityValuesAsArray;
+        return getIntensityValues();
     }
 
     /**
@@ -501,15 +664,13 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (intensityValuesNormaizedAsArray == null) {
 
-                intensityValuesNormaizedAsArray = new double[peakList.size()];
+                intensityValuesNormaizedAsArray = getIntensityValues().clone();
 
                 double highestIntensity = 0.0;
-                int counter = 0;
 
-                for (Peak currentPeak : peakList.values()) {
-                    intensityValuesNormaizedAsArray[counter++] = currentPeak.intensity;
-                    if (currentPeak.intensity > highestIntensity) {
-                        highestIntensity = currentPeak.intensity;
+                for (double intensity : intensityValuesNormaizedAsArray) {
+                    if (intensity > highestIntensity) {
+                        highestIntensity = intensity;
                     }
                 }
 
@@ -536,29 +697,11 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[][] getMzAndIntensityAsArray() throws InterruptedException {
-
-        if (mzAndIntensityAsArray == null) {
-
-            double[] orderedMzValues = getOrderedMzValues();
-            mutex.acquire();
-
-            if (mzAndIntensityAsArray == null) {
-
-                mzAndIntensityAsArray = new double[2][peakList.size()];
-                int counter = 0;
-
-                for (double mz : orderedMzValues) {
-                    Peak currentPeak = peakList.get(mz);
-                    mzAndIntensityAsArray[0][counter] = currentPeak.mz;
-                    mzAndIntensityAsArray[1][counter] = currentPeak.intensity;
-                    counter++;
-                }
-            }
-
-            mutex.release();
+        PeakArrays arrays = peakArrays;
+        if (arrays == null) {
+            return new double[2][0];
         }
-
-        return mzAndIntensityAsArray;
+        return new double[][]{arrays.mz, arrays.intensity};
     }
 
     /**
@@ -579,8 +722,8 @@ public abstract class Spectrum extends ExperimentObject {
 
                 totalIntensity = 0.0;
 
-                for (Peak currentPeak : peakList.values()) {
-                    totalIntensity += currentPeak.intensity;
+                for (double intensity : getIntensityValues()) {
+                    totalIntensity += intensity;
                 }
             }
 
@@ -608,9 +751,9 @@ public abstract class Spectrum extends ExperimentObject {
 
                 maxIntensity = 0.0;
 
-                for (Peak currentPeak : peakList.values()) {
-                    if (currentPeak.intensity > maxIntensity) {
-                        maxIntensity = currentPeak.intensity;
+                for (double intensity : getIntensityValues()) {
+                    if (intensity > maxIntensity) {
+                        maxIntensity = intensity;
                     }
                 }
             }
@@ -630,23 +773,8 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double getMaxMz() throws InterruptedException {
-
-        if (maxMz == null) {
-
-            mutex.acquire();
-            if (maxMz == null) {
-
-                if (peakList.keySet().isEmpty()) {
-                    maxMz = 0.0;
-                } else {
-                    maxMz = Collections.max(peakList.keySet());
-                }
-            }
-
-            mutex.release();
-        }
-
-        return maxMz;
+        double[] mz = getMzValues();
+        return mz.length == 0 ? 0.0 : mz[mz.length - 1];
     }
 
     /**
@@ -658,23 +786,8 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double getMinMz() throws InterruptedException {
-
-        if (minMz == null) {
-
-            mutex.acquire();
-
-            if (minMz == null) {
-                if (peakList.keySet().isEmpty()) {
-                    minMz = 0.0;
-                } else {
-                    minMz = Collections.min(peakList.keySet());
-                }
-            }
-
-            mutex.release();
-        }
-
-        return minMz;
+        double[] mz = getMzValues();
+        return mz.length == 0 ? 0.0 : mz[0];
     }
 
     /**
@@ -690,9 +803,9 @@ public abstract class Spectrum extends ExperimentObject {
 
         ArrayList<Double> peakIntensities = new ArrayList<Double>();
 
-        for (Peak currentPeak : peakList.values()) {
-            if (currentPeak.intensity > threshold) {
-                peakIntensities.add(currentPeak.intensity);
+        for (double intensity : getIntensityValues()) {
+            if (intensity > threshold) {
+                peakIntensities.add(intensity);
             }
         }
 
@@ -751,14 +864,14 @@ public abstract class Spectrum extends ExperimentObject {
 
             case percentile:
 
-                ArrayList<Double> intensities = new ArrayList<Double>(peakList.size());
+                double[] mzArray = getMzValues();
+                double[] intensityArray = getIntensityValues();
+                int firstIndex = getFirstPeakIndexAbove(Math.nextUp(200.0));
+                ArrayList<Double> intensities = new ArrayList<Double>(mzArray.length - firstIndex);
 
-                for (Peak peak : peakList.values()) {
-                    double mz = peak.mz;
-                    // Skip the low mass region of the spectrum @TODO: skip precursor as well
-                    if (mz > 200) {
-                        intensities.add(peak.intensity);
-                    }
+                // Skip the low mass region of the spectrum @TODO: skip precursor as well
+                for (int i = firstIndex; i < mzArray.length; i++) {
+                    intensities.add(intensityArray[i]);
                 }
 
                 if (intensities.isEmpty()) {
@@ -781,13 +894,15 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, Peak> getRecalibratedPeakList(HashMap<Double, Double> mzCorrections) {
 
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList.size());
+        double[] mzArray = getMzValues();
+        double[] intensityArray = getIntensityValues();
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(mzArray.length);
         ArrayList<Double> keys = new ArrayList<Double>(mzCorrections.keySet());
         Collections.sort(keys);
 
-        for (Peak peak : peakList.values()) {
+        for (int peakIndex = 0; peakIndex < mzArray.length; peakIndex++) {
 
-            double fragmentMz = peak.mz;
+            double fragmentMz = mzArray[peakIndex];
             double key1 = keys.get(0);
             double correction = 0.0;
 
@@ -822,7 +937,7 @@ public abstract class Spectrum extends ExperimentObject {
                 }
             }
 
-            result.put(peak.mz - correction, new Peak(peak.mz - correction, peak.intensity));
+            result.put(fragmentMz - correction, new Peak(fragmentMz - correction, intensityArray[peakIndex]));
         }
 
         return result;
@@ -836,7 +951,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @return a peak list which does not contain the peak matched
      */
     public HashMap<Double, Peak> getDesignaledPeakList(ArrayList<IonMatch> matches) {
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList);
+        HashMap<Double, Peak> result = getPeakMap();
         for (IonMatch ionMatch : matches) {
             result.remove(ionMatch.peak.mz);
         }
@@ -858,12 +973,10 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, Peak> getSubSpectrum(double mzMin, double mzMax) throws InterruptedException {
         HashMap<Double, Peak> result = new HashMap<Double, Peak>();
-        for (double mz : getOrderedMzValues()) {
-            if (mz >= mzMin && mz < mzMax) {
-                result.put(mz, peakList.get(mz));
-            } else if (mz >= mzMax) {
-                break;
-            }
+        double[] mzArray = getMzValues();
+        double[] intensityArray = getIntensityValues();
+        for (int i = getFirstPeakIndexAbove(mzMin); i < mzArray.length && mzArray[i] < mzMax; i++) {
+            result.put(mzArray[i], new Peak(mzArray[i], intensityArray[i]));
         }
         return result;
     }
@@ -885,11 +998,14 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (intensityPeakMap == null) {
 
-                intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(peakList.size());
+                double[] mzArray = getMzValues();
+                double[] intensityArray = getIntensityValues();
+                intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(mzArray.length);
 
-                for (Peak peak : peakList.values()) {
+                for (int i = 0; i < mzArray.length; i++) {
 
-                    double intensity = peak.intensity;
+                    double intensity = intensityArray[i];
+                    Peak peak = new Peak(mzArray[i], intensity);
                     ArrayList<Peak> peaksAtIntensity = intensityPeakMap.get(intensity);
 
                     if (peaksAtIntensity == null) {
@@ -913,10 +1029,11 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the number of peaks in the spectrum
      */
     public int getNPeaks() {
-        if (peakList == null) {
+        PeakArrays arrays = peakArrays;
+        if (arrays == null) {
             return 0;
         }
-        return peakList.size();
+        return arrays.mz.length;
     }
 
     /**
@@ -934,16 +1051,10 @@ public abstract class Spectrum extends ExperimentObject {
     private void resetSavedData() {
         jFreePeakList = null;
         peakListAsString = null;
-        mzValuesAsArray = null;
-        mzValuesOrderedAsArray = null;
-        intensityValuesAsArray = null;
         intensityValuesNormaizedAsArray = null;
         binnedCumulativeFunction = null;
-        mzAndIntensityAsArray = null;
         totalIntensity = null;
         maxIntensity = null;
-        maxMz = null;
-        minMz = null;
         intensityPeakMap = null;
         intensityLimit = null;
         intensityThresholdType = null;
@@ -963,10 +1074,62 @@ public abstract class Spectrum extends ExperimentObject {
         if (binnedCumulativeFunction == null) {
             mutex.acquire();
             if (binnedCumulativeFunction == null) {
-                binnedCumulativeFunction = new SimpleNoiseDistribution(peakList);
+                binnedCumulativeFunction = new SimpleNoiseDistribution(getIntensityValues());
             }
             mutex.release();
         }
         return binnedCumulativeFunction;
     }
+
+    /**
+     * Deserializes the spectrum. The peak list of spectra serialized before
+     * the peaks were stored in arrays is converted to the peak arrays.
+     *
+     * @param in the object input stream
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the stream
+     * @throws ClassNotFoundException exception thrown if a class of the
+     * serialized object could not be found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (peakList != null) {
+            HashMap<Double, Peak> legacyPeakList = peakList;
+            peakList = null;
+            setPeaks(legacyPeakList.values());
+        }
+    }
+
+    /**
+     * The m/z values of the peaks sorted in ascending order without
+     * duplicates and the intensity values indexed like the m/z values. The
+     * arrays are not modified once set.
+     */
+    private static class PeakArrays implements Serializable {
+
+        /**
+         * The version UID for Serialization/Deserialization compatibility.
+         */
+        static final long serialVersionUID = -3184526702291937561L;
+        /**
+         * The m/z values of the peaks.
+         */
+        final double[] mz;
+        /**
+         * The intensity values of the peaks.
+         */
+        final double[] intensity;
+
+        /**
+         * Constructor.
+         *
+         * @param mz the m/z values of the peaks
+         * @param intensity the intensity values of the peaks
+         */
+        PeakArrays(double[] mz, double[] intensity) {
+            this.mz = mz;
+            this.intensity = intensity;
+        }
+    }
 }
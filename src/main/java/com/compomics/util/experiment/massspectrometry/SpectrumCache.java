@@ -0,0 +1,235 @@
+package com.compomics.util.experiment.massspectrometry;
+
+import com.compomics.util.maps.BoundedLruCache;
+
+/**
+ * Bounded cache of spectra indexed by spectrum key. The cache is bounded both
+ * by the number of spectra and by their approximate size in memory. It is
+ * split in segments locked independently so that threads loading spectra do
+ * not wait on each other, and every segment evicts its least recently used
+ * spectra when exceeding its share of the limits, see BoundedLruCache.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumCache {
+
+    /**
+     * The number of segments, must be a power of two.
+     */
+    private static final int N_SEGMENTS = 16;
+    /**
+     * The approximate memory used by a spectrum besides the peaks and the
+     * strings, in bytes.
+     */
+    private static final int SPECTRUM_OVERHEAD = 256;
+    /**
+     * The segments of the cache.
+     */
+    private final Segment[] segments = new Segment[N_SEGMENTS];
+
+    /**
+     * Constructor.
+     *
+     * @param maxSpectra the maximal number of spectra in cache
+     * @param maxBytes the maximal approximate size of the spectra in cache in
+     * bytes
+     */
+    public SpectrumCache(int maxSpectra, long maxBytes) {
+        for (int i = 0; i < N_SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        setMaxSpectra(maxSpectra);
+        setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Sets the maximal number of spectra in cache. Spectra in excess are
+     * evicted.
+     *
+     * @param maxSpectra the maximal number of spectra in cache
+     */
+    public void setMaxSpectra(int maxSpectra) {
+        int segmentMaxSpectra = Math.max(maxSpectra / N_SEGMENTS, maxSpectra > 0 ? 1 : 0);
+        for (Segment segment : segments) {
+            segment.setMaxSize(segmentMaxSpectra);
+        }
+    }
+
+    /**
+     * Sets the maximal approximate size of the spectra in cache in bytes.
+     * Spectra in excess are evicted.
+     *
+     * @param maxBytes the maximal approximate size of the spectra in cache in
+     * bytes
+     */
+    public void setMaxBytes(long maxBytes) {
+        long segmentMaxBytes = maxBytes / N_SEGMENTS;
+        for (Segment segment : segments) {
+            segment.setMaxWeight(segmentMaxBytes);
+        }
+    }
+
+    /**
+     * Returns the maximal approximate size of the spectra in cache in bytes.
+     *
+     * @return the maximal approximate size of the spectra in cache in bytes
+     */
+    public long getMaxBytes() {
+        return segments[0].getMaxWeight() * N_SEGMENTS;
+    }
+
+    /**
+     * Returns the approximate memory used by a spectrum in bytes.
+     *
+     * @param spectrum the spectrum
+     *
+     * @return the approximate memory used by the spectrum in bytes
+     */
+    public static long getApproximateSize(Spectrum spectrum) {
+        long size = SPECTRUM_OVERHEAD + 16L * spectrum.getNPeaks();
+        String title = spectrum.getSpectrumTitle();
+        if (title != null) {
+            size += 2 * title.length();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the segment responsible for the given key.
+     *
+     * @param spectrumKey the spectrum key
+     *
+     * @return the segment
+     */
+    private Segment getSegment(String spectrumKey) {
+        int hash = spectrumKey.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return segments[hash & (N_SEGMENTS - 1)];
+    }
+
+    /**
+     * Returns the cached spectrum, null if not in cache.
+     *
+     * @param spectrumKey the spectrum key
+     *
+     * @return the cached spectrum
+     */
+    public Spectrum get(String spectrumKey) {
+        return getSegment(spectrumKey).get(spectrumKey);
+    }
+
+    /**
+     * Adds a spectrum to the cache, replacing the spectrum previously cached
+     * under this key if any.
+     *
+     * @param spectrumKey the spectrum key
+     * @param spectrum the spectrum
+     */
+    public void put(String spectrumKey, Spectrum spectrum) {
+        getSegment(spectrumKey).put(spectrumKey, spectrum);
+    }
+
+    /**
+     * Removes a spectrum from the cache.
+     *
+     * @param spectrumKey the spectrum key
+     */
+    public void remove(String spectrumKey) {
+        getSegment(spectrumKey).remove(spectrumKey);
+    }
+
+    /**
+     * Empties the cache. The counters are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns the number of spectra in cache.
+     *
+     * @return the number of spectra in cache
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the approximate size of the spectra in cache in bytes.
+     *
+     * @return the approximate size of the spectra in cache in bytes
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.getWeight();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of lookups which returned a cached spectrum.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        long hits = 0;
+        for (Segment segment : segments) {
+            hits += segment.getHits();
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups which returned no cached spectrum.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (Segment segment : segments) {
+            misses += segment.getMisses();
+        }
+        return misses;
+    }
+
+    /**
+     * Returns the number of spectra removed from the cache to respect the
+     * limits.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        long evictions = 0;
+        for (Segment segment : segments) {
+            evictions += segment.getEvictions();
+        }
+        return evictions;
+    }
+
+    /**
+     * Segment of the cache: a bounded LRU cache weighted by the approximate
+     * size of the spectra.
+     */
+    private static class Segment extends BoundedLruCache<String, Spectrum> {
+
+        /**
+         * Constructor.
+         */
+        Segment() {
+            super(0, 0);
+        }
+
+        @Override
+        protected long getWeight(Spectrum spectrum) {
+            return getApproximateSize(spectrum);
+        }
+    }
+}
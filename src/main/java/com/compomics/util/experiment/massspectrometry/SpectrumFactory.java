@@ -1,7 +1,9 @@
 package com.compomics.util.experiment.massspectrometry;
 
+import com.compomics.util.experiment.io.massspectrometry.BinarySpectrumStore;
 import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
 import com.compomics.util.experiment.io.massspectrometry.MgfReader;
+import com.compomics.util.experiment.io.massspectrometry.MgfReaderPool;
 import com.compomics.util.experiment.io.massspectrometry.MspReader;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.io.SerializationUtils;
@@ -10,7 +12,7 @@ import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
 import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
 import uk.ac.ebi.jmzml.model.mzml.CVParam;
 import uk.ac.ebi.jmzml.model.mzml.PrecursorList;
@@ -33,38 +35,63 @@ public class SpectrumFactory {
      */
     private static SpectrumFactory instance = null;
     /**
-     * Map of already loaded spectra.
+     * Maximal number of spectra in cache. By default 1000000, which corresponds to approx. 110MB.
      */
-    private HashMap<String, HashMap<String, Spectrum>> currentSpectrumMap = new HashMap<String, HashMap<String, Spectrum>>();
+    private static int nSpectraCache = 1000000;
     /**
-     * Map of already loaded precursors.
+     * Maximal approximate size of the spectra in cache in bytes. By default a
+     * quarter of the maximal heap size.
      */
-    private HashMap<String, HashMap<String, Precursor>> loadedPrecursorsMap = new HashMap<String, HashMap<String, Precursor>>();
+    private long cacheSizeInBytes = Runtime.getRuntime().maxMemory() / 4;
     /**
-     * Maximal number of spectra in cache. By default 1000000, which corresponds to approx. 110MB.
+     * Cache of the already loaded spectra.
      */
-    private static int nSpectraCache = 1000000;
+    private SpectrumCache spectrumCache = new SpectrumCache(nSpectraCache, cacheSizeInBytes);
     /**
-     * List of the loaded spectra.
+     * Map of already loaded precursors.
      */
-    private LinkedBlockingDeque<String> loadedSpectra = new LinkedBlockingDeque<String>();
+    private ConcurrentHashMap<String, ConcurrentHashMap<String, Precursor>> loadedPrecursorsMap = new ConcurrentHashMap<String, ConcurrentHashMap<String, Precursor>>();
     /**
      * Map to the different files.
      */
     private HashMap<String, File> filesMap = new HashMap<String, File>();
     /**
-     * Map of the random access files of the loaded mgf files (filename &gt;
+     * Map of the random access files of the loaded msp files (filename &gt;
      * random access file).
      */
-    private HashMap<String, BufferedRandomAccessFile> mgfRandomAccessFilesMap = new HashMap<String, BufferedRandomAccessFile>();
+    private ConcurrentHashMap<String, BufferedRandomAccessFile> mgfRandomAccessFilesMap = new ConcurrentHashMap<String, BufferedRandomAccessFile>();
+    /**
+     * Map of the reader pools of the loaded mgf files (filename &gt; reader
+     * pool).
+     */
+    private ConcurrentHashMap<String, MgfReaderPool> mgfReaderPoolsMap = new ConcurrentHashMap<String, MgfReaderPool>();
+    /**
+     * Map of the locks of the files which can only be read by one thread at a
+     * time, i.e., msp and mzML files (filename &gt; lock).
+     */
+    private ConcurrentHashMap<String, Object> fileLocks = new ConcurrentHashMap<String, Object>();
+    /**
+     * Map of the binary stores of the loaded mgf files (filename &gt; store).
+     */
+    private ConcurrentHashMap<String, BinarySpectrumStore> binaryStoresMap = new ConcurrentHashMap<String, BinarySpectrumStore>();
+    /**
+     * Boolean indicating whether the spectra of mgf files should be read from
+     * a binary store built next to the file.
+     */
+    private boolean useBinaryStore = false;
+    /**
+     * Boolean indicating whether the peaks should be compressed in the binary
+     * stores.
+     */
+    private boolean compressBinaryStore = false;
     /**
      * Map of the mgf indexes (fileName &gt; mgf index).
      */
-    private HashMap<String, MgfIndex> mgfIndexesMap = new HashMap<String, MgfIndex>();
+    private ConcurrentHashMap<String, MgfIndex> mgfIndexesMap = new ConcurrentHashMap<String, MgfIndex>();
     /**
      * Map of the mzML unmarshallers (fileName &gt; unmarshaller).
      */
-    private HashMap<String, MzMLUnmarshaller> mzMLUnmarshallers = new HashMap<String, MzMLUnmarshaller>();
+    private ConcurrentHashMap<String, MzMLUnmarshaller> mzMLUnmarshallers = new ConcurrentHashMap<String, MzMLUnmarshaller>();
     /**
      * Map of the spectrum file mapped according to the name used by the search
      * engine.
@@ -86,7 +113,7 @@ public class SpectrumFactory {
      *
      * @return the instance of the factory
      */
-    public static SpectrumFactory getInstance() {
+    public static synchronized SpectrumFactory getInstance() {
         if (instance == null) {
             instance = new SpectrumFactory();
         }
@@ -100,7 +127,7 @@ public class SpectrumFactory {
      * @param nCache the cache size
      * @return the instance of the factory with a new cache size
      */
-    public static SpectrumFactory getInstance(int nCache) {
+    public static synchronized SpectrumFactory getInstance(int nCache) {
         if (instance == null) {
             instance = new SpectrumFactory();
         }
@@ -112,11 +139,13 @@ public class SpectrumFactory {
      * Clears the factory getInstance() needs to be called afterwards.
      */
     public void clearFactory() {
-        currentSpectrumMap.clear();
+        spectrumCache.clear();
         loadedPrecursorsMap.clear();
-        loadedSpectra.clear();
         filesMap.clear();
         mgfRandomAccessFilesMap.clear();
+        mgfReaderPoolsMap.clear();
+        fileLocks.clear();
+        binaryStoresMap.clear();
         mgfIndexesMap.clear();
         mzMLUnmarshallers.clear();
         idToSpectrumName.clear();
@@ -126,9 +155,8 @@ public class SpectrumFactory {
      * Empties the cache.
      */
     public void emptyCache() {
-        currentSpectrumMap.clear();
+        spectrumCache.clear();
         loadedPrecursorsMap.clear();
-        loadedSpectra.clear();
     }
 
     /**
@@ -138,6 +166,7 @@ public class SpectrumFactory {
      */
     public void setCacheSize(int nCache) {
         SpectrumFactory.nSpectraCache = nCache;
+        spectrumCache.setMaxSpectra(nCache);
     }
 
     /**
@@ -149,6 +178,79 @@ public class SpectrumFactory {
         return nSpectraCache;
     }
 
+    /**
+     * Sets the maximal approximate size of the spectra in cache in bytes.
+     *
+     * @param cacheSizeInBytes the maximal approximate size of the spectra in
+     * cache in bytes
+     */
+    public void setCacheSizeInBytes(long cacheSizeInBytes) {
+        this.cacheSizeInBytes = cacheSizeInBytes;
+        spectrumCache.setMaxBytes(cacheSizeInBytes);
+    }
+
+    /**
+     * Returns the maximal approximate size of the spectra in cache in bytes.
+     *
+     * @return the maximal approximate size of the spectra in cache in bytes
+     */
+    public long getCacheSizeInBytes() {
+        return cacheSizeInBytes;
+    }
+
+    /**
+     * Returns the spectrum cache.
+     *
+     * @return the spectrum cache
+     */
+    public SpectrumCache getSpectrumCache() {
+        return spectrumCache;
+    }
+
+    /**
+     * Indicates whether the spectra of mgf files are read from a binary store.
+     *
+     * @return a boolean indicating whether the spectra of mgf files are read
+     * from a binary store
+     */
+    public boolean isUseBinaryStore() {
+        return useBinaryStore;
+    }
+
+    /**
+     * Sets whether the spectra of mgf files should be read from a binary
+     * store. The store is built next to the mgf file when the file is added
+     * and reused as long as the mgf file is not changed. Only affects files
+     * added afterwards.
+     *
+     * @param useBinaryStore a boolean indicating whether the spectra of mgf
+     * files should be read from a binary store
+     */
+    public void setUseBinaryStore(boolean useBinaryStore) {
+        this.useBinaryStore = useBinaryStore;
+    }
+
+    /**
+     * Indicates whether the peaks are compressed in the binary stores.
+     *
+     * @return a boolean indicating whether the peaks are compressed in the
+     * binary stores
+     */
+    public boolean isCompressBinaryStore() {
+        return compressBinaryStore;
+    }
+
+    /**
+     * Sets whether the peaks should be compressed in the binary stores. Only
+     * affects stores built afterwards.
+     *
+     * @param compressBinaryStore a boolean indicating whether the peaks should
+     * be compressed in the binary stores
+     */
+    public void setCompressBinaryStore(boolean compressBinaryStore) {
+        this.compressBinaryStore = compressBinaryStore;
+    }
+
     /**
      * Add spectra to the factory.
      *
@@ -226,17 +328,104 @@ public class SpectrumFactory {
                 throw new IllegalArgumentException("An error occurred while indexing " + spectrumFile.getAbsolutePath());
             }
 
-            mgfRandomAccessFilesMap.put(fileName, new BufferedRandomAccessFile(spectrumFile, "r", 1024 * 100));
+            if (fileName.toLowerCase().endsWith(".mgf")) {
+                MgfReaderPool mgfReaderPool = new MgfReaderPool(spectrumFile);
+                mgfReaderPoolsMap.put(fileName, mgfReaderPool);
+                if (useBinaryStore) {
+                    BinarySpectrumStore binaryStore = getBinaryStore(spectrumFile, mgfIndex, mgfReaderPool, waitingHandler);
+                    if (binaryStore != null) {
+                        binaryStoresMap.put(fileName, binaryStore);
+                    }
+                }
+            } else {
+                fileLocks.put(fileName, new Object());
+                mgfRandomAccessFilesMap.put(fileName, new BufferedRandomAccessFile(spectrumFile, "r", 1024 * 100));
+            }
             mgfIndexesMap.put(fileName, mgfIndex);
 
         } else if (fileName.toLowerCase().endsWith(".mzml")) {
             MzMLUnmarshaller mzMLUnmarshaller = new MzMLUnmarshaller(spectrumFile);
+            fileLocks.put(fileName, new Object());
             mzMLUnmarshallers.put(fileName, mzMLUnmarshaller);
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
     }
 
+    /**
+     * Returns the binary store of the given mgf file, building it if no up to
+     * date store is found. Null if the store could not be built or if the
+     * process was canceled.
+     *
+     * @param mgfFile the mgf file
+     * @param mgfIndex the index of the mgf file
+     * @param mgfReaderPool the reader pool of the mgf file
+     * @param waitingHandler the waiting handler
+     *
+     * @return the binary store of the mgf file
+     */
+    private BinarySpectrumStore getBinaryStore(File mgfFile, MgfIndex mgfIndex, MgfReaderPool mgfReaderPool, WaitingHandler waitingHandler) {
+
+        String fileName = mgfFile.getName();
+        File storeFile = new File(mgfFile.getParent(), getBinaryStoreName(fileName));
+
+        // the spectra are retrieved by number, not available in old indexes
+        ArrayList<String> spectrumTitles = mgfIndex.getSpectrumTitles();
+        if (!spectrumTitles.isEmpty() && mgfIndex.getSpectrumIndex(spectrumTitles.get(0)) == null) {
+            return null;
+        }
+
+        if (storeFile.exists()) {
+            try {
+                BinarySpectrumStore binaryStore = new BinarySpectrumStore(storeFile);
+                if (binaryStore.isUpToDate(mgfFile) && binaryStore.getNSpectra() == mgfIndex.getNSpectra()) {
+                    return binaryStore;
+                }
+                binaryStore.close();
+                System.err.println("Rebuilding binary store: " + fileName + ". (changes in the file detected)");
+            } catch (Exception e) {
+                System.err.println("Rebuilding binary store: " + fileName + ". (Reason: " + e.getLocalizedMessage() + ")");
+            }
+        }
+
+        try {
+            int flags = BinarySpectrumStore.DELTA_ENCODING;
+            if (compressBinaryStore) {
+                flags |= BinarySpectrumStore.COMPRESSION;
+            }
+            BinarySpectrumStore.Writer writer = new BinarySpectrumStore.Writer(storeFile, mgfFile, mgfIndex.getNSpectra(), flags);
+            try {
+                for (String spectrumTitle : spectrumTitles) {
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                    writer.add(mgfReaderPool.getSpectrum(mgfIndex.getIndex(spectrumTitle), fileName));
+                }
+            } finally {
+                writer.close();
+            }
+            return new BinarySpectrumStore(storeFile);
+        } catch (Exception e) {
+            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                System.err.println("Binary store not available for " + fileName + ", the spectra will be read from the mgf file. (Reason: " + e.getLocalizedMessage() + ")");
+            }
+            storeFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the name of a binary store file based on the given spectrum file
+     * name.
+     *
+     * @param spectrumFileName the name of the spectrum file
+     *
+     * @return the corresponding name of the binary store file
+     */
+    public static String getBinaryStoreName(String spectrumFileName) {
+        return spectrumFileName + ".cus";
+    }
+
     /**
      * Returns the name of an index file based on the given spectrum file name.
      *
@@ -281,20 +470,21 @@ public class SpectrumFactory {
      * not parsed correctly
      */
     public Precursor getPrecursor(String fileName, String spectrumTitle, boolean save) throws IOException, MzMLUnmarshallerException {
-        HashMap<String, Spectrum> fileSpectrumMap = currentSpectrumMap.get(fileName);
-        if (fileSpectrumMap != null) {
-            Spectrum spectrum = fileSpectrumMap.get(spectrumTitle);
-            if (spectrum != null) {
-                return ((MSnSpectrum) spectrum).getPrecursor();
-            }
+        Spectrum spectrum = spectrumCache.get(Spectrum.getSpectrumKey(fileName, spectrumTitle));
+        if (spectrum != null) {
+            return ((MSnSpectrum) spectrum).getPrecursor();
         }
-        HashMap<String, Precursor> filePrecursorMap = loadedPrecursorsMap.get(fileName);
+        ConcurrentHashMap<String, Precursor> filePrecursorMap = loadedPrecursorsMap.get(fileName);
         if (filePrecursorMap != null) {
             Precursor currentPrecursor = filePrecursorMap.get(spectrumTitle);
             if (currentPrecursor != null) {
                 return currentPrecursor;
             }
         }
+        BinarySpectrumStore binaryStore = binaryStoresMap.get(fileName);
+        if (binaryStore != null) {
+            return binaryStore.getPrecursor(getStoreIndex(fileName, spectrumTitle));
+        }
         return getPrecursor(fileName, spectrumTitle, save, 1);
     }
 
@@ -618,7 +808,7 @@ public class SpectrumFactory {
      * @throws IllegalArgumentException exception thrown whenever the file was
      * not parsed correctly
      */
-    private synchronized Precursor getPrecursor(String fileName, String spectrumTitle, boolean save, long waitingTime) throws IOException, MzMLUnmarshallerException, IllegalArgumentException {
+    private Precursor getPrecursor(String fileName, String spectrumTitle, boolean save, long waitingTime) throws IOException, MzMLUnmarshallerException, IllegalArgumentException {
 
         if (waitingTime <= 0) {
             throw new IllegalArgumentException("Waiting time should be a positive number.");
@@ -638,13 +828,10 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + fileName + "\' not found.");
             }
             try {
-                currentPrecursor = MgfReader.getPrecursor(mgfRandomAccessFilesMap.get(fileName), mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
+                currentPrecursor = mgfReaderPoolsMap.get(fileName).getPrecursor(mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
             } catch (Exception e) {
                 if (waitingTime < timeOut) {
-                    try {
-                        wait(waitingTime);
-                    } catch (InterruptedException ie) {
-                    }
+                    waitBeforeRetry(waitingTime);
                     return getPrecursor(fileName, spectrumTitle, save, 2 * waitingTime);
                 } else {
                     e.printStackTrace();
@@ -663,14 +850,12 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in msp file \'" + fileName + "\' not found.");
             }
             try {
-                
-                currentPrecursor = MspReader.getPrecursor(mgfRandomAccessFilesMap.get(fileName), mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
+                synchronized (fileLocks.get(fileName)) {
+                    currentPrecursor = MspReader.getPrecursor(mgfRandomAccessFilesMap.get(fileName), mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
+                }
             } catch (Exception e) {
                 if (waitingTime < timeOut) {
-                    try {
-                        wait(waitingTime);
-                    } catch (InterruptedException ie) {
-                    }
+                    waitBeforeRetry(waitingTime);
                     return getPrecursor(fileName, spectrumTitle, save, 2 * waitingTime);
                 } else {
                     e.printStackTrace();
@@ -678,7 +863,10 @@ public class SpectrumFactory {
                 }
             }
         }else if (fileName.toLowerCase().endsWith(".mzml")) {
-            uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum = mzMLUnmarshallers.get(fileName).getSpectrumById(spectrumTitle);
+            uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum;
+            synchronized (fileLocks.get(fileName)) {
+                mzMLSpectrum = mzMLUnmarshallers.get(fileName).getSpectrumById(spectrumTitle);
+            }
             int level = 2;
             double mzPrec = 0.0;
             double scanTime = -1.0;
@@ -726,10 +914,13 @@ public class SpectrumFactory {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
         if (save) {
-            HashMap<String, Precursor> fileMap = loadedPrecursorsMap.get(fileName);
+            ConcurrentHashMap<String, Precursor> fileMap = loadedPrecursorsMap.get(fileName);
             if (fileMap == null) {
-                fileMap = new HashMap<String, Precursor>();
-                loadedPrecursorsMap.put(fileName, fileMap);
+                ConcurrentHashMap<String, Precursor> newMap = new ConcurrentHashMap<String, Precursor>();
+                fileMap = loadedPrecursorsMap.putIfAbsent(fileName, newMap);
+                if (fileMap == null) {
+                    fileMap = newMap;
+                }
             }
             fileMap.put(spectrumTitle, currentPrecursor);
         }
@@ -769,16 +960,39 @@ public class SpectrumFactory {
      * occurred while parsing the mzML file
      */
     public Spectrum getSpectrum(String spectrumFile, String spectrumTitle, boolean toCacheSpectrum) throws IOException, MzMLUnmarshallerException {
-        HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
-        if (fileMap != null) {
-            Spectrum currentSpectrum = fileMap.get(spectrumTitle);
-            if (currentSpectrum != null) {
-                return currentSpectrum;
-            }
+        Spectrum currentSpectrum = spectrumCache.get(Spectrum.getSpectrumKey(spectrumFile, spectrumTitle));
+        if (currentSpectrum != null) {
+            return currentSpectrum;
+        }
+        BinarySpectrumStore binaryStore = binaryStoresMap.get(spectrumFile);
+        if (binaryStore != null) {
+            return binaryStore.getSpectrum(getStoreIndex(spectrumFile, spectrumTitle), spectrumFile);
         }
         return getSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum, 1);
     }
 
+    /**
+     * Returns the index in the binary store of the given spectrum.
+     *
+     * @param fileName the name of the spectrum file
+     * @param spectrumTitle the title of the spectrum
+     *
+     * @return the index in the binary store of the given spectrum
+     *
+     * @throws IOException exception thrown if the spectrum is not found
+     */
+    private int getStoreIndex(String fileName, String spectrumTitle) throws IOException {
+
+        // a special fix for mgf files with strange titles...
+        spectrumTitle = fixMgfTitle(spectrumTitle, fileName);
+
+        Integer spectrumIndex = mgfIndexesMap.get(fileName).getSpectrumIndex(spectrumTitle);
+        if (spectrumIndex == null || spectrumIndex == -1) {
+            throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + fileName + "\' not found!");
+        }
+        return spectrumIndex;
+    }
+
     /**
      * Returns the desired spectrum.
      *
@@ -835,7 +1049,7 @@ public class SpectrumFactory {
      * @throws MzMLUnmarshallerException exception thrown whenever an error
      * occurred while parsing the file
      */
-    private synchronized Spectrum getSpectrum(String spectrumFile, String spectrumTitle, long waitingTime) throws IOException, MzMLUnmarshallerException {
+    private Spectrum getSpectrum(String spectrumFile, String spectrumTitle, long waitingTime) throws IOException, MzMLUnmarshallerException {
         return getSpectrum(spectrumFile, spectrumTitle, true, waitingTime);
     }
     
@@ -860,7 +1074,7 @@ public class SpectrumFactory {
      * @throws MzMLUnmarshallerException exception thrown whenever an error
      * occurred while parsing the file
      */
-    private synchronized Spectrum getSpectrum(String spectrumFile, String spectrumTitle, boolean toCacheSpectrum, long waitingTime) throws IOException, MzMLUnmarshallerException {
+    private Spectrum getSpectrum(String spectrumFile, String spectrumTitle, boolean toCacheSpectrum, long waitingTime) throws IOException, MzMLUnmarshallerException {
 
         if (waitingTime <= 0) {
             throw new IllegalArgumentException("Waiting time should be a positive number.");
@@ -880,13 +1094,10 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + spectrumFile + "\' not found!");
             }
             try {
-                currentSpectrum = MgfReader.getSpectrum(mgfRandomAccessFilesMap.get(spectrumFile), mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
+                currentSpectrum = mgfReaderPoolsMap.get(spectrumFile).getSpectrum(mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
             } catch (Exception e) {
                 if (waitingTime < timeOut) {
-                    try {
-                        wait(waitingTime);
-                    } catch (InterruptedException ie) {
-                    }
+                    waitBeforeRetry(waitingTime);
                     return getSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum, 2 * waitingTime);
                 } else {
                     e.printStackTrace();
@@ -905,13 +1116,12 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in msp file \'" + spectrumFile + "\' not found!");
             }
             try {
-                currentSpectrum = MspReader.getSpectrum(mgfRandomAccessFilesMap.get(spectrumFile), mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
+                synchronized (fileLocks.get(spectrumFile)) {
+                    currentSpectrum = MspReader.getSpectrum(mgfRandomAccessFilesMap.get(spectrumFile), mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
+                }
             } catch (Exception e) {
                 if (waitingTime < timeOut) {
-                    try {
-                        wait(waitingTime);
-                    } catch (InterruptedException ie) {
-                    }
+                    waitBeforeRetry(waitingTime);
                     return getSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum, 2 * waitingTime);
                 } else {
                     e.printStackTrace();
@@ -923,11 +1133,16 @@ public class SpectrumFactory {
             if (mzMLUnmarshallers.get(spectrumFile) == null) {
                 throw new IOException("mzML file not found: \'" + spectrumFile + "\'!");
             }
-            if (mzMLUnmarshallers.get(spectrumFile).getSpectrumById(spectrumTitle) == null) {
-                throw new IOException("Spectrum \'" + spectrumTitle + "\' in mzML file \'" + spectrumFile + "\' not found!");
-            }
 
-            uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum = mzMLUnmarshallers.get(spectrumFile).getSpectrumById(spectrumTitle);
+            uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum;
+            List<BinaryDataArray> bdal;
+            synchronized (fileLocks.get(spectrumFile)) {
+                mzMLSpectrum = mzMLUnmarshallers.get(spectrumFile).getSpectrumById(spectrumTitle);
+                if (mzMLSpectrum == null) {
+                    throw new IOException("Spectrum \'" + spectrumTitle + "\' in mzML file \'" + spectrumFile + "\' not found!");
+                }
+                bdal = mzMLSpectrum.getBinaryDataArrayList().getBinaryDataArray();
+            }
             int level = 2;
             double mzPrec = 0.0;
             double scanTime = -1.0;
@@ -963,7 +1178,6 @@ public class SpectrumFactory {
                     }
                 }
             }
-            List<BinaryDataArray> bdal = mzMLSpectrum.getBinaryDataArrayList().getBinaryDataArray();
             BinaryDataArray mzBinaryDataArray = (BinaryDataArray) bdal.get(0);
             Number[] mzNumbers = mzBinaryDataArray.getBinaryDataAsNumberArray();
             BinaryDataArray intBinaryDataArray = (BinaryDataArray) bdal.get(1);
@@ -984,29 +1198,24 @@ public class SpectrumFactory {
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
-        if (loadedSpectra.size() == nSpectraCache) {
-            String tempKey = loadedSpectra.pollFirst();
-            String tempFile = Spectrum.getSpectrumFile(tempKey);
-            HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(tempFile);
-            if (fileMap != null) {
-                String tempTitle = Spectrum.getSpectrumTitle(tempKey);
-                fileMap.remove(tempTitle);
-            }
-        }
-        // @TODO: currentSpectrumMap is currently growing forever. Its growth should be limited in some way.
-        if (toCacheSpectrum){
-            HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
-            if (fileMap == null) {
-                fileMap = new HashMap<String, Spectrum>();
-                currentSpectrumMap.put(spectrumFile, fileMap);
-            }
-            fileMap.put(spectrumTitle, currentSpectrum);
+        if (toCacheSpectrum) {
+            spectrumCache.put(Spectrum.getSpectrumKey(spectrumFile, spectrumTitle), currentSpectrum);
         }
-        String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
-        loadedSpectra.add(spectrumKey);
         return currentSpectrum;
     }
 
+    /**
+     * Waits the given time before retrying to read a file.
+     *
+     * @param waitingTime the waiting time in milliseconds
+     */
+    private static void waitBeforeRetry(long waitingTime) {
+        try {
+            Thread.sleep(waitingTime);
+        } catch (InterruptedException ie) {
+        }
+    }
+
     /**
      * Writes the given mgf file index in the given directory.
      *
@@ -1043,6 +1252,12 @@ public class SpectrumFactory {
      * closing the files
      */
     public void closeFiles() throws IOException {
+        for (MgfReaderPool mgfReaderPool : mgfReaderPoolsMap.values()) {
+            mgfReaderPool.close();
+        }
+        for (BinarySpectrumStore binaryStore : binaryStoresMap.values()) {
+            binaryStore.close();
+        }
         for (BufferedRandomAccessFile randomAccessFile : mgfRandomAccessFilesMap.values()) {
             randomAccessFile.close();
         }
@@ -1054,7 +1269,9 @@ public class SpectrumFactory {
      * @return a list of loaded mgf files
      */
     public ArrayList<String> getMgfFileNames() {
-        return new ArrayList<String>(mgfRandomAccessFilesMap.keySet());
+        ArrayList<String> fileNames = new ArrayList<String>(mgfReaderPoolsMap.keySet());
+        fileNames.addAll(mgfRandomAccessFilesMap.keySet());
+        return fileNames;
     }
 
     /**
@@ -0,0 +1,284 @@
+package com.compomics.util.experiment.massspectrometry.indexes;
+
+import com.compomics.util.experiment.biology.Atom;
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.math.BasicMathFunctions;
+
+/**
+ * Index of the precursors of a spectrum file by neutral mass. Every precursor
+ * m/z is expanded for all the charges and isotopes of interest, the resulting
+ * neutral masses are sorted and stored in primitive arrays together with the
+ * index of the spectrum, the charge and the isotope. Mass windows are queried
+ * by binary search without allocation. The index is immutable once built and
+ * can be queried concurrently by any number of threads.
+ *
+ * @author Marc Vaudel
+ */
+public class PrecursorMassIndex {
+
+    /**
+     * The neutral masses of the precursors sorted in ascending order.
+     */
+    private final double[] masses;
+    /**
+     * The index of the spectrum of every mass.
+     */
+    private final int[] spectrumIndexes;
+    /**
+     * The charge of every mass.
+     */
+    private final int[] charges;
+    /**
+     * The isotope of every mass.
+     */
+    private final int[] isotopes;
+
+    /**
+     * Constructor.
+     *
+     * @param masses the neutral masses of the precursors sorted in ascending
+     * order
+     * @param spectrumIndexes the index of the spectrum of every mass
+     * @param charges the charge of every mass
+     * @param isotopes the isotope of every mass
+     */
+    private PrecursorMassIndex(double[] masses, int[] spectrumIndexes, int[] charges, int[] isotopes) {
+        this.masses = masses;
+        this.spectrumIndexes = spectrumIndexes;
+        this.charges = charges;
+        this.isotopes = isotopes;
+    }
+
+    /**
+     * Builds an index from the precursor m/z of the given mgf index. Spectra
+     * without precursor m/z are skipped. The spectrum indexes are the ones of
+     * the mgf index.
+     *
+     * @param mgfIndex the mgf index
+     * @param minCharge the minimal charge to consider
+     * @param maxCharge the maximal charge to consider
+     * @param minIsotope the minimal isotope to consider
+     * @param maxIsotope the maximal isotope to consider
+     *
+     * @return the precursor index
+     */
+    public static PrecursorMassIndex build(MgfIndex mgfIndex, int minCharge, int maxCharge, int minIsotope, int maxIsotope) {
+        int nSpectra = mgfIndex.getNSpectra();
+        double[] precursorMzs = new double[nSpectra];
+        for (int i = 0; i < nSpectra; i++) {
+            Double mz = mgfIndex.getPrecursorMz(i);
+            precursorMzs[i] = mz == null ? Double.NaN : mz;
+        }
+        return build(precursorMzs, minCharge, maxCharge, minIsotope, maxIsotope);
+    }
+
+    /**
+     * Builds an index from the given precursor m/z. Not a number values are
+     * skipped. The spectrum indexes are the indexes in the given array.
+     *
+     * @param precursorMzs the precursor m/z
+     * @param minCharge the minimal charge to consider
+     * @param maxCharge the maximal charge to consider
+     * @param minIsotope the minimal isotope to consider
+     * @param maxIsotope the maximal isotope to consider
+     *
+     * @return the precursor index
+     */
+    public static PrecursorMassIndex build(double[] precursorMzs, int minCharge, int maxCharge, int minIsotope, int maxIsotope) {
+
+        if (minCharge < 1 || maxCharge < minCharge) {
+            throw new IllegalArgumentException("Invalid charge range [" + minCharge + ", " + maxCharge + "].");
+        }
+        if (maxIsotope < minIsotope) {
+            throw new IllegalArgumentException("Invalid isotope range [" + minIsotope + ", " + maxIsotope + "].");
+        }
+
+        int nValid = 0;
+        for (double mz : precursorMzs) {
+            if (!Double.isNaN(mz)) {
+                nValid++;
+            }
+        }
+        int nCharges = maxCharge - minCharge + 1;
+        int nIsotopes = maxIsotope - minIsotope + 1;
+        long nEntries = (long) nValid * nCharges * nIsotopes;
+        if (nEntries > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many precursor masses (" + nEntries + ") to index.");
+        }
+        int size = (int) nEntries;
+
+        double protonMass = ElementaryIon.proton.getTheoreticMass();
+        double isotopeMass = Atom.C.getDifferenceToMonoisotopic(1);
+
+        double[] unsortedMasses = new double[size];
+        int[] unsortedSpectrumIndexes = new int[size];
+        int[] unsortedCharges = new int[size];
+        int[] unsortedIsotopes = new int[size];
+        int entry = 0;
+        for (int i = 0; i < precursorMzs.length; i++) {
+            double mz = precursorMzs[i];
+            if (!Double.isNaN(mz)) {
+                for (int charge = minCharge; charge <= maxCharge; charge++) {
+                    double mass = (mz - protonMass) * charge;
+                    for (int isotope = minIsotope; isotope <= maxIsotope; isotope++) {
+                        unsortedMasses[entry] = mass - isotope * isotopeMass;
+                        unsortedSpectrumIndexes[entry] = i;
+                        unsortedCharges[entry] = charge;
+                        unsortedIsotopes[entry] = isotope;
+                        entry++;
+                    }
+                }
+            }
+        }
+
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        BasicMathFunctions.sortIndexes(order, 0, size - 1, unsortedMasses, false);
+
+        double[] masses = new double[size];
+        int[] spectrumIndexes = new int[size];
+        int[] charges = new int[size];
+        int[] isotopes = new int[size];
+        for (int i = 0; i < size; i++) {
+            int index = order[i];
+            masses[i] = unsortedMasses[index];
+            spectrumIndexes[i] = unsortedSpectrumIndexes[index];
+            charges[i] = unsortedCharges[index];
+            isotopes[i] = unsortedIsotopes[index];
+        }
+
+        return new PrecursorMassIndex(masses, spectrumIndexes, charges, isotopes);
+    }
+
+    /**
+     * Returns the number of masses in the index.
+     *
+     * @return the number of masses in the index
+     */
+    public int size() {
+        return masses.length;
+    }
+
+    /**
+     * Returns the index of the first mass higher than or equal to the given
+     * mass.
+     *
+     * @param mass the mass
+     *
+     * @return the index of the first mass higher than or equal to the given
+     * mass
+     */
+    public int getLowerBound(double mass) {
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (masses[mid] < mass) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first mass strictly higher than the given mass.
+     *
+     * @param mass the mass
+     *
+     * @return the index of the first mass strictly higher than the given mass
+     */
+    public int getUpperBound(double mass) {
+        int low = 0;
+        int high = masses.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (masses[mid] <= mass) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first mass within tolerance of the given mass.
+     * The masses within tolerance are at indexes between this bound included
+     * and the bound given by getUpperBound(mass, tolerance, ppm) excluded.
+     *
+     * @param mass the mass
+     * @param tolerance the mass tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     *
+     * @return the index of the first mass within tolerance of the given mass
+     */
+    public int getLowerBound(double mass, double tolerance, boolean ppm) {
+        double massTolerance = ppm ? tolerance * mass / 1000000 : tolerance;
+        return getLowerBound(mass - massTolerance);
+    }
+
+    /**
+     * Returns the index of the first mass higher than the given mass and not
+     * within tolerance.
+     *
+     * @param mass the mass
+     * @param tolerance the mass tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     *
+     * @return the index of the first mass higher than the given mass and not
+     * within tolerance
+     */
+    public int getUpperBound(double mass, double tolerance, boolean ppm) {
+        double massTolerance = ppm ? tolerance * mass / 1000000 : tolerance;
+        return getUpperBound(mass + massTolerance);
+    }
+
+    /**
+     * Returns the neutral mass at the given index.
+     *
+     * @param index the index
+     *
+     * @return the neutral mass at the given index
+     */
+    public double getMass(int index) {
+        return masses[index];
+    }
+
+    /**
+     * Returns the index of the spectrum at the given index.
+     *
+     * @param index the index
+     *
+     * @return the index of the spectrum at the given index
+     */
+    public int getSpectrumIndex(int index) {
+        return spectrumIndexes[index];
+    }
+
+    /**
+     * Returns the charge at the given index.
+     *
+     * @param index the index
+     *
+     * @return the charge at the given index
+     */
+    public int getCharge(int index) {
+        return charges[index];
+    }
+
+    /**
+     * Returns the isotope at the given index.
+     *
+     * @param index the index
+     *
+     * @return the isotope at the given index
+     */
+    public int getIsotope(int index) {
+        return isotopes[index];
+    }
+}
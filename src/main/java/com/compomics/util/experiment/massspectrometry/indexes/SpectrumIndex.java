@@ -3,12 +3,17 @@ package com.compomics.util.experiment.massspectrometry.indexes;
 import com.compomics.util.experiment.massspectrometry.Peak;
 import com.compomics.util.experiment.personalization.UrParameter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
 import org.apache.commons.math.util.FastMath;
 
 /**
- * This map stores the fragment ions indexed by mass.
+ * This map stores the fragment ions indexed by mass. The peaks are stored in
+ * arrays sorted by m/z and located by bin using a table of offsets, so that
+ * peaks can be matched without allocating objects.
  *
  * @author Marc Vaudel
  */
@@ -23,9 +28,26 @@ public class SpectrumIndex implements UrParameter {
      */
     boolean ppm;
     /**
-     * Map of the precursors by bin and m/z.
+     * The m/z of the peaks in ascending order.
      */
-    private HashMap<Integer, HashMap<Double, Peak>> peaksMap;
+    private double[] mzArray = new double[0];
+    /**
+     * The intensities of the peaks sorted by m/z.
+     */
+    private double[] intensityArray = new double[0];
+    /**
+     * The peaks sorted by m/z.
+     */
+    private Peak[] peakArray = new Peak[0];
+    /**
+     * The index of the first peak of every bin in the arrays, ordered by bin
+     * rank (see getBinRank), the last element being the number of peaks.
+     */
+    private int[] binOffsets = new int[1];
+    /**
+     * The maximal number of peaks which can be matched by a query.
+     */
+    private int maxMatches = 0;
     /**
      * An m/z anchor to determine the bins in ppm
      */
@@ -73,33 +95,130 @@ public class SpectrumIndex implements UrParameter {
      */
     public SpectrumIndex(HashMap<Double, Peak> peaks, double intenstiyLimit, double tolerance, boolean ppm) {
         this.intensityLimit = intenstiyLimit;
-        this.peaksMap = new HashMap<Integer, HashMap<Double, Peak>>();
         this.precursorTolerance = tolerance;
         this.ppm = ppm;
         if (ppm) {
             scalingFactor = FastMath.log((1000000 - tolerance) / (1000000 + tolerance));
         }
-        totalIntensity = 0.0;
+        ArrayList<Peak> indexedPeaks = new ArrayList<Peak>(peaks.size());
         for (Peak peak : peaks.values()) {
             if (peak.intensity >= intenstiyLimit) {
-                totalIntensity += peak.intensity;
-                Integer bin = getBin(peak.mz);
-                if (binMax == null || bin > binMax) {
-                    binMax = bin;
-                }
-                if (binMin == null || bin < binMin) {
-                    binMin = bin;
-                }
-                HashMap<Double, Peak> peaksInBin = peaksMap.get(bin);
-                if (peaksInBin == null) {
-                    peaksInBin = new HashMap<Double, Peak>(4);
-                    peaksMap.put(bin, peaksInBin);
+                indexedPeaks.add(peak);
+            }
+        }
+
+        int nPeaks = indexedPeaks.size();
+        peakArray = indexedPeaks.toArray(new Peak[nPeaks]);
+        Arrays.sort(peakArray, new Comparator<Peak>() {
+            @Override
+            public int compare(Peak o1, Peak o2) {
+                return Double.compare(o1.mz, o2.mz);
+            }
+        });
+        mzArray = new double[nPeaks];
+        intensityArray = new double[nPeaks];
+        for (int i = 0; i < nPeaks; i++) {
+            mzArray[i] = peakArray[i].mz;
+            intensityArray[i] = peakArray[i].intensity;
+        }
+
+        indexBins();
+    }
+
+    /**
+     * Builds a new index from the peak arrays of a spectrum.
+     *
+     * @param mz the m/z of the peaks sorted in ascending order
+     * @param intensity the intensities of the peaks, indexed like the m/z
+     * @param intenstiyLimit a lower limit for the intensity of the peaks to
+     * index
+     * @param tolerance the tolerance to use
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     */
+    public SpectrumIndex(double[] mz, double[] intensity, double intenstiyLimit, double tolerance, boolean ppm) {
+        this.intensityLimit = intenstiyLimit;
+        this.precursorTolerance = tolerance;
+        this.ppm = ppm;
+        if (ppm) {
+            scalingFactor = FastMath.log((1000000 - tolerance) / (1000000 + tolerance));
+        }
+        int nPeaks = 0;
+        for (double peakIntensity : intensity) {
+            if (peakIntensity >= intenstiyLimit) {
+                nPeaks++;
+            }
+        }
+
+        mzArray = new double[nPeaks];
+        intensityArray = new double[nPeaks];
+        peakArray = new Peak[nPeaks];
+        int index = 0;
+        for (int i = 0; i < mz.length; i++) {
+            if (intensity[i] >= intenstiyLimit) {
+                mzArray[index] = mz[i];
+                intensityArray[index] = intensity[i];
+                peakArray[index] = new Peak(mz[i], intensity[i]);
+                index++;
+            }
+        }
+
+        indexBins();
+    }
+
+    /**
+     * Sets the total intensity, the bin range, the table of bin offsets and
+     * the maximal number of matches from the sorted peak arrays.
+     */
+    private void indexBins() {
+        totalIntensity = 0.0;
+        int nPeaks = mzArray.length;
+        for (int i = 0; i < nPeaks; i++) {
+            totalIntensity += intensityArray[i];
+            int bin = getBin(mzArray[i]);
+            if (binMax == null || bin > binMax) {
+                binMax = bin;
+            }
+            if (binMin == null || bin < binMin) {
+                binMin = bin;
+            }
+        }
+
+        if (nPeaks > 0) {
+            int nBins = binMax - binMin + 1;
+            binOffsets = new int[nBins + 1];
+            for (int i = 0; i < nPeaks; i++) {
+                binOffsets[(int) getBinRank(getBin(mzArray[i])) + 1]++;
+            }
+            for (int rank = 0; rank < nBins; rank++) {
+                binOffsets[rank + 1] += binOffsets[rank];
+            }
+            for (int rank = 0; rank < nBins; rank++) {
+                int nMatches = binOffsets[Math.min(rank + 2, nBins)] - binOffsets[Math.max(rank - 1, 0)];
+                if (nMatches > maxMatches) {
+                    maxMatches = nMatches;
                 }
-                peaksInBin.put(peak.mz, peak);
             }
         }
     }
 
+    /**
+     * Returns the rank of the given bin, i.e. the index of the bin in the
+     * table of offsets. Bins are ranked by ascending m/z, that is ascending
+     * bin number for absolute tolerances and descending bin number in ppm.
+     * The result is out of the table for bins outside the index.
+     *
+     * @param bin the bin
+     *
+     * @return the rank of the bin
+     */
+    private long getBinRank(int bin) {
+        if (ppm) {
+            return (long) binMax - bin;
+        } else {
+            return (long) bin - binMin;
+        }
+    }
+
     /**
      * Returns the bin corresponding to the given m/z.
      *
@@ -142,64 +261,110 @@ public class SpectrumIndex implements UrParameter {
     }
 
     /**
-     * Returns the peaks matching the given m/z. TODO: check only one/two bins
-     * when possible.
+     * Returns the peaks matching the given m/z.
      *
      * @param mz a m/z to query
      *
      * @return the peaks matching the given m/z
      */
     public ArrayList<Peak> getMatchingPeaks(double mz) {
-        int bin0;
-        if (ppm) {
-            bin0 = getBinPpm(mz);
-        } else {
-            bin0 = getBinAbsolute(mz);
+        int[] buffer = new int[maxMatches];
+        int nMatches = getMatchingPeaks(mz, buffer);
+        ArrayList<Peak> result = new ArrayList<Peak>(nMatches);
+        for (int i = 0; i < nMatches; i++) {
+            result.add(peakArray[buffer[i]]);
         }
-        ArrayList<Peak> result = new ArrayList<Peak>(0);
-        HashMap<Double, Peak> binContent = peaksMap.get(bin0 - 1);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
-            }
+        return result;
+    }
+
+    /**
+     * Writes the indexes of the peaks matching the given m/z to the given
+     * buffer and returns their number. The indexes can be used with getPeak,
+     * getMz and getIntensity. The buffer should be at least of the size given
+     * by getMaxMatches. This method does not allocate objects.
+     *
+     * @param mz a m/z to query
+     * @param buffer the buffer where to write the indexes of the matching
+     * peaks
+     *
+     * @return the number of peaks matching the given m/z
+     */
+    public int getMatchingPeaks(double mz, int[] buffer) {
+        if (mzArray.length == 0) {
+            return 0;
         }
-        binContent = peaksMap.get(bin0);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
-            }
+        long rank = getBinRank(getBin(mz));
+        int nBins = binOffsets.length - 1;
+        long firstRank = Math.max(rank - 1, 0);
+        long lastRank = Math.min(rank + 1, nBins - 1);
+        if (firstRank > lastRank) {
+            return 0;
         }
-        binContent = peaksMap.get(bin0 + 1);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
+        int nMatches = 0;
+        for (int i = binOffsets[(int) firstRank]; i < binOffsets[(int) lastRank + 1]; i++) {
+            double error;
+            if (ppm) {
+                error = 1000000 * (mzArray[i] - mz) / mz;
+            } else {
+                error = mzArray[i] - mz;
+            }
+            if (Math.abs(error) <= precursorTolerance) {
+                buffer[nMatches++] = i;
             }
         }
-        return result;
+        return nMatches;
+    }
+
+    /**
+     * Returns the maximal number of peaks which can be matched by a query,
+     * i.e. the minimal size of the buffer to use in getMatchingPeaks.
+     *
+     * @return the maximal number of peaks which can be matched by a query
+     */
+    public int getMaxMatches() {
+        return maxMatches;
+    }
+
+    /**
+     * Returns the number of peaks in the index.
+     *
+     * @return the number of peaks in the index
+     */
+    public int getNPeaks() {
+        return mzArray.length;
+    }
+
+    /**
+     * Returns the peak at the given index.
+     *
+     * @param index the index of the peak
+     *
+     * @return the peak at the given index
+     */
+    public Peak getPeak(int index) {
+        return peakArray[index];
+    }
+
+    /**
+     * Returns the m/z of the peak at the given index.
+     *
+     * @param index the index of the peak
+     *
+     * @return the m/z of the peak at the given index
+     */
+    public double getMz(int index) {
+        return mzArray[index];
+    }
+
+    /**
+     * Returns the intensity of the peak at the given index.
+     *
+     * @param index the index of the peak
+     *
+     * @return the intensity of the peak at the given index
+     */
+    public double getIntensity(int index) {
+        return intensityArray[index];
     }
 
     /**
@@ -208,16 +373,21 @@ public class SpectrumIndex implements UrParameter {
      * @return the bins in the map
      */
     public ArrayList<Integer> getBins() {
-        return new ArrayList<Integer>(peaksMap.keySet());
+        return new ArrayList<Integer>(getRawBins());
     }
 
     /**
-     * Returns the bins in the map as collection of keys from the map.
+     * Returns the non empty bins of the index. The set is created every time
+     * the method is called.
      *
      * @return the bins in the map
      */
     public Set<Integer> getRawBins() {
-        return peaksMap.keySet();
+        HashSet<Integer> bins = new HashSet<Integer>();
+        for (double mz : mzArray) {
+            bins.add(getBin(mz));
+        }
+        return bins;
     }
 
     /**
@@ -228,7 +398,23 @@ public class SpectrumIndex implements UrParameter {
      * @return the peaks at the given bin
      */
     public HashMap<Double, Peak> getPeaksInBin(Integer bin) {
-        return peaksMap.get(bin);
+        if (mzArray.length == 0) {
+            return null;
+        }
+        long rank = getBinRank(bin);
+        if (rank < 0 || rank >= binOffsets.length - 1) {
+            return null;
+        }
+        int start = binOffsets[(int) rank];
+        int end = binOffsets[(int) rank + 1];
+        if (start == end) {
+            return null;
+        }
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(end - start);
+        for (int i = start; i < end; i++) {
+            result.put(mzArray[i], peakArray[i]);
+        }
+        return result;
     }
 
     /**
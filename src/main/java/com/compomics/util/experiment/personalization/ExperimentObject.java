@@ -65,6 +65,25 @@ public abstract class ExperimentObject implements Serializable, Cloneable {
         return urParams.get(parameter.getParameterKey());
     }
     
+    /**
+     * Returns the map of the user refinement parameters indexed by parameter
+     * key. Null if none set.
+     *
+     * @return the map of the user refinement parameters
+     */
+    public HashMap<String, UrParameter> getUrParams() {
+        return urParams;
+    }
+
+    /**
+     * Sets the map of the user refinement parameters indexed by parameter key.
+     *
+     * @param urParams the map of the user refinement parameters
+     */
+    public void setUrParams(HashMap<String, UrParameter> urParams) {
+        this.urParams = urParams;
+    }
+
     /**
      * Clears the loaded parameters.
      */
@@ -367,7 +367,7 @@ public class FragmentIonTable extends JTable {
 
         // get all fragmentions for the peptide
         IonFactory fragmentFactory = IonFactory.getInstance();
-        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> ions = fragmentFactory.getFragmentIons(currentPeptide);
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> ions = fragmentFactory.getFragmentIonsPlan(currentPeptide, null).getFragmentIons();
         HashMap<Integer, ArrayList<Ion>> fragmentIons = ions.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index);
 
         // add the theoretical masses to the table
@@ -0,0 +1,303 @@
+package com.compomics.util.maps;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache bounded by a number of entries and by a total weight, evicting the
+ * least recently used entries first. The entries are stored in a
+ * LinkedHashMap in access order. All methods are synchronized on the cache:
+ * values are typically computed outside of the cache after a miss and then
+ * added using put or putIfAbsent. By default all entries have a weight of
+ * zero, override getWeight to bound the cache by weight.
+ *
+ * @author Marc Vaudel
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class BoundedLruCache<K, V> {
+
+    /**
+     * The entries from the least to the most recently used.
+     */
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    /**
+     * The maximal number of entries.
+     */
+    private int maxSize;
+    /**
+     * The maximal total weight of the entries.
+     */
+    private long maxWeight;
+    /**
+     * The total weight of the entries.
+     */
+    private long weight = 0;
+    /**
+     * The number of lookups returning a cached value.
+     */
+    private long hits = 0;
+    /**
+     * The number of lookups returning no cached value.
+     */
+    private long misses = 0;
+    /**
+     * The number of entries removed to respect the limits.
+     */
+    private long evictions = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize the maximal number of entries
+     * @param maxWeight the maximal total weight of the entries
+     */
+    public BoundedLruCache(int maxSize, long maxWeight) {
+        this.maxSize = maxSize;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Constructor for a cache bounded by the number of entries only.
+     *
+     * @param maxSize the maximal number of entries
+     */
+    public BoundedLruCache(int maxSize) {
+        this(maxSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the weight of a value. The weight must not change while the
+     * value is in cache. Zero by default.
+     *
+     * @param value the value
+     *
+     * @return the weight of the value
+     */
+    protected long getWeight(V value) {
+        return 0;
+    }
+
+    /**
+     * Returns the cached value, null if not in cache. Marks the entry as most
+     * recently used.
+     *
+     * @param key the key
+     *
+     * @return the cached value
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Indicates whether a value is cached for the given key. The access order
+     * and the counters are not changed.
+     *
+     * @param key the key
+     *
+     * @return a boolean indicating whether a value is cached for the given key
+     */
+    public synchronized boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Adds a value to the cache, replacing the value previously cached under
+     * this key if any, and evicts the least recently used entries until the
+     * cache fits the limits. A value which cannot fit in the cache is not
+     * added.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public synchronized void put(K key, V value) {
+        long valueWeight = getWeight(value);
+        if (valueWeight > maxWeight || maxSize <= 0) {
+            remove(key);
+            return;
+        }
+        Entry<V> previous = entries.put(key, new Entry<V>(value, valueWeight));
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        weight += valueWeight;
+        evict();
+    }
+
+    /**
+     * Adds a value to the cache if no value is cached under this key, see
+     * put. Returns the value already cached if any, null otherwise.
+     *
+     * @param key the key
+     * @param value the value
+     *
+     * @return the value already cached, null if none
+     */
+    public synchronized V putIfAbsent(K key, V value) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            return entry.value;
+        }
+        put(key, value);
+        return null;
+    }
+
+    /**
+     * Removes a value from the cache.
+     *
+     * @param key the key
+     *
+     * @return the removed value, null if none
+     */
+    public synchronized V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        weight -= entry.weight;
+        return entry.value;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits the limits.
+     */
+    private void evict() {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && (weight > maxWeight || entries.size() > maxSize)) {
+            Entry<V> evicted = iterator.next().getValue();
+            iterator.remove();
+            weight -= evicted.weight;
+            evictions++;
+        }
+    }
+
+    /**
+     * Empties the cache. The counters are not reset.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Returns the number of entries in cache.
+     *
+     * @return the number of entries in cache
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total weight of the entries in cache.
+     *
+     * @return the total weight of the entries in cache
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the maximal number of entries.
+     *
+     * @return the maximal number of entries
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximal number of entries and evicts the entries in excess.
+     *
+     * @param maxSize the maximal number of entries
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * Returns the maximal total weight of the entries.
+     *
+     * @return the maximal total weight of the entries
+     */
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Sets the maximal total weight of the entries and evicts the entries in
+     * excess.
+     *
+     * @param maxWeight the maximal total weight of the entries
+     */
+    public synchronized void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    /**
+     * Returns the number of lookups which returned a cached value.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups which returned no cached value.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries removed from the cache to respect the
+     * limits.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * A cached value and its weight.
+     *
+     * @param <V> the type of value
+     */
+    private static class Entry<V> {
+
+        /**
+         * The value.
+         */
+        final V value;
+        /**
+         * The weight of the value.
+         */
+        final long weight;
+
+        /**
+         * Constructor.
+         *
+         * @param value the value
+         * @param weight the weight of the value
+         */
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
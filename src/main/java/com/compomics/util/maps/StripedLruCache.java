@@ -0,0 +1,288 @@
+package com.compomics.util.maps;
+
+/**
+ * Bounded cache split in segments locked independently, so that threads
+ * accessing different keys do not wait on each other. Every segment is a
+ * BoundedLruCache evicting its least recently used entries when exceeding its
+ * share of the limits. Override getWeight to bound the cache by weight.
+ *
+ * @author Marc Vaudel
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class StripedLruCache<K, V> {
+
+    /**
+     * The default number of segments.
+     */
+    public static final int DEFAULT_N_SEGMENTS = 16;
+    /**
+     * The segments of the cache.
+     */
+    private final BoundedLruCache<K, V>[] segments;
+    /**
+     * The maximal number of entries.
+     */
+    private volatile int maxSize;
+    /**
+     * The maximal total weight of the entries.
+     */
+    private volatile long maxWeight;
+
+    /**
+     * Constructor.
+     *
+     * @param nSegments the number of segments, rounded up to a power of two
+     * @param maxSize the maximal number of entries
+     * @param maxWeight the maximal total weight of the entries
+     */
+    @SuppressWarnings("unchecked")
+    public StripedLruCache(int nSegments, int maxSize, long maxWeight) {
+        int size = 1;
+        while (size < nSegments) {
+            size <<= 1;
+        }
+        segments = new BoundedLruCache[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment();
+        }
+        setMaxSize(maxSize);
+        setMaxWeight(maxWeight);
+    }
+
+    /**
+     * Constructor for a cache bounded by the number of entries only, using
+     * the default number of segments.
+     *
+     * @param maxSize the maximal number of entries
+     */
+    public StripedLruCache(int maxSize) {
+        this(DEFAULT_N_SEGMENTS, maxSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the weight of a value. The weight must not change while the
+     * value is in cache. Zero by default.
+     *
+     * @param value the value
+     *
+     * @return the weight of the value
+     */
+    protected long getWeight(V value) {
+        return 0;
+    }
+
+    /**
+     * Returns the segment responsible for the given key.
+     *
+     * @param key the key
+     *
+     * @return the segment
+     */
+    private BoundedLruCache<K, V> getSegment(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * Returns the cached value, null if not in cache. Marks the entry as most
+     * recently used in its segment.
+     *
+     * @param key the key
+     *
+     * @return the cached value
+     */
+    public V get(K key) {
+        return getSegment(key).get(key);
+    }
+
+    /**
+     * Indicates whether a value is cached for the given key.
+     *
+     * @param key the key
+     *
+     * @return a boolean indicating whether a value is cached for the given key
+     */
+    public boolean contains(K key) {
+        return getSegment(key).contains(key);
+    }
+
+    /**
+     * Adds a value to the cache, replacing the value previously cached under
+     * this key if any, see BoundedLruCache.put.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(K key, V value) {
+        getSegment(key).put(key, value);
+    }
+
+    /**
+     * Adds a value to the cache if no value is cached under this key. Returns
+     * the value already cached if any, null otherwise.
+     *
+     * @param key the key
+     * @param value the value
+     *
+     * @return the value already cached, null if none
+     */
+    public V putIfAbsent(K key, V value) {
+        return getSegment(key).putIfAbsent(key, value);
+    }
+
+    /**
+     * Removes a value from the cache.
+     *
+     * @param key the key
+     *
+     * @return the removed value, null if none
+     */
+    public V remove(K key) {
+        return getSegment(key).remove(key);
+    }
+
+    /**
+     * Empties the cache. The counters are not reset.
+     */
+    public void clear() {
+        for (BoundedLruCache<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns the number of entries in cache.
+     *
+     * @return the number of entries in cache
+     */
+    public int size() {
+        int size = 0;
+        for (BoundedLruCache<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the total weight of the entries in cache.
+     *
+     * @return the total weight of the entries in cache
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (BoundedLruCache<K, V> segment : segments) {
+            weight += segment.getWeight();
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the maximal number of entries.
+     *
+     * @return the maximal number of entries
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximal number of entries and evicts the entries in excess.
+     * Every segment holds at most its share of the entries, at least one if
+     * the maximal number of entries is positive.
+     *
+     * @param maxSize the maximal number of entries
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        int segmentMaxSize = Math.max(maxSize / segments.length, maxSize > 0 ? 1 : 0);
+        for (BoundedLruCache<K, V> segment : segments) {
+            segment.setMaxSize(segmentMaxSize);
+        }
+    }
+
+    /**
+     * Returns the maximal total weight of the entries.
+     *
+     * @return the maximal total weight of the entries
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Sets the maximal total weight of the entries and evicts the entries in
+     * excess. Every segment holds at most its share of the weight.
+     *
+     * @param maxWeight the maximal total weight of the entries
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        long segmentMaxWeight = maxWeight == Long.MAX_VALUE ? Long.MAX_VALUE : maxWeight / segments.length;
+        for (BoundedLruCache<K, V> segment : segments) {
+            segment.setMaxWeight(segmentMaxWeight);
+        }
+    }
+
+    /**
+     * Returns the number of lookups which returned a cached value.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        long hits = 0;
+        for (BoundedLruCache<K, V> segment : segments) {
+            hits += segment.getHits();
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups which returned no cached value.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (BoundedLruCache<K, V> segment : segments) {
+            misses += segment.getMisses();
+        }
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries removed from the cache to respect the
+     * limits.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        long evictions = 0;
+        for (BoundedLruCache<K, V> segment : segments) {
+            evictions += segment.getEvictions();
+        }
+        return evictions;
+    }
+
+    /**
+     * Segment of the cache: a bounded LRU cache weighing the values using the
+     * getWeight method of the striped cache.
+     */
+    private class Segment extends BoundedLruCache<K, V> {
+
+        /**
+         * Constructor.
+         */
+        Segment() {
+            super(0, 0);
+        }
+
+        @Override
+        protected long getWeight(V value) {
+            return StripedLruCache.this.getWeight(value);
+        }
+    }
+}
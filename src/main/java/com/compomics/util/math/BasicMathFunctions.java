@@ -202,6 +202,39 @@ public class BasicMathFunctions {
         return valueAtIndex + rest * (input[index + 1] - valueAtIndex);
     }
 
+    /**
+     * Returns the desired percentile of the first values of a given array of
+     * double. If the percentile is between two values a linear interpolation
+     * is done. The values must be sorted prior to submission.
+     *
+     * @param input the input array
+     * @param length the number of values to consider, starting from the
+     * beginning of the array
+     * @param percentile the desired percentile. 0.01 returns the first
+     * percentile. 0.5 returns the median.
+     *
+     * @return the desired percentile
+     */
+    public static double percentileSorted(double[] input, int length, double percentile) {
+        if (percentile < 0 || percentile > 1) {
+            throw new IllegalArgumentException("Incorrect input for percentile: " + percentile + ". Input must be between 0 and 1.");
+        }
+        if (length == 0) {
+            throw new IllegalArgumentException("Attempting to estimate the percentile of an empty list.");
+        }
+        if (length == 1) {
+            return input[0];
+        }
+        double indexDouble = percentile * (length - 1);
+        int index = (int) (indexDouble);
+        double valueAtIndex = input[index];
+        double rest = indexDouble - index;
+        if (index == length - 1 || rest == 0) {
+            return valueAtIndex;
+        }
+        return valueAtIndex + rest * (input[index + 1] - valueAtIndex);
+    }
+
     /**
      * Returns the desired percentile in a given list of double. If the
      * percentile is between two values a linear interpolation is done. Note:
@@ -497,4 +530,75 @@ public class BasicMathFunctions {
         }
         return result;
     }
+
+    /**
+     * Sorts indexes according to the given keys, ties are sorted by increasing
+     * index. Quicksort on primitive arrays.
+     *
+     * @param indexes the indexes to sort
+     * @param low the first position to sort
+     * @param high the last position to sort
+     * @param keys the keys
+     * @param descending if true the keys are sorted in decreasing order
+     */
+    public static void sortIndexes(int[] indexes, int low, int high, double[] keys, boolean descending) {
+        while (low < high) {
+            if (high - low < 16) {
+                for (int i = low + 1; i <= high; i++) {
+                    int index = indexes[i];
+                    int j = i - 1;
+                    while (j >= low && compareIndexes(indexes[j], index, keys, descending) > 0) {
+                        indexes[j + 1] = indexes[j];
+                        j--;
+                    }
+                    indexes[j + 1] = index;
+                }
+                return;
+            }
+            int pivot = indexes[(low + high) >>> 1];
+            int i = low, j = high;
+            while (i <= j) {
+                while (compareIndexes(indexes[i], pivot, keys, descending) < 0) {
+                    i++;
+                }
+                while (compareIndexes(indexes[j], pivot, keys, descending) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    int temp = indexes[i];
+                    indexes[i] = indexes[j];
+                    indexes[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            if (j - low < high - i) {
+                sortIndexes(indexes, low, j, keys, descending);
+                low = i;
+            } else {
+                sortIndexes(indexes, i, high, keys, descending);
+                high = j;
+            }
+        }
+    }
+
+    /**
+     * Compares two indexes according to the given keys, ties are resolved by
+     * increasing index.
+     *
+     * @param index1 the first index
+     * @param index2 the second index
+     * @param keys the keys
+     * @param descending if true the keys are compared in decreasing order
+     *
+     * @return a negative integer, zero, or a positive integer as the first
+     * index is to be sorted before, with, or after the second
+     */
+    private static int compareIndexes(int index1, int index2, double[] keys, boolean descending) {
+        int result = descending ? Double.compare(keys[index2], keys[index1]) : Double.compare(keys[index1], keys[index2]);
+        if (result == 0) {
+            result = index1 - index2;
+        }
+        return result;
+    }
 }
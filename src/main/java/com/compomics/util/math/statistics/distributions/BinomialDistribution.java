@@ -1,8 +1,8 @@
 package com.compomics.util.math.statistics.distributions;
 
 import com.compomics.util.math.statistics.Distribution;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.BinomialDistributionImpl;
 import org.apache.commons.math.special.Beta;
@@ -31,13 +31,14 @@ public class BinomialDistribution implements Distribution {
      */
     private int cacheSize = 1000;
     /**
-     * A cache for the probabilities.
+     * A cache for the probabilities. Distributions are shared between threads,
+     * the caches are read without lock.
      */
-    private HashMap<Integer, Double> pCache = new HashMap<Integer, Double>();
+    private ConcurrentHashMap<Integer, Double> pCache = new ConcurrentHashMap<Integer, Double>();
     /**
      * A cache for the cumulative probabilities.
      */
-    private HashMap<Integer, Double> descendingCumulativePCache = new HashMap<Integer, Double>();
+    private ConcurrentHashMap<Integer, Double> descendingCumulativePCache = new ConcurrentHashMap<Integer, Double>();
 
     /**
      * Constructor.
@@ -103,7 +104,7 @@ public class BinomialDistribution implements Distribution {
         } else if (k < 0) {
             return 1.0;
         }
-        Double result = pCache.get(k);
+        Double result = descendingCumulativePCache.get(k);
         if (result == null) {
             // adapted from http://commons.apache.org/proper/commons-math/apidocs/src-html/org/apache/commons/math3/distribution/BinomialDistribution.html#line.130
             result = Beta.regularizedBeta(p, x + 1.0, n - x);
@@ -228,6 +228,11 @@ public class UtilitiesUserPreferences implements Serializable {
      * The minimum charge added when the charge is missing for a given spectrum.
      */
     private Integer maxSpectrumChargeRange = 4;
+    /**
+     * If true, the FM index of a FASTA file is saved next to the file and
+     * reused by the following runs.
+     */
+    private Boolean saveFmIndex = false;
 
     /**
      * Constructor.
@@ -1302,4 +1307,28 @@ public class UtilitiesUserPreferences implements Serializable {
     public void setMaxSpectrumChargeRange(Integer maxSpectrumChargeRange) {
         this.maxSpectrumChargeRange = maxSpectrumChargeRange;
     }
+
+    /**
+     * Returns true if the FM index of a FASTA file is to be saved next to the
+     * file and reused by the following runs. The index can be several
+     * gigabytes large.
+     *
+     * @return true if the FM index is to be saved
+     */
+    public Boolean getSaveFmIndex() {
+        if (saveFmIndex == null) {
+            saveFmIndex = false;
+        }
+        return saveFmIndex;
+    }
+
+    /**
+     * Sets whether the FM index of a FASTA file is to be saved next to the
+     * file and reused by the following runs.
+     *
+     * @param saveFmIndex true if the FM index is to be saved
+     */
+    public void setSaveFmIndex(Boolean saveFmIndex) {
+        this.saveFmIndex = saveFmIndex;
+    }
 }
@@ -1,6 +1,7 @@
 package com.compomics.util.test.experiment;
 
 import com.compomics.util.experiment.biology.AminoAcidPattern;
+import com.compomics.util.experiment.biology.FragmentIonsPlan;
 import com.compomics.util.experiment.biology.Ion;
 import com.compomics.util.experiment.biology.IonFactory;
 import com.compomics.util.experiment.biology.NeutralLoss;
@@ -10,6 +11,10 @@ import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
 import com.compomics.util.experiment.biology.ions.TagFragmentIon;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
+import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
@@ -706,4 +711,50 @@ public class FragmentFactoryTest extends TestCase {
             }
         }
     }
+
+    /**
+     * Tests the cached fragment ions plans.
+     */
+    public void testFragmentIonsPlan() {
+
+        Peptide peptide = new Peptide("ACDEFGHIKLMNPQRSTVWY", new ArrayList<ModificationMatch>());
+        SpecificAnnotationSettings specificAnnotationSettings = new SpecificAnnotationSettings("spectrum", new PeptideAssumption(peptide, new Charge(Charge.PLUS, 2)));
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+        specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+        specificAnnotationSettings.setNeutralLossesMap(new NeutralLossesMap());
+
+        fragmentFactory.clearPlansCache();
+        FragmentIonsPlan plan = fragmentFactory.getFragmentIonsPlan(peptide, specificAnnotationSettings);
+        Assert.assertTrue(plan == fragmentFactory.getFragmentIonsPlan(new Peptide(peptide.getSequence(), new ArrayList<ModificationMatch>()), specificAnnotationSettings));
+        Assert.assertTrue(plan != fragmentFactory.getFragmentIonsPlan(peptide, null));
+
+        HashMap<Integer, HashMap<Integer, ArrayList<Ion>>> ions = fragmentFactory.getFragmentIons(peptide, specificAnnotationSettings);
+        HashMap<Integer, ArrayList<Ion>> fragmentIons = ions.get(Ion.IonType.PEPTIDE_FRAGMENT_ION.index);
+        Assert.assertEquals(fragmentIons.get(PeptideFragmentIon.B_ION).size() + fragmentIons.get(PeptideFragmentIon.Y_ION).size(), plan.size());
+
+        for (int i = 0; i < plan.size(); i++) {
+            Ion ion = plan.getIon(i);
+            PeptideFragmentIon peptideFragmentIon = (PeptideFragmentIon) ion;
+            Assert.assertEquals(Ion.IonType.PEPTIDE_FRAGMENT_ION.index, plan.getType(i));
+            Assert.assertEquals(ion.getSubType(), plan.getSubType(i));
+            Assert.assertEquals(peptideFragmentIon.getNumber(), plan.getNumber(i));
+            Assert.assertEquals(0.0, plan.getNeutralLossesMass(i));
+            Assert.assertTrue(Math.abs(ion.getTheoreticMz(1) - plan.getMz(i)) < 1e-9);
+            Assert.assertTrue(Math.abs(ion.getTheoreticMz(2) - plan.getMz(i, 2)) < 1e-9);
+            boolean found = false;
+            for (Ion otherIon : fragmentIons.get(ion.getSubType())) {
+                if (((PeptideFragmentIon) otherIon).getNumber() == peptideFragmentIon.getNumber()) {
+                    Assert.assertEquals(otherIon.getTheoreticMass(), ion.getTheoreticMass());
+                    found = true;
+                }
+            }
+            Assert.assertTrue(found);
+        }
+
+        fragmentFactory.setPlansCacheSize(1);
+        fragmentFactory.getFragmentIonsPlan(peptide, null);
+        Assert.assertTrue(plan != fragmentFactory.getFragmentIonsPlan(peptide, specificAnnotationSettings));
+        fragmentFactory.setPlansCacheSize(IonFactory.DEFAULT_PLANS_CACHE_SIZE);
+        fragmentFactory.clearPlansCache();
+    }
 }
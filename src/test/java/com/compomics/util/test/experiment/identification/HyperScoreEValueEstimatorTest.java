@@ -0,0 +1,123 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.identification.psm_scoring.psm_scores.HyperScore;
+import com.compomics.util.experiment.identification.psm_scoring.psm_scores.HyperScoreEValueEstimator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the incremental estimation of hyperscore e-values.
+ *
+ * @author Marc Vaudel
+ */
+public class HyperScoreEValueEstimatorTest extends TestCase {
+
+    /**
+     * Tests that the e-values estimated incrementally and on merged
+     * histograms are the same as the ones estimated from the list of scores.
+     */
+    public void testEValues() {
+
+        HyperScore hyperScore = new HyperScore();
+        HyperScoreEValueEstimator estimator = new HyperScoreEValueEstimator();
+        HyperScoreEValueEstimator estimator1 = new HyperScoreEValueEstimator();
+        HyperScoreEValueEstimator estimator2 = new HyperScoreEValueEstimator();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100; i++) {
+
+            estimator.reset();
+            estimator1.reset();
+            estimator2.reset();
+
+            ArrayList<Double> scores = new ArrayList<Double>();
+            int nScores = 1 + random.nextInt(1000);
+            double scale = 1 + random.nextInt(50);
+            for (int j = 0; j < nScores; j++) {
+                double score = random.nextInt(10) == 0 ? 0.0 : scale * Math.exp(2 * random.nextDouble()) * random.nextDouble();
+                scores.add(score);
+                estimator.add(score);
+                if (j % 2 == 0) {
+                    estimator1.add(score);
+                } else {
+                    estimator2.add(score);
+                }
+            }
+            estimator1.merge(estimator2);
+            Assert.assertEquals(nScores, estimator.getNScores());
+            Assert.assertEquals(nScores, estimator1.getNScores());
+
+            HashMap<Double, Double> eValues = hyperScore.getEValueMap(scores, false);
+            if (eValues == null) {
+                Assert.assertNull(estimator.getInterpolationValues());
+                Assert.assertNull(estimator1.getInterpolationValues());
+            } else {
+                for (Double score : scores) {
+                    double expected = eValues.get(score);
+                    Assert.assertEquals(expected, estimator.getEValue(score), 1e-9);
+                    Assert.assertEquals(expected, estimator1.getEValue(score), 1e-9);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the e-values of hyperscores of realistic magnitude, i.e. the
+     * product of a cross correlation and of the factorials of the numbers of
+     * matched forward and rewind ions, mostly above the histogram range.
+     */
+    public void testEValuesHighScores() {
+
+        HyperScore hyperScore = new HyperScore();
+        HyperScoreEValueEstimator estimator = new HyperScoreEValueEstimator();
+        HyperScoreEValueEstimator estimator1 = new HyperScoreEValueEstimator(16);
+        HyperScoreEValueEstimator estimator2 = new HyperScoreEValueEstimator(64);
+        Random random = new Random(42);
+        long[] factorials = new long[9];
+        factorials[0] = 1;
+        for (int i = 1; i < factorials.length; i++) {
+            factorials[i] = i * factorials[i - 1];
+        }
+
+        for (int i = 0; i < 100; i++) {
+
+            estimator.reset();
+            estimator1.reset();
+            estimator2.reset();
+
+            ArrayList<Double> scores = new ArrayList<Double>();
+            int nScores = 1 + random.nextInt(2000);
+            int maxIons = 3 + random.nextInt(factorials.length - 3);
+            for (int j = 0; j < nScores; j++) {
+                double xCorr = 10 * random.nextDouble();
+                double score = xCorr * factorials[random.nextInt(maxIons)] * factorials[random.nextInt(maxIons)];
+                scores.add(score);
+                estimator.add(score);
+                if (j % 2 == 0) {
+                    estimator1.add(score);
+                } else {
+                    estimator2.add(score);
+                }
+            }
+            estimator1.merge(estimator2);
+            Assert.assertEquals(nScores, estimator.getNScores());
+            Assert.assertEquals(nScores, estimator1.getNScores());
+
+            HashMap<Double, Double> eValues = hyperScore.getEValueMap(scores, false);
+            if (eValues == null) {
+                Assert.assertNull(estimator.getInterpolationValues());
+                Assert.assertNull(estimator1.getInterpolationValues());
+            } else {
+                for (Double score : scores) {
+                    double expected = eValues.get(score);
+                    double tolerance = 1e-9 * Math.max(1.0, Math.abs(expected));
+                    Assert.assertEquals(expected, estimator.getEValue(score), tolerance);
+                    Assert.assertEquals(expected, estimator1.getEValue(score), tolerance);
+                }
+            }
+        }
+    }
+}
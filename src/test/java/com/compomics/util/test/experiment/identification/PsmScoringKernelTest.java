@@ -0,0 +1,93 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.psm_scoring.PsmScore;
+import com.compomics.util.experiment.identification.psm_scoring.PsmScoresEstimator;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.preferences.IdentificationParameters;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the computation of multiple PSM scores in one pass.
+ *
+ * @author Marc Vaudel
+ */
+public class PsmScoringKernelTest extends TestCase {
+
+    /**
+     * Tests that the scores computed in one pass are the same as the ones
+     * computed individually.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testScores() throws Exception {
+
+        PsmScore[] psmScores = new PsmScore[]{PsmScore.hyperScore, PsmScore.ms2_mz_fidelity, PsmScore.intensity, PsmScore.complementarity};
+
+        IdentificationParameters identificationParameters = new IdentificationParameters();
+        identificationParameters.setAnnotationSettings(new AnnotationSettings());
+        PsmScoresEstimator psmScoresEstimator = new PsmScoresEstimator();
+        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
+
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+        Random random = new Random(42);
+
+        for (int i = 0; i < 50; i++) {
+
+            StringBuilder sequence = new StringBuilder();
+            int length = 7 + random.nextInt(15);
+            for (int j = 0; j < length; j++) {
+                sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+            }
+            Peptide peptide = new Peptide(sequence.toString(), new ArrayList<ModificationMatch>());
+            int charge = 2 + random.nextInt(2);
+
+            SpecificAnnotationSettings specificAnnotationSettings = new SpecificAnnotationSettings("spectrum " + i, new PeptideAssumption(peptide, new Charge(Charge.PLUS, charge)));
+            specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+            specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+            specificAnnotationSettings.setNeutralLossesMap(new NeutralLossesMap());
+            specificAnnotationSettings.addSelectedCharge(1);
+            specificAnnotationSettings.addSelectedCharge(2);
+            specificAnnotationSettings.setFragmentIonAccuracy(i % 2 == 0 ? 0.02 : 20.0);
+            specificAnnotationSettings.setFragmentIonPpm(i % 2 != 0);
+
+            HashMap<Double, Peak> peakList = new HashMap<Double, Peak>();
+            for (int j = 0; j < 200; j++) {
+                double mz = 100 + 1500 * random.nextDouble();
+                peakList.put(mz, new Peak(mz, 1 + random.nextInt(100)));
+            }
+            for (ArrayList<Ion> ions : spectrumAnnotator.getExpectedIons(specificAnnotationSettings, peptide).values()) {
+                for (Ion ion : ions) {
+                    if (random.nextInt(4) > 0) {
+                        double mz = ion.getTheoreticMz(1 + random.nextInt(2)) + 0.003 * random.nextGaussian();
+                        peakList.put(mz, new Peak(mz, 20 + random.nextInt(100)));
+                    }
+                }
+            }
+            MSnSpectrum spectrum = new MSnSpectrum(2, new Precursor(0.0, 500.0, new ArrayList<Charge>()), "spectrum " + i, peakList, "test.mgf");
+
+            double[] scores = psmScoresEstimator.getScores(peptide, charge, spectrum, identificationParameters, specificAnnotationSettings, spectrumAnnotator, psmScores);
+            Assert.assertEquals(psmScores.length, scores.length);
+
+            for (int j = 0; j < psmScores.length; j++) {
+                double expected = psmScoresEstimator.getScore(peptide, charge, spectrum, identificationParameters, specificAnnotationSettings, spectrumAnnotator, psmScores[j]);
+                Assert.assertEquals(psmScores[j].name, expected, scores[j], 1e-9 * Math.max(1.0, Math.abs(expected)));
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.compomics.util.test.experiment.identification;
+
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.PTM;
+import com.compomics.util.experiment.biology.PTMFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.ptm.PtmLocalizationService;
+import com.compomics.util.experiment.identification.ptm.ptmscores.AScore;
+import com.compomics.util.experiment.identification.ptm.ptmscores.PhosphoRS;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the batch scoring of PTM localization.
+ *
+ * @author Marc Vaudel
+ */
+public class PtmLocalizationServiceTest extends TestCase {
+
+    /**
+     * Tests that the scores obtained using multiple threads are the same as
+     * the ones obtained scoring the peptide spectrum matches one by one.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testBatchScoring() throws Exception {
+
+        PTM ptm = PTMFactory.getInstance().getPTM("Phosphorylation of S");
+        ArrayList<PTM> ptms = new ArrayList<PTM>(1);
+        ptms.add(ptm);
+
+        String aminoAcids = "ADEFGHIKLMNPQRSTVWY";
+        Random random = new Random(42);
+        int nPsms = 30;
+        ArrayList<PtmLocalizationService.LocalizationInput> inputs = new ArrayList<PtmLocalizationService.LocalizationInput>(nPsms);
+
+        for (int i = 0; i < nPsms; i++) {
+
+            StringBuilder sequence = new StringBuilder();
+            int length = 8 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+            }
+            sequence.setCharAt(random.nextInt(length / 2), 'S');
+            sequence.setCharAt(length / 2 + random.nextInt(length / 2), 'S');
+            int site = sequence.indexOf("S") + 1;
+            ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>(1);
+            modificationMatches.add(new ModificationMatch(ptm.getName(), true, site));
+            Peptide peptide = new Peptide(sequence.toString(), modificationMatches);
+
+            SpecificAnnotationSettings specificAnnotationSettings = new SpecificAnnotationSettings("spectrum " + i, new PeptideAssumption(peptide, new Charge(Charge.PLUS, 2)));
+            specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+            specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+            specificAnnotationSettings.setNeutralLossesMap(new NeutralLossesMap());
+            specificAnnotationSettings.addSelectedCharge(1);
+            specificAnnotationSettings.setFragmentIonAccuracy(0.02);
+            specificAnnotationSettings.setFragmentIonPpm(false);
+
+            HashMap<Double, Peak> peakList = new HashMap<Double, Peak>();
+            for (int j = 0; j < 150; j++) {
+                double mz = 100 + 1500 * random.nextDouble();
+                peakList.put(mz, new Peak(mz, 1 + random.nextInt(100)));
+            }
+            for (ArrayList<Ion> ions : new PeptideSpectrumAnnotator().getExpectedIons(specificAnnotationSettings, peptide).values()) {
+                for (Ion ion : ions) {
+                    if (random.nextInt(4) > 0) {
+                        double mz = ion.getTheoreticMz(1) + 0.002 * random.nextGaussian();
+                        peakList.put(mz, new Peak(mz, 50 + random.nextInt(100)));
+                    }
+                }
+            }
+            MSnSpectrum spectrum = new MSnSpectrum(2, new Precursor(0.0, 500.0, new ArrayList<Charge>()), "spectrum " + i, peakList, "test.mgf");
+
+            inputs.add(new PtmLocalizationService.LocalizationInput(peptide, ptms, spectrum, specificAnnotationSettings));
+        }
+
+        AnnotationSettings annotationSettings = new AnnotationSettings();
+        SequenceMatchingPreferences sequenceMatchingPreferences = SequenceMatchingPreferences.getDefaultSequenceMatching();
+        PtmLocalizationService ptmLocalizationService = new PtmLocalizationService(annotationSettings, false, sequenceMatchingPreferences, sequenceMatchingPreferences, 4);
+
+        ArrayList<HashMap<Integer, Double>> phosphoRsProbabilities = ptmLocalizationService.getPhosphoRsProbabilities(inputs, null);
+        ArrayList<HashMap<Integer, Double>> aScores = ptmLocalizationService.getAScores(inputs, null);
+        Assert.assertEquals(nPsms, phosphoRsProbabilities.size());
+        Assert.assertEquals(nPsms, aScores.size());
+
+        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
+        for (int i = 0; i < nPsms; i++) {
+            PtmLocalizationService.LocalizationInput input = inputs.get(i);
+            HashMap<Integer, Double> expectedProbabilities = PhosphoRS.getSequenceProbabilities(input.getPeptide(), ptms, input.getSpectrum(), annotationSettings,
+                    input.getSpecificAnnotationSettings(), false, sequenceMatchingPreferences, sequenceMatchingPreferences, spectrumAnnotator);
+            Assert.assertEquals(expectedProbabilities, phosphoRsProbabilities.get(i));
+            HashMap<Integer, Double> expectedScores = AScore.getAScore(input.getPeptide(), ptms, input.getSpectrum(), annotationSettings,
+                    input.getSpecificAnnotationSettings(), false, sequenceMatchingPreferences, sequenceMatchingPreferences, spectrumAnnotator);
+            Assert.assertEquals(expectedScores, aScores.get(i));
+        }
+
+        // The reduced spectra are taken from the cache the second time
+        Assert.assertEquals(aScores, ptmLocalizationService.getAScores(inputs, null));
+    }
+}
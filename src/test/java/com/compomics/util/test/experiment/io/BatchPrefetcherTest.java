@@ -0,0 +1,120 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.experiment.identification.matches_iterators.BatchPrefetcher;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the loading of batches of matches ahead of the iteration.
+ *
+ * @author Marc Vaudel
+ */
+public class BatchPrefetcherTest extends TestCase {
+
+    /**
+     * Tests that all keys are loaded before being iterated and that the
+     * loading does not run too far ahead of the iteration.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testPrefetching() throws Exception {
+
+        final int nKeys = 20000;
+        ArrayList<String> keys = new ArrayList<String>(nKeys);
+        for (int i = 0; i < nKeys; i++) {
+            keys.add("key_" + i);
+        }
+
+        final HashSet<String> loaded = new HashSet<String>();
+        final BatchPrefetcher prefetcher = new BatchPrefetcher(keys, new BatchPrefetcher.BatchLoader() {
+            @Override
+            public boolean loadBatch(ArrayList<String> keys) throws InterruptedException {
+                Thread.sleep(2);
+                synchronized (loaded) {
+                    loaded.addAll(keys);
+                }
+                return true;
+            }
+        }, 100, null, "test prefetching");
+
+        // nothing is loaded before the iteration starts
+        Thread.sleep(20);
+        Assert.assertTrue(loaded.isEmpty());
+
+        prefetcher.awaitLoaded(0);
+        Thread.sleep(50);
+        synchronized (loaded) {
+            Assert.assertTrue(loaded.size() <= (BatchPrefetcher.DEFAULT_BATCHES_AHEAD + 1) * prefetcher.getBatchSize() + 1);
+        }
+        Assert.assertTrue(prefetcher.getNLoaderWaits() > 0);
+
+        final int[] index = {0};
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int t = 0; t < 4; t++) {
+            results.add(pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    while (true) {
+                        int threadIndex;
+                        synchronized (index) {
+                            threadIndex = ++index[0];
+                        }
+                        if (threadIndex >= nKeys) {
+                            return true;
+                        }
+                        prefetcher.awaitLoaded(threadIndex);
+                        synchronized (loaded) {
+                            if (!loaded.contains("key_" + threadIndex)) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        pool.shutdown();
+        Assert.assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+        for (Future<Boolean> result : results) {
+            Assert.assertTrue(result.get());
+        }
+        Assert.assertTrue(loaded.size() == nKeys);
+        prefetcher.close();
+    }
+
+    /**
+     * Tests that an exception thrown while loading is passed to the
+     * iteration.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testException() throws Exception {
+
+        ArrayList<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add("key_" + i);
+        }
+
+        BatchPrefetcher prefetcher = new BatchPrefetcher(keys, new BatchPrefetcher.BatchLoader() {
+            @Override
+            public boolean loadBatch(ArrayList<String> keys) throws SQLException {
+                throw new SQLException("Test exception.");
+            }
+        }, 100, null, "test prefetching");
+
+        try {
+            prefetcher.awaitLoaded(0);
+            Assert.fail("Exception not passed to the iteration.");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+}
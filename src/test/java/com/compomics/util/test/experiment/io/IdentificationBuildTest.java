@@ -0,0 +1,143 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.identifications.Ms2Identification;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the creation of the peptide and protein matches from the
+ * spectrum matches.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationBuildTest extends TestCase {
+
+    /**
+     * Returns a new empty temporary folder.
+     *
+     * @return a new empty temporary folder
+     *
+     * @throws Exception if an exception occurs
+     */
+    private File getTempFolder() throws Exception {
+        File folder = File.createTempFile("identificationBuildTest", "");
+        folder.delete();
+        folder.mkdirs();
+        return folder;
+    }
+
+    /**
+     * Fills the given identification with test spectrum matches.
+     *
+     * @param identification the identification to fill
+     *
+     * @throws Exception if an exception occurs
+     */
+    private void addSpectrumMatches(Identification identification) throws Exception {
+
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+        Random random = new Random(42);
+
+        ArrayList<String> sequences = new ArrayList<String>();
+        ArrayList<ArrayList<String>> proteins = new ArrayList<ArrayList<String>>();
+        for (int i = 0; i < 100; i++) {
+            StringBuilder sequence = new StringBuilder();
+            int length = 7 + random.nextInt(10);
+            for (int j = 0; j < length; j++) {
+                sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+            }
+            sequences.add(sequence.toString());
+            ArrayList<String> parentProteins = new ArrayList<String>();
+            int nProteins = 1 + random.nextInt(3);
+            for (int j = 0; j < nProteins; j++) {
+                String accession = "P" + random.nextInt(50);
+                if (!parentProteins.contains(accession)) {
+                    parentProteins.add(accession);
+                }
+            }
+            Collections.sort(parentProteins);
+            proteins.add(parentProteins);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            int index = random.nextInt(sequences.size());
+            Peptide peptide = new Peptide(sequences.get(index), new ArrayList<ModificationMatch>());
+            peptide.setParentProteins(new ArrayList<String>(proteins.get(index)));
+            String spectrumKey = Spectrum.getSpectrumKey("test" + (i % 3) + ".mgf", "spectrum " + i);
+            SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumKey);
+            if (i % 10 != 0) {
+                spectrumMatch.setBestPeptideAssumption(new PeptideAssumption(peptide, new Charge(Charge.PLUS, 2)));
+            }
+            identification.addSpectrumMatch(spectrumMatch);
+        }
+    }
+
+    /**
+     * Tests that the peptide and protein matches built using multiple threads
+     * are the same as the ones built using a single thread.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testParallelBuild() throws Exception {
+
+        SequenceMatchingPreferences sequenceMatchingPreferences = SequenceMatchingPreferences.getDefaultSequenceMatching();
+        File sequentialFolder = getTempFolder();
+        File parallelFolder = getTempFolder();
+
+        try {
+            Identification sequentialIdentification = new Ms2Identification("sequential");
+            sequentialIdentification.establishConnection(sequentialFolder.getAbsolutePath(), true, new ObjectsCache());
+            Identification parallelIdentification = new Ms2Identification("parallel");
+            parallelIdentification.establishConnection(parallelFolder.getAbsolutePath(), true, new ObjectsCache());
+
+            try {
+                addSpectrumMatches(sequentialIdentification);
+                addSpectrumMatches(parallelIdentification);
+
+                sequentialIdentification.buildPeptidesAndProteins((WaitingHandler) null, sequenceMatchingPreferences);
+                parallelIdentification.buildPeptidesAndProteins(null, sequenceMatchingPreferences, 4);
+
+                Assert.assertFalse(sequentialIdentification.getPeptideIdentification().isEmpty());
+                Assert.assertEquals(sequentialIdentification.getPeptideIdentification(), parallelIdentification.getPeptideIdentification());
+                Assert.assertEquals(sequentialIdentification.getProteinIdentification(), parallelIdentification.getProteinIdentification());
+                Assert.assertEquals(sequentialIdentification.getProteinMap(), parallelIdentification.getProteinMap());
+
+                for (String peptideKey : sequentialIdentification.getPeptideIdentification()) {
+                    PeptideMatch sequentialMatch = sequentialIdentification.getPeptideMatch(peptideKey);
+                    PeptideMatch parallelMatch = parallelIdentification.getPeptideMatch(peptideKey);
+                    Assert.assertNotNull(parallelMatch);
+                    Assert.assertEquals(sequentialMatch.getSpectrumMatchesKeys(), parallelMatch.getSpectrumMatchesKeys());
+                }
+                for (String proteinKey : sequentialIdentification.getProteinIdentification()) {
+                    ProteinMatch sequentialMatch = sequentialIdentification.getProteinMatch(proteinKey);
+                    ProteinMatch parallelMatch = parallelIdentification.getProteinMatch(proteinKey);
+                    Assert.assertNotNull(parallelMatch);
+                    Assert.assertEquals(sequentialMatch.getPeptideMatchesKeys(), parallelMatch.getPeptideMatchesKeys());
+                }
+            } finally {
+                sequentialIdentification.close();
+                parallelIdentification.close();
+            }
+        } finally {
+            Util.deleteDir(sequentialFolder);
+            Util.deleteDir(parallelFolder);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.IdentificationCodec;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.personalization.UrParameter;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the compact encoding of the identification matches.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationCodecTest extends TestCase {
+
+    /**
+     * User parameter used for the tests.
+     */
+    public static class TestParameter implements UrParameter {
+
+        /**
+         * The version UID for serialization/deserialization compatibility.
+         */
+        static final long serialVersionUID = 1L;
+        /**
+         * The value of the parameter.
+         */
+        public int value;
+
+        /**
+         * Constructor.
+         *
+         * @param value the value of the parameter
+         */
+        public TestParameter(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public String getParameterKey() {
+            return "TestParameter";
+        }
+    }
+
+    /**
+     * Returns a peptide for the tests.
+     *
+     * @return a peptide for the tests
+     */
+    private Peptide getPeptide() {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        ModificationMatch modificationMatch = new ModificationMatch("oxidation of m", true, 3);
+        modificationMatch.setConfident(true);
+        modificationMatches.add(modificationMatch);
+        Peptide peptide = new Peptide("PEMPTIDEK", modificationMatches);
+        ArrayList<String> proteins = new ArrayList<String>();
+        proteins.add("P12345");
+        proteins.add("Q67890");
+        peptide.setParentProteins(proteins);
+        return peptide;
+    }
+
+    /**
+     * Tests the encoding of a spectrum match.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testSpectrumMatch() throws Exception {
+
+        IdentificationCodec codec = new IdentificationCodec();
+
+        PeptideAssumption assumption1 = new PeptideAssumption(getPeptide(), 1, 1, new Charge(Charge.PLUS, 2), 0.001, "file.mzid");
+        assumption1.setRawScore(12.5);
+        ArrayList<double[]> aminoAcidScores = new ArrayList<double[]>();
+        aminoAcidScores.add(new double[]{1.0, 2.0, -3.5});
+        aminoAcidScores.add(null);
+        assumption1.setAminoAcidScores(aminoAcidScores);
+        assumption1.addUrParam(new TestParameter(7));
+        PeptideAssumption assumption2 = new PeptideAssumption(getPeptide(), 2, 1, new Charge(Charge.PLUS, 3), 0.5, "file.mzid");
+
+        SpectrumMatch spectrumMatch = new SpectrumMatch("spectrum_file.mgf_cus_title 1");
+        spectrumMatch.setSpectrumNumber(42);
+        spectrumMatch.addHit(1, assumption1, false);
+        spectrumMatch.addHit(1, assumption2, false);
+        spectrumMatch.setBestPeptideAssumption(assumption1);
+        spectrumMatch.addUrParam(new TestParameter(3));
+
+        byte[] bytes = codec.encode(spectrumMatch);
+        Assert.assertTrue(codec.canDecode(bytes));
+        SpectrumMatch decoded = (SpectrumMatch) codec.decode(bytes);
+
+        Assert.assertTrue(decoded.getKey().equals(spectrumMatch.getKey()));
+        Assert.assertTrue(decoded.getSpectrumNumber() == 42);
+        Assert.assertTrue(((TestParameter) decoded.getUrParam(new TestParameter(0))).value == 3);
+
+        HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap = decoded.getAllAssumptions(1);
+        Assert.assertTrue(advocateMap.size() == 2);
+        PeptideAssumption decodedAssumption = (PeptideAssumption) advocateMap.get(0.001).get(0);
+        Assert.assertTrue(decodedAssumption == decoded.getBestPeptideAssumption());
+        Assert.assertTrue(decodedAssumption.getRank() == 1);
+        Assert.assertTrue(decodedAssumption.getIdentificationCharge().value == 2);
+        Assert.assertTrue(decodedAssumption.getRawScore() == 12.5);
+        Assert.assertTrue(decodedAssumption.getIdentificationFile().equals("file.mzid"));
+        Assert.assertTrue(decodedAssumption.getAminoAcidScores().get(0)[2] == -3.5);
+        Assert.assertTrue(decodedAssumption.getAminoAcidScores().get(1) == null);
+        Assert.assertTrue(((TestParameter) decodedAssumption.getUrParam(new TestParameter(0))).value == 7);
+
+        Peptide peptide = decodedAssumption.getPeptide();
+        Assert.assertTrue(peptide.getSequence().equals("PEMPTIDEK"));
+        Assert.assertTrue(peptide.getParentProteinsNoRemapping().size() == 2);
+        ModificationMatch modificationMatch = peptide.getModificationMatches().get(0);
+        Assert.assertTrue(modificationMatch.getTheoreticPtm().equals("oxidation of m"));
+        Assert.assertTrue(modificationMatch.getModificationSite() == 3);
+        Assert.assertTrue(modificationMatch.isVariable());
+        Assert.assertTrue(modificationMatch.isConfident());
+        Assert.assertTrue(!modificationMatch.isInferred());
+
+        PeptideAssumption otherAssumption = (PeptideAssumption) advocateMap.get(0.5).get(0);
+        Assert.assertTrue(otherAssumption.getPeptide().getModificationMatches().get(0).getTheoreticPtm() == modificationMatch.getTheoreticPtm());
+
+        // the encoded match is smaller than the Java serialized match
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(spectrumMatch);
+        oos.close();
+        Assert.assertTrue(bytes.length < bos.size());
+        Assert.assertTrue(!codec.canDecode(bos.toByteArray()));
+    }
+
+    /**
+     * Tests the encoding of peptide and protein matches.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testPeptideAndProteinMatches() throws Exception {
+
+        IdentificationCodec codec = new IdentificationCodec();
+
+        PeptideMatch peptideMatch = new PeptideMatch(getPeptide(), "PEMPTIDEK_3-oxidation");
+        peptideMatch.addSpectrumMatchKey("spectrum_1");
+        peptideMatch.addSpectrumMatchKey("spectrum_2");
+        PeptideMatch decodedPeptideMatch = (PeptideMatch) codec.decode(codec.encode(peptideMatch));
+        Assert.assertTrue(decodedPeptideMatch.getKey().equals(peptideMatch.getKey()));
+        Assert.assertTrue(decodedPeptideMatch.getSpectrumMatchesKeys().equals(peptideMatch.getSpectrumMatchesKeys()));
+        Assert.assertTrue(decodedPeptideMatch.getTheoreticPeptide().getSequence().equals("PEMPTIDEK"));
+
+        ProteinMatch proteinMatch = new ProteinMatch();
+        proteinMatch.addTheoreticProtein("P12345");
+        proteinMatch.addTheoreticProtein("Q67890");
+        proteinMatch.setMainMatch("P12345");
+        proteinMatch.addPeptideMatchKey(peptideMatch.getKey());
+        ProteinMatch decodedProteinMatch = (ProteinMatch) codec.decode(codec.encode(proteinMatch));
+        Assert.assertTrue(decodedProteinMatch.getTheoreticProteinsAccessions().equals(proteinMatch.getTheoreticProteinsAccessions()));
+        Assert.assertTrue(decodedProteinMatch.getMainMatch().equals("P12345"));
+        Assert.assertTrue(decodedProteinMatch.getPeptideMatchesKeys().equals(proteinMatch.getPeptideMatchesKeys()));
+
+        // other objects are left to Java serialization
+        Assert.assertTrue(codec.encode("not a match") == null);
+    }
+}
@@ -0,0 +1,99 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the objects cache.
+ *
+ * @author Marc Vaudel
+ */
+public class ObjectsCacheTest extends TestCase {
+
+    /**
+     * Tests adding, updating and reading objects from several threads with a
+     * cache smaller than the number of objects.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testConcurrentCache() throws Exception {
+
+        File folder = File.createTempFile("objectsCacheTest", "");
+        folder.delete();
+        folder.mkdirs();
+
+        try {
+            final ObjectsCache cache = new ObjectsCache();
+            cache.setAutomatedMemoryManagement(false);
+            cache.setCacheSize(500);
+            cache.setBatchSize(100);
+            final ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "testDB", true, cache, ObjectsDB.StorageType.LOG);
+            final String tableName = objectsDB.correctTableName("table");
+            final int nObjects = 5000;
+
+            try {
+                objectsDB.addTable(tableName);
+
+                ExecutorService pool = Executors.newFixedThreadPool(4);
+                ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+                for (int t = 0; t < 4; t++) {
+                    final int thread = t;
+                    results.add(pool.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            for (int i = thread; i < nObjects; i += 4) {
+                                String key = "key_" + i;
+                                objectsDB.insertObject(tableName, key, "object " + i, true);
+                                objectsDB.updateObject(tableName, key, "updated " + i, true);
+                                Object object = objectsDB.retrieveObject(tableName, key, true, true);
+                                if (!("updated " + i).equals(object)) {
+                                    return false;
+                                }
+                            }
+                            return true;
+                        }
+                    }));
+                }
+                pool.shutdown();
+                Assert.assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+                for (Future<Boolean> result : results) {
+                    Assert.assertTrue(result.get());
+                }
+
+                cache.updateCache();
+                Assert.assertTrue(!cache.isEmpty());
+                Assert.assertTrue(cache.getWeight() > 0);
+
+                cache.saveCache(null, true);
+                Assert.assertTrue(cache.isEmpty());
+
+                for (int i = 0; i < nObjects; i++) {
+                    Assert.assertTrue(objectsDB.retrieveObject(tableName, "key_" + i, true, false).equals("updated " + i));
+                }
+
+                // eviction by weight
+                cache.setMaxWeight(10 * ObjectsCache.DEFAULT_WEIGHT);
+                for (int i = 0; i < 100; i++) {
+                    objectsDB.retrieveObject(tableName, "key_" + i, true, true);
+                }
+                Assert.assertTrue(cache.getWeight() <= 10 * ObjectsCache.DEFAULT_WEIGHT);
+                Assert.assertTrue(!cache.isEmpty());
+
+            } finally {
+                objectsDB.close();
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.Util;
+import com.compomics.util.db.LogStorageBackend;
+import com.compomics.util.db.ObjectsCache;
+import com.compomics.util.db.ObjectsDB;
+import com.compomics.util.db.StorageBackend;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the log-structured storage backend.
+ *
+ * @author Marc Vaudel
+ */
+public class StorageBackendTest extends TestCase {
+
+    /**
+     * Returns a new empty temporary folder.
+     *
+     * @return a new empty temporary folder
+     *
+     * @throws Exception if an exception occurs
+     */
+    private File getTempFolder() throws Exception {
+        File folder = File.createTempFile("storageBackendTest", "");
+        folder.delete();
+        folder.mkdirs();
+        return folder;
+    }
+
+    /**
+     * Returns a test value.
+     *
+     * @param key the key of the value
+     * @param version the version of the value
+     *
+     * @return a test value
+     */
+    private byte[] getValue(String key, int version) {
+        byte[] value = new byte[100 + key.length()];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) (key.hashCode() + version + i);
+        }
+        return value;
+    }
+
+    /**
+     * Tests writing, reopening and compacting a storage.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testStorage() throws Exception {
+
+        File folder = getTempFolder();
+        try {
+            String tableName = "\"test table\"";
+            int nKeys = 20000;
+
+            LogStorageBackend backend = new LogStorageBackend(folder.getAbsolutePath());
+            try {
+                backend.createTable(tableName);
+                Assert.assertTrue(backend.getTables().contains("test table"));
+
+                ArrayList<String> keys = new ArrayList<String>();
+                ArrayList<byte[]> values = new ArrayList<byte[]>();
+                for (int i = 0; i < nKeys; i++) {
+                    String key = "key_" + i;
+                    keys.add(key);
+                    values.add(getValue(key, 0));
+                }
+                backend.insert(tableName, keys, values);
+
+                // overwrite everything twice to make the file eligible for compaction
+                for (int version = 1; version <= 2; version++) {
+                    values.clear();
+                    for (String key : keys) {
+                        values.add(getValue(key, version));
+                    }
+                    backend.update(tableName, keys, values);
+                }
+                backend.delete(tableName, "key_0");
+                Assert.assertTrue(backend.count(tableName) == nKeys - 1);
+                Assert.assertTrue(!backend.contains(tableName, "key_0"));
+                Assert.assertTrue(backend.get(tableName, "key_0") == null);
+                Assert.assertTrue(Arrays.equals(backend.get(tableName, "key_1"), getValue("key_1", 2)));
+
+                // the folder cannot be opened twice
+                try {
+                    new LogStorageBackend(folder.getAbsolutePath());
+                    Assert.fail("Storage opened twice.");
+                } catch (SQLException e) {
+                    // expected
+                }
+            } finally {
+                backend.close();
+            }
+
+            File tableFile = new File(folder, "0" + LogStorageBackend.TABLE_EXTENSION);
+            long compactedLength = tableFile.length();
+            Assert.assertTrue(compactedLength < nKeys * 150);
+
+            backend = new LogStorageBackend(folder.getAbsolutePath());
+            try {
+                Assert.assertTrue(backend.count(tableName) == nKeys - 1);
+                HashSet<String> expectedKeys = new HashSet<String>();
+                for (int i = 1; i < nKeys; i++) {
+                    expectedKeys.add("key_" + i);
+                }
+                Assert.assertTrue(backend.getKeys(tableName).equals(expectedKeys));
+
+                HashSet<String> cursorKeys = new HashSet<String>();
+                cursorKeys.add("key_5");
+                cursorKeys.add("key_0");
+                StorageBackend.Cursor cursor = backend.getCursor(tableName, cursorKeys);
+                try {
+                    Assert.assertTrue(cursor.next());
+                    Assert.assertTrue(cursor.getKey().equals("key_5"));
+                    Assert.assertTrue(Arrays.equals(cursor.getValue(), getValue("key_5", 2)));
+                    Assert.assertTrue(!cursor.next());
+                } finally {
+                    cursor.close();
+                }
+
+                backend.insert(tableName, "key_0", getValue("key_0", 3));
+            } finally {
+                backend.close();
+            }
+
+            // simulate a write interrupted after the header of a record
+            RandomAccessFile raf = new RandomAccessFile(tableFile, "rw");
+            try {
+                raf.seek(raf.length());
+                raf.writeInt(5);
+                raf.writeInt(1000);
+            } finally {
+                raf.close();
+            }
+
+            backend = new LogStorageBackend(folder.getAbsolutePath());
+            try {
+                Assert.assertTrue(backend.count(tableName) == nKeys);
+                Assert.assertTrue(Arrays.equals(backend.get(tableName, "key_0"), getValue("key_0", 3)));
+                Assert.assertTrue(compactedLength < tableFile.length());
+            } finally {
+                backend.close();
+            }
+
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests reading objects from several threads while writing.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testConcurrentReads() throws Exception {
+
+        File folder = getTempFolder();
+        try {
+            final String tableName = "\"concurrent\"";
+            final int nKeys = 2000;
+
+            final LogStorageBackend backend = new LogStorageBackend(folder.getAbsolutePath());
+            try {
+                backend.createTable(tableName);
+                for (int i = 0; i < nKeys; i++) {
+                    String key = "key_" + i;
+                    backend.insert(tableName, key, getValue(key, 0));
+                }
+
+                final AtomicBoolean writing = new AtomicBoolean(true);
+                ExecutorService pool = Executors.newFixedThreadPool(4);
+                ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+                for (int t = 0; t < 3; t++) {
+                    results.add(pool.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            do {
+                                for (int i = 0; i < nKeys; i++) {
+                                    String key = "key_" + i;
+                                    byte[] value = backend.get(tableName, key);
+                                    if (!Arrays.equals(value, getValue(key, 0)) && !Arrays.equals(value, getValue(key, 1))) {
+                                        return false;
+                                    }
+                                }
+                            } while (writing.get());
+                            return true;
+                        }
+                    }));
+                }
+                for (int i = 0; i < nKeys; i++) {
+                    String key = "key_" + i;
+                    backend.update(tableName, key, getValue(key, 1));
+                }
+                writing.set(false);
+                pool.shutdown();
+                Assert.assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+                for (Future<Boolean> result : results) {
+                    Assert.assertTrue(result.get());
+                }
+            } finally {
+                backend.close();
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests that a thread interrupted while reading or writing does not
+     * prevent other threads from using the storage.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testInterruptedAccess() throws Exception {
+
+        File folder = getTempFolder();
+        try {
+            String tableName = "\"interrupted\"";
+
+            LogStorageBackend backend = new LogStorageBackend(folder.getAbsolutePath());
+            try {
+                backend.createTable(tableName);
+                backend.insert(tableName, "key_0", getValue("key_0", 0));
+
+                Thread.currentThread().interrupt();
+                try {
+                    backend.get(tableName, "key_0");
+                    Assert.fail("Read while interrupted.");
+                } catch (SQLException e) {
+                    // expected, the channel of the read is closed
+                } finally {
+                    Thread.interrupted();
+                }
+                Assert.assertTrue(Arrays.equals(backend.get(tableName, "key_0"), getValue("key_0", 0)));
+
+                Thread.currentThread().interrupt();
+                try {
+                    backend.insert(tableName, "key_1", getValue("key_1", 0));
+                    Assert.fail("Write while interrupted.");
+                } catch (SQLException e) {
+                    // expected, the channel of the write is closed
+                } finally {
+                    Thread.interrupted();
+                }
+                Assert.assertTrue(!backend.contains(tableName, "key_1"));
+                backend.insert(tableName, "key_2", getValue("key_2", 0));
+                Assert.assertTrue(Arrays.equals(backend.get(tableName, "key_2"), getValue("key_2", 0)));
+            } finally {
+                backend.close();
+            }
+
+            backend = new LogStorageBackend(folder.getAbsolutePath());
+            try {
+                Assert.assertTrue(backend.count(tableName) == 2);
+                Assert.assertTrue(Arrays.equals(backend.get(tableName, "key_0"), getValue("key_0", 0)));
+                Assert.assertTrue(Arrays.equals(backend.get(tableName, "key_2"), getValue("key_2", 0)));
+            } finally {
+                backend.close();
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    /**
+     * Tests an objects database using the log-structured storage.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testObjectsDB() throws Exception {
+
+        File folder = getTempFolder();
+        try {
+            ObjectsCache cache = new ObjectsCache();
+            cache.setAutomatedMemoryManagement(false);
+            cache.setCacheSize(0);
+            ObjectsDB objectsDB = new ObjectsDB(folder.getAbsolutePath(), "testDB", true, cache, ObjectsDB.StorageType.LOG);
+            String tableName = objectsDB.correctTableName("table");
+            try {
+                Assert.assertTrue(objectsDB.isConnectionActive());
+                objectsDB.addTable(tableName);
+                Assert.assertTrue(objectsDB.hasTable(tableName));
+
+                HashMap<String, Object> objects = new HashMap<String, Object>();
+                for (int i = 0; i < 100; i++) {
+                    objects.put("key_" + i, "object " + i);
+                }
+                objectsDB.insertObjects(tableName, objects, null);
+                objectsDB.updateObject(tableName, "key_1", "updated", false);
+                objectsDB.deleteObject(tableName, "key_2");
+
+                Assert.assertTrue(objectsDB.retrieveObject(tableName, "key_0", true, false).equals("object 0"));
+                Assert.assertTrue(objectsDB.retrieveObject(tableName, "key_1", true, false).equals("updated"));
+                Assert.assertTrue(objectsDB.retrieveObject(tableName, "key_2", true, false) == null);
+                Assert.assertTrue(objectsDB.inDB(tableName, "key_3", false));
+                Assert.assertTrue(!objectsDB.inDB(tableName, "key_2", false));
+            } finally {
+                objectsDB.close();
+            }
+            Assert.assertTrue(!objectsDB.isConnectionActive());
+
+            objectsDB.establishConnection(folder.getAbsolutePath(), false, cache);
+            try {
+                Assert.assertTrue(objectsDB.getStorageType() == ObjectsDB.StorageType.LOG);
+                Assert.assertTrue(objectsDB.getTableContent(tableName).size() == 99);
+                Assert.assertTrue(objectsDB.retrieveObject(tableName, "key_99", true, false).equals("object 99"));
+            } finally {
+                objectsDB.close();
+            }
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.compomics.util.test.experiment.io.identifications;
+
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.io.identifications.idfilereaders.MzIdentMLIdfileReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.LinkedList;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the parsing of mzIdentML files by the custom parser.
+ *
+ * @author Marc Vaudel
+ */
+public class MzIdentMLIdfileReaderTest extends TestCase {
+
+    /**
+     * Writes a test mzIdentML file.
+     *
+     * @param file the file to write to
+     * @param nResults the number of spectrum identification results
+     * @param prefix the namespace prefix of the elements, null for none
+     *
+     * @throws Exception if an exception occurs
+     */
+    private void writeTestFile(File file, int nResults, String prefix) throws Exception {
+
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+        Random random = new Random(42);
+        String p = prefix == null ? "" : prefix + ":";
+        String xmlns = prefix == null ? "xmlns" : "xmlns:" + prefix;
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+        try {
+            bw.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            bw.write("<" + p + "MzIdentML id=\"test\" version=\"1.1.0\" " + xmlns + "=\"http://psidev.info/psi/pi/mzIdentML/1.1\">\n");
+            bw.write("  <" + p + "SequenceCollection>\n");
+            for (int i = 0; i < nResults; i++) {
+                StringBuilder sequence = new StringBuilder();
+                int length = 7 + random.nextInt(10);
+                for (int j = 0; j < length; j++) {
+                    sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+                }
+                bw.write("    <" + p + "Peptide id=\"PEP_" + i + "\">\n");
+                bw.write("      <" + p + "PeptideSequence>" + sequence + "</" + p + "PeptideSequence>\n");
+                bw.write("    </" + p + "Peptide>\n");
+                bw.write("    <" + p + "PeptideEvidence id=\"PE_" + i + "\" peptide_ref=\"PEP_" + i + "\" dBSequence_ref=\"DBSeq_1\"/>\n");
+            }
+            bw.write("  </" + p + "SequenceCollection>\n");
+            bw.write("  <" + p + "DataCollection>\n");
+            bw.write("    <" + p + "Inputs>\n");
+            bw.write("      <" + p + "SpectraData location=\"file:///data/test.mgf\" id=\"SID_1\"/>\n");
+            bw.write("    </" + p + "Inputs>\n");
+            bw.write("    <" + p + "AnalysisData>\n");
+            bw.write("      <" + p + "SpectrumIdentificationList id=\"SIL_1\">\n");
+            for (int i = 0; i < nResults; i++) {
+                bw.write("        <" + p + "SpectrumIdentificationResult spectrumID=\"index=" + i + "\" spectraData_ref=\"SID_1\" id=\"SIR_" + i + "\">\n");
+                for (int rank = 1; rank <= 2; rank++) {
+                    int peptide = (i + rank - 1) % nResults;
+                    bw.write("          <" + p + "SpectrumIdentificationItem chargeState=\"" + (1 + rank) + "\" rank=\"" + rank + "\" peptide_ref=\"PEP_" + peptide + "\" id=\"SII_" + i + "_" + rank + "\">\n");
+                    bw.write("            <" + p + "PeptideEvidenceRef peptideEvidence_ref=\"PE_" + peptide + "\"/>\n");
+                    bw.write("            <" + p + "cvParam cvRef=\"PSI-MS\" accession=\"MS:1002053\" name=\"MS-GF:EValue\" value=\"" + (rank * 0.001 + i) + "\"/>\n");
+                    bw.write("          </" + p + "SpectrumIdentificationItem>\n");
+                }
+                bw.write("          <" + p + "cvParam cvRef=\"PSI-MS\" accession=\"MS:1000796\" name=\"spectrum title\" value=\"spectrum " + i + "\"/>\n");
+                bw.write("        </" + p + "SpectrumIdentificationResult>\n");
+            }
+            bw.write("      </" + p + "SpectrumIdentificationList>\n");
+            bw.write("    </" + p + "AnalysisData>\n");
+            bw.write("  </" + p + "DataCollection>\n");
+            bw.write("</" + p + "MzIdentML>\n");
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * Tests that parsing the spectrum identification results in parallel
+     * gives the same matches as the sequential parsing.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testParallelParsing() throws Exception {
+        testParallelParsing(null);
+    }
+
+    /**
+     * Tests that parsing the spectrum identification results of a file with
+     * prefixed elements in parallel gives the same matches as the sequential
+     * parsing.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testParallelParsingPrefixed() throws Exception {
+        testParallelParsing("mzid");
+    }
+
+    /**
+     * Tests that parsing the spectrum identification results in parallel
+     * gives the same matches as the sequential parsing.
+     *
+     * @param prefix the namespace prefix of the elements, null for none
+     *
+     * @throws Exception if an exception occurs
+     */
+    private void testParallelParsing(String prefix) throws Exception {
+
+        int nResults = 2 * MzIdentMLIdfileReader.RESULTS_PER_SECTION + 500;
+        File file = File.createTempFile("mzIdentMLIdfileReaderTest", ".mzid");
+
+        try {
+            writeTestFile(file, nResults, prefix);
+
+            MzIdentMLIdfileReader reader = new MzIdentMLIdfileReader(file);
+            LinkedList<SpectrumMatch> sequentialMatches = reader.getAllSpectrumMatches(null, null, null, false);
+            reader.close();
+
+            reader = new MzIdentMLIdfileReader(file);
+            reader.setNThreads(4);
+            LinkedList<SpectrumMatch> parallelMatches = reader.getAllSpectrumMatches(null, null, null, false);
+            reader.close();
+
+            Assert.assertEquals(nResults, sequentialMatches.size());
+            Assert.assertEquals(nResults, parallelMatches.size());
+
+            for (int i = 0; i < nResults; i++) {
+                SpectrumMatch sequentialMatch = sequentialMatches.get(i);
+                SpectrumMatch parallelMatch = parallelMatches.get(i);
+                Assert.assertEquals("test.mgf_cus_spectrum " + i, parallelMatch.getKey());
+                Assert.assertEquals(sequentialMatch.getKey(), parallelMatch.getKey());
+                Assert.assertEquals(sequentialMatch.getSpectrumNumber(), parallelMatch.getSpectrumNumber());
+                Assert.assertEquals(sequentialMatch.getAllAssumptions().size(), parallelMatch.getAllAssumptions().size());
+                for (SpectrumIdentificationAssumption assumption : sequentialMatch.getAllAssumptions()) {
+                    PeptideAssumption sequentialAssumption = (PeptideAssumption) assumption;
+                    boolean found = false;
+                    for (SpectrumIdentificationAssumption otherAssumption : parallelMatch.getAllAssumptions()) {
+                        PeptideAssumption parallelAssumption = (PeptideAssumption) otherAssumption;
+                        if (parallelAssumption.getRank() == sequentialAssumption.getRank()) {
+                            Assert.assertEquals(sequentialAssumption.getPeptide().getSequence(), parallelAssumption.getPeptide().getSequence());
+                            Assert.assertEquals(sequentialAssumption.getScore(), parallelAssumption.getScore());
+                            Assert.assertEquals(sequentialAssumption.getIdentificationCharge().value, parallelAssumption.getIdentificationCharge().value);
+                            found = true;
+                        }
+                    }
+                    Assert.assertTrue(found);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
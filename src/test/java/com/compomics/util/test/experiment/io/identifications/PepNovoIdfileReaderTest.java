@@ -1,9 +1,11 @@
 package com.compomics.util.test.experiment.io.identifications;
 
+import com.compomics.util.experiment.io.identifications.SpectrumMatchesConsumer;
 import com.compomics.util.experiment.io.identifications.idfilereaders.PepNovoIdfileReader;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import junit.framework.TestCase;
 import org.junit.Before;
@@ -32,4 +34,22 @@ public class PepNovoIdfileReaderTest extends TestCase {
             }
         }
     }
+
+    @Test
+    public void testStreamSpectrumMatches() throws Exception {
+        LinkedList<SpectrumMatch> allSpectrumMatches = idfileReader.getAllSpectrumMatches(null, null);
+        final int batchSize = 2;
+        final ArrayList<SpectrumMatch> streamedMatches = new ArrayList<SpectrumMatch>();
+        idfileReader.streamSpectrumMatches(null, null, null, false, new SpectrumMatchesConsumer() {
+            @Override
+            public void consume(ArrayList<SpectrumMatch> spectrumMatches) {
+                assertTrue(!spectrumMatches.isEmpty() && spectrumMatches.size() <= batchSize);
+                streamedMatches.addAll(spectrumMatches);
+            }
+        }, batchSize);
+        assertEquals(allSpectrumMatches.size(), streamedMatches.size());
+        for (int i = 0; i < streamedMatches.size(); i++) {
+            assertEquals(allSpectrumMatches.get(i).getKey(), streamedMatches.get(i).getKey());
+        }
+    }
 }
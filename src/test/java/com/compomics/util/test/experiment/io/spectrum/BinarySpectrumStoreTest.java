@@ -0,0 +1,187 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.io.massspectrometry.BinarySpectrumStore;
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.experiment.io.massspectrometry.MgfStreamReader;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the binary spectrum store.
+ *
+ * @author Marc Vaudel
+ */
+public class BinarySpectrumStoreTest extends TestCase {
+
+    /**
+     * The number of spectra in the test file.
+     */
+    private static final int N_SPECTRA = 200;
+
+    /**
+     * Writes a test mgf file.
+     *
+     * @param mgfFile the file to write
+     *
+     * @throws IOException if an IOException occurs
+     */
+    private void writeTestFile(File mgfFile) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(mgfFile));
+        try {
+            for (int i = 0; i < N_SPECTRA; i++) {
+                bw.write("BEGIN IONS\n");
+                // the last titles are duplicates of the first ones
+                bw.write("TITLE=spectrum " + (i < N_SPECTRA - 5 ? i : i - N_SPECTRA + 5) + "\n");
+                if (i % 2 == 0) {
+                    bw.write("RTINSECONDS=" + i + ".25\n");
+                } else {
+                    bw.write("RTINSECONDS=" + i + "-" + (i + 1) + ".5\n");
+                }
+                bw.write("PEPMASS=" + (400 + i / 7.0) + " " + (i * 3) + "\n");
+                if (i % 3 == 0) {
+                    bw.write("CHARGE=2+ and 3+\n");
+                } else if (i % 3 == 1) {
+                    bw.write("CHARGE=1-\n");
+                }
+                bw.write("SCANS=" + (1000 + i) + "\n");
+                for (int j = 0; j < i % 40; j++) {
+                    bw.write((150 + 13.7 * j + i / 1000.0) + " " + (j * 0.3 + 1) + "\n");
+                }
+                bw.write("END IONS\n");
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * Tests writing and reading stores with all flag combinations.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testStore() throws Exception {
+
+        File mgfFile = File.createTempFile("binaryStoreTest", ".mgf");
+        File storeFile = new File(mgfFile.getParentFile(), SpectrumFactory.getBinaryStoreName(mgfFile.getName()));
+
+        try {
+            writeTestFile(mgfFile);
+            MgfIndex mgfIndex = MgfStreamReader.getIndexMap(mgfFile, null, 1);
+            MgfStreamReader mgfReader = new MgfStreamReader(mgfFile);
+
+            try {
+                int[] flagsList = new int[]{0, BinarySpectrumStore.DELTA_ENCODING, BinarySpectrumStore.COMPRESSION,
+                    BinarySpectrumStore.DELTA_ENCODING | BinarySpectrumStore.COMPRESSION};
+
+                for (int flags : flagsList) {
+
+                    BinarySpectrumStore.Writer writer = new BinarySpectrumStore.Writer(storeFile, mgfFile, N_SPECTRA, flags);
+                    for (String title : mgfIndex.getSpectrumTitles()) {
+                        writer.add(mgfReader.getSpectrum(mgfIndex.getIndex(title), mgfFile.getName()));
+                    }
+                    writer.close();
+
+                    BinarySpectrumStore binaryStore = new BinarySpectrumStore(storeFile);
+                    try {
+                        Assert.assertTrue(binaryStore.isUpToDate(mgfFile));
+                        Assert.assertTrue(binaryStore.getNSpectra() == N_SPECTRA);
+                        Assert.assertTrue(binaryStore.getFlags() == flags);
+
+                        for (String title : mgfIndex.getSpectrumTitles()) {
+                            int spectrumIndex = mgfIndex.getSpectrumIndex(title);
+                            MSnSpectrum expected = mgfReader.getSpectrum(mgfIndex.getIndex(title), mgfFile.getName());
+                            MSnSpectrum spectrum = binaryStore.getSpectrum(spectrumIndex, mgfFile.getName());
+                            Assert.assertTrue(spectrum.getSpectrumTitle().equals(expected.getSpectrumTitle()));
+                            Assert.assertTrue(spectrum.getScanNumber().equals(expected.getScanNumber()));
+                            Assert.assertTrue(Arrays.equals(spectrum.getMzValues(), expected.getMzValues()));
+                            Assert.assertTrue(Arrays.equals(spectrum.getIntensityValues(), expected.getIntensityValues()));
+                            Assert.assertTrue(binaryStore.getNPeaks(spectrumIndex) == expected.getNPeaks());
+
+                            Precursor precursor = binaryStore.getPrecursor(spectrumIndex);
+                            Precursor expectedPrecursor = expected.getPrecursor();
+                            Assert.assertTrue(precursor.getMz() == expectedPrecursor.getMz());
+                            Assert.assertTrue(precursor.getIntensity() == expectedPrecursor.getIntensity());
+                            Assert.assertTrue(precursor.getRt() == expectedPrecursor.getRt());
+                            Assert.assertTrue(precursor.hasRTWindow() == expectedPrecursor.hasRTWindow());
+                            Assert.assertTrue(Arrays.equals(precursor.getRtWindow(), expectedPrecursor.getRtWindow()));
+                            Assert.assertTrue(precursor.getPossibleCharges().equals(expectedPrecursor.getPossibleCharges()));
+                        }
+                    } finally {
+                        binaryStore.close();
+                    }
+                }
+            } finally {
+                mgfReader.close();
+            }
+
+            // an incomplete store cannot be opened
+            BinarySpectrumStore.Writer writer = new BinarySpectrumStore.Writer(storeFile, mgfFile, N_SPECTRA, 0);
+            try {
+                writer.close();
+                Assert.fail("Incomplete store closed without exception.");
+            } catch (IOException e) {
+                // expected
+            }
+            try {
+                new BinarySpectrumStore(storeFile).close();
+                Assert.fail("Incomplete store opened without exception.");
+            } catch (IOException e) {
+                // expected
+            }
+
+        } finally {
+            mgfFile.delete();
+            storeFile.delete();
+        }
+    }
+
+    /**
+     * Tests reading spectra from the factory using a binary store.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testFactory() throws Exception {
+
+        File mgfFile = File.createTempFile("binaryStoreTest", ".mgf");
+        File indexFile = new File(mgfFile.getParentFile(), SpectrumFactory.getIndexName(mgfFile.getName()));
+        File storeFile = new File(mgfFile.getParentFile(), SpectrumFactory.getBinaryStoreName(mgfFile.getName()));
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+        try {
+            writeTestFile(mgfFile);
+            spectrumFactory.setUseBinaryStore(true);
+            spectrumFactory.setCompressBinaryStore(true);
+            spectrumFactory.addSpectra(mgfFile);
+            Assert.assertTrue(storeFile.exists());
+
+            MgfIndex mgfIndex = MgfStreamReader.getIndexMap(mgfFile, null, 1);
+            MgfStreamReader mgfReader = new MgfStreamReader(mgfFile);
+            try {
+                for (String title : mgfIndex.getSpectrumTitles()) {
+                    MSnSpectrum expected = mgfReader.getSpectrum(mgfIndex.getIndex(title), mgfFile.getName());
+                    MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(mgfFile.getName(), title);
+                    Assert.assertTrue(Arrays.equals(spectrum.getMzValues(), expected.getMzValues()));
+                    Assert.assertTrue(spectrumFactory.getPrecursor(mgfFile.getName(), title).getMz() == expected.getPrecursor().getMz());
+                }
+            } finally {
+                mgfReader.close();
+            }
+        } finally {
+            spectrumFactory.closeFiles();
+            spectrumFactory.clearFactory();
+            spectrumFactory.setUseBinaryStore(false);
+            spectrumFactory.setCompressBinaryStore(false);
+            mgfFile.delete();
+            indexFile.delete();
+            storeFile.delete();
+        }
+    }
+}
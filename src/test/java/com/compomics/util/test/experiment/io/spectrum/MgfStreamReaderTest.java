@@ -0,0 +1,239 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.experiment.io.massspectrometry.MgfReader;
+import com.compomics.util.experiment.io.massspectrometry.MgfReaderPool;
+import com.compomics.util.experiment.io.massspectrometry.MgfStreamReader;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerDummy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the streaming MGF reader.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfStreamReaderTest extends TestCase {
+
+    /**
+     * The number of spectra in the test file.
+     */
+    private static final int N_SPECTRA = 12000;
+    /**
+     * The number of peaks per spectrum in the test file.
+     */
+    private static final int N_PEAKS = 100;
+
+    /**
+     * Writes a test file large enough to be indexed in several chunks.
+     *
+     * @param mgfFile the file to write
+     *
+     * @throws IOException if an IOException occurs
+     */
+    private void writeTestFile(File mgfFile) throws IOException {
+        BufferedWriter bw = new BufferedWriter(new FileWriter(mgfFile));
+        try {
+            for (int i = 0; i < N_SPECTRA; i++) {
+                bw.write("BEGIN IONS\r\n");
+                // the last title is a duplicate of the first one
+                bw.write("TITLE=spectrum%20" + (i == N_SPECTRA - 1 ? 0 : i) + "\r\n");
+                bw.write("RTINSECONDS=" + (i + 1) + ".5\r\n");
+                bw.write("PEPMASS=" + (400 + i / 100.0) + " 1000.0\r\n");
+                bw.write("CHARGE=2+\r\n");
+                for (int j = N_PEAKS - 1; j >= 0; j--) {
+                    bw.write((100 + j + i / 1000.0) + " " + (j * 10.5 + 1) + "\r\n");
+                }
+                bw.write("END IONS\r\n\r\n");
+            }
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * Tests the indexing and the parsing of spectra.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testIndexAndParse() throws Exception {
+
+        File mgfFile = File.createTempFile("streamReaderTest", ".mgf");
+
+        try {
+            writeTestFile(mgfFile);
+            Assert.assertTrue(mgfFile.length() > 2 * MgfStreamReader.MIN_CHUNK_SIZE);
+
+            MgfIndex sequentialIndex = MgfStreamReader.getIndexMap(mgfFile, null, 1);
+            MgfIndex parallelIndex = MgfStreamReader.getIndexMap(mgfFile, null, 4);
+
+            Assert.assertTrue(sequentialIndex.getNSpectra() == N_SPECTRA);
+            Assert.assertTrue(parallelIndex.getNSpectra() == N_SPECTRA);
+            Assert.assertTrue(sequentialIndex.getSpectrumTitles().equals(parallelIndex.getSpectrumTitles()));
+            Assert.assertTrue(parallelIndex.getSpectrumTitles().get(0).equals("spectrum 0"));
+            Assert.assertTrue(parallelIndex.getSpectrumTitles().get(N_SPECTRA - 1).equals("spectrum 0_1"));
+            for (String title : sequentialIndex.getSpectrumTitles()) {
+                Assert.assertTrue(sequentialIndex.getIndex(title).equals(parallelIndex.getIndex(title)));
+                Assert.assertTrue(sequentialIndex.getSpectrumIndex(title).equals(parallelIndex.getSpectrumIndex(title)));
+            }
+            Assert.assertTrue(parallelIndex.getPrecursorMz(N_SPECTRA - 2) == 400 + (N_SPECTRA - 2) / 100.0);
+            Assert.assertTrue(parallelIndex.getMaxPeakCount() == N_PEAKS);
+            Assert.assertTrue(parallelIndex.getMinRT() == 1.5);
+            Assert.assertTrue(parallelIndex.getMaxRT() == N_SPECTRA + 0.5);
+            Assert.assertTrue(parallelIndex.getMaxCharge() == 2);
+            Assert.assertTrue(parallelIndex.isPeakPicked());
+            Assert.assertTrue(!parallelIndex.isPrecursorChargesMissing());
+
+            // the progress is reported from the calling thread only
+            final Thread testThread = Thread.currentThread();
+            final int[] progress = new int[]{-1};
+            final boolean[] otherThread = new boolean[]{false};
+            WaitingHandlerDummy waitingHandler = new WaitingHandlerDummy() {
+                @Override
+                public synchronized void setSecondaryProgressCounter(int value) {
+                    if (Thread.currentThread() != testThread) {
+                        otherThread[0] = true;
+                    }
+                    progress[0] = value;
+                }
+            };
+            MgfIndex reportedIndex = MgfStreamReader.getIndexMap(mgfFile, waitingHandler, 4);
+            Assert.assertTrue(!otherThread[0]);
+            Assert.assertTrue(progress[0] == 100);
+            Assert.assertTrue(reportedIndex.getSpectrumTitles().equals(parallelIndex.getSpectrumTitles()));
+
+            MgfStreamReader mgfStreamReader = new MgfStreamReader(mgfFile);
+            BufferedReader br = new BufferedReader(new FileReader(mgfFile));
+            try {
+                for (int i = 0; i < N_SPECTRA; i++) {
+                    MSnSpectrum expected = MgfReader.getSpectrum(br, mgfFile.getName());
+                    String title = parallelIndex.getSpectrumTitles().get(i);
+                    MSnSpectrum spectrum = mgfStreamReader.getSpectrum(parallelIndex.getIndex(title), mgfFile.getName());
+                    Assert.assertTrue(spectrum.getSpectrumTitle().equals(expected.getSpectrumTitle()));
+                    Assert.assertTrue(spectrum.getNPeaks() == N_PEAKS);
+                    double[] mz = spectrum.getMzValues(), expectedMz = expected.getMzValues();
+                    double[] intensity = spectrum.getIntensityValues(), expectedIntensity = expected.getIntensityValues();
+                    for (int j = 0; j < N_PEAKS; j++) {
+                        Assert.assertTrue(mz[j] == expectedMz[j]);
+                        Assert.assertTrue(intensity[j] == expectedIntensity[j]);
+                    }
+                    Precursor precursor = mgfStreamReader.getPrecursor(parallelIndex.getIndex(title), mgfFile.getName());
+                    Assert.assertTrue(precursor.getMz() == expected.getPrecursor().getMz());
+                    Assert.assertTrue(precursor.getRt() == expected.getPrecursor().getRt());
+                    Assert.assertTrue(precursor.getPossibleCharges().get(0).value == 2);
+                }
+            } finally {
+                br.close();
+                mgfStreamReader.close();
+            }
+        } finally {
+            mgfFile.delete();
+        }
+    }
+
+    /**
+     * Tests reading spectra on several threads using a reader pool.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testReaderPool() throws Exception {
+
+        final File mgfFile = File.createTempFile("streamReaderTest", ".mgf");
+
+        try {
+            writeTestFile(mgfFile);
+            final MgfIndex mgfIndex = MgfStreamReader.getIndexMap(mgfFile, null, 4);
+            final MgfReaderPool mgfReaderPool = new MgfReaderPool(mgfFile, 2);
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+
+            try {
+                ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+                for (int thread = 0; thread < 8; thread++) {
+                    final int offset = thread;
+                    results.add(pool.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            MgfStreamReader mgfStreamReader = new MgfStreamReader(mgfFile);
+                            try {
+                                for (int i = offset; i < N_SPECTRA; i += 7) {
+                                    long index = mgfIndex.getIndex(mgfIndex.getSpectrumTitle(i));
+                                    MSnSpectrum expected = mgfStreamReader.getSpectrum(index, mgfFile.getName());
+                                    MSnSpectrum spectrum = mgfReaderPool.getSpectrum(index, mgfFile.getName());
+                                    if (!Arrays.equals(spectrum.getMzValues(), expected.getMzValues())
+                                            || mgfReaderPool.getPrecursor(index, mgfFile.getName()).getMz() != expected.getPrecursor().getMz()) {
+                                        return false;
+                                    }
+                                }
+                                return true;
+                            } finally {
+                                mgfStreamReader.close();
+                            }
+                        }
+                    }));
+                }
+                for (Future<Boolean> result : results) {
+                    Assert.assertTrue(result.get());
+                }
+            } finally {
+                pool.shutdown();
+                mgfReaderPool.close();
+            }
+        } finally {
+            mgfFile.delete();
+        }
+    }
+
+    /**
+     * Tests that a reader whose channel was closed, as happens when its thread
+     * is interrupted, does not affect the other readers of the pool.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testReaderPoolClosedChannel() throws Exception {
+
+        File mgfFile = File.createTempFile("streamReaderTest", ".mgf");
+
+        try {
+            writeTestFile(mgfFile);
+            MgfIndex mgfIndex = MgfStreamReader.getIndexMap(mgfFile, null, 1);
+            MgfReaderPool mgfReaderPool = new MgfReaderPool(mgfFile, 2);
+
+            try {
+                MgfStreamReader closedReader = mgfReaderPool.borrow();
+                MgfStreamReader otherReader = mgfReaderPool.borrow();
+                closedReader.close();
+                Assert.assertFalse(closedReader.isOpen());
+                Assert.assertTrue(otherReader.isOpen());
+                mgfReaderPool.release(closedReader);
+                mgfReaderPool.release(otherReader);
+
+                for (int i = 0; i < 3; i++) {
+                    MgfStreamReader reader = mgfReaderPool.borrow();
+                    Assert.assertTrue(reader.isOpen());
+                    Assert.assertNotSame(closedReader, reader);
+                    long index = mgfIndex.getIndex(mgfIndex.getSpectrumTitle(i));
+                    Assert.assertEquals(mgfIndex.getSpectrumTitle(i), reader.getSpectrum(index, mgfFile.getName()).getSpectrumTitle());
+                    mgfReaderPool.release(reader);
+                }
+            } finally {
+                mgfReaderPool.close();
+            }
+        } finally {
+            mgfFile.delete();
+        }
+    }
+}
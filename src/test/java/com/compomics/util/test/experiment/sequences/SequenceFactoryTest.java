@@ -0,0 +1,257 @@
+package com.compomics.util.test.experiment.sequences;
+
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.CompactAccessionIndex;
+import com.compomics.util.experiment.identification.protein_sequences.FastaIndex;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the access to the FASTA file by the sequence factory.
+ *
+ * @author Marc Vaudel
+ */
+public class SequenceFactoryTest extends TestCase {
+
+    /**
+     * Tests that the proteins and headers obtained in the concurrent mode from
+     * multiple threads are the same as in the default mode.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testConcurrentMode() throws Exception {
+
+        File folder = File.createTempFile("sequenceFactoryTest", "");
+        folder.delete();
+        folder.mkdirs();
+        File fastaFile = new File(folder, "test.fasta");
+        final int nProteins = 1000;
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+        final HashMap<String, String> sequences = new HashMap<String, String>(nProteins);
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+        try {
+            for (int i = 0; i < nProteins; i++) {
+                String accession = "P" + (10000 + i);
+                StringBuilder sequence = new StringBuilder();
+                for (int j = 0; j < 50 + (i * 7) % 300; j++) {
+                    sequence.append(aminoAcids.charAt((i + j * j) % aminoAcids.length()));
+                }
+                sequences.put(accession, sequence.toString());
+                String lineBreak = i % 2 == 0 ? "\n" : "\r\n";
+                bw.write(">sp|" + accession + "|PROT" + i + "_HUMAN Protein " + i + " OS=Homo sapiens GN=GENE" + i + lineBreak);
+                for (int j = 0; j < sequence.length(); j += 60) {
+                    bw.write(sequence.substring(j, Math.min(j + 60, sequence.length())) + lineBreak);
+                }
+            }
+        } finally {
+            bw.close();
+        }
+
+        final SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        try {
+            sequenceFactory.loadFastaFile(fastaFile);
+
+            HashMap<String, String> descriptions = new HashMap<String, String>(nProteins);
+            for (String accession : sequences.keySet()) {
+                Assert.assertEquals(sequences.get(accession), sequenceFactory.getProtein(accession).getSequence());
+                descriptions.put(accession, sequenceFactory.getHeader(accession).getDescription());
+            }
+
+            sequenceFactory.setnCache(100);
+            sequenceFactory.setConcurrentMode(true);
+            Assert.assertTrue(sequenceFactory.isConcurrentMode());
+
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 4; t++) {
+                final int thread = t;
+                results.add(pool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int i = 0; i < 5 * nProteins; i++) {
+                            String accession = "P" + (10000 + (i * (thread + 1)) % nProteins);
+                            Protein protein = sequenceFactory.getProtein(accession);
+                            if (!protein.getAccession().equals(accession) || !protein.getSequence().equals(sequences.get(accession))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            pool.shutdown();
+            Assert.assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+
+            for (String accession : sequences.keySet()) {
+                Assert.assertEquals(descriptions.get(accession), sequenceFactory.getHeader(accession).getDescription());
+            }
+
+            try {
+                sequenceFactory.getProtein("UNKNOWN");
+                Assert.fail("Unknown protein found in concurrent mode.");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+
+            sequenceFactory.setConcurrentMode(false);
+            Assert.assertEquals(sequences.get("P10042"), sequenceFactory.getProtein("P10042").getSequence());
+
+        } finally {
+            sequenceFactory.setConcurrentMode(false);
+            sequenceFactory.setnCache(1000000);
+            sequenceFactory.clearFactory();
+            fastaFile.delete();
+            new File(folder, SequenceFactory.getIndexName(fastaFile.getName())).delete();
+            new File(folder, SequenceFactory.getCompactIndexName(fastaFile.getName())).delete();
+            folder.delete();
+        }
+    }
+
+    /**
+     * Tests the lookup of accessions, offsets, lengths and decoy status in the
+     * compact accession index.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testCompactAccessionIndex() throws Exception {
+
+        File folder = File.createTempFile("sequenceFactoryTest", "");
+        folder.delete();
+        folder.mkdirs();
+        File fastaFile = new File(folder, "test.fasta");
+        int nProteins = 2000;
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+        try {
+            for (int i = 0; i < nProteins; i++) {
+                String accession = "ENSP" + (i % 3 == 0 ? "0000" : "00") + i;
+                bw.write(">generic|" + accession + "| Protein " + i + "\n");
+                bw.write("MKTAYIAKQRQISFVKSHFSRQ\n");
+                bw.write(">generic|" + SequenceFactory.getDefaultDecoyAccession(accession) + "| Decoy " + i + "\n");
+                bw.write("QRSFHSKVFSIQRQKAIYATKM\n");
+            }
+        } finally {
+            bw.close();
+        }
+
+        File fastaIndexFile = new File(folder, SequenceFactory.getIndexName(fastaFile.getName()));
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        try {
+            CompactAccessionIndex accessionIndex = SequenceFactory.getCompactAccessionIndex(fastaFile, null);
+            Assert.assertEquals(2 * nProteins, accessionIndex.size());
+            Assert.assertEquals(nProteins, accessionIndex.getNTarget());
+            Assert.assertTrue(accessionIndex.isConcatenatedTargetDecoy());
+            Assert.assertTrue(accessionIndex.isDefaultReversed());
+            Assert.assertFalse(fastaIndexFile.exists());
+
+            // reopen from the file
+            accessionIndex = SequenceFactory.getCompactAccessionIndex(fastaFile, null);
+            Assert.assertTrue(accessionIndex.isUpToDate(fastaFile));
+
+            // the concurrent mode only uses the compact index
+            sequenceFactory.setConcurrentMode(true);
+            sequenceFactory.loadFastaFile(fastaFile);
+            Assert.assertEquals(2 * nProteins, sequenceFactory.getNSequences());
+            Assert.assertEquals(nProteins, sequenceFactory.getNTargetSequences());
+            Assert.assertTrue(sequenceFactory.concatenatedTargetDecoy());
+            Assert.assertTrue(sequenceFactory.isDefaultReversed());
+            Assert.assertFalse(sequenceFactory.isDecoyAccession("ENSP001"));
+            Assert.assertTrue(sequenceFactory.isDecoyAccession(SequenceFactory.getDefaultDecoyAccession("ENSP001")));
+            Assert.assertEquals("Protein 1", sequenceFactory.getHeader("ENSP001").getDescription());
+            Assert.assertEquals(2 * nProteins, sequenceFactory.getAccessions().size());
+            Assert.assertFalse(fastaIndexFile.exists());
+            sequenceFactory.clearFactory();
+            sequenceFactory.setConcurrentMode(false);
+
+            FastaIndex fastaIndex = SequenceFactory.getFastaIndex(fastaFile, true, null);
+            Assert.assertEquals(fastaIndex.getNSequences(), accessionIndex.size());
+            Assert.assertEquals(fastaIndex.getNTarget(), accessionIndex.getNTarget());
+            Assert.assertEquals(fastaIndex.getDecoyTag(), accessionIndex.getDecoyTag());
+
+            HashMap<String, Long> indexes = fastaIndex.getIndexes();
+            HashSet<String> accessions = new HashSet<String>();
+            String previous = null;
+            for (int i = 0; i < accessionIndex.size(); i++) {
+                String accession = accessionIndex.getAccession(i);
+                Assert.assertTrue(previous == null || previous.compareTo(accession) < 0);
+                Assert.assertEquals(i, accessionIndex.indexOf(accession));
+                Assert.assertEquals(indexes.get(accession).longValue(), accessionIndex.getOffset(i));
+                Assert.assertEquals(fastaIndex.isDecoy(accession), accessionIndex.isDecoy(i));
+                accessions.add(accession);
+                previous = accession;
+            }
+            Assert.assertEquals(indexes.keySet(), accessions);
+
+            long totalLength = 0;
+            for (int i = 0; i < accessionIndex.size(); i++) {
+                totalLength += accessionIndex.getLength(i);
+            }
+            Assert.assertEquals(fastaFile.length(), totalLength);
+
+            Assert.assertEquals(-1, accessionIndex.indexOf("ENSP"));
+            Assert.assertEquals(-1, accessionIndex.indexOf("ENSP0000"));
+            Assert.assertEquals(-1, accessionIndex.indexOf("ZZZ"));
+            Assert.assertEquals(-1, accessionIndex.indexOf(""));
+
+        } finally {
+            sequenceFactory.clearFactory();
+            sequenceFactory.setConcurrentMode(false);
+            fastaFile.delete();
+            fastaIndexFile.delete();
+            new File(folder, SequenceFactory.getCompactIndexName(fastaFile.getName())).delete();
+            folder.delete();
+        }
+    }
+
+    /**
+     * Tests that non unique accessions are reported when writing the compact
+     * accession index.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testCompactAccessionIndexDuplicates() throws Exception {
+
+        File folder = File.createTempFile("sequenceFactoryTest", "");
+        folder.delete();
+        folder.mkdirs();
+        File fastaFile = new File(folder, "duplicates.fasta");
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+        try {
+            for (int i = 0; i < 100; i++) {
+                String accession = "P" + (i == 99 ? 42 : i);
+                bw.write(">generic|" + accession + "| Protein " + i + "\n");
+                bw.write("MKTAYIAKQRQISFVKSHFSRQ\n");
+            }
+        } finally {
+            bw.close();
+        }
+
+        try {
+            SequenceFactory.getCompactAccessionIndex(fastaFile, null);
+            Assert.fail("Non unique accession not detected.");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("'P42'"));
+        } finally {
+            fastaFile.delete();
+            new File(folder, SequenceFactory.getCompactIndexName(fastaFile.getName())).delete();
+            folder.delete();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.compomics.util.test.experiment.sequences.digestion;
+
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.IteratorFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideMassIndex;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideWithPosition;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
+import com.compomics.util.preferences.DigestionPreferences;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test for the peptide mass index.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideMassIndexTest extends TestCase {
+
+    /**
+     * Tests the building of the index in parallel and the mass range queries.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testPeptideMassIndex() throws Exception {
+
+        File folder = File.createTempFile("peptideMassIndexTest", "");
+        folder.delete();
+        folder.mkdirs();
+        File fastaFile = new File(folder, "test.fasta");
+        int nProteins = 200;
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+        Random random = new Random(42);
+        ArrayList<String> sequences = new ArrayList<String>(nProteins);
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+        try {
+            for (int i = 0; i < nProteins; i++) {
+                StringBuilder sequence = new StringBuilder();
+                if (i % 2 == 1) {
+                    // share peptides with the previous protein
+                    sequence.append(sequences.get(i - 1).substring(0, 40)).append('K');
+                }
+                for (int j = 0; j < 200; j++) {
+                    sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+                }
+                sequences.add(sequence.toString());
+                bw.write(">generic|PROT" + i + "| Protein " + i + "\n");
+                bw.write(sequence.toString() + "\n");
+            }
+        } finally {
+            bw.close();
+        }
+
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        try {
+            sequenceFactory.loadFastaFile(fastaFile);
+
+            IteratorFactory iteratorFactory = new IteratorFactory(new ArrayList<String>());
+            DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+            double massMin = 400.0;
+            double massMax = 4000.0;
+
+            PeptideMassIndex peptideMassIndex = PeptideMassIndex.build(sequenceFactory, iteratorFactory, digestionPreferences, massMin, massMax, true, 4, null);
+            PeptideMassIndex sequentialIndex = PeptideMassIndex.build(sequenceFactory, iteratorFactory, digestionPreferences, massMin, massMax, true, 1, null);
+
+            // expected peptides and references
+            HashSet<String> keys = new HashSet<String>();
+            int nReferences = 0;
+            for (String sequence : sequences) {
+                SequenceIterator sequenceIterator = iteratorFactory.getSequenceIterator(sequence, digestionPreferences, massMin, massMax);
+                PeptideWithPosition peptideWithPosition;
+                while ((peptideWithPosition = sequenceIterator.getNextPeptide()) != null) {
+                    keys.add(peptideWithPosition.getPeptide().getKey());
+                    nReferences++;
+                }
+            }
+
+            Assert.assertEquals(keys.size(), peptideMassIndex.size());
+            Assert.assertEquals(sequentialIndex.size(), peptideMassIndex.size());
+
+            int nIndexedReferences = 0;
+            boolean sharedFound = false;
+            for (int i = 0; i < peptideMassIndex.size(); i++) {
+                Peptide peptide = peptideMassIndex.getPeptide(i);
+                Assert.assertTrue(keys.contains(peptide.getKey()));
+                Assert.assertEquals(sequentialIndex.getPeptide(i).getKey(), peptide.getKey());
+                Assert.assertEquals(peptide.getSequence(), peptideMassIndex.getSequence(i));
+                Assert.assertEquals(peptide.getMass(), peptideMassIndex.getMass(i), 0.0);
+                if (i > 0) {
+                    Assert.assertTrue(peptideMassIndex.getMass(i - 1) <= peptideMassIndex.getMass(i));
+                }
+                Assert.assertEquals(sequentialIndex.getNProteins(i), peptideMassIndex.getNProteins(i));
+                for (int j = 0; j < peptideMassIndex.getNProteins(i); j++) {
+                    String accession = peptideMassIndex.getProteinAccession(i, j);
+                    int position = peptideMassIndex.getPosition(i, j);
+                    String proteinSequence = sequenceFactory.getProtein(accession).getSequence();
+                    Assert.assertEquals(peptide.getSequence(), proteinSequence.substring(position, position + peptide.getSequence().length()));
+                    Assert.assertEquals(sequentialIndex.getProteinAccession(i, j), accession);
+                }
+                if (peptideMassIndex.getNProteins(i) > 1) {
+                    sharedFound = true;
+                }
+                nIndexedReferences += peptideMassIndex.getNProteins(i);
+            }
+            Assert.assertEquals(nReferences, nIndexedReferences);
+            Assert.assertTrue(sharedFound);
+
+            // range queries
+            for (double mass = 500.0; mass < 3000.0; mass += 123.4) {
+                double windowMin = mass - 0.5;
+                double windowMax = mass + 0.5;
+                ArrayList<Peptide> peptides = peptideMassIndex.getPeptides(windowMin, windowMax);
+                int expected = 0;
+                for (int i = 0; i < peptideMassIndex.size(); i++) {
+                    double peptideMass = peptideMassIndex.getMass(i);
+                    if (peptideMass >= windowMin && peptideMass <= windowMax) {
+                        expected++;
+                    }
+                }
+                Assert.assertEquals(expected, peptides.size());
+                for (Peptide peptide : peptides) {
+                    Assert.assertTrue(peptide.getMass() >= windowMin && peptide.getMass() <= windowMax);
+                }
+            }
+            Assert.assertTrue(peptideMassIndex.getPeptides(0.0, 100.0).isEmpty());
+
+        } finally {
+            sequenceFactory.clearFactory();
+            fastaFile.delete();
+            new File(folder, SequenceFactory.getIndexName(fastaFile.getName())).delete();
+            new File(folder, SequenceFactory.getCompactIndexName(fastaFile.getName())).delete();
+            folder.delete();
+        }
+    }
+}
@@ -18,8 +18,10 @@ import com.compomics.util.experiment.identification.identification_parameters.Pt
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.VariantMatch;
+import com.compomics.util.experiment.identification.protein_inference.BatchPeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndexFile;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.PeptideVariantsPreferences;
@@ -117,6 +119,65 @@ public class FMIndexTest extends TestCase {
         index = sequence.lastIndexOf("SSS");
         Assert.assertTrue(indexes.get(2) == index);
 
+        ArrayList<String> peptides = new ArrayList<String>();
+        peptides.add("SSS");
+        peptides.add("ECTQDRGKTAFTEAVLLP");
+        ArrayList<ArrayList<PeptideProteinMapping>> batchMappings = BatchPeptideMapper.getProteinMappings(fmIndex, peptides, sequenceMatchingPreferences, 2);
+        Assert.assertTrue(batchMappings.size() == 2);
+        Assert.assertTrue(batchMappings.get(0).size() == fmIndex.getProteinMapping("SSS", sequenceMatchingPreferences).size());
+        Assert.assertTrue(batchMappings.get(1).size() == 1);
+        Assert.assertTrue(batchMappings.get(1).get(0).getProteinAccession().equals("TEST_ACCESSION"));
+
+    }
+
+    /**
+     * Tests that an index built using several threads and saved to a file maps
+     * peptides like a freshly built index after being reopened.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testPersistedIndex() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+        if (!testSequenceMatching) {
+            return;
+        }
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setPtmSettings(new PtmSettings());
+
+        File indexFile = File.createTempFile("fmIndexTest", FMIndexFile.EXTENSION);
+        indexFile.delete();
+        try {
+            FMIndex builtIndex = new FMIndex(null, false, peptideVariantsPreferences, searchParameters, indexFile, 2);
+            Assert.assertTrue(indexFile.exists());
+            FMIndex loadedIndex = new FMIndex(null, false, peptideVariantsPreferences, searchParameters, indexFile);
+            Assert.assertTrue(builtIndex.getAllocatedBytes() == loadedIndex.getAllocatedBytes());
+
+            HashMap<String, HashMap<String, ArrayList<Integer>>> builtIndexes = PeptideProteinMapping.getPeptideProteinIndexesMap(builtIndex.getProteinMapping("SSS", SequenceMatchingPreferences.defaultStringMatching));
+            HashMap<String, HashMap<String, ArrayList<Integer>>> loadedIndexes = PeptideProteinMapping.getPeptideProteinIndexesMap(loadedIndex.getProteinMapping("SSS", SequenceMatchingPreferences.defaultStringMatching));
+            Assert.assertTrue(builtIndexes.get("SSS").size() == 2);
+            for (String accession : builtIndexes.get("SSS").keySet()) {
+                ArrayList<Integer> builtPositions = builtIndexes.get("SSS").get(accession);
+                ArrayList<Integer> loadedPositions = loadedIndexes.get("SSS").get(accession);
+                Collections.sort(builtPositions);
+                Collections.sort(loadedPositions);
+                Assert.assertTrue(builtPositions.equals(loadedPositions));
+            }
+        } finally {
+            indexFile.delete();
+        }
     }
 
     /**
@@ -547,6 +608,15 @@ public class FMIndexTest extends TestCase {
         peptideProteinMapping = peptideProteinMappings.get(0);
         Assert.assertTrue(peptideProteinMapping.getPeptideSequence().compareTo("TMRITESTCK") == 0);
         Assert.assertTrue(peptideProteinMapping.getIndex() == 4);
+
+        // the intermediate results of the tag are now cached
+        long cacheMisses = fmIndex.getTagMappingCache().getMisses();
+        Assert.assertTrue(cacheMisses > 0);
+        peptideProteinMappings = fmIndex.getProteinMapping(tag, null, sequenceMatchingPreferences);
+        Assert.assertTrue(peptideProteinMappings.size() == 1);
+        Assert.assertTrue(peptideProteinMappings.get(0).getIndex() == 4);
+        Assert.assertTrue(fmIndex.getTagMappingCache().getHits() > 0);
+        Assert.assertTrue(fmIndex.getTagMappingCache().getMisses() == cacheMisses);
         
         
         
@@ -2831,4 +2901,4 @@ public class FMIndexTest extends TestCase {
         Assert.assertTrue(isPresent);
         Assert.assertTrue(correctVariants == 2);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+package com.compomics.util.test.experiment.spectrum;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumCache;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the spectrum cache.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumCacheTest extends TestCase {
+
+    /**
+     * Returns a test spectrum.
+     *
+     * @param title the title of the spectrum
+     * @param nPeaks the number of peaks
+     *
+     * @return a test spectrum
+     */
+    private MSnSpectrum getSpectrum(String title, int nPeaks) {
+        double[] mz = new double[nPeaks];
+        double[] intensity = new double[nPeaks];
+        for (int i = 0; i < nPeaks; i++) {
+            mz[i] = 100 + i;
+            intensity[i] = i + 1;
+        }
+        return new MSnSpectrum(2, new Precursor(0.0, 600.0, new ArrayList<Charge>()), title, mz, intensity, "test.mgf");
+    }
+
+    /**
+     * Tests the limits of the cache.
+     */
+    public void testLimits() {
+
+        // limit by number of spectra, one per segment
+        SpectrumCache spectrumCache = new SpectrumCache(16, Long.MAX_VALUE);
+        for (int i = 0; i < 1000; i++) {
+            String title = "spectrum " + i;
+            spectrumCache.put(Spectrum.getSpectrumKey("test.mgf", title), getSpectrum(title, 10));
+        }
+        Assert.assertTrue(spectrumCache.size() <= 16);
+        Assert.assertTrue(spectrumCache.getEvictions() >= 1000 - 16);
+        Assert.assertTrue(spectrumCache.get(Spectrum.getSpectrumKey("test.mgf", "spectrum 999")) != null);
+        Assert.assertTrue(spectrumCache.get(Spectrum.getSpectrumKey("test.mgf", "spectrum 0")) == null);
+
+        // limit by size
+        MSnSpectrum spectrum = getSpectrum("spectrum", 100);
+        long spectrumSize = SpectrumCache.getApproximateSize(spectrum);
+        spectrumCache = new SpectrumCache(Integer.MAX_VALUE, 16 * 10 * spectrumSize);
+        for (int i = 0; i < 1000; i++) {
+            String title = "spectrum " + i;
+            spectrumCache.put(Spectrum.getSpectrumKey("test.mgf", title), getSpectrum(title, 100));
+        }
+        Assert.assertTrue(spectrumCache.getBytes() <= spectrumCache.getMaxBytes());
+        Assert.assertTrue(spectrumCache.size() < 1000);
+
+        // spectra larger than a segment are not cached
+        spectrumCache.put("large", getSpectrum("large", 100000));
+        Assert.assertTrue(spectrumCache.get("large") == null);
+
+        spectrumCache.clear();
+        Assert.assertTrue(spectrumCache.size() == 0);
+        Assert.assertTrue(spectrumCache.getBytes() == 0);
+    }
+
+    /**
+     * Tests that the least recently used spectra are evicted first.
+     */
+    public void testLeastRecentlyUsed() {
+
+        // with one spectrum per segment, a key is in the segment of another if adding it evicts the other
+        SpectrumCache spectrumCache = new SpectrumCache(16, Long.MAX_VALUE);
+        ArrayList<String> keys = new ArrayList<String>();
+        keys.add("key 0");
+        spectrumCache.put(keys.get(0), getSpectrum(keys.get(0), 1));
+        for (int i = 1; keys.size() < 3; i++) {
+            String key = "key " + i;
+            spectrumCache.put(key, getSpectrum(key, 1));
+            if (spectrumCache.get(keys.get(0)) == null) {
+                keys.add(key);
+                spectrumCache.put(keys.get(0), getSpectrum(keys.get(0), 1));
+            }
+        }
+
+        // with two spectra per segment, accessing the first key makes the second one the least recently used
+        spectrumCache = new SpectrumCache(32, Long.MAX_VALUE);
+        spectrumCache.put(keys.get(0), getSpectrum(keys.get(0), 1));
+        spectrumCache.put(keys.get(1), getSpectrum(keys.get(1), 1));
+        Assert.assertTrue(spectrumCache.get(keys.get(0)) != null);
+        spectrumCache.put(keys.get(2), getSpectrum(keys.get(2), 1));
+        Assert.assertTrue(spectrumCache.get(keys.get(0)) != null);
+        Assert.assertTrue(spectrumCache.get(keys.get(1)) == null);
+        Assert.assertTrue(spectrumCache.get(keys.get(2)) != null);
+    }
+}
@@ -0,0 +1,106 @@
+package com.compomics.util.test.experiment.spectrum;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the peak list of the spectra.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumPeakListTest extends TestCase {
+
+    /**
+     * Tests the array based peak list and the peak map built from it.
+     *
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void testPeakList() throws InterruptedException {
+
+        double[] mz = new double[]{500.2, 100.1, 300.3, 100.1};
+        double[] intensity = new double[]{5.0, 1.0, 3.0, 2.0};
+        MSnSpectrum spectrum = new MSnSpectrum(2, new Precursor(0.0, 600.0, new ArrayList<Charge>()), "test", mz, intensity, "test.mgf");
+
+        // the peaks are sorted and the last of the duplicates is kept
+        Assert.assertTrue(spectrum.getNPeaks() == 3);
+        double[] mzValues = spectrum.getMzValues();
+        Assert.assertTrue(mzValues[0] == 100.1 && mzValues[1] == 300.3 && mzValues[2] == 500.2);
+        double[] intensityValues = spectrum.getIntensityValues();
+        Assert.assertTrue(intensityValues[0] == 2.0 && intensityValues[1] == 3.0 && intensityValues[2] == 5.0);
+        Assert.assertTrue(spectrum.getMinMz() == 100.1);
+        Assert.assertTrue(spectrum.getMaxMz() == 500.2);
+        Assert.assertTrue(spectrum.getMaxIntensity() == 5.0);
+        Assert.assertTrue(spectrum.getTotalIntensity() == 10.0);
+
+        Assert.assertTrue(spectrum.getPeak(300.3).intensity == 3.0);
+        Assert.assertTrue(spectrum.getPeak(300.4) == null);
+        Assert.assertTrue(spectrum.getFirstPeakIndexAbove(200.0) == 1);
+        Assert.assertTrue(spectrum.getFirstPeakIndexAbove(600.0) == 3);
+        Assert.assertTrue(spectrum.getSubSpectrum(100.1, 500.2).size() == 2);
+
+        HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
+        Assert.assertTrue(peakMap.size() == 3);
+        Assert.assertTrue(peakMap.get(500.2).intensity == 5.0);
+
+        spectrum.addPeak(new Peak(200.0, 4.0));
+        Assert.assertTrue(spectrum.getNPeaks() == 4);
+        Assert.assertTrue(spectrum.getMzValues()[1] == 200.0);
+        Assert.assertTrue(spectrum.getTotalIntensity() == 14.0);
+        spectrum.addPeak(new Peak(200.0, 6.0));
+        Assert.assertTrue(spectrum.getNPeaks() == 4);
+        Assert.assertTrue(spectrum.getMaxIntensity() == 6.0);
+
+        spectrum.setPeakList(peakMap);
+        Assert.assertTrue(spectrum.getNPeaks() == 3);
+        Assert.assertTrue(spectrum.getPeak(200.0) == null);
+
+        spectrum.setIntensityValuesAsArray(new double[]{7.0, 8.0, 9.0});
+        Assert.assertTrue(spectrum.getIntensityValues().length == spectrum.getMzValues().length);
+        Assert.assertTrue(spectrum.getPeak(300.3).intensity == 8.0);
+        Assert.assertTrue(spectrum.getMaxIntensity() == 9.0);
+        try {
+            spectrum.setIntensityValuesAsArray(new double[]{1.0});
+            Assert.fail("Intensity values of a different length accepted.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        spectrum.removePeakList();
+        Assert.assertTrue(spectrum.isEmpty());
+    }
+
+    /**
+     * Tests that the peak arrays are restored after serialization.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testSerialization() throws Exception {
+
+        double[] mz = new double[]{500.2, 100.1, 300.3};
+        double[] intensity = new double[]{5.0, 1.0, 3.0};
+        MSnSpectrum spectrum = new MSnSpectrum(2, new Precursor(0.0, 600.0, new ArrayList<Charge>()), "test", mz, intensity, "test.mgf");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        oos.writeObject(spectrum);
+        oos.close();
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        MSnSpectrum deserialized = (MSnSpectrum) ois.readObject();
+        ois.close();
+
+        Assert.assertTrue(Arrays.equals(spectrum.getMzValues(), deserialized.getMzValues()));
+        Assert.assertTrue(Arrays.equals(spectrum.getIntensityValues(), deserialized.getIntensityValues()));
+        Assert.assertTrue(deserialized.getPeak(300.3).intensity == 3.0);
+    }
+}
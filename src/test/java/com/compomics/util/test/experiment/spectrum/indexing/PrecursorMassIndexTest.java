@@ -0,0 +1,79 @@
+package com.compomics.util.test.experiment.spectrum.indexing;
+
+import com.compomics.util.experiment.biology.Atom;
+import com.compomics.util.experiment.biology.ions.ElementaryIon;
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.experiment.massspectrometry.indexes.PrecursorMassIndex;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the precursor mass index.
+ *
+ * @author Marc Vaudel
+ */
+public class PrecursorMassIndexTest extends TestCase {
+
+    /**
+     * Tests that the window queries return the same precursors as an
+     * exhaustive search.
+     */
+    public void testWindowQueries() {
+
+        Random random = new Random(42);
+        int nSpectra = 500;
+        ArrayList<String> spectrumTitles = new ArrayList<String>(nSpectra);
+        HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>(nSpectra);
+        for (int i = 0; i < nSpectra; i++) {
+            spectrumTitles.add("spectrum " + i);
+            if (i % 50 != 0) {
+                precursorMzMap.put(i, 300 + 1200 * random.nextDouble());
+            }
+        }
+        MgfIndex mgfIndex = new MgfIndex(spectrumTitles, new HashMap<String, Long>(), new HashMap<String, Integer>(), precursorMzMap,
+                "test.mgf", 0, 0, 0, 0, 4, 0, true, false, 0);
+
+        int minCharge = 2, maxCharge = 4, minIsotope = -1, maxIsotope = 2;
+        PrecursorMassIndex precursorMassIndex = PrecursorMassIndex.build(mgfIndex, minCharge, maxCharge, minIsotope, maxIsotope);
+        Assert.assertEquals(precursorMzMap.size() * 3 * 4, precursorMassIndex.size());
+        for (int i = 1; i < precursorMassIndex.size(); i++) {
+            Assert.assertTrue(precursorMassIndex.getMass(i - 1) <= precursorMassIndex.getMass(i));
+        }
+
+        double protonMass = ElementaryIon.proton.getTheoreticMass();
+        double isotopeMass = Atom.C.getDifferenceToMonoisotopic(1);
+
+        for (int i = 0; i < 200; i++) {
+
+            double queryMass = 500 + 5000 * random.nextDouble();
+            boolean ppm = i % 2 == 0;
+            double tolerance = ppm ? 10000 : 2.0;
+            double massTolerance = ppm ? tolerance * queryMass / 1000000 : tolerance;
+
+            HashSet<String> expected = new HashSet<String>();
+            for (int spectrumIndex : precursorMzMap.keySet()) {
+                double mz = precursorMzMap.get(spectrumIndex);
+                for (int charge = minCharge; charge <= maxCharge; charge++) {
+                    for (int isotope = minIsotope; isotope <= maxIsotope; isotope++) {
+                        double mass = (mz - protonMass) * charge - isotope * isotopeMass;
+                        if (Math.abs(mass - queryMass) <= massTolerance) {
+                            expected.add(spectrumIndex + "_" + charge + "_" + isotope);
+                        }
+                    }
+                }
+            }
+
+            HashSet<String> found = new HashSet<String>();
+            int end = precursorMassIndex.getUpperBound(queryMass, tolerance, ppm);
+            for (int j = precursorMassIndex.getLowerBound(queryMass, tolerance, ppm); j < end; j++) {
+                found.add(precursorMassIndex.getSpectrumIndex(j) + "_" + precursorMassIndex.getCharge(j) + "_" + precursorMassIndex.getIsotope(j));
+            }
+
+            Assert.assertEquals(expected, found);
+        }
+    }
+}
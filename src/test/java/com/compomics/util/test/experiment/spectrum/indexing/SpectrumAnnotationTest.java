@@ -1,9 +1,29 @@
 package com.compomics.util.test.experiment.spectrum.indexing;
 
+import com.compomics.util.experiment.biology.Ion;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.NeutralLossesMap;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationSettings;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.ConcurrentPeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
@@ -60,6 +80,156 @@ public class SpectrumAnnotationTest extends TestCase {
         
     } 
 
+    /**
+     * Tests the matching of peaks using a buffer against a brute force
+     * search.
+     */
+    public void testMatchingPeaksBuffer() {
+
+        Random random = new Random(42);
+        HashMap<Double, Peak> peakList = new HashMap<Double, Peak>();
+        for (int i = 0; i < 2000; i++) {
+            double mz = 100 + 1900 * random.nextDouble();
+            peakList.put(mz, new Peak(mz, random.nextDouble()));
+        }
+
+        double[][] tolerances = {{0.02, 0.0}, {0.5, 0.0}, {10.0, 1.0}, {20.0, 1.0}};
+        for (double[] tolerance : tolerances) {
+            boolean ppm = tolerance[1] == 1.0;
+            SpectrumIndex spectrumIndex = new SpectrumIndex(peakList, 0.1, tolerance[0], ppm);
+            int[] buffer = new int[spectrumIndex.getMaxMatches()];
+            for (int i = 1; i < spectrumIndex.getNPeaks(); i++) {
+                Assert.assertTrue(spectrumIndex.getMz(i - 1) < spectrumIndex.getMz(i));
+            }
+            for (int i = 0; i < 1000; i++) {
+                double mz = 90 + 1920 * random.nextDouble();
+                int nMatches = spectrumIndex.getMatchingPeaks(mz, buffer);
+                int expected = 0;
+                for (Peak peak : peakList.values()) {
+                    double error = ppm ? 1000000 * (peak.mz - mz) / mz : peak.mz - mz;
+                    if (peak.intensity >= 0.1 && Math.abs(error) <= tolerance[0]) {
+                        expected++;
+                    }
+                }
+                Assert.assertEquals(expected, nMatches);
+                Assert.assertEquals(expected, spectrumIndex.getMatchingPeaks(mz).size());
+                for (int j = 0; j < nMatches; j++) {
+                    Peak peak = spectrumIndex.getPeak(buffer[j]);
+                    Assert.assertEquals(peak.mz, spectrumIndex.getMz(buffer[j]));
+                    Assert.assertEquals(peak.intensity, spectrumIndex.getIntensity(buffer[j]));
+                }
+            }
+            int nPeaks = 0;
+            for (Integer bin : spectrumIndex.getRawBins()) {
+                nPeaks += spectrumIndex.getPeaksInBin(bin).size();
+            }
+            Assert.assertEquals(spectrumIndex.getNPeaks(), nPeaks);
+        }
+    }
+
+    /**
+     * Tests that the concurrent peptide spectrum annotator used by multiple
+     * threads gives the same annotation as the peptide spectrum annotator.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testConcurrentAnnotation() throws Exception {
+
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWY";
+        Random random = new Random(42);
+        int nSpectra = 40;
+
+        final ArrayList<Peptide> peptides = new ArrayList<Peptide>(nSpectra);
+        final ArrayList<MSnSpectrum> spectra = new ArrayList<MSnSpectrum>(nSpectra);
+        final ArrayList<SpecificAnnotationSettings> specificSettings = new ArrayList<SpecificAnnotationSettings>(nSpectra);
+
+        for (int i = 0; i < nSpectra; i++) {
+
+            StringBuilder sequence = new StringBuilder();
+            int length = 7 + random.nextInt(15);
+            for (int j = 0; j < length; j++) {
+                sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+            }
+            Peptide peptide = new Peptide(sequence.toString(), new ArrayList<ModificationMatch>());
+            int charge = 1 + random.nextInt(3);
+
+            SpecificAnnotationSettings specificAnnotationSettings = new SpecificAnnotationSettings("spectrum " + i, new PeptideAssumption(peptide, new Charge(Charge.PLUS, charge)));
+            specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.B_ION);
+            specificAnnotationSettings.addIonType(Ion.IonType.PEPTIDE_FRAGMENT_ION, PeptideFragmentIon.Y_ION);
+            specificAnnotationSettings.addIonType(Ion.IonType.PRECURSOR_ION);
+            specificAnnotationSettings.addIonType(Ion.IonType.IMMONIUM_ION);
+            specificAnnotationSettings.setNeutralLossesMap(new NeutralLossesMap());
+            for (int selectedCharge = 1; selectedCharge < Math.max(charge, 2); selectedCharge++) {
+                specificAnnotationSettings.addSelectedCharge(selectedCharge);
+            }
+            specificAnnotationSettings.setFragmentIonAccuracy(i % 2 == 0 ? 0.02 : 10.0);
+            specificAnnotationSettings.setFragmentIonPpm(i % 2 != 0);
+
+            HashMap<Double, Peak> peakList = new HashMap<Double, Peak>();
+            for (int j = 0; j < 300; j++) {
+                double mz = 50 + 2000 * random.nextDouble();
+                peakList.put(mz, new Peak(mz, random.nextInt(5)));
+            }
+            for (ArrayList<Ion> ions : new PeptideSpectrumAnnotator().getExpectedIons(specificAnnotationSettings, peptide).values()) {
+                for (Ion ion : ions) {
+                    if (random.nextBoolean()) {
+                        double mz = ion.getTheoreticMz(1) + 0.005 * random.nextGaussian();
+                        peakList.put(mz, new Peak(mz, random.nextInt(5)));
+                        mz = ion.getTheoreticMz(1) + 0.005 * random.nextGaussian();
+                        peakList.put(mz, new Peak(mz, random.nextInt(5)));
+                    }
+                }
+            }
+
+            peptides.add(peptide);
+            spectra.add(new MSnSpectrum(2, new Precursor(0.0, 500.0, new ArrayList<Charge>()), "spectrum " + i, peakList, "test.mgf"));
+            specificSettings.add(specificAnnotationSettings);
+        }
+
+        for (SpectrumAnnotator.TiesResolution tiesResolution : SpectrumAnnotator.TiesResolution.values()) {
+
+            final AnnotationSettings annotationSettings = new AnnotationSettings();
+            annotationSettings.setTiesResolution(tiesResolution);
+
+            PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+            ArrayList<ArrayList<IonMatch>> expectedAnnotations = new ArrayList<ArrayList<IonMatch>>(nSpectra);
+            for (int i = 0; i < nSpectra; i++) {
+                expectedAnnotations.add(peptideSpectrumAnnotator.getSpectrumAnnotation(annotationSettings, specificSettings.get(i), spectra.get(i), peptides.get(i), false));
+            }
+
+            final ConcurrentPeptideSpectrumAnnotator concurrentAnnotator = new ConcurrentPeptideSpectrumAnnotator();
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            ArrayList<Future<ArrayList<IonMatch>>> futures = new ArrayList<Future<ArrayList<IonMatch>>>(nSpectra);
+            for (int i = 0; i < nSpectra; i++) {
+                final int index = i;
+                futures.add(pool.submit(new Callable<ArrayList<IonMatch>>() {
+                    @Override
+                    public ArrayList<IonMatch> call() throws Exception {
+                        ConcurrentPeptideSpectrumAnnotator.SpectrumContext spectrumContext = concurrentAnnotator.getSpectrumContext(annotationSettings, specificSettings.get(index), spectra.get(index), false);
+                        return concurrentAnnotator.getSpectrumAnnotation(spectrumContext, specificSettings.get(index), peptides.get(index));
+                    }
+                }));
+            }
+            pool.shutdown();
+
+            int nMatches = 0;
+            for (int i = 0; i < nSpectra; i++) {
+                ArrayList<IonMatch> expected = expectedAnnotations.get(i);
+                ArrayList<IonMatch> annotation = futures.get(i).get();
+                Assert.assertEquals(expected.size(), annotation.size());
+                for (int j = 0; j < expected.size(); j++) {
+                    IonMatch expectedMatch = expected.get(j);
+                    IonMatch ionMatch = annotation.get(j);
+                    Assert.assertEquals(IonMatch.getMatchKey(expectedMatch.ion, expectedMatch.charge), IonMatch.getMatchKey(ionMatch.ion, ionMatch.charge));
+                    Assert.assertEquals(expectedMatch.peak.mz, ionMatch.peak.mz);
+                    Assert.assertEquals(expectedMatch.peak.intensity, ionMatch.peak.intensity);
+                }
+                nMatches += expected.size();
+            }
+            Assert.assertTrue(nMatches > 0);
+        }
+    }
+
     
     
 }